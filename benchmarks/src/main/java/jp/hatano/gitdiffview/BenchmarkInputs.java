@@ -0,0 +1,44 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The checked-in synthetic inputs: small.diff (one file, 65 lines), medium.diff (about
+ * 4000 lines over many files) and commits.log (2000 records of the "git log -z" format
+ * read by CommitLoader). The huge diff is the medium one repeated.
+ */
+final class BenchmarkInputs {
+    // Copies of medium.diff in the huge diff, about 100k lines
+    static final int HUGE_REPEAT = 25;
+
+    private BenchmarkInputs() {
+    }
+
+    static byte[] bytes(String name) {
+        try (InputStream in = BenchmarkInputs.class.getResourceAsStream(name)) {
+            if (in == null) throw new IllegalStateException("Missing benchmark input " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // "small", "medium" or "huge"
+    static String diff(String size) {
+        if (size.equals("huge")) {
+            String medium = diff("medium");
+            StringBuilder sb = new StringBuilder(medium.length() * HUGE_REPEAT);
+            for (int i = 0; i < HUGE_REPEAT; i++) sb.append(medium);
+            return sb.toString();
+        }
+        return new String(bytes(size + ".diff"), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package jp.hatano.gitdiffview;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the "git log" output of loadCommits into commit columns, and tokenizing them
+ * for the commit search, on 2000 records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitLogBenchmark {
+    private byte[] log;
+    private CommitStore.Columns commits;
+
+    @Setup
+    public void setUp() throws Exception {
+        log = BenchmarkInputs.bytes("commits.log");
+        commits = parse();
+    }
+
+    @Benchmark
+    public CommitStore.Columns parse() throws Exception {
+        CommitStore.Columns into = new CommitStore.Columns();
+        try (GitOutputParser parser = new GitOutputParser(new ByteArrayInputStream(log), GitOutputParser.NUL)) {
+            while (parser.next()) CommitLoader.addCommit(into, parser);
+        }
+        return into;
+    }
+
+    @Benchmark
+    public CommitSearchIndex.Part tokenize() {
+        return CommitSearchIndex.tokenize(commits);
+    }
+}
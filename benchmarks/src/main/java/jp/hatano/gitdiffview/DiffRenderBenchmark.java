@@ -0,0 +1,56 @@
+package jp.hatano.gitdiffview;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.datatransfer.DataFlavor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Showing a diff in the text pane and copying it to the clipboard, for the three input
+ * sizes. Runs headless; the pane is never displayed, so layout is not included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DiffRenderBenchmark {
+    @Param({ "small", "medium", "huge" })
+    String size;
+
+    private String diff;
+    private DiffLines lines;
+    private DiffColorTextArea area;
+    private DataFlavor htmlFlavor;
+
+    @Setup
+    public void setUp() throws Exception {
+        diff = BenchmarkInputs.diff(size);
+        lines = DiffLines.of(diff);
+        area = new DiffColorTextArea();
+        area.setDiffText(diff);
+        htmlFlavor = area.createSelection(0, 1).getTransferDataFlavors()[1];
+    }
+
+    // Splitting, classifying and building the styled document
+    @Benchmark
+    public DiffColorTextArea setDiffText() {
+        area.setDiffText(diff);
+        return area;
+    }
+
+    // Building the styled document of an already classified diff, as the worker does
+    @Benchmark
+    public DiffDocument buildDocument() {
+        return area.buildDocument(lines);
+    }
+
+    // The HTML flavor of copying the whole diff, or as much of it as is offered as HTML
+    @Benchmark
+    public Object copyHtml() throws Exception {
+        int end = Math.min(area.getDocument().getLength(), DiffColorTextArea.HtmlSelection.MAX_HTML_LENGTH);
+        DiffColorTextArea.HtmlSelection selection = area.createSelection(0, end);
+        return selection.getTransferData(htmlFlavor);
+    }
+}
@@ -0,0 +1,57 @@
+package jp.hatano.gitdiffview;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Loading and saving the repository history with a full list of ten repositories.
+ * user.home points to a temporary directory for the fork, so the real history file is
+ * left alone; it is set before RepoHistoryManager is first used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepoHistoryBenchmark {
+    private Path home;
+    private List<String> history;
+
+    @Setup
+    public void setUp() throws IOException {
+        home = Files.createTempDirectory("gitdiffview-bench");
+        System.setProperty("user.home", home.toString());
+        history = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path repo = Files.createDirectories(home.resolve("repo" + i).resolve(".git"));
+            history.add(repo.getParent().toString());
+        }
+        RepoHistoryManager.saveHistory(history, history.get(0));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(home)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<String> loadHistory() {
+        return RepoHistoryManager.loadHistory();
+    }
+
+    @Benchmark
+    public void saveHistory() {
+        RepoHistoryManager.saveHistory(history, history.get(3));
+    }
+}
@@ -1,7 +1,13 @@
 package jp.hatano.gitdiffview;
 
+import java.util.Arrays;
+
 public class App {
     public static void main(String[] args) {
+        // "export ..." runs without a display; see DiffExport
+        if (args.length > 0 && args[0].equals("export")) {
+            System.exit(DiffExport.main(Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
         GitDiffViewApp.main(args);
     }
 }
@@ -0,0 +1,61 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.JComboBox;
+import javax.swing.JList;
+import javax.swing.plaf.basic.ComboPopup;
+
+/**
+ * Commit selector over a {@link CommitComboBoxModel}.
+ *
+ * JComboBox finds the selected index by comparing every element, and its popup list
+ * measures every row unless a prototype is set; both would materialize all labels of
+ * a long history. This subclass selects by index through the model and gives the popup
+ * list a fixed cell size.
+ */
+public class CommitComboBox extends JComboBox<String> {
+    private final CommitComboBoxModel commitModel;
+    private final String prototype;
+
+    public CommitComboBox(CommitComboBoxModel model, String prototype) {
+        super(model);
+        this.commitModel = model;
+        this.prototype = prototype;
+        setPrototypeDisplayValue(prototype);
+        fixPopupCellSize();
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return commitModel.getSelectedIndex();
+    }
+
+    @Override
+    public void setSelectedIndex(int index) {
+        if (index < -1 || index >= commitModel.getSize()) {
+            throw new IllegalArgumentException("setSelectedIndex: " + index + " out of bounds");
+        }
+        commitModel.setSelectedIndex(index);
+    }
+
+    @Override
+    public void setRenderer(javax.swing.ListCellRenderer<? super String> renderer) {
+        super.setRenderer(renderer);
+        fixPopupCellSize();
+    }
+
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        fixPopupCellSize();
+    }
+
+    private void fixPopupCellSize() {
+        // Called from the super constructor before the fields are set
+        if (commitModel == null) return;
+        Object child = getAccessibleContext().getAccessibleChild(0);
+        if (child instanceof ComboPopup) {
+            JList<Object> list = ((ComboPopup) child).getList();
+            list.setPrototypeCellValue(prototype);
+        }
+    }
+}
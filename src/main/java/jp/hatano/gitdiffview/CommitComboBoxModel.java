@@ -0,0 +1,80 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+/**
+ * Virtual combo box model reading the commits of a {@link CommitStore}.
+ * Each commit selector has its own model (and selection) over the same store;
+ * labels are materialized only for the rows that are actually rendered.
+ */
+public class CommitComboBoxModel extends AbstractListModel<String> implements ComboBoxModel<String> {
+    private final CommitStore store;
+    private int selectedIndex = -1;
+    // JComboBox compares the selected item by identity, so keep the materialized label
+    private String selectedLabel;
+
+    CommitComboBoxModel(CommitStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public int getSize() {
+        return store.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index == selectedIndex) return selectedLabel;
+        return store.getLabel(index);
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        int index = -1;
+        if (item != null) {
+            if (item.equals(selectedLabel)) return;
+            // Slow path: CommitComboBox selects by index and never gets here
+            String label = item.toString();
+            for (int i = 0; i < store.size(); i++) {
+                if (store.getLabel(i).equals(label)) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        setSelectedIndex(index);
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selectedLabel;
+    }
+
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    public void setSelectedIndex(int index) {
+        if (index == selectedIndex) return;
+        selectedIndex = index;
+        selectedLabel = index < 0 ? null : store.getLabel(index);
+        fireContentsChanged(this, -1, -1);
+    }
+
+    void commitsAdded(int first, int last) {
+        fireIntervalAdded(this, first, last);
+    }
+
+    // Keep the same commit selected when commits are inserted at the top
+    void commitsInserted(int count) {
+        if (selectedIndex >= 0) selectedIndex += count;
+        fireIntervalAdded(this, 0, count - 1);
+    }
+
+    void commitsRemoved(int oldSize) {
+        selectedIndex = -1;
+        selectedLabel = null;
+        if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+}
@@ -0,0 +1,209 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped reader of the commit-graph git writes on gc and fetch: either
+ * "objects/info/commit-graph" or a split chain under "objects/info/commit-graphs".
+ *
+ * Commits are identified by their position in the graph. In a chain, positions continue
+ * from one layer to the next, the same numbering git uses for parent references. For
+ * each commit the graph holds its parents, commit time and topological level; the level
+ * is a generation number, always greater than the levels of the commit's parents.
+ */
+public class CommitGraph {
+    private static final int SIGNATURE = 0x43475048;         // "CGPH"
+    private static final int CHUNK_OID_FANOUT = 0x4f494446;  // "OIDF"
+    private static final int CHUNK_OID_LOOKUP = 0x4f49444c;  // "OIDL"
+    private static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+    private static final int CHUNK_EXTRA_EDGES = 0x45444745; // "EDGE"
+    private static final int NO_PARENT = 0x70000000;
+    private static final int EDGE_LIST = 0x80000000;
+    private static final int[] NO_PARENTS = new int[0];
+
+    /** One graph file; its positions start at base. */
+    private static final class Layer {
+        final ByteBuffer data;
+        final int base;
+        final int count;
+        final int fanout;
+        final int lookup;
+        final int commits;
+        final int edges;
+
+        Layer(ByteBuffer data, int base, int count, int fanout, int lookup, int commits, int edges) {
+            this.data = data;
+            this.base = base;
+            this.count = count;
+            this.fanout = fanout;
+            this.lookup = lookup;
+            this.commits = commits;
+            this.edges = edges;
+        }
+    }
+
+    private final Layer[] layers;
+    private final int hashLength;
+    private final int size;
+
+    private CommitGraph(Layer[] layers, int hashLength) {
+        this.layers = layers;
+        this.hashLength = hashLength;
+        Layer top = layers[layers.length - 1];
+        this.size = top.base + top.count;
+    }
+
+    // The graph of the object directory, or null if git has not written one
+    static CommitGraph open(Path objectsDir, int hashLength) throws IOException {
+        Path single = objectsDir.resolve("info/commit-graph");
+        if (Files.isRegularFile(single)) {
+            return new CommitGraph(new Layer[] { readLayer(single, 0, hashLength) }, hashLength);
+        }
+        Path chainDir = objectsDir.resolve("info/commit-graphs");
+        Path chain = chainDir.resolve("commit-graph-chain");
+        if (!Files.isRegularFile(chain)) return null;
+        List<Layer> layers = new ArrayList<>();
+        int base = 0;
+        // Base layer first
+        for (String line : new String(Files.readAllBytes(chain), StandardCharsets.US_ASCII).split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            Layer layer = readLayer(chainDir.resolve("graph-" + line + ".graph"), base, hashLength);
+            layers.add(layer);
+            base += layer.count;
+        }
+        return layers.isEmpty() ? null : new CommitGraph(layers.toArray(new Layer[0]), hashLength);
+    }
+
+    // Files that tell whether the graph was rewritten
+    static Path[] stampFiles(Path objectsDir) {
+        return new Path[] { objectsDir.resolve("info/commit-graph"), objectsDir.resolve("info/commit-graphs/commit-graph-chain") };
+    }
+
+    private static Layer readLayer(Path file, int base, int hashLength) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Commit graph too large: " + file);
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.capacity() < 8 || data.getInt(0) != SIGNATURE || data.get(4) != 1) {
+            throw new IOException("Unsupported commit graph " + file);
+        }
+        int fileHashLength = data.get(5) == 2 ? 32 : 20;
+        if (fileHashLength != hashLength) throw new IOException("Commit graph uses another hash: " + file);
+        int chunks = data.get(6) & 0xff;
+        int fanout = -1;
+        int lookup = -1;
+        int commits = -1;
+        int edges = -1;
+        for (int i = 0; i < chunks; i++) {
+            int entry = 8 + i * 12;
+            int id = data.getInt(entry);
+            long offset = data.getLong(entry + 4);
+            if (offset < 0 || offset > data.capacity()) throw new IOException("Corrupt commit graph " + file);
+            if (id == CHUNK_OID_FANOUT) fanout = (int) offset;
+            else if (id == CHUNK_OID_LOOKUP) lookup = (int) offset;
+            else if (id == CHUNK_COMMIT_DATA) commits = (int) offset;
+            else if (id == CHUNK_EXTRA_EDGES) edges = (int) offset;
+        }
+        if (fanout < 0 || lookup < 0 || commits < 0) throw new IOException("Incomplete commit graph " + file);
+        int count = data.getInt(fanout + 255 * 4);
+        if (count < 0 || (long) commits + (long) count * (hashLength + 16) > data.capacity()) {
+            throw new IOException("Truncated commit graph " + file);
+        }
+        return new Layer(data, base, count, fanout, lookup, commits, edges);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Position of the commit, or -1 if the graph does not have it
+    public int find(byte[] id) {
+        int first = id[0] & 0xff;
+        for (Layer layer : layers) {
+            ByteBuffer data = layer.data;
+            int lo = first == 0 ? 0 : data.getInt(layer.fanout + (first - 1) * 4);
+            int hi = data.getInt(layer.fanout + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(data, layer.lookup + mid * hashLength, id);
+                if (cmp == 0) return layer.base + mid;
+                if (cmp < 0) lo = mid + 1;
+                else hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(ByteBuffer data, int at, byte[] id) {
+        for (int i = 0; i < hashLength; i++) {
+            int diff = (data.get(at + i) & 0xff) - (id[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    private Layer layer(int pos) {
+        for (int i = layers.length - 1; i >= 0; i--) {
+            if (pos >= layers[i].base) return layers[i];
+        }
+        throw new IndexOutOfBoundsException("Commit graph position " + pos);
+    }
+
+    public String getId(int pos) {
+        Layer layer = layer(pos);
+        byte[] id = new byte[hashLength];
+        for (int i = 0; i < hashLength; i++) id[i] = layer.data.get(layer.lookup + (pos - layer.base) * hashLength + i);
+        return ObjectDatabase.toHex(id);
+    }
+
+    private int commitData(Layer layer, int pos) {
+        return layer.commits + (pos - layer.base) * (hashLength + 16);
+    }
+
+    // Positions of the parents, first parent first
+    public int[] getParents(int pos) {
+        Layer layer = layer(pos);
+        int at = commitData(layer, pos) + hashLength;
+        int first = layer.data.getInt(at);
+        int second = layer.data.getInt(at + 4);
+        if (first == NO_PARENT) return NO_PARENTS;
+        if (second == NO_PARENT) return new int[] { first };
+        if ((second & EDGE_LIST) == 0) return new int[] { first, second };
+        // Octopus merges list the second and later parents in the extra edges chunk
+        List<Integer> rest = new ArrayList<>();
+        int edge = layer.edges + (second & ~EDGE_LIST) * 4;
+        while (true) {
+            int value = layer.data.getInt(edge);
+            rest.add(value & ~EDGE_LIST);
+            if ((value & EDGE_LIST) != 0) break;
+            edge += 4;
+        }
+        int[] parents = new int[rest.size() + 1];
+        parents[0] = first;
+        for (int i = 0; i < rest.size(); i++) parents[i + 1] = rest.get(i);
+        return parents;
+    }
+
+    // Topological level: 1 for root commits, otherwise one more than the highest parent
+    public int getGeneration(int pos) {
+        Layer layer = layer(pos);
+        return layer.data.getInt(commitData(layer, pos) + hashLength + 8) >>> 2;
+    }
+
+    // Committer time in seconds since the epoch
+    public long getCommitTime(int pos) {
+        Layer layer = layer(pos);
+        int at = commitData(layer, pos) + hashLength + 8;
+        return ((long) (layer.data.getInt(at) & 3) << 32) | (layer.data.getInt(at + 4) & 0xffffffffL);
+    }
+}
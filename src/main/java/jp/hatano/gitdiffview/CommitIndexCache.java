@@ -0,0 +1,151 @@
+package jp.hatano.gitdiffview;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * On-disk commit index per repository and branch, stored in ~/.gitdiffview_commit_index
+ * next to the repository history file. Each index records the branch tip it was built
+ * from, so reloading a branch whose tip has not moved needs no "git log" at all.
+ */
+public class CommitIndexCache {
+    private static final Logger LOGGER = Logger.getLogger(CommitIndexCache.class.getName());
+    private static Path cacheDir = Paths.get(System.getProperty("user.home"), ".gitdiffview_commit_index");
+    private static final int MAGIC = 0x47445649; // "GDVI"
+    // Version 2 added author names and times
+    private static final int VERSION = 2;
+    private static final int MAX_INDEX_FILES = 50;
+
+    // Commits read from an index together with the tip they were built from
+    public static class Entry {
+        public final String tip;
+        public final CommitStore.Batch commits;
+
+        Entry(String tip, CommitStore.Batch commits) {
+            this.tip = tip;
+            this.commits = commits;
+        }
+    }
+
+    // Used by tests to keep indexes out of the home directory
+    static void setCacheDirectory(Path dir) {
+        cacheDir = dir;
+    }
+
+    public static boolean exists(String repoPath, String branch) {
+        return Files.isRegularFile(indexFile(repoPath, branch));
+    }
+
+    // Load the index of the branch, or null if there is none or it cannot be read
+    public static Entry load(String repoPath, String branch) {
+        Path file = indexFile(repoPath, branch);
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // read fully
+            }
+            buf.flip();
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            int hashLength = buf.getInt();
+            byte[] tipHash = new byte[hashLength];
+            buf.get(tipHash);
+            int count = buf.getInt();
+            byte[] hashes = new byte[count * hashLength];
+            buf.get(hashes);
+            long[] times = new long[count];
+            buf.asLongBuffer().get(times);
+            buf.position(buf.position() + count * 8);
+            int[] subjectEnds = readEnds(buf, count);
+            byte[] subjects = new byte[buf.getInt()];
+            buf.get(subjects);
+            int[] authorEnds = readEnds(buf, count);
+            byte[] authors = new byte[buf.getInt()];
+            buf.get(authors);
+            return new Entry(toHex(tipHash), CommitStore.Columns.wrap(hashLength, count, hashes, times, subjectEnds, subjects, authorEnds, authors));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load commit index " + file, e);
+            return null;
+        }
+    }
+
+    private static int[] readEnds(ByteBuffer buf, int count) {
+        int[] ends = new int[count];
+        buf.asIntBuffer().get(ends);
+        buf.position(buf.position() + count * 4);
+        return ends;
+    }
+
+    // Save the commits of the branch, newest first, as built from the given tip
+    public static void save(String repoPath, String branch, String tip, CommitStore.Columns commits) {
+        Path file = indexFile(repoPath, branch);
+        try {
+            Files.createDirectories(cacheDir);
+            Path tmp = Files.createTempFile(cacheDir, "index", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                byte[] tipHash = fromHex(tip);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(tipHash.length);
+                out.write(tipHash);
+                commits.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            pruneOldIndexes();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save commit index " + file, e);
+        }
+    }
+
+    // Keep only the most recently written indexes
+    private static void pruneOldIndexes() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(cacheDir)) {
+            s.filter(p -> p.getFileName().toString().endsWith(".idx")).forEach(files::add);
+        }
+        if (files.size() <= MAX_INDEX_FILES) return;
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path p : files) modified.put(p, Files.getLastModifiedTime(p).toMillis());
+        files.sort((a, b) -> Long.compare(modified.get(b), modified.get(a)));
+        for (Path p : files.subList(MAX_INDEX_FILES, files.size())) Files.deleteIfExists(p);
+    }
+
+    static Path indexFile(String repoPath, String branch) {
+        String repo = repoPath;
+        try {
+            repo = new File(repoPath).getCanonicalPath();
+        } catch (IOException e) {
+            // use the path as given
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest((repo + "\0" + branch).getBytes(StandardCharsets.UTF_8));
+            return cacheDir.resolve(toHex(digest) + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((CommitStore.hexValue((byte) hex.charAt(2 * i)) << 4) | CommitStore.hexValue((byte) hex.charAt(2 * i + 1)));
+        }
+        return bytes;
+    }
+}
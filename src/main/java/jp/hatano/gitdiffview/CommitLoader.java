@@ -0,0 +1,215 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the commits of a branch on a worker thread.
+ *
+ * Commits are taken from the {@link CommitIndexCache} first so they can be shown at once;
+ * the branch tip is then checked and only the commits added since the cached tip are
+ * fetched with "git log oldTip..newTip". When the cached tip is no longer an ancestor of
+ * the branch (history was rewritten) the whole history is streamed again. A git run that
+ * fails fails the load with git's message, and the index is only saved after a clean run.
+ */
+public class CommitLoader {
+    private static final Logger LOGGER = Logger.getLogger(CommitLoader.class.getName());
+    // First batch is published quickly so the newest commits can be picked right away,
+    // later batches grow so that the EDT is not flooded on long histories
+    private static final int FIRST_BATCH = 200;
+    private static final int MAX_BATCH = 20000;
+    private static final long BATCH_INTERVAL_MS = 100;
+    // With -z, one NUL separated record per commit: hex id, author time, author name and
+    // subject, separated by unit separators
+    private static final String LOG_FORMAT = "--pretty=format:%H%x1f%at%x1f%an%x1f%s";
+
+    // Receives commits in display order; called on the worker thread
+    public interface Sink {
+        // Discard commits published so far
+        void reset();
+
+        void append(CommitStore.Batch batch);
+
+        // Commits newer than all published ones
+        void prepend(CommitStore.Batch batch);
+    }
+
+    private final GitTaskScheduler.TaskContext ctx;
+    private final String repoPath;
+    private final String branch;
+    private final ObjectDatabase odb;
+
+    public CommitLoader(GitTaskScheduler.TaskContext ctx, String repoPath, String branch) {
+        this(ctx, repoPath, branch, null);
+    }
+
+    // With an object database, ancestry is checked without running git
+    public CommitLoader(GitTaskScheduler.TaskContext ctx, String repoPath, String branch, ObjectDatabase odb) {
+        this.ctx = ctx;
+        this.repoPath = repoPath;
+        this.branch = branch;
+        this.odb = odb;
+    }
+
+    // Returns the number of commits of the branch
+    public int load(Sink sink) throws IOException, InterruptedException {
+        CommitIndexCache.Entry cached = CommitIndexCache.load(repoPath, branch);
+        if (cached != null) sink.append(cached.commits);
+        String tip = resolveTip();
+        if (tip == null) {
+            // Unknown branch: git log fails with its usual message
+            if (cached != null) sink.reset();
+            return streamLog(sink, new CommitStore.Columns(), branch);
+        }
+        if (cached == null) return reload(sink, tip);
+        return advance(sink, cached, tip);
+    }
+
+    /**
+     * Bring the published commits up to date after the branch moved. shownTip is the
+     * newest commit the sink already has; when it is still part of the branch only the
+     * newer commits are prepended, otherwise the sink is reset and everything reloaded.
+     */
+    public int update(String shownTip, Sink sink) throws IOException, InterruptedException {
+        String tip = resolveTip();
+        if (tip == null) return 0;
+        CommitIndexCache.Entry cached = CommitIndexCache.load(repoPath, branch);
+        if (cached == null || !cached.tip.equals(shownTip)) {
+            // The index no longer describes what is shown
+            sink.reset();
+            return reload(sink, tip);
+        }
+        return advance(sink, cached, tip);
+    }
+
+    // The sink holds the cached commits; add what is new since the cached tip
+    private int advance(Sink sink, CommitIndexCache.Entry cached, String tip) throws IOException, InterruptedException {
+        if (tip.equals(cached.tip)) {
+            return cached.commits.size();
+        }
+        if (isAncestor(cached.tip, tip)) {
+            CommitStore.Batch added = new CommitStore.Batch();
+            readLog(added, cached.tip + ".." + tip);
+            sink.prepend(added);
+            // Published batches belong to the EDT now, so merge into a new buffer
+            CommitStore.Columns all = new CommitStore.Columns();
+            all.addAll(added);
+            all.addAll(cached.commits);
+            CommitIndexCache.save(repoPath, branch, tip, all);
+            return all.size();
+        }
+        sink.reset();
+        return reload(sink, tip);
+    }
+
+    private int reload(Sink sink, String tip) throws IOException, InterruptedException {
+        CommitStore.Columns all = new CommitStore.Columns();
+        int total = streamLog(sink, all, tip);
+        ctx.checkCancelled();
+        if (total > 0) CommitIndexCache.save(repoPath, branch, tip, all);
+        return total;
+    }
+
+    // Stream "git log" in growing batches, also collecting all commits for the index
+    private int streamLog(Sink sink, CommitStore.Columns all, String revision) throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "log", revision, "-z", LOG_FORMAT);
+        int total = 0;
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), GitOutputParser.NUL)) {
+            CommitStore.Batch batch = new CommitStore.Batch();
+            int batchLimit = FIRST_BATCH;
+            long lastPublish = System.currentTimeMillis();
+            while (parser.next()) {
+                ctx.checkCancelled();
+                addCommit(batch, parser);
+                long now = System.currentTimeMillis();
+                if (batch.size() >= batchLimit || now - lastPublish >= BATCH_INTERVAL_MS) {
+                    total += batch.size();
+                    all.addAll(batch);
+                    sink.append(batch);
+                    ctx.setDescription("Loading commits of " + branch + " (" + total + ")");
+                    batch = new CommitStore.Batch();
+                    batchLimit = Math.min(batchLimit * 2, MAX_BATCH);
+                    lastPublish = now;
+                }
+            }
+            // Whatever a failed run printed may be incomplete
+            checkExit(proc, "git log " + revision);
+            total += batch.size();
+            all.addAll(batch);
+            sink.append(batch);
+        }
+        return total;
+    }
+
+    private void readLog(CommitStore.Columns into, String range) throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "log", range, "-z", LOG_FORMAT);
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), GitOutputParser.NUL)) {
+            while (parser.next()) {
+                ctx.checkCancelled();
+                addCommit(into, parser);
+            }
+        }
+        checkExit(proc, "git log " + range);
+    }
+
+    // Wait for git to exit; a failure is thrown with what git printed to stderr
+    private void checkExit(Process proc, String command) throws IOException, InterruptedException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        // Read stderr before waiting so git never blocks on a full pipe
+        try (InputStream in = proc.getErrorStream()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) err.write(buf, 0, n);
+        }
+        int status = proc.waitFor();
+        ctx.checkCancelled();
+        if (status == 0) return;
+        String message = new String(err.toByteArray(), StandardCharsets.UTF_8).trim();
+        throw new IOException(command + " failed" + (message.isEmpty() ? " with exit code " + status : ": " + message));
+    }
+
+    // The author and subject bytes go into the store as they are; they are decoded when a row is shown
+    static void addCommit(CommitStore.Columns into, GitOutputParser parser) {
+        byte[] data = parser.array();
+        int us1 = parser.indexOf(GitOutputParser.US, parser.start());
+        int us2 = us1 < 0 ? -1 : parser.indexOf(GitOutputParser.US, us1 + 1);
+        int us3 = us2 < 0 ? -1 : parser.indexOf(GitOutputParser.US, us2 + 1);
+        if (us3 < 0) {
+            // Only the id
+            int idEnd = us1 < 0 ? parser.end() : us1;
+            into.add(data, parser.start(), idEnd - parser.start(), 0, data, 0, 0, data, 0, 0);
+            return;
+        }
+        long time = 0;
+        for (int i = us1 + 1; i < us2; i++) time = time * 10 + (data[i] - '0');
+        // The subject is last, so unit separators in it stay part of it
+        into.add(data, parser.start(), us1 - parser.start(), time, data, us2 + 1, us3 - us2 - 1, data, us3 + 1, parser.end() - us3 - 1);
+    }
+
+    private String resolveTip() throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "rev-parse", "--verify", "-q", branch + "^{commit}");
+        String tip = null;
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), (byte) '\n')) {
+            if (parser.next()) tip = parser.string(StandardCharsets.US_ASCII);
+        }
+        if (proc.waitFor() != 0 || tip == null) return null;
+        tip = tip.trim();
+        return tip.isEmpty() ? null : tip;
+    }
+
+    private boolean isAncestor(String ancestor, String descendant) throws IOException, InterruptedException {
+        if (odb != null) {
+            try {
+                return new MergeBase(odb).isAncestor(ancestor, descendant);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "In-process ancestry check failed, running git merge-base", e);
+            }
+        }
+        Process proc = ctx.startGit(repoPath, "merge-base", "--is-ancestor", ancestor, descendant);
+        return proc.waitFor() == 0;
+    }
+}
@@ -0,0 +1,221 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.AbstractListModel;
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Window;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * Finds a commit of a {@link CommitStore} by id prefix, subject and author words or date
+ * and selects it in a commit selector. Each keystroke runs one {@link CommitStore#search};
+ * the result list only materializes the rows it shows. While commits are loading the
+ * search is repeated at most every {@value #REFRESH_DELAY_MS} ms, keeping the selected
+ * commit selected.
+ */
+public class CommitSearchDialog extends JDialog {
+    private static final int REFRESH_DELAY_MS = 200;
+
+    private final CommitStore store;
+    private final CommitComboBoxModel target;
+    private final JTextField queryField = new JTextField();
+    private final ResultModel results = new ResultModel();
+    private final JList<String> resultList = new JList<>(results);
+    private final JLabel countLabel = new JLabel();
+    private final Timer refreshTimer = new Timer(REFRESH_DELAY_MS, e -> refresh());
+    // Id of the selected commit, followed across refreshes
+    private String selectedId;
+    private boolean refreshing;
+    // Searches again while commits are still loading or the branch moves
+    private final ListDataListener storeListener = new ListDataListener() {
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            // Commits inserted at the top move the listed rows down
+            if (e.getIndex0() == 0) results.shift(e.getIndex1() + 1);
+            if (!refreshTimer.isRunning()) refreshTimer.start();
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            // The listed rows are gone
+            refreshTimer.stop();
+            refresh();
+        }
+
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            // Selection changes only
+        }
+    };
+
+    // Rows of the store matching the query, newest first
+    private final class ResultModel extends AbstractListModel<String> {
+        private int[] rows = new int[0];
+
+        void setRows(int[] rows) {
+            int old = this.rows.length;
+            this.rows = rows;
+            if (old > 0) fireIntervalRemoved(this, 0, old - 1);
+            if (rows.length > 0) fireIntervalAdded(this, 0, rows.length - 1);
+        }
+
+        void shift(int count) {
+            if (rows.length == 0) return;
+            for (int i = 0; i < rows.length; i++) rows[i] += count;
+            fireContentsChanged(this, 0, rows.length - 1);
+        }
+
+        int getRow(int index) {
+            return rows[index];
+        }
+
+        @Override
+        public int getSize() {
+            return rows.length;
+        }
+
+        // "abbrev  yyyy-mm-dd  author  subject"
+        @Override
+        public String getElementAt(int index) {
+            int row = rows[index];
+            StringBuilder sb = new StringBuilder();
+            sb.append(store.getId(row), 0, 10).append("  ");
+            long time = store.getTime(row);
+            if (time != 0) sb.append(Instant.ofEpochSecond(time).atZone(ZoneId.systemDefault()).toLocalDate()).append("  ");
+            String author = store.getAuthor(row);
+            if (!author.isEmpty()) sb.append(author).append("  ");
+            return sb.append(store.getSubject(row)).toString();
+        }
+    }
+
+    public CommitSearchDialog(Window owner, String title, CommitStore store, CommitComboBoxModel target) {
+        super(owner, title, ModalityType.MODELESS);
+        this.store = store;
+        this.target = target;
+        queryField.setToolTipText("Commit id prefix, words of the subject or author, or a date like 2024-05");
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultList.addListSelectionListener(e -> {
+            if (refreshing) return;
+            int index = resultList.getSelectedIndex();
+            selectedId = index < 0 ? null : store.getId(results.getRow(index));
+        });
+        refreshTimer.setRepeats(false);
+        // Fixed row size so the list never measures all rows
+        resultList.setPrototypeCellValue("0123456789  2000-01-01  Prototype Author  A typical commit subject of some length");
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        });
+        // Up and down move through the results while typing, Enter picks, Escape closes
+        queryField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int size = results.getSize();
+                int index = resultList.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && size > 0) {
+                    select(Math.min(size - 1, index + 1));
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_UP && size > 0) {
+                    select(Math.max(0, index - 1));
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    pick();
+                }
+            }
+        });
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) pick();
+            }
+        });
+        getRootPane().registerKeyboardAction(e -> dispose(), KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+            JComponent.WHEN_IN_FOCUSED_WINDOW);
+        countLabel.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        add(queryField, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+        add(countLabel, BorderLayout.SOUTH);
+        setSize(new Dimension(640, 420));
+        setLocationRelativeTo(owner);
+        target.addListDataListener(storeListener);
+        search();
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        target.removeListDataListener(storeListener);
+        super.dispose();
+    }
+
+    // The query changed: show its results from the first one
+    private void search() {
+        refreshTimer.stop();
+        showResults();
+        if (results.getSize() > 0) select(0);
+    }
+
+    // The commits changed: search again, staying on the selected commit if it is still found
+    private void refresh() {
+        refreshing = true;
+        try {
+            showResults();
+            int index = -1;
+            for (int i = 0; selectedId != null && i < results.getSize() && index < 0; i++) {
+                if (store.hasId(results.getRow(i), selectedId)) index = i;
+            }
+            if (index < 0 && results.getSize() > 0) index = 0;
+            if (index >= 0) select(index);
+        } finally {
+            refreshing = false;
+        }
+    }
+
+    private void showResults() {
+        results.setRows(store.search(queryField.getText()));
+        countLabel.setText(results.getSize() + " of " + store.size() + " commits");
+    }
+
+    private void select(int index) {
+        resultList.setSelectedIndex(index);
+        resultList.ensureIndexIsVisible(index);
+    }
+
+    private void pick() {
+        int index = resultList.getSelectedIndex();
+        if (index < 0) return;
+        target.setSelectedIndex(results.getRow(index));
+        dispose();
+    }
+}
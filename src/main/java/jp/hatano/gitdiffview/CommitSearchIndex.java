@@ -0,0 +1,284 @@
+package jp.hatano.gitdiffview;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the commits of a {@link CommitStore}: for every lower-cased word of
+ * the subjects and author names, and every author date, the ascending list of commits
+ * containing it, kept in a plain int array.
+ *
+ * Batches are tokenized where they are parsed ({@link #tokenize}) and merged in on the
+ * EDT by appending to the lists. Commits are numbered so that appended (older) commits
+ * get higher numbers and prepended (newer) ones lower numbers, so every list stays
+ * sorted and the row of a commit is its number minus the number of row 0.
+ * A query word is looked up as a prefix in the sorted dictionary; the lists of several
+ * query words are intersected, smallest first. Chinese and Japanese text has no spaces
+ * between words, so it is indexed as overlapping pairs of characters; a query then
+ * matches commits containing all of its pairs, not necessarily next to each other.
+ * Must only be used on the Event Dispatch Thread, except for tokenize.
+ */
+public class CommitSearchIndex {
+    // Hexadecimal query words at least this long also match commit ids
+    private static final int MIN_ID_PREFIX = 4;
+
+    // Growable sorted list of commit numbers
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) return;
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+
+        void addAll(Postings part, int base) {
+            if (size + part.size > docs.length) docs = Arrays.copyOf(docs, Math.max(size + part.size, size * 2));
+            for (int i = 0; i < part.size; i++) docs[size++] = base + part.docs[i];
+        }
+
+        void insertAll(Postings part, int base) {
+            int[] merged = new int[Math.max(4, size + part.size)];
+            for (int i = 0; i < part.size; i++) merged[i] = base + part.docs[i];
+            System.arraycopy(docs, 0, merged, part.size, size);
+            docs = merged;
+            size += part.size;
+        }
+    }
+
+    /** Terms of one batch of commits, with positions within the batch. */
+    public static final class Part {
+        private final Map<String, Postings> terms = new HashMap<>();
+    }
+
+    private final TreeMap<String, Postings> dictionary = new TreeMap<>();
+    // Number of the commit in row 0, and one past the number of the last row
+    private int firstDoc;
+    private int endDoc;
+
+    // Words of the subjects and authors and the author dates of the commits
+    public static Part tokenize(CommitStore.Columns commits) {
+        Part part = new Part();
+        ZoneId zone = ZoneId.systemDefault();
+        // Neighboring commits mostly share a day, so the last day's bounds are kept
+        String date = null;
+        long dayStart = 0;
+        long dayEnd = 0;
+        for (int i = 0; i < commits.size(); i++) {
+            addWords(part, i, commits.getSubject(i));
+            addWords(part, i, commits.getAuthor(i));
+            long time = commits.getTime(i);
+            if (time == 0) continue;
+            if (date == null || time < dayStart || time >= dayEnd) {
+                LocalDate day = Instant.ofEpochSecond(time).atZone(zone).toLocalDate();
+                date = day.toString();
+                dayStart = day.atStartOfDay(zone).toEpochSecond();
+                dayEnd = day.plusDays(1).atStartOfDay(zone).toEpochSecond();
+            }
+            addTerm(part, i, date);
+        }
+        return part;
+    }
+
+    private static void addWords(Part part, int position, String text) {
+        for (String word : words(text, false)) addTerm(part, position, word);
+    }
+
+    private static void addTerm(Part part, int position, String term) {
+        Postings postings = part.terms.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            part.terms.put(term, postings);
+        }
+        postings.add(position);
+    }
+
+    /**
+     * Lower-cased runs of letters and digits. A run of Chinese or Japanese characters
+     * gives its overlapping character pairs and, unless tokenizing a query, its last
+     * character alone, so that every character starts some term and a one character
+     * query finds it by prefix.
+     */
+    static List<String> words(String text, boolean query) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        boolean cjk = false;
+        for (int i = 0; i <= text.length(); ) {
+            int c = i < text.length() ? text.codePointAt(i) : -1;
+            boolean inWord = c >= 0 && Character.isLetterOrDigit(c);
+            if (start >= 0 && (!inWord || isCjk(c) != cjk)) {
+                if (cjk) {
+                    addPairs(words, text, start, i, query);
+                } else {
+                    words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+            if (inWord && start < 0) {
+                start = i;
+                cjk = isCjk(c);
+            }
+            i += c >= 0 ? Character.charCount(c) : 1;
+        }
+        return words;
+    }
+
+    private static void addPairs(List<String> words, String text, int start, int end, boolean query) {
+        for (int i = start; ; ) {
+            int next = i + Character.charCount(text.codePointAt(i));
+            if (next >= end) {
+                if (!query || i == start) words.add(text.substring(i, end));
+                return;
+            }
+            words.add(text.substring(i, next + Character.charCount(text.codePointAt(next))));
+            i = next;
+        }
+    }
+
+    // Scripts written without spaces between words; U+30FC is the katakana long vowel mark
+    private static boolean isCjk(int c) {
+        if (c == 0x30fc) return true;
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA;
+    }
+
+    public void append(Part part, int count) {
+        for (Map.Entry<String, Postings> e : part.terms.entrySet()) postings(e.getKey()).addAll(e.getValue(), endDoc);
+        endDoc += count;
+    }
+
+    // Commits newer than all indexed ones
+    public void prepend(Part part, int count) {
+        firstDoc -= count;
+        for (Map.Entry<String, Postings> e : part.terms.entrySet()) postings(e.getKey()).insertAll(e.getValue(), firstDoc);
+    }
+
+    private Postings postings(String term) {
+        Postings postings = dictionary.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            dictionary.put(term, postings);
+        }
+        return postings;
+    }
+
+    public void clear() {
+        dictionary.clear();
+        firstDoc = 0;
+        endDoc = 0;
+    }
+
+    /**
+     * Rows matching every word of the query, ascending; all rows for an empty query.
+     * commits are the indexed commits, used to match commit id prefixes.
+     */
+    public int[] search(String query, CommitStore.Columns commits) {
+        List<String> words = queryWords(query);
+        int[] result = null;
+        if (words.isEmpty()) {
+            result = new int[endDoc - firstDoc];
+            for (int i = 0; i < result.length; i++) result[i] = firstDoc + i;
+        } else {
+            int[][] lists = new int[words.size()][];
+            for (int k = 0; k < lists.length; k++) {
+                lists[k] = matches(words.get(k), commits);
+                if (lists[k].length == 0) return lists[k];
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+            result = lists[0];
+            for (int k = 1; k < lists.length && result.length > 0; k++) result = intersect(result, lists[k]);
+        }
+        for (int i = 0; i < result.length; i++) result[i] -= firstDoc;
+        return result;
+    }
+
+    // Dates are kept whole so "2024-05" matches them by prefix; other words split like subjects
+    private static List<String> queryWords(String query) {
+        List<String> words = new ArrayList<>();
+        for (String piece : query.trim().split("\\s+")) {
+            if (piece.matches("[0-9]+-[0-9-]*")) {
+                words.add(piece);
+            } else {
+                words.addAll(words(piece, true));
+            }
+        }
+        return words;
+    }
+
+    // Sorted commit numbers of the terms starting with the word, and of ids starting with it
+    private int[] matches(String word, CommitStore.Columns commits) {
+        SortedMap<String, Postings> range = dictionary.subMap(word, word + Character.MAX_VALUE);
+        boolean id = word.length() >= MIN_ID_PREFIX && word.matches("[0-9a-f]+");
+        if (!id && range.size() == 1) {
+            Postings only = range.values().iterator().next();
+            return Arrays.copyOf(only.docs, only.size);
+        }
+        // Union of several lists through a bitmap of the rows
+        long[] bits = new long[((endDoc - firstDoc) >> 6) + 1];
+        for (Postings postings : range.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                int row = postings.docs[i] - firstDoc;
+                bits[row >> 6] |= 1L << row;
+            }
+        }
+        if (id) {
+            for (int row = 0; row < commits.size(); row++) {
+                if (commits.idStartsWith(row, word)) bits[row >> 6] |= 1L << row;
+            }
+        }
+        int n = 0;
+        for (long b : bits) n += Long.bitCount(b);
+        int[] docs = new int[n];
+        n = 0;
+        for (int w = 0; w < bits.length; w++) {
+            for (long b = bits[w]; b != 0; b &= b - 1) docs[n++] = firstDoc + (w << 6) + Long.numberOfTrailingZeros(b);
+        }
+        return docs;
+    }
+
+    // Elements of the shorter sorted list a found in b, skipping through b exponentially
+    static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[a.length];
+        int n = 0;
+        int j = 0;
+        for (int x : a) {
+            j = lowerBound(b, j, x);
+            if (j == b.length) break;
+            if (b[j] == x) out[n++] = x;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // First index at or after from whose element is not less than x
+    private static int lowerBound(int[] b, int from, int x) {
+        int step = 1;
+        int hi = from;
+        while (hi < b.length && b[hi] < x) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, b.length);
+        int lo = from;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (b[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,347 @@
+package jp.hatano.gitdiffview;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Commits of the loaded branch, shared by both commit selectors.
+ *
+ * Commit ids are packed as binary hashes (20 bytes for SHA-1 repositories) in one byte
+ * array and subjects and author names are kept as UTF-8 bytes in shared pools, so a long
+ * history costs a few primitive arrays instead of millions of strings. Labels are only
+ * materialized when a row is rendered. A {@link CommitSearchIndex} over the commits is
+ * kept up to date as they are added.
+ *
+ * Commits are appended in batches while "git log" is still streaming; every attached
+ * {@link CommitComboBoxModel} receives one interval event per batch instead of one per row.
+ * Must only be modified on the Event Dispatch Thread.
+ */
+public class CommitStore {
+    private final Columns columns = new Columns();
+    private final CommitSearchIndex searchIndex = new CommitSearchIndex();
+    private final List<CommitComboBoxModel> models = new ArrayList<>();
+
+    /**
+     * Growable columnar storage of commits: packed hashes, author times, and subject and
+     * author byte pools indexed by end offsets.
+     */
+    static class Columns {
+        private int hashLength;
+        private int count;
+        private byte[] hashes = new byte[20 * 64];
+        // Author time in seconds since the epoch, 0 if unknown
+        private long[] times = new long[64];
+        private int[] subjectEnds = new int[64];
+        private byte[] subjects = new byte[64 * 48];
+        private int[] authorEnds = new int[64];
+        private byte[] authors = new byte[64 * 16];
+
+        public int size() {
+            return count;
+        }
+
+        static Batch wrap(int hashLength, int count, byte[] hashes, long[] times, int[] subjectEnds, byte[] subjects,
+                int[] authorEnds, byte[] authors) {
+            Batch batch = new Batch();
+            Columns c = batch;
+            c.hashLength = count == 0 ? 0 : hashLength;
+            c.count = count;
+            c.hashes = hashes;
+            c.times = times;
+            c.subjectEnds = subjectEnds;
+            c.subjects = subjects;
+            c.authorEnds = authorEnds;
+            c.authors = authors;
+            return batch;
+        }
+
+        // Serialized form used by CommitIndexCache: count, hashes, times, then end offsets
+        // and pool of the subjects and of the authors
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            out.write(hashes, 0, count * hashLength);
+            ByteBuffer timeBytes = ByteBuffer.allocate(count * 8);
+            timeBytes.asLongBuffer().put(times, 0, count);
+            out.write(timeBytes.array());
+            writePool(out, subjectEnds, subjects);
+            writePool(out, authorEnds, authors);
+        }
+
+        private void writePool(DataOutputStream out, int[] ends, byte[] pool) throws IOException {
+            ByteBuffer endBytes = ByteBuffer.allocate(count * 4);
+            endBytes.asIntBuffer().put(ends, 0, count);
+            out.write(endBytes.array());
+            int poolSize = count == 0 ? 0 : ends[count - 1];
+            out.writeInt(poolSize);
+            out.write(pool, 0, poolSize);
+        }
+
+        // Add a commit given its id in hexadecimal
+        public void add(String id, String subject) {
+            add(id, 0, null, subject);
+        }
+
+        public void add(String id, long time, String author, String subject) {
+            byte[] hex = id.getBytes(StandardCharsets.US_ASCII);
+            byte[] auth = author == null ? new byte[0] : author.getBytes(StandardCharsets.UTF_8);
+            byte[] subj = subject == null ? new byte[0] : subject.getBytes(StandardCharsets.UTF_8);
+            add(hex, 0, hex.length, time, auth, 0, auth.length, subj, 0, subj.length);
+        }
+
+        // Add a commit from raw git output: hex id, author time, and UTF-8 author and subject bytes
+        public void add(byte[] hex, int hexOffset, int hexLength, long time, byte[] author, int authorOffset, int authorLength,
+                byte[] subject, int subjectOffset, int subjectLength) {
+            if (hexLength != 40 && hexLength != 64) {
+                throw new IllegalArgumentException("Not a commit id: " + new String(hex, hexOffset, hexLength, StandardCharsets.US_ASCII));
+            }
+            if (hashLength == 0) hashLength = hexLength / 2;
+            if (hexLength / 2 != hashLength) throw new IllegalArgumentException("Mixed hash lengths");
+            ensureCapacity(count + 1, subjectLength, authorLength);
+            int base = count * hashLength;
+            for (int i = 0; i < hashLength; i++) {
+                hashes[base + i] = (byte) ((hexValue(hex[hexOffset + 2 * i]) << 4) | hexValue(hex[hexOffset + 2 * i + 1]));
+            }
+            times[count] = time;
+            int start = subjectStart(count);
+            System.arraycopy(subject, subjectOffset, subjects, start, subjectLength);
+            subjectEnds[count] = start + subjectLength;
+            start = authorStart(count);
+            System.arraycopy(author, authorOffset, authors, start, authorLength);
+            authorEnds[count] = start + authorLength;
+            count++;
+        }
+
+        void addAll(Columns other) {
+            if (other.count == 0) return;
+            if (hashLength == 0) hashLength = other.hashLength;
+            int otherSubjects = other.subjectStart(other.count);
+            int otherAuthors = other.authorStart(other.count);
+            ensureCapacity(count + other.count, otherSubjects, otherAuthors);
+            System.arraycopy(other.hashes, 0, hashes, count * hashLength, other.count * hashLength);
+            System.arraycopy(other.times, 0, times, count, other.count);
+            int base = subjectStart(count);
+            System.arraycopy(other.subjects, 0, subjects, base, otherSubjects);
+            for (int i = 0; i < other.count; i++) subjectEnds[count + i] = base + other.subjectEnds[i];
+            base = authorStart(count);
+            System.arraycopy(other.authors, 0, authors, base, otherAuthors);
+            for (int i = 0; i < other.count; i++) authorEnds[count + i] = base + other.authorEnds[i];
+            count += other.count;
+        }
+
+        // Insert the given (newer) commits before the existing ones
+        void prependAll(Columns newer) {
+            if (newer.count == 0) return;
+            Columns merged = new Columns();
+            merged.addAll(newer);
+            merged.addAll(this);
+            hashLength = merged.hashLength;
+            count = merged.count;
+            hashes = merged.hashes;
+            times = merged.times;
+            subjectEnds = merged.subjectEnds;
+            subjects = merged.subjects;
+            authorEnds = merged.authorEnds;
+            authors = merged.authors;
+        }
+
+        void clear() {
+            count = 0;
+            hashLength = 0;
+            hashes = new byte[20 * 64];
+            times = new long[64];
+            subjectEnds = new int[64];
+            subjects = new byte[64 * 48];
+            authorEnds = new int[64];
+            authors = new byte[64 * 16];
+        }
+
+        private void ensureCapacity(int commits, int moreSubjectBytes, int moreAuthorBytes) {
+            int hashSize = Math.max(hashLength, 20);
+            if (commits > subjectEnds.length) {
+                int newCap = Math.max(commits, subjectEnds.length + (subjectEnds.length >> 1));
+                subjectEnds = Arrays.copyOf(subjectEnds, newCap);
+                authorEnds = Arrays.copyOf(authorEnds, newCap);
+                times = Arrays.copyOf(times, newCap);
+                hashes = Arrays.copyOf(hashes, newCap * hashSize);
+            } else if (commits * hashSize > hashes.length) {
+                hashes = Arrays.copyOf(hashes, subjectEnds.length * hashSize);
+            }
+            subjects = ensurePool(subjects, (long) subjectStart(count) + moreSubjectBytes);
+            authors = ensurePool(authors, (long) authorStart(count) + moreAuthorBytes);
+        }
+
+        private static byte[] ensurePool(byte[] pool, long needed) {
+            if (needed <= pool.length) return pool;
+            long newCap = Math.max(needed, pool.length + ((long) pool.length >> 1));
+            if (newCap > Integer.MAX_VALUE - 8) throw new OutOfMemoryError("Commit pool too large");
+            return Arrays.copyOf(pool, (int) newCap);
+        }
+
+        private int subjectStart(int index) {
+            return index == 0 ? 0 : subjectEnds[index - 1];
+        }
+
+        private int authorStart(int index) {
+            return index == 0 ? 0 : authorEnds[index - 1];
+        }
+
+        int getHashLength() {
+            return hashLength;
+        }
+
+        // Whether the id of the commit starts with the given lower-case hex digits
+        boolean idStartsWith(int index, String hexPrefix) {
+            if (hexPrefix.length() > hashLength * 2) return false;
+            int base = index * hashLength;
+            for (int i = 0; i < hexPrefix.length(); i++) {
+                int b = hashes[base + i / 2] & 0xff;
+                if (HEX[(i & 1) == 0 ? b >> 4 : b & 0xf] != hexPrefix.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        public String getId(int index) {
+            StringBuilder sb = new StringBuilder(hashLength * 2);
+            appendId(index, sb);
+            return sb.toString();
+        }
+
+        void appendId(int index, StringBuilder sb) {
+            checkIndex(index);
+            int base = index * hashLength;
+            for (int i = 0; i < hashLength; i++) {
+                int b = hashes[base + i] & 0xff;
+                sb.append(HEX[b >> 4]).append(HEX[b & 0xf]);
+            }
+        }
+
+        public String getSubject(int index) {
+            checkIndex(index);
+            int start = subjectStart(index);
+            return new String(subjects, start, subjectEnds[index] - start, StandardCharsets.UTF_8);
+        }
+
+        public String getAuthor(int index) {
+            checkIndex(index);
+            int start = authorStart(index);
+            return new String(authors, start, authorEnds[index] - start, StandardCharsets.UTF_8);
+        }
+
+        public long getTime(int index) {
+            checkIndex(index);
+            return times[index];
+        }
+
+        public String getLabel(int index) {
+            checkIndex(index);
+            int start = subjectStart(index);
+            int length = subjectEnds[index] - start;
+            StringBuilder sb = new StringBuilder(hashLength * 2 + 1 + length);
+            appendId(index, sb);
+            if (length > 0) sb.append(' ').append(new String(subjects, start, length, StandardCharsets.UTF_8));
+            return sb.toString();
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+    }
+
+    // Commits parsed on a worker thread, waiting to be appended on the EDT
+    public static class Batch extends Columns {
+        private CommitSearchIndex.Part searchTerms;
+
+        /**
+         * Search terms of the commits, made once. Calling this on the worker thread before
+         * the batch is published keeps the tokenizing off the EDT.
+         */
+        public CommitSearchIndex.Part searchTerms() {
+            if (searchTerms == null) searchTerms = CommitSearchIndex.tokenize(this);
+            return searchTerms;
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static int hexValue(byte c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        throw new IllegalArgumentException("Not a hex digit: " + (char) c);
+    }
+
+    public CommitComboBoxModel createComboBoxModel() {
+        CommitComboBoxModel model = new CommitComboBoxModel(this);
+        models.add(model);
+        return model;
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    public String getId(int index) {
+        return columns.getId(index);
+    }
+
+    public String getSubject(int index) {
+        return columns.getSubject(index);
+    }
+
+    public String getAuthor(int index) {
+        return columns.getAuthor(index);
+    }
+
+    // Author time in seconds since the epoch, 0 if unknown
+    public long getTime(int index) {
+        return columns.getTime(index);
+    }
+
+    // Label shown in the commit selectors, built on demand
+    public String getLabel(int index) {
+        return columns.getLabel(index);
+    }
+
+    // Whether the row holds the commit with this full id, without building the row's id
+    public boolean hasId(int index, String id) {
+        return columns.idStartsWith(index, id);
+    }
+
+    /**
+     * Rows of the commits matching every word of the query, newest first. A word matches
+     * the start of a word of the subject or author name, the start of the author date
+     * (yyyy-mm-dd), or, if it is hexadecimal, the start of the commit id.
+     */
+    public int[] search(String query) {
+        return searchIndex.search(query, columns);
+    }
+
+    public void append(Batch batch) {
+        if (batch.size() == 0) return;
+        int first = columns.size();
+        searchIndex.append(batch.searchTerms(), batch.size());
+        columns.addAll(batch);
+        int last = columns.size() - 1;
+        for (CommitComboBoxModel model : models) model.commitsAdded(first, last);
+    }
+
+    // Insert commits that are newer than all loaded ones, e.g. after the branch tip moved
+    public void prepend(Batch batch) {
+        if (batch.size() == 0) return;
+        searchIndex.prepend(batch.searchTerms(), batch.size());
+        columns.prependAll(batch);
+        for (CommitComboBoxModel model : models) model.commitsInserted(batch.size());
+    }
+
+    public void clear() {
+        int size = columns.size();
+        columns.clear();
+        searchIndex.clear();
+        for (CommitComboBoxModel model : models) model.commitsRemoved(size);
+    }
+}
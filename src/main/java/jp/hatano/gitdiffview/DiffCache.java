@@ -0,0 +1,133 @@
+package jp.hatano.gitdiffview;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Memory-bounded LRU cache of raw (undecoded) diff output per repository, commit pair and file.
+ *
+ * Commit ids never change their content, so entries never go stale; they only leave the
+ * cache when the byte budget is exceeded. Storing bytes rather than text means that a
+ * different encoding only needs another decode. Thread-safe.
+ */
+public class DiffCache {
+    // Rough per-entry cost of the key and map node, so tiny diffs are not free
+    private static final int ENTRY_OVERHEAD = 128;
+
+    public static final class Key {
+        final String repoPath;
+        final String oldCommit;
+        final String newCommit;
+        final String file;
+
+        public Key(String repoPath, String oldCommit, String newCommit, String file) {
+            this.repoPath = repoPath;
+            this.oldCommit = oldCommit;
+            this.newCommit = newCommit;
+            this.file = file;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return repoPath.equals(k.repoPath) && oldCommit.equals(k.oldCommit) && newCommit.equals(k.newCommit) && file.equals(k.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repoPath, oldCommit, newCommit, file);
+        }
+
+        int cost() {
+            return ENTRY_OVERHEAD + 2 * (repoPath.length() + oldCommit.length() + newCommit.length() + file.length());
+        }
+    }
+
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public DiffCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    // Cached diff, or null on a miss
+    public synchronized byte[] get(Key key) {
+        byte[] diff = entries.get(key);
+        if (diff != null) hits++;
+        else misses++;
+        return diff;
+    }
+
+    // Like get() but without touching the counters or the LRU order
+    public synchronized boolean contains(Key key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void put(Key key, byte[] diff) {
+        long cost = key.cost() + diff.length;
+        if (cost > budgetBytes) return;
+        byte[] old = entries.put(key, diff);
+        if (old != null) usedBytes -= key.cost() + old.length;
+        usedBytes += cost;
+        trim();
+    }
+
+    public synchronized void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    // Evict least recently used entries until the cache fits its budget
+    private void trim() {
+        Iterator<Map.Entry<Key, byte[]>> it = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<Key, byte[]> e = it.next();
+            usedBytes -= e.getKey().cost() + e.getValue().length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getBudget() {
+        return budgetBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Diff cache: %d entries, %d/%d KB, %d hits, %d misses, %d evictions",
+            entries.size(), usedBytes / 1024, budgetBytes / 1024, hits, misses, evictions);
+    }
+}
@@ -5,6 +5,10 @@ import javax.swing.text.*;
 import java.awt.*;
 import java.awt.datatransfer.*;
 import java.awt.event.ItemListener;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 
 public class DiffColorTextArea extends JTextPane {
     public static final Color darkGreen = new Color(0,128,0);
@@ -14,8 +18,21 @@ public class DiffColorTextArea extends JTextPane {
     
     private static final String[] FONT_SELECTIONS = { "Consolas", "Menlo", "Dejavu Sans Mono" };
 
+    // Styles shared by every diff document, indexed by DiffLines kind
+    private final Style[] kindStyles = new Style[4];
+    // Bumped on every color change so documents built meanwhile get re-styled
+    private volatile int styleVersion;
+
     public DiffColorTextArea() {
         setEditable(false);
+        // Lines appended while a diff streams in must not drag the caret and the view along
+        ((DefaultCaret) getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        StyleContext sc = new StyleContext();
+        kindStyles[DiffLines.CONTEXT] = sc.addStyle("context", null);
+        kindStyles[DiffLines.ADD] = sc.addStyle("add", null);
+        kindStyles[DiffLines.DELETE] = sc.addStyle("del", null);
+        kindStyles[DiffLines.HEADER] = sc.addStyle("head", null);
+        updateStyles();
         Font currFont = getFont();
         Font newFont = null;
         for (String fontName : FONT_SELECTIONS) {
@@ -39,53 +56,77 @@ public class DiffColorTextArea extends JTextPane {
         this.addColor = addColor;
         this.delColor = delColor;
         this.headColor = headColor;
+        updateStyles();
     }
-    
+
+    private void updateStyles() {
+        setKindStyle(kindStyles[DiffLines.ADD], addColor);
+        setKindStyle(kindStyles[DiffLines.DELETE], delColor);
+        setKindStyle(kindStyles[DiffLines.HEADER], headColor);
+        styleVersion++;
+    }
+
+    private static void setKindStyle(Style style, Color color) {
+        StyleConstants.setForeground(style, color);
+        StyleConstants.setBold(style, true);
+    }
+
     public void setColors(Color add, Color del, Color head) {
         this.addColor = add;
         this.delColor = del;
         this.headColor = head;
-        // Reset text to redraw with new colors
-        setDiffText(getText());
+        updateStyles();
+        // Re-style the runs of the shown diff instead of parsing it again
+        Document doc = getDocument();
+        if (doc instanceof DiffDocument && ((DiffDocument) doc).getRunCount() > 0) {
+            ((DiffDocument) doc).restyle(kindStyles);
+        } else if (doc.getLength() > 0) {
+            setDiffText(getText());
+        }
     }
     
     public void setDiffText(String diff) {
-        setText("");
-        StyledDocument doc = getStyledDocument();
-        StyleContext sc = StyleContext.getDefaultStyleContext();
-        Style defaultStyle = sc.getStyle(StyleContext.DEFAULT_STYLE);
-        Style addStyle = doc.addStyle("add", null);
-        StyleConstants.setForeground(addStyle, addColor);
-        StyleConstants.setBold(addStyle, true);
-        Style delStyle = doc.addStyle("del", null);
-        StyleConstants.setForeground(delStyle, delColor);
-        StyleConstants.setBold(delStyle, true);
-        Style headStyle = doc.addStyle("head", null);
-        StyleConstants.setForeground(headStyle, headColor);
-        StyleConstants.setBold(headStyle, true);
+        setDiffLines(DiffLines.of(diff));
+    }
+
+    // Show a diff that has already been split and classified
+    public void setDiffLines(DiffLines lines) {
+        setDiffDocument(buildDocument(lines));
+    }
+
+    /**
+     * Build the styled document of a diff with the current colors. Safe to call from a
+     * worker thread; the result is shown with {@link #setDiffDocument}.
+     */
+    public DiffDocument buildDocument(DiffLines lines) {
+        long start = System.nanoTime();
+        DiffDocument doc = new DiffDocument(lines, kindStyles, styleVersion);
+        Metrics.recordDocument("document build", lines.getLineCount(), start, System.nanoTime());
+        return doc;
+    }
+
+    // Swap in a document built by buildDocument; must be called on the EDT
+    public void setDiffDocument(DiffDocument doc) {
+        long start = System.nanoTime();
+        if (doc.getStyleVersion() != styleVersion) doc.restyle(kindStyles);
+        setDocument(doc);
+        // The root ends with an empty paragraph after the last line
+        Metrics.recordDocument("document show", doc.getDefaultRootElement().getElementCount() - 1, start, System.nanoTime());
+    }
+
+    // Append more lines of the diff being shown
+    public void appendDiffLines(DiffLines lines) {
+        Document doc = getDocument();
+        if (!(doc instanceof DiffDocument)) {
+            setDiffLines(lines);
+            return;
+        }
         try {
-            for (String line : diff.split("\n")) {
-                if (line.startsWith("+")) {
-                    doc.insertString(doc.getLength(), line + "\n", addStyle);
-                } else if (line.startsWith("-")) {
-                    doc.insertString(doc.getLength(), line + "\n", delStyle);
-                } else if ( startsWithAnyOf(line,"@@","diff","index","---","+++")) {
-                    doc.insertString(doc.getLength(), line + "\n", headStyle);
-                } else {
-                    doc.insertString(doc.getLength(), line + "\n", defaultStyle);
-                }
-            }
+            ((DiffDocument) doc).appendLines(lines, kindStyles);
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
     }
-    
-    private boolean startsWithAnyOf(String line, String... prefixes) {
-        for (String prefix : prefixes) {
-            if (line.startsWith(prefix)) return true;
-        }
-        return false;
-    }
 
     @Override
     public void copy() {
@@ -94,35 +135,46 @@ public class DiffColorTextArea extends JTextPane {
         int end = getSelectionEnd();
         if (start == end) return; // nothing selected
         try {
-            StyledDocument doc = getStyledDocument();
-            StringBuilder plain = new StringBuilder();
-            StringBuilder html = new StringBuilder();
-            html.append("<html><body><pre style='font-family:monospace;font-size:14px;'>");
-            for (int i = start; i < end; ) {
-                Element elem = doc.getCharacterElement(i);
-                AttributeSet attr = elem.getAttributes();
-                String text = doc.getText(i, elem.getEndOffset() - i);
-                // Remove trailing \n for html (keep for plain)
-                String htmlText = text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
-                Color fg = StyleConstants.getForeground(attr);
-                boolean bold = StyleConstants.isBold(attr);
-                String colorStr = fg != null ? getColorString(fg) : null;
-                html.append("<span style='");
-                if (colorStr != null) html.append("color:" + colorStr + ";");
-                if (bold) html.append("font-weight:bold;");
-                html.append("'>").append(htmlText).append("</span>");
-                plain.append(text);
-                i = elem.getEndOffset();
-            }
-            html.append("</pre></body></html>");
-            // Set both plain and html to clipboard
+            // Plain text and HTML are only rendered when a paste asks for them
             Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-            clipboard.setContents(new HtmlSelection(plain.toString(), html.toString()), null);
+            clipboard.setContents(createSelection(start, end), null);
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
     }
-    
+
+    // The text of the range with the line kinds of its runs
+    HtmlSelection createSelection(int start, int end) throws BadLocationException {
+        Document doc = getDocument();
+        Segment segment = new Segment();
+        doc.getText(start, end - start, segment);
+        HtmlSelection selection = new HtmlSelection(Arrays.copyOfRange(segment.array, segment.offset, segment.offset + segment.count),
+            DiffHtmlWriter.styleSheet(addColor, delColor, headColor));
+        if (doc instanceof DiffDocument && ((DiffDocument) doc).getRunCount() > 0) {
+            DiffDocument diff = (DiffDocument) doc;
+            for (int i = diff.findRun(start); i < diff.getRunCount() && diff.getRunStart(i) < end; i++) {
+                selection.addRun(Math.max(diff.getRunStart(i), start) - start, diff.getRunKind(i));
+            }
+        } else {
+            // Without runs, tell the kinds apart by the colors of the text
+            StyledDocument styled = getStyledDocument();
+            for (int i = start; i < end; ) {
+                Element elem = styled.getCharacterElement(i);
+                selection.addRun(i - start, kindOf(elem.getAttributes()));
+                i = elem.getEndOffset();
+            }
+        }
+        return selection;
+    }
+
+    private byte kindOf(AttributeSet attr) {
+        Object color = attr.getAttribute(StyleConstants.Foreground);
+        if (headColor.equals(color)) return DiffLines.HEADER;
+        if (delColor.equals(color)) return DiffLines.DELETE;
+        if (addColor.equals(color)) return DiffLines.ADD;
+        return DiffLines.CONTEXT;
+    }
+
     void saveDiffColors(GitDiffViewApp gitDiffViewApp) {
         String strAddColor = getColorString(gitDiffViewApp.addColor);
         String strDelColor = getColorString(gitDiffViewApp.delColor);
@@ -238,29 +290,82 @@ public class DiffColorTextArea extends JTextPane {
         );
     }
     
+    /**
+     * Copied text with the line kind of each of its runs. The plain text and the HTML are
+     * made the first time a paste asks for them, the HTML in one pass with a span per
+     * run. Selections longer than MAX_HTML_LENGTH are offered as plain text only, which
+     * bounds the memory a copy can take.
+     */
     static class HtmlSelection implements Transferable {
-        private final String plain;
-        private final String html;
-        private static final DataFlavor[] flavors = {
-            DataFlavor.stringFlavor,
-            new DataFlavor("text/html;class=java.lang.String", "HTML Format")
-        };
-        HtmlSelection(String plain, String html) {
-            this.plain = plain;
-            this.html = html;
+        static final int MAX_HTML_LENGTH = 4 << 20;
+        private static final DataFlavor HTML_FLAVOR = new DataFlavor("text/html;class=java.lang.String", "HTML Format");
+        private static final DataFlavor[] PLAIN_FLAVORS = { DataFlavor.stringFlavor };
+        private static final DataFlavor[] ALL_FLAVORS = { DataFlavor.stringFlavor, HTML_FLAVOR };
+
+        private final char[] text;
+        private final String styleSheet;
+        private int[] runStarts = new int[4];
+        private byte[] runKinds = new byte[4];
+        private int runCount;
+        private String plain;
+        private String html;
+
+        HtmlSelection(char[] text, String styleSheet) {
+            this.text = text;
+            this.styleSheet = styleSheet;
+        }
+
+        // Runs are added in order; a run lasts until the next one starts
+        void addRun(int start, byte kind) {
+            if (runCount > 0 && runKinds[runCount - 1] == kind) return;
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runKinds = Arrays.copyOf(runKinds, runCount * 2);
+            }
+            runStarts[runCount] = start;
+            runKinds[runCount] = kind;
+            runCount++;
         }
+
         @Override
-        public DataFlavor[] getTransferDataFlavors() { return flavors; }
+        public DataFlavor[] getTransferDataFlavors() {
+            return (text.length <= MAX_HTML_LENGTH ? ALL_FLAVORS : PLAIN_FLAVORS).clone();
+        }
+
         @Override
         public boolean isDataFlavorSupported(DataFlavor flavor) {
-            for (DataFlavor f : flavors) if (f.equals(flavor)) return true;
+            for (DataFlavor f : getTransferDataFlavors()) if (f.equals(flavor)) return true;
             return false;
         }
+
         @Override
-        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
-            if (flavor.equals(flavors[0])) return plain;
-            if (flavor.equals(flavors[1])) return html;
-            throw new UnsupportedFlavorException(flavor);
+        public synchronized Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (!isDataFlavorSupported(flavor)) throw new UnsupportedFlavorException(flavor);
+            if (flavor.equals(DataFlavor.stringFlavor)) {
+                if (plain == null) plain = new String(text);
+                return plain;
+            }
+            if (html == null) html = toHtml();
+            return html;
+        }
+
+        private String toHtml() {
+            StringWriter out = new StringWriter(text.length + text.length / 8 + runCount * 24 + styleSheet.length() + 128);
+            DiffHtmlWriter writer = new DiffHtmlWriter(out);
+            try {
+                writer.writeDocumentStart("", styleSheet);
+                writer.writePreStart();
+                for (int i = 0; i < runCount; i++) {
+                    int end = i + 1 < runCount ? runStarts[i + 1] : text.length;
+                    writer.write(runKinds[i], text, runStarts[i], end);
+                }
+                writer.writePreEnd();
+                writer.writeDocumentEnd();
+            } catch (IOException e) {
+                // A StringWriter does not throw
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
         }
     }
 }
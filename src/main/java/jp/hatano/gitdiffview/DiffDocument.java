@@ -0,0 +1,167 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.text.*;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Styled document of a diff, built in one bulk operation from a {@link DiffLines} index.
+ *
+ * The document is created while it is not attached to any text component, so it can be
+ * built on a worker thread without firing listeners per line. It remembers the runs of
+ * consecutive lines of the same kind, which lets a color change re-style a few runs
+ * instead of re-parsing the text. Lines arriving later are appended run by run; any other
+ * edit drops the runs.
+ */
+public class DiffDocument extends DefaultStyledDocument {
+    private int[] runStarts = new int[0];
+    private int[] runEnds = new int[0];
+    private byte[] runKinds = new byte[0];
+    private int runCount;
+    private final int styleVersion;
+    private boolean appending;
+
+    // styles are indexed by DiffLines kind
+    public DiffDocument(DiffLines lines, Style[] styles, int styleVersion) {
+        this.styleVersion = styleVersion;
+        if (lines.getLineCount() == 0) return;
+        SimpleAttributeSet paragraph = new SimpleAttributeSet();
+        paragraph.setResolveParent(getStyle(StyleContext.DEFAULT_STYLE));
+        char[] text = lines.getChars();
+        char[] newline = { '\n' };
+        List<ElementSpec> specs = new ArrayList<>(lines.getLineCount() * 3 + 2);
+        // The outer tags stand for the root, each line becomes one paragraph
+        specs.add(new ElementSpec(null, ElementSpec.StartTagType));
+        int offset = 0;
+        for (int i = 0; i < lines.getLineCount(); i++) {
+            int start = lines.getLineStart(i);
+            int end = lines.getLineEnd(i);
+            byte kind = lines.getKind(i);
+            boolean hasNewline = end < lines.getLength() && text[end] == '\n';
+            specs.add(new ElementSpec(paragraph, ElementSpec.StartTagType));
+            // ElementSpec copies the whole array it is given, so each line gets its own
+            if (hasNewline) {
+                specs.add(content(styles[kind], text, start, end + 1));
+            } else {
+                if (end > start) specs.add(content(styles[kind], text, start, end));
+                specs.add(new ElementSpec(styles[kind], ElementSpec.ContentType, newline, 0, 1));
+            }
+            specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+            int lineEnd = offset + end - start + 1;
+            addRun(offset, lineEnd, kind);
+            offset = lineEnd;
+        }
+        specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+        appending = true;
+        try {
+            create(specs.toArray(new ElementSpec[0]));
+        } finally {
+            appending = false;
+        }
+    }
+
+    // Extend the last run or start a new one
+    private void addRun(int start, int end, byte kind) {
+        if (runCount > 0 && runKinds[runCount - 1] == kind && runEnds[runCount - 1] == start) {
+            runEnds[runCount - 1] = end;
+            return;
+        }
+        if (runCount == runStarts.length) {
+            int capacity = Math.max(16, runCount * 2);
+            runStarts = Arrays.copyOf(runStarts, capacity);
+            runEnds = Arrays.copyOf(runEnds, capacity);
+            runKinds = Arrays.copyOf(runKinds, capacity);
+        }
+        runStarts[runCount] = start;
+        runEnds[runCount] = end;
+        runKinds[runCount] = kind;
+        runCount++;
+    }
+
+    /**
+     * Append lines at the end with one insert per run of same-kind lines. A last line
+     * without a newline gets one, as in the bulk built document.
+     */
+    public void appendLines(DiffLines lines, Style[] styles) throws BadLocationException {
+        char[] text = lines.getChars();
+        appending = true;
+        try {
+            int i = 0;
+            while (i < lines.getLineCount()) {
+                byte kind = lines.getKind(i);
+                int j = i + 1;
+                while (j < lines.getLineCount() && lines.getKind(j) == kind) j++;
+                int start = lines.getLineStart(i);
+                int end = j < lines.getLineCount() ? lines.getLineStart(j) : lines.getLength();
+                String run = new String(text, start, end - start);
+                if (end == start || text[end - 1] != '\n') run += "\n";
+                int offset = getLength();
+                insertString(offset, run, styles[kind]);
+                addRun(offset, offset + run.length(), kind);
+                i = j;
+            }
+        } finally {
+            appending = false;
+        }
+    }
+
+    private static ElementSpec content(Style style, char[] text, int start, int end) {
+        return new ElementSpec(style, ElementSpec.ContentType, Arrays.copyOfRange(text, start, end), 0, end - start);
+    }
+
+    public int getStyleVersion() {
+        return styleVersion;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public int getRunStart(int run) {
+        return runStarts[run];
+    }
+
+    public int getRunEnd(int run) {
+        return runEnds[run];
+    }
+
+    public byte getRunKind(int run) {
+        return runKinds[run];
+    }
+
+    // Index of the run containing the offset, or of the first run after it
+    public int findRun(int offset) {
+        int lo = 0;
+        int hi = runCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runEnds[mid] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Apply the styles to every run again, e.g. after the colors changed
+    public void restyle(Style[] styles) {
+        for (int i = 0; i < runCount; i++) {
+            setCharacterAttributes(runStarts[i], runEnds[i] - runStarts[i], styles[runKinds[i]], true);
+        }
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        if (!appending) runCount = 0;
+        super.insertUpdate(chng, attr);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        runCount = 0;
+        super.removeUpdate(chng);
+    }
+}
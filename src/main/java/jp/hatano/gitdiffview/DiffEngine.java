@@ -0,0 +1,1123 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pure-Java line diff of two blobs producing git-compatible unified diff output.
+ *
+ * Follows the algorithms of git's xdiff: Myers (with the same record cleanup and cost
+ * heuristics) or histogram, then change compaction with the indent heuristic, hunk
+ * grouping and function-name hunk headers. Lines are interned into int class ids over
+ * the original byte arrays, so no per-line String is created. The output options that
+ * git takes from its config are given as {@link Settings}. An engine instance holds no
+ * state between calls and can be used from any thread.
+ */
+public class DiffEngine {
+    public enum Algorithm { MYERS, HISTOGRAM }
+
+    public static final int DEFAULT_CONTEXT = 3;
+    // git treats a blob as binary when a NUL appears in its first 8000 bytes
+    private static final int FIRST_FEW_BYTES = 8000;
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(StandardCharsets.US_ASCII);
+
+    // xdiff tuning constants
+    private static final int MAX_COST_MIN = 256;
+    private static final int HEUR_MIN_COST = 256;
+    private static final int SNAKE_CNT = 20;
+    private static final int K_HEUR = 4;
+    private static final int MAX_EQLIMIT = 1024;
+    private static final int SIMSCAN_WINDOW = 100;
+    private static final int KPDIS_RUN = 4;
+    private static final int LINE_MAX = Integer.MAX_VALUE;
+    private static final int HISTOGRAM_MAX_CHAIN = 64;
+
+    /** Output options, defaulting to what "git diff" does without any config. */
+    public static final class Settings {
+        // diff.context
+        public int context = DEFAULT_CONTEXT;
+        // diff.interHunkContext
+        public int interHunkContext;
+        // diff.indentHeuristic
+        public boolean indentHeuristic = true;
+        // "" for both with diff.noprefix
+        public String srcPrefix = "a/";
+        public String dstPrefix = "b/";
+        // core.quotePath: also quote bytes of 0x80 and above
+        public boolean quotePath = true;
+    }
+
+    private final Algorithm algorithm;
+    private final int context;
+    private final int interHunkContext;
+    private final boolean indentHeuristic;
+    private final String srcPrefix;
+    private final String dstPrefix;
+    private final boolean quoteHighBytes;
+
+    public DiffEngine(Algorithm algorithm) {
+        this(algorithm, new Settings());
+    }
+
+    public DiffEngine(Algorithm algorithm, Settings settings) {
+        this.algorithm = algorithm;
+        this.context = settings.context;
+        this.interHunkContext = settings.interHunkContext;
+        this.indentHeuristic = settings.indentHeuristic;
+        this.srcPrefix = settings.srcPrefix;
+        this.dstPrefix = settings.dstPrefix;
+        this.quoteHighBytes = settings.quotePath;
+    }
+
+    public static boolean isBinary(byte[] data) {
+        if (data == null) return false;
+        int n = Math.min(data.length, FIRST_FEW_BYTES);
+        for (int i = 0; i < n; i++) if (data[i] == 0) return true;
+        return false;
+    }
+
+    /** One side of a file diff; a null side means the file does not exist there. */
+    public static class FileSide {
+        final String path;
+        final String id;
+        final String mode;
+        final byte[] data;
+
+        public FileSide(String path, String id, String mode, byte[] data) {
+            this.path = path;
+            this.id = id;
+            this.mode = mode;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Write a complete "git diff" file section: diff --git, mode and index lines, ---/+++ and hunks.
+     * Writes nothing when both sides are identical.
+     */
+    public void writeFileDiff(FileSide oldSide, FileSide newSide, int abbrev, ByteArrayOutputStream out) {
+        writeFileDiff(oldSide, newSide, abbrev, null, out);
+    }
+
+    /**
+     * Same as {@link #writeFileDiff(FileSide, FileSide, int, ByteArrayOutputStream)} with the
+     * file's diff attribute applied: binary true for "-diff" or "binary", false for "diff",
+     * null to tell binary files by their content.
+     */
+    public void writeFileDiff(FileSide oldSide, FileSide newSide, int abbrev, Boolean binary, ByteArrayOutputStream out) {
+        String oldPath = oldSide != null ? oldSide.path : newSide.path;
+        String newPath = newSide != null ? newSide.path : oldSide.path;
+        boolean sameContent = oldSide != null && newSide != null && oldSide.id.equals(newSide.id);
+        boolean sameMode = oldSide != null && newSide != null && oldSide.mode.equals(newSide.mode);
+        if (sameContent && sameMode && oldPath.equals(newPath)) return;
+
+        StringBuilder header = new StringBuilder();
+        header.append("diff --git ").append(quotePath(srcPrefix, oldPath, quoteHighBytes)).append(' ')
+            .append(quotePath(dstPrefix, newPath, quoteHighBytes)).append('\n');
+        if (oldSide == null) {
+            header.append("new file mode ").append(newSide.mode).append('\n');
+        } else if (newSide == null) {
+            header.append("deleted file mode ").append(oldSide.mode).append('\n');
+        } else if (!sameMode) {
+            header.append("old mode ").append(oldSide.mode).append('\n');
+            header.append("new mode ").append(newSide.mode).append('\n');
+        }
+        if (!sameContent) {
+            header.append("index ").append(abbreviate(oldSide, abbrev)).append("..").append(abbreviate(newSide, abbrev));
+            if (oldSide != null && newSide != null && sameMode) header.append(' ').append(oldSide.mode);
+            header.append('\n');
+        }
+        writeAscii(out, header);
+        if (sameContent) return;
+
+        byte[] a = oldSide == null ? new byte[0] : oldSide.data;
+        byte[] b = newSide == null ? new byte[0] : newSide.data;
+        String aName = oldSide == null ? "/dev/null" : quotePath(srcPrefix, oldPath, quoteHighBytes);
+        String bName = newSide == null ? "/dev/null" : quotePath(dstPrefix, newPath, quoteHighBytes);
+        if (binary != null ? binary : isBinary(a) || isBinary(b)) {
+            writeAscii(out, "Binary files " + aName + " and " + bName + " differ\n");
+            return;
+        }
+        // git ends a file name containing a space with a tab so that the name is unambiguous
+        String aTab = oldSide != null && oldPath.indexOf(' ') >= 0 ? "\t" : "";
+        String bTab = newSide != null && newPath.indexOf(' ') >= 0 ? "\t" : "";
+        writeAscii(out, "--- " + aName + aTab + "\n+++ " + bName + bTab + "\n");
+        writeHunks(a, b, out);
+    }
+
+    private static String abbreviate(FileSide side, int abbrev) {
+        if (side == null) {
+            char[] zeros = new char[abbrev];
+            Arrays.fill(zeros, '0');
+            return new String(zeros);
+        }
+        return side.id.substring(0, Math.min(abbrev, side.id.length()));
+    }
+
+    // Quote a path the way git does; quoteHighBytes is core.quotePath
+    static String quotePath(String prefix, String path, boolean quoteHighBytes) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        boolean needsQuote = false;
+        for (byte x : bytes) {
+            int c = x & 0xff;
+            if (c < 0x20 || c == '"' || c == '\\' || c == 0x7f || (c > 0x7f && quoteHighBytes)) {
+                needsQuote = true;
+                break;
+            }
+        }
+        if (!needsQuote) return prefix + path;
+        StringBuilder sb = new StringBuilder("\"").append(prefix);
+        for (byte x : bytes) {
+            int c = x & 0xff;
+            switch (c) {
+                case 7: sb.append("\\a"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case 11: sb.append("\\v"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\r': sb.append("\\r"); break;
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                default:
+                    if (c < 0x20 || c == 0x7f || (c > 0x7f && quoteHighBytes)) {
+                        sb.append('\\').append((char) ('0' + (c >> 6))).append((char) ('0' + ((c >> 3) & 7))).append((char) ('0' + (c & 7)));
+                    } else {
+                        sb.append((char) c);
+                    }
+            }
+        }
+        // One char per byte so far; unquoted UTF-8 sequences are decoded back
+        byte[] quoted = sb.append('"').toString().getBytes(StandardCharsets.ISO_8859_1);
+        return new String(quoted, StandardCharsets.UTF_8);
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, CharSequence s) {
+        byte[] bytes = s.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Write the unified diff hunks ("@@ ... @@" and lines) between two texts. */
+    public void writeHunks(byte[] a, byte[] b, ByteArrayOutputStream out) {
+        Side s1 = new Side(a);
+        Side s2 = new Side(b);
+        Classifier classifier = new Classifier(s1.n + s2.n);
+        classifier.classify(s1);
+        classifier.classify(s2);
+        computeChanges(s1, s2, classifier.count());
+        compact(s1, s2);
+        compact(s2, s1);
+        emit(s1, s2, out);
+    }
+
+    // Mark changed lines of both sides (rchg) with the configured algorithm
+    void computeChanges(Side s1, Side s2, int classes) {
+        Work work = new Work(classes);
+        if (algorithm == Algorithm.HISTOGRAM) {
+            histogram(s1, s2, work);
+        } else {
+            myers(s1, 0, s1.n, s2, 0, s2.n, work);
+        }
+    }
+
+    /** Lines of one text: start offsets, class ids and change flags. */
+    static final class Side {
+        final byte[] data;
+        final int n;
+        final int[] starts;
+        int[] ha;
+        // rchg[i + 1] is set when line i is changed; rchg[0] and rchg[n + 1] are sentinels
+        final byte[] rchg;
+
+        Side(byte[] data) {
+            this.data = data;
+            int lines = 0;
+            for (byte x : data) if (x == '\n') lines++;
+            if (data.length > 0 && data[data.length - 1] != '\n') lines++;
+            n = lines;
+            starts = new int[n + 1];
+            int line = 0;
+            starts[0] = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n') starts[++line] = i + 1;
+            }
+            starts[n] = data.length;
+            rchg = new byte[n + 2];
+        }
+
+        boolean changed(int line) {
+            return rchg[line + 1] != 0;
+        }
+
+        void setChanged(int line, boolean changed) {
+            rchg[line + 1] = (byte) (changed ? 1 : 0);
+        }
+    }
+
+    /** Interns lines into dense class ids using an open-addressing table over the raw bytes. */
+    static final class Classifier {
+        private int[] table;
+        private int mask;
+        private byte[][] classData;
+        private int[] classStart;
+        private int[] classLength;
+        private int[] classHash;
+        private int count;
+
+        Classifier(int expectedLines) {
+            int cap = 16;
+            while (cap < expectedLines * 2) cap <<= 1;
+            table = new int[cap];
+            Arrays.fill(table, -1);
+            mask = cap - 1;
+            int classes = Math.max(16, expectedLines);
+            classData = new byte[classes][];
+            classStart = new int[classes];
+            classLength = new int[classes];
+            classHash = new int[classes];
+        }
+
+        int count() {
+            return count;
+        }
+
+        void classify(Side side) {
+            side.ha = new int[side.n];
+            for (int i = 0; i < side.n; i++) {
+                side.ha[i] = intern(side.data, side.starts[i], side.starts[i + 1] - side.starts[i]);
+            }
+        }
+
+        private int intern(byte[] data, int start, int length) {
+            int h = 0x811c9dc5;
+            for (int i = start; i < start + length; i++) h = (h ^ data[i]) * 0x01000193;
+            int slot = mix(h) & mask;
+            while (true) {
+                int c = table[slot];
+                if (c < 0) break;
+                if (classHash[c] == h && classLength[c] == length && equalRange(classData[c], classStart[c], data, start, length)) {
+                    return c;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (count == classData.length) {
+                int cap = count * 2;
+                classData = Arrays.copyOf(classData, cap);
+                classStart = Arrays.copyOf(classStart, cap);
+                classLength = Arrays.copyOf(classLength, cap);
+                classHash = Arrays.copyOf(classHash, cap);
+            }
+            int c = count++;
+            classData[c] = data;
+            classStart[c] = start;
+            classLength[c] = length;
+            classHash[c] = h;
+            table[slot] = c;
+            return c;
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h;
+        }
+
+        private static boolean equalRange(byte[] a, int aStart, byte[] b, int bStart, int length) {
+            for (int i = 0; i < length; i++) if (a[aStart + i] != b[bStart + i]) return false;
+            return true;
+        }
+    }
+
+    /** Scratch arrays indexed by class id, reused across the sub-diffs of one run. */
+    static final class Work {
+        final int[] count1;
+        final int[] count2;
+        final int[] slotStamp;
+        final int[] slotOf;
+        int stamp;
+
+        Work(int classes) {
+            count1 = new int[classes];
+            count2 = new int[classes];
+            slotStamp = new int[classes];
+            slotOf = new int[classes];
+        }
+    }
+
+    private static int bogosqrt(int n) {
+        int i = 1;
+        for (; n > 0; n >>= 2) i <<= 1;
+        return i;
+    }
+
+    // ---- Myers (xdl_do_diff on the line range [from, from + count) of each side) ----
+
+    private void myers(Side s1, int from1, int count1, Side s2, int from2, int count2, Work work) {
+        int[] h1 = s1.ha;
+        int[] h2 = s2.ha;
+        // Trim common ends
+        int lim = Math.min(count1, count2);
+        int dstart = 0;
+        while (dstart < lim && h1[from1 + dstart] == h2[from2 + dstart]) dstart++;
+        int tail = 0;
+        lim -= dstart;
+        while (tail < lim && h1[from1 + count1 - 1 - tail] == h2[from2 + count2 - 1 - tail]) tail++;
+        int dend1 = count1 - tail - 1;
+        int dend2 = count2 - tail - 1;
+
+        // Discard lines without a match in the other side, and multi-matches inside runs of them
+        for (int i = 0; i < count1; i++) work.count1[h1[from1 + i]]++;
+        for (int i = 0; i < count2; i++) work.count2[h2[from2 + i]]++;
+        byte[] dis1 = new byte[count1 + 1];
+        byte[] dis2 = new byte[count2 + 1];
+        int mlim = Math.min(bogosqrt(count1), MAX_EQLIMIT);
+        for (int i = dstart; i <= dend1; i++) {
+            int nm = work.count2[h1[from1 + i]];
+            dis1[i] = (byte) (nm == 0 ? 0 : nm >= mlim ? 2 : 1);
+        }
+        mlim = Math.min(bogosqrt(count2), MAX_EQLIMIT);
+        for (int i = dstart; i <= dend2; i++) {
+            int nm = work.count1[h2[from2 + i]];
+            dis2[i] = (byte) (nm == 0 ? 0 : nm >= mlim ? 2 : 1);
+        }
+        for (int i = 0; i < count1; i++) work.count1[h1[from1 + i]] = 0;
+        for (int i = 0; i < count2; i++) work.count2[h2[from2 + i]] = 0;
+
+        int[] rindex1 = new int[Math.max(0, dend1 - dstart + 1)];
+        int[] rha1 = new int[rindex1.length];
+        int nreff1 = 0;
+        for (int i = dstart; i <= dend1; i++) {
+            if (dis1[i] == 1 || (dis1[i] == 2 && !cleanMultiMatch(dis1, i, dstart, dend1))) {
+                rindex1[nreff1] = from1 + i;
+                rha1[nreff1] = h1[from1 + i];
+                nreff1++;
+            } else {
+                s1.setChanged(from1 + i, true);
+            }
+        }
+        int[] rindex2 = new int[Math.max(0, dend2 - dstart + 1)];
+        int[] rha2 = new int[rindex2.length];
+        int nreff2 = 0;
+        for (int i = dstart; i <= dend2; i++) {
+            if (dis2[i] == 1 || (dis2[i] == 2 && !cleanMultiMatch(dis2, i, dstart, dend2))) {
+                rindex2[nreff2] = from2 + i;
+                rha2[nreff2] = h2[from2 + i];
+                nreff2++;
+            } else {
+                s2.setChanged(from2 + i, true);
+            }
+        }
+
+        int ndiags = nreff1 + nreff2 + 3;
+        int[] kvd = new int[2 * ndiags + 2];
+        MyersEnv env = new MyersEnv();
+        env.ha1 = rha1;
+        env.ha2 = rha2;
+        env.kvd = kvd;
+        env.kvdf = nreff2 + 1;
+        env.kvdb = ndiags + nreff2 + 1;
+        env.mxcost = Math.max(bogosqrt(ndiags), MAX_COST_MIN);
+        recsCmp(env, s1, rindex1, nreff1, s2, rindex2, nreff2);
+    }
+
+    private static boolean cleanMultiMatch(byte[] dis, int i, int s, int e) {
+        if (i - s > SIMSCAN_WINDOW) s = i - SIMSCAN_WINDOW;
+        if (e - i > SIMSCAN_WINDOW) e = i + SIMSCAN_WINDOW;
+        int r, rdis0 = 0, rpdis0 = 1, rdis1 = 0, rpdis1 = 1;
+        for (r = 1; i - r >= s; r++) {
+            if (dis[i - r] == 0) rdis0++;
+            else if (dis[i - r] == 2) rpdis0++;
+            else break;
+        }
+        if (rdis0 == 0) return false;
+        for (r = 1; i + r <= e; r++) {
+            if (dis[i + r] == 0) rdis1++;
+            else if (dis[i + r] == 2) rpdis1++;
+            else break;
+        }
+        if (rdis1 == 0) return false;
+        rdis1 += rdis0;
+        rpdis1 += rpdis0;
+        return rpdis1 * KPDIS_RUN < (rpdis1 + rdis1);
+    }
+
+    private static final class MyersEnv {
+        int[] ha1;
+        int[] ha2;
+        int[] kvd;
+        int kvdf;
+        int kvdb;
+        int mxcost;
+        // Result of split()
+        int splitI1;
+        int splitI2;
+        boolean minLo;
+        boolean minHi;
+    }
+
+    // xdl_recs_cmp with an explicit stack instead of recursion
+    private void recsCmp(MyersEnv env, Side s1, int[] rindex1, int nrec1, Side s2, int[] rindex2, int nrec2) {
+        int[] ha1 = env.ha1;
+        int[] ha2 = env.ha2;
+        int[] stack = new int[64 * 5];
+        int sp = 0;
+        stack[sp++] = 0;
+        stack[sp++] = nrec1;
+        stack[sp++] = 0;
+        stack[sp++] = nrec2;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            boolean needMin = stack[--sp] != 0;
+            int lim2 = stack[--sp];
+            int off2 = stack[--sp];
+            int lim1 = stack[--sp];
+            int off1 = stack[--sp];
+            while (off1 < lim1 && off2 < lim2 && ha1[off1] == ha2[off2]) {
+                off1++;
+                off2++;
+            }
+            while (off1 < lim1 && off2 < lim2 && ha1[lim1 - 1] == ha2[lim2 - 1]) {
+                lim1--;
+                lim2--;
+            }
+            if (off1 == lim1) {
+                for (; off2 < lim2; off2++) s2.setChanged(rindex2[off2], true);
+            } else if (off2 == lim2) {
+                for (; off1 < lim1; off1++) s1.setChanged(rindex1[off1], true);
+            } else {
+                split(env, off1, lim1, off2, lim2, needMin);
+                if (sp + 10 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                int i1 = env.splitI1;
+                int i2 = env.splitI2;
+                boolean minLo = env.minLo;
+                boolean minHi = env.minHi;
+                stack[sp++] = i1;
+                stack[sp++] = lim1;
+                stack[sp++] = i2;
+                stack[sp++] = lim2;
+                stack[sp++] = minHi ? 1 : 0;
+                stack[sp++] = off1;
+                stack[sp++] = i1;
+                stack[sp++] = off2;
+                stack[sp++] = i2;
+                stack[sp++] = minLo ? 1 : 0;
+            }
+        }
+    }
+
+    // xdl_split: find the middle snake, or a good-enough split when the cost gets too high
+    private void split(MyersEnv env, int off1, int lim1, int off2, int lim2, boolean needMin) {
+        int[] ha1 = env.ha1;
+        int[] ha2 = env.ha2;
+        int[] kv = env.kvd;
+        int kf = env.kvdf;
+        int kb = env.kvdb;
+        int dmin = off1 - lim2, dmax = lim1 - off2;
+        int fmid = off1 - off2, bmid = lim1 - lim2;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        int fmin = fmid, fmax = fmid;
+        int bmin = bmid, bmax = bmid;
+        int i1, i2, prev1, d;
+
+        kv[kf + fmid] = off1;
+        kv[kb + bmid] = lim1;
+
+        for (int ec = 1;; ec++) {
+            boolean gotSnake = false;
+
+            if (fmin > dmin) kv[kf + --fmin - 1] = -1;
+            else ++fmin;
+            if (fmax < dmax) kv[kf + ++fmax + 1] = -1;
+            else --fmax;
+
+            for (d = fmax; d >= fmin; d -= 2) {
+                if (kv[kf + d - 1] >= kv[kf + d + 1]) i1 = kv[kf + d - 1] + 1;
+                else i1 = kv[kf + d + 1];
+                prev1 = i1;
+                i2 = i1 - d;
+                while (i1 < lim1 && i2 < lim2 && ha1[i1] == ha2[i2]) {
+                    i1++;
+                    i2++;
+                }
+                if (i1 - prev1 > SNAKE_CNT) gotSnake = true;
+                kv[kf + d] = i1;
+                if (odd && bmin <= d && d <= bmax && kv[kb + d] <= i1) {
+                    env.splitI1 = i1;
+                    env.splitI2 = i2;
+                    env.minLo = env.minHi = true;
+                    return;
+                }
+            }
+
+            if (bmin > dmin) kv[kb + --bmin - 1] = LINE_MAX;
+            else ++bmin;
+            if (bmax < dmax) kv[kb + ++bmax + 1] = LINE_MAX;
+            else --bmax;
+
+            for (d = bmax; d >= bmin; d -= 2) {
+                if (kv[kb + d - 1] < kv[kb + d + 1]) i1 = kv[kb + d - 1];
+                else i1 = kv[kb + d + 1] - 1;
+                prev1 = i1;
+                i2 = i1 - d;
+                while (i1 > off1 && i2 > off2 && ha1[i1 - 1] == ha2[i2 - 1]) {
+                    i1--;
+                    i2--;
+                }
+                if (prev1 - i1 > SNAKE_CNT) gotSnake = true;
+                kv[kb + d] = i1;
+                if (!odd && fmin <= d && d <= fmax && i1 <= kv[kf + d]) {
+                    env.splitI1 = i1;
+                    env.splitI2 = i2;
+                    env.minLo = env.minHi = true;
+                    return;
+                }
+            }
+
+            if (needMin) continue;
+
+            if (gotSnake && ec > HEUR_MIN_COST) {
+                int best = 0;
+                for (d = fmax; d >= fmin; d -= 2) {
+                    int dd = d > fmid ? d - fmid : fmid - d;
+                    i1 = kv[kf + d];
+                    i2 = i1 - d;
+                    int v = (i1 - off1) + (i2 - off2) - dd;
+                    if (v > K_HEUR * ec && v > best
+                            && off1 + SNAKE_CNT <= i1 && i1 < lim1
+                            && off2 + SNAKE_CNT <= i2 && i2 < lim2) {
+                        for (int k = 1; ha1[i1 - k] == ha2[i2 - k]; k++) {
+                            if (k == SNAKE_CNT) {
+                                best = v;
+                                env.splitI1 = i1;
+                                env.splitI2 = i2;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (best > 0) {
+                    env.minLo = true;
+                    env.minHi = false;
+                    return;
+                }
+
+                best = 0;
+                for (d = bmax; d >= bmin; d -= 2) {
+                    int dd = d > bmid ? d - bmid : bmid - d;
+                    i1 = kv[kb + d];
+                    i2 = i1 - d;
+                    int v = (lim1 - i1) + (lim2 - i2) - dd;
+                    if (v > K_HEUR * ec && v > best
+                            && off1 < i1 && i1 <= lim1 - SNAKE_CNT
+                            && off2 < i2 && i2 <= lim2 - SNAKE_CNT) {
+                        for (int k = 0; ha1[i1 + k] == ha2[i2 + k]; k++) {
+                            if (k == SNAKE_CNT - 1) {
+                                best = v;
+                                env.splitI1 = i1;
+                                env.splitI2 = i2;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (best > 0) {
+                    env.minLo = false;
+                    env.minHi = true;
+                    return;
+                }
+            }
+
+            if (ec >= env.mxcost) {
+                long fbest = -1, fbest1 = -1;
+                for (d = fmax; d >= fmin; d -= 2) {
+                    i1 = Math.min(kv[kf + d], lim1);
+                    i2 = i1 - d;
+                    if (lim2 < i2) {
+                        i1 = lim2 + d;
+                        i2 = lim2;
+                    }
+                    if (fbest < i1 + i2) {
+                        fbest = i1 + i2;
+                        fbest1 = i1;
+                    }
+                }
+                long bbest = LINE_MAX, bbest1 = LINE_MAX;
+                for (d = bmax; d >= bmin; d -= 2) {
+                    i1 = Math.max(off1, kv[kb + d]);
+                    i2 = i1 - d;
+                    if (i2 < off2) {
+                        i1 = off2 + d;
+                        i2 = off2;
+                    }
+                    if (i1 + i2 < bbest) {
+                        bbest = i1 + i2;
+                        bbest1 = i1;
+                    }
+                }
+                if ((lim1 + lim2) - bbest < fbest - (off1 + off2)) {
+                    env.splitI1 = (int) fbest1;
+                    env.splitI2 = (int) (fbest - fbest1);
+                    env.minLo = true;
+                    env.minHi = false;
+                } else {
+                    env.splitI1 = (int) bbest1;
+                    env.splitI2 = (int) (bbest - bbest1);
+                    env.minLo = false;
+                    env.minHi = true;
+                }
+                return;
+            }
+        }
+    }
+
+    // ---- Histogram (xhistogram.c); line numbers are 1-based like in git ----
+
+    private static final class HistIndex {
+        int[] recPtr;
+        int[] recCnt;
+        int[] lineSlot;
+        int[] nextPtr;
+        int ptrShift;
+        int cnt;
+        boolean hasCommon;
+        int begin1, end1, begin2, end2;
+    }
+
+    private void histogram(Side s1, Side s2, Work work) {
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = 1;
+        stack[sp++] = s1.n;
+        stack[sp++] = 1;
+        stack[sp++] = s2.n;
+        while (sp > 0) {
+            int count2 = stack[--sp];
+            int line2 = stack[--sp];
+            int count1 = stack[--sp];
+            int line1 = stack[--sp];
+            if (count1 <= 0 && count2 <= 0) continue;
+            if (count1 == 0) {
+                while (count2-- > 0) s2.setChanged(line2++ - 1, true);
+                continue;
+            }
+            if (count2 == 0) {
+                while (count1-- > 0) s1.setChanged(line1++ - 1, true);
+                continue;
+            }
+            HistIndex lcs = findLcs(s1, s2, work, line1, count1, line2, count2);
+            if (lcs.hasCommon && HISTOGRAM_MAX_CHAIN < lcs.cnt) {
+                myers(s1, line1 - 1, count1, s2, line2 - 1, count2, work);
+            } else if (lcs.begin1 == 0 && lcs.begin2 == 0) {
+                while (count1-- > 0) s1.setChanged(line1++ - 1, true);
+                while (count2-- > 0) s2.setChanged(line2++ - 1, true);
+            } else {
+                if (sp + 8 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                int end1 = line1 + count1 - 1;
+                int end2 = line2 + count2 - 1;
+                stack[sp++] = lcs.end1 + 1;
+                stack[sp++] = end1 - lcs.end1;
+                stack[sp++] = lcs.end2 + 1;
+                stack[sp++] = end2 - lcs.end2;
+                stack[sp++] = line1;
+                stack[sp++] = lcs.begin1 - line1;
+                stack[sp++] = line2;
+                stack[sp++] = lcs.begin2 - line2;
+            }
+        }
+    }
+
+    private HistIndex findLcs(Side s1, Side s2, Work work, int line1, int count1, int line2, int count2) {
+        HistIndex index = new HistIndex();
+        index.recPtr = new int[count1];
+        index.recCnt = new int[count1];
+        index.lineSlot = new int[count1];
+        index.nextPtr = new int[count1];
+        index.ptrShift = line1;
+        int stamp = ++work.stamp;
+        int slots = 0;
+        int[] h1 = s1.ha;
+        int[] h2 = s2.ha;
+        // scanA: chain equal lines of A from the bottom so each chain starts at its first line
+        for (int ptr = line1 + count1 - 1; line1 <= ptr; ptr--) {
+            int c = h1[ptr - 1];
+            int slot;
+            if (work.slotStamp[c] == stamp) {
+                slot = work.slotOf[c];
+                index.nextPtr[ptr - line1] = index.recPtr[slot];
+                index.recPtr[slot] = ptr;
+                index.recCnt[slot]++;
+            } else {
+                slot = slots++;
+                work.slotStamp[c] = stamp;
+                work.slotOf[c] = slot;
+                index.recPtr[slot] = ptr;
+                index.recCnt[slot] = 1;
+            }
+            index.lineSlot[ptr - line1] = slot;
+        }
+        index.cnt = HISTOGRAM_MAX_CHAIN + 1;
+        int lineEnd1 = line1 + count1 - 1;
+        int lineEnd2 = line2 + count2 - 1;
+        for (int bPtr = line2; bPtr <= lineEnd2; ) {
+            // try_lcs
+            int bNext = bPtr + 1;
+            int c = h2[bPtr - 1];
+            if (work.slotStamp[c] == stamp) {
+                int slot = work.slotOf[c];
+                if (index.recCnt[slot] > index.cnt) {
+                    index.hasCommon = true;
+                } else {
+                    index.hasCommon = true;
+                    int as = index.recPtr[slot];
+                    while (true) {
+                        int np = index.nextPtr[as - line1];
+                        int bs = bPtr;
+                        int ae = as;
+                        int be = bs;
+                        int rc = index.recCnt[slot];
+                        while (line1 < as && line2 < bs && h1[as - 2] == h2[bs - 2]) {
+                            as--;
+                            bs--;
+                            if (1 < rc) rc = Math.min(rc, index.recCnt[index.lineSlot[as - line1]]);
+                        }
+                        while (ae < lineEnd1 && be < lineEnd2 && h1[ae] == h2[be]) {
+                            ae++;
+                            be++;
+                            if (1 < rc) rc = Math.min(rc, index.recCnt[index.lineSlot[ae - line1]]);
+                        }
+                        if (bNext <= be) bNext = be + 1;
+                        if (index.end1 - index.begin1 < ae - as || rc < index.cnt) {
+                            index.begin1 = as;
+                            index.begin2 = bs;
+                            index.end1 = ae;
+                            index.end2 = be;
+                            index.cnt = rc;
+                        }
+                        if (np == 0) break;
+                        boolean stop = false;
+                        while (np <= ae) {
+                            np = index.nextPtr[np - line1];
+                            if (np == 0) {
+                                stop = true;
+                                break;
+                            }
+                        }
+                        if (stop) break;
+                        as = np;
+                    }
+                }
+            }
+            bPtr = bNext;
+        }
+        return index;
+    }
+
+    // ---- Change compaction (xdl_change_compact) ----
+
+    private static final int MAX_INDENT = 200;
+    private static final int MAX_BLANKS = 20;
+    private static final int START_OF_FILE_PENALTY = 1;
+    private static final int END_OF_FILE_PENALTY = 21;
+    private static final int TOTAL_BLANK_WEIGHT = -30;
+    private static final int POST_BLANK_WEIGHT = 6;
+    private static final int RELATIVE_INDENT_PENALTY = -4;
+    private static final int RELATIVE_INDENT_WITH_BLANK_PENALTY = 10;
+    private static final int RELATIVE_OUTDENT_PENALTY = 24;
+    private static final int RELATIVE_OUTDENT_WITH_BLANK_PENALTY = 17;
+    private static final int RELATIVE_DEDENT_PENALTY = 23;
+    private static final int RELATIVE_DEDENT_WITH_BLANK_PENALTY = 17;
+    private static final int INDENT_WEIGHT = 60;
+    private static final int INDENT_HEURISTIC_MAX_SLIDING = 100;
+
+    /** A group of changed lines [start, end) of one side. */
+    private static final class Group {
+        int start;
+        int end;
+
+        void init(Side s) {
+            start = end = 0;
+            while (s.changed(end)) end++;
+        }
+
+        boolean next(Side s) {
+            if (end == s.n) return false;
+            start = end + 1;
+            for (end = start; s.changed(end); end++) {
+                // extend
+            }
+            return true;
+        }
+
+        boolean previous(Side s) {
+            if (start == 0) return false;
+            end = start - 1;
+            for (start = end; s.changed(start - 1); start--) {
+                // extend
+            }
+            return true;
+        }
+
+        boolean slideDown(Side s) {
+            if (end < s.n && s.ha[start] == s.ha[end]) {
+                s.setChanged(start++, false);
+                s.setChanged(end++, true);
+                while (s.changed(end)) end++;
+                return true;
+            }
+            return false;
+        }
+
+        boolean slideUp(Side s) {
+            if (start > 0 && s.ha[start - 1] == s.ha[end - 1]) {
+                s.setChanged(--start, true);
+                s.setChanged(--end, false);
+                while (s.changed(start - 1)) start--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void compact(Side s, Side other) {
+        Group g = new Group();
+        Group go = new Group();
+        g.init(s);
+        go.init(other);
+        while (true) {
+            if (g.end != g.start) {
+                int groupSize;
+                int earliestEnd;
+                int endMatchingOther;
+                do {
+                    groupSize = g.end - g.start;
+                    endMatchingOther = -1;
+                    while (g.slideUp(s)) {
+                        if (!go.previous(other)) throw new IllegalStateException("group sync broken sliding up");
+                    }
+                    earliestEnd = g.end;
+                    if (go.end > go.start) endMatchingOther = g.end;
+                    while (g.slideDown(s)) {
+                        if (!go.next(other)) throw new IllegalStateException("group sync broken sliding down");
+                        if (go.end > go.start) endMatchingOther = g.end;
+                    }
+                } while (groupSize != g.end - g.start);
+
+                if (g.end == earliestEnd) {
+                    // no shifting possible
+                } else if (endMatchingOther != -1) {
+                    while (go.end == go.start) {
+                        if (!g.slideUp(s)) throw new IllegalStateException("match disappeared");
+                        if (!go.previous(other)) throw new IllegalStateException("group sync broken sliding to match");
+                    }
+                } else if (indentHeuristic) {
+                    int shift = earliestEnd;
+                    if (g.end - groupSize - 1 > shift) shift = g.end - groupSize - 1;
+                    if (g.end - INDENT_HEURISTIC_MAX_SLIDING > shift) shift = g.end - INDENT_HEURISTIC_MAX_SLIDING;
+                    int bestShift = -1;
+                    int bestIndent = 0;
+                    int bestPenalty = 0;
+                    int[] score = new int[2];
+                    for (; shift <= g.end; shift++) {
+                        score[0] = 0;
+                        score[1] = 0;
+                        scoreAddSplit(s, shift, score);
+                        scoreAddSplit(s, shift - groupSize, score);
+                        int cmpIndents = Integer.compare(score[0], bestIndent);
+                        if (bestShift == -1 || INDENT_WEIGHT * cmpIndents + (score[1] - bestPenalty) <= 0) {
+                            bestIndent = score[0];
+                            bestPenalty = score[1];
+                            bestShift = shift;
+                        }
+                    }
+                    while (g.end > bestShift) {
+                        if (!g.slideUp(s)) throw new IllegalStateException("best shift unreached");
+                        if (!go.previous(other)) throw new IllegalStateException("group sync broken sliding to blank line");
+                    }
+                }
+            }
+            if (!g.next(s)) break;
+            if (!go.next(other)) throw new IllegalStateException("group sync broken moving to next group");
+        }
+    }
+
+    private static int getIndent(Side s, int line) {
+        int ret = 0;
+        for (int i = s.starts[line]; i < s.starts[line + 1]; i++) {
+            byte c = s.data[i];
+            if (!(c == ' ' || c == '\t' || c == '\n' || c == 11 || c == '\f' || c == '\r')) return ret;
+            if (c == ' ') ret += 1;
+            else if (c == '\t') ret += 8 - ret % 8;
+            if (ret >= MAX_INDENT) return MAX_INDENT;
+        }
+        return -1;
+    }
+
+    // measure_split + score_add_split; score[0] is the effective indent, score[1] the penalty
+    private static void scoreAddSplit(Side s, int split, int[] score) {
+        boolean endOfFile;
+        int indent;
+        if (split >= s.n) {
+            endOfFile = true;
+            indent = -1;
+        } else {
+            endOfFile = false;
+            indent = getIndent(s, split);
+        }
+        int preBlank = 0;
+        int preIndent = -1;
+        for (int i = split - 1; i >= 0; i--) {
+            preIndent = getIndent(s, i);
+            if (preIndent != -1) break;
+            preBlank += 1;
+            if (preBlank == MAX_BLANKS) {
+                preIndent = 0;
+                break;
+            }
+        }
+        int postBlank0 = 0;
+        int postIndent = -1;
+        for (int i = split + 1; i < s.n; i++) {
+            postIndent = getIndent(s, i);
+            if (postIndent != -1) break;
+            postBlank0 += 1;
+            if (postBlank0 == MAX_BLANKS) {
+                postIndent = 0;
+                break;
+            }
+        }
+
+        if (preIndent == -1 && preBlank == 0) score[1] += START_OF_FILE_PENALTY;
+        if (endOfFile) score[1] += END_OF_FILE_PENALTY;
+        int postBlank = (indent == -1) ? 1 + postBlank0 : 0;
+        int totalBlank = preBlank + postBlank;
+        score[1] += TOTAL_BLANK_WEIGHT * totalBlank;
+        score[1] += POST_BLANK_WEIGHT * postBlank;
+        int effective = indent != -1 ? indent : postIndent;
+        boolean anyBlanks = totalBlank != 0;
+        score[0] += effective;
+        if (effective == -1 || preIndent == -1) {
+            // no adjustments
+        } else if (effective > preIndent) {
+            score[1] += anyBlanks ? RELATIVE_INDENT_WITH_BLANK_PENALTY : RELATIVE_INDENT_PENALTY;
+        } else if (effective == preIndent) {
+            // no adjustments
+        } else if (postIndent != -1 && postIndent > effective) {
+            score[1] += anyBlanks ? RELATIVE_OUTDENT_WITH_BLANK_PENALTY : RELATIVE_OUTDENT_PENALTY;
+        } else {
+            score[1] += anyBlanks ? RELATIVE_DEDENT_WITH_BLANK_PENALTY : RELATIVE_DEDENT_PENALTY;
+        }
+    }
+
+    // ---- Emission (xdl_build_script, xdl_get_hunk, xdl_emit_diff) ----
+
+    private void emit(Side s1, Side s2, ByteArrayOutputStream out) {
+        // Changes as (i1, i2, chg1, chg2) in file order
+        int[] changes = new int[64];
+        int nch = 0;
+        int i1 = 0, i2 = 0;
+        while (i1 < s1.n || i2 < s2.n) {
+            if (s1.changed(i1) || s2.changed(i2)) {
+                int l1 = i1, l2 = i2;
+                while (s1.changed(l1)) l1++;
+                while (s2.changed(l2)) l2++;
+                if (nch + 4 > changes.length) changes = Arrays.copyOf(changes, changes.length * 2);
+                changes[nch++] = i1;
+                changes[nch++] = i2;
+                changes[nch++] = l1 - i1;
+                changes[nch++] = l2 - i2;
+                i1 = l1;
+                i2 = l2;
+            } else {
+                i1++;
+                i2++;
+            }
+        }
+        int count = nch / 4;
+        byte[] funcBuf = new byte[80];
+        int funcLen = 0;
+        int funcLinePrev = -1;
+        int maxCommon = 2 * context + interHunkContext;
+        for (int c = 0; c < count; ) {
+            // Group changes that are close enough to share one hunk
+            int e = c;
+            while (e + 1 < count && changes[4 * (e + 1)] - (changes[4 * e] + changes[4 * e + 2]) <= maxCommon) e++;
+            int s1Line = Math.max(changes[4 * c] - context, 0);
+            int s2Line = Math.max(changes[4 * c + 1] - context, 0);
+            int lastI1 = changes[4 * e], lastI2 = changes[4 * e + 1];
+            int lastChg1 = changes[4 * e + 2], lastChg2 = changes[4 * e + 3];
+            int lctx = context;
+            lctx = Math.min(lctx, s1.n - (lastI1 + lastChg1));
+            lctx = Math.min(lctx, s2.n - (lastI2 + lastChg2));
+            int e1 = lastI1 + lastChg1 + lctx;
+            int e2 = lastI2 + lastChg2 + lctx;
+
+            // Function name: first matching line searching up from the hunk start
+            for (int l = s1Line - 1; l != funcLinePrev && l >= 0 && l < s1.n; l += (s1Line - 1 > funcLinePrev ? -1 : 1)) {
+                int len = matchFuncLine(s1, l, funcBuf);
+                if (len >= 0) {
+                    funcLen = len;
+                    break;
+                }
+            }
+            funcLinePrev = s1Line - 1;
+
+            StringBuilder hdr = new StringBuilder("@@ -");
+            int c1 = e1 - s1Line, c2 = e2 - s2Line;
+            hdr.append(c1 != 0 ? s1Line + 1 : s1Line);
+            if (c1 != 1) hdr.append(',').append(c1);
+            hdr.append(" +").append(c2 != 0 ? s2Line + 1 : s2Line);
+            if (c2 != 1) hdr.append(',').append(c2);
+            hdr.append(" @@");
+            byte[] hdrBytes = hdr.toString().getBytes(StandardCharsets.US_ASCII);
+            out.write(hdrBytes, 0, hdrBytes.length);
+            if (funcLen > 0) {
+                out.write(' ');
+                out.write(funcBuf, 0, funcLen);
+            }
+            out.write('\n');
+
+            int p2 = s2Line;
+            for (; p2 < changes[4 * c + 1]; p2++) emitLine(out, ' ', s2, p2);
+            int p1 = changes[4 * c];
+            p2 = changes[4 * c + 1];
+            for (int k = c; ; k++) {
+                int ki1 = changes[4 * k], ki2 = changes[4 * k + 1];
+                for (; p1 < ki1 && p2 < ki2; p1++, p2++) emitLine(out, ' ', s2, p2);
+                for (p1 = ki1; p1 < ki1 + changes[4 * k + 2]; p1++) emitLine(out, '-', s1, p1);
+                for (p2 = ki2; p2 < ki2 + changes[4 * k + 3]; p2++) emitLine(out, '+', s2, p2);
+                if (k == e) break;
+                p1 = ki1 + changes[4 * k + 2];
+                p2 = ki2 + changes[4 * k + 3];
+            }
+            for (p2 = lastI2 + lastChg2; p2 < e2; p2++) emitLine(out, ' ', s2, p2);
+            c = e + 1;
+        }
+    }
+
+    // git's default function-name rule: a line starting with a letter, '_' or '$'
+    private static int matchFuncLine(Side s, int line, byte[] buf) {
+        int start = s.starts[line];
+        int len = s.starts[line + 1] - start;
+        if (len <= 0) return -1;
+        byte first = s.data[start];
+        if (!((first >= 'a' && first <= 'z') || (first >= 'A' && first <= 'Z') || first == '_' || first == '$')) return -1;
+        if (len > buf.length) len = buf.length;
+        while (len > 0 && isSpace(s.data[start + len - 1])) len--;
+        System.arraycopy(s.data, start, buf, 0, len);
+        return len;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 11 || c == '\f' || c == '\r';
+    }
+
+    private static void emitLine(ByteArrayOutputStream out, char prefix, Side s, int line) {
+        int start = s.starts[line];
+        int end = s.starts[line + 1];
+        out.write(prefix);
+        out.write(s.data, start, end - start);
+        if (end == start || s.data[end - 1] != '\n') out.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+    }
+}
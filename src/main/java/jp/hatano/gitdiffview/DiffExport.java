@@ -0,0 +1,333 @@
+package jp.hatano.gitdiffview;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+
+/**
+ * Command line export of the diff between two refs, without a display:
+ *
+ *   java -jar gitdiffview.jar export [options] REPOSITORY FROM TO
+ *
+ * Every changed file is written with the add, remove and header colors of the viewer, as
+ * one HTML page or as ANSI colored text. Files are diffed and rendered on a fixed pool of
+ * threads; the output is written in git's file order while only a few rendered files per
+ * thread are held in memory, so the export of thousands of files streams to disk.
+ */
+public class DiffExport {
+    private static final Logger LOGGER = Logger.getLogger(DiffExport.class.getName());
+
+    public enum Format { HTML, ANSI }
+
+    private static final String USAGE = "Usage: export [--format html|ansi] [--output FILE] [--threads N] [--encoding NAME]"
+        + " [--merge-base] REPOSITORY FROM TO";
+    // Rendered files held per thread while the writer waits for an earlier one
+    private static final int WINDOW_PER_THREAD = 2;
+
+    public static final class Options {
+        String repoPath;
+        String from;
+        String to;
+        Format format = Format.HTML;
+        // "-" for standard output
+        String output = "-";
+        int threads = Runtime.getRuntime().availableProcessors();
+        Charset encoding = StandardCharsets.UTF_8;
+        // Compare TO with the merge base of FROM and TO, like "git diff FROM...TO"
+        boolean mergeBase;
+        Color addColor = DiffColorTextArea.darkGreen;
+        Color delColor = Color.RED;
+        Color headColor = Color.BLUE;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            int positional = 0;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--format":
+                        String format = value(args, ++i, arg);
+                        if (format.equalsIgnoreCase("html")) o.format = Format.HTML;
+                        else if (format.equalsIgnoreCase("ansi")) o.format = Format.ANSI;
+                        else throw new IllegalArgumentException("Unknown format: " + format);
+                        break;
+                    case "-o":
+                    case "--output":
+                        o.output = value(args, ++i, arg);
+                        break;
+                    case "-j":
+                    case "--threads":
+                        try {
+                            o.threads = Integer.parseInt(value(args, ++i, arg));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Not a number: " + args[i]);
+                        }
+                        if (o.threads < 1) throw new IllegalArgumentException("Threads must be at least 1");
+                        break;
+                    case "--encoding":
+                        String name = value(args, ++i, arg);
+                        if (!Charset.isSupported(name)) throw new IllegalArgumentException("Unknown encoding: " + name);
+                        o.encoding = Charset.forName(name);
+                        break;
+                    case "--merge-base":
+                        o.mergeBase = true;
+                        break;
+                    default:
+                        if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + arg);
+                        if (positional == 0) o.repoPath = arg;
+                        else if (positional == 1) o.from = arg;
+                        else if (positional == 2) o.to = arg;
+                        else throw new IllegalArgumentException("Too many arguments: " + arg);
+                        positional++;
+                }
+            }
+            if (positional < 3) throw new IllegalArgumentException("Missing arguments");
+            return o;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            return args[i];
+        }
+
+        // The colors last configured in the viewer, if any
+        void useViewerColors() {
+            Preferences prefs = Preferences.userNodeForPackage(GitDiffViewApp.class);
+            addColor = DiffColorTextArea.parseColor(prefs.get(GitDiffViewApp.PREF_DIFF_ADD_COLOR, "0,128,0"));
+            delColor = DiffColorTextArea.parseColor(prefs.get(GitDiffViewApp.PREF_DIFF_DEL_COLOR, "255,0,0"));
+            headColor = DiffColorTextArea.parseColor(prefs.get(GitDiffViewApp.PREF_DIFF_HEAD_COLOR, "0,0,255"));
+        }
+    }
+
+    // Entry point of "export"; returns the process exit code
+    public static int main(String[] args, PrintStream stdout, PrintStream stderr) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return 2;
+        }
+        options.useViewerColors();
+        boolean toStdout = options.output.equals("-");
+        try (OutputStream out = toStdout ? new NonClosing(stdout) : new BufferedOutputStream(new FileOutputStream(options.output), 1 << 16)) {
+            int files = export(options, out);
+            if (!toStdout) stderr.println("Exported " + files + " files to " + options.output);
+            return 0;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Export failed", e);
+            stderr.println("Export failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // Write the diff of every changed file; returns the number of files
+    static int export(Options options, OutputStream out) throws Exception {
+        GitTaskScheduler scheduler = new GitTaskScheduler();
+        ObjectDatabase odb = ObjectDatabase.open(options.repoPath);
+        String[] range = scheduler.run("Resolving " + options.from + " and " + options.to, ctx -> {
+            RefReader.Refs refs = null;
+            try {
+                refs = new RefReader(options.repoPath).read();
+            } catch (IOException e) {
+                // Leave the names to git rev-parse
+            }
+            RefResolver resolver = new RefResolver(ctx, options.repoPath, refs, odb);
+            String from = resolver.resolveCommit(options.from);
+            String to = resolver.resolveCommit(options.to);
+            if (options.mergeBase) from = resolver.mergeBase(from, to);
+            return new String[] { from, to };
+        });
+        FileChanges files = scheduler.run("Listing changed files",
+            ctx -> FileChanges.load(ctx, options.repoPath, range[0], range[1], null));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(options.threads, r -> {
+            Thread t = new Thread(r, "gitdiffview-export-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // Diffs are written once, so the cache would only hold memory
+        try (GitObjectPool objects = new GitObjectPool(options.repoPath, options.threads)) {
+            DiffLoader loader = new DiffLoader(options.repoPath, objects, odb, new DiffCache(0));
+            Renderer renderer = options.format == Format.HTML ? new HtmlRenderer(options) : new AnsiRenderer(options);
+            out.write(renderer.start(options, range, files));
+            Deque<Future<byte[]>> window = new ArrayDeque<>();
+            int next = 0;
+            while (next < files.size() || !window.isEmpty()) {
+                while (next < files.size() && window.size() < options.threads * WINDOW_PER_THREAD) {
+                    int index = next++;
+                    window.add(pool.submit(() -> {
+                        String path = files.getPath(index);
+                        byte[] raw = scheduler.run("Diff of " + path, ctx -> loader.load(ctx, range[0], range[1], path));
+                        return renderer.file(files, index, DiffLines.decode(raw, options.encoding));
+                    }));
+                }
+                try {
+                    out.write(window.poll().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) throw (Exception) cause;
+                    throw e;
+                }
+            }
+            out.write(renderer.end());
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+            scheduler.shutdown();
+        }
+        return files.size();
+    }
+
+    // Renders parts of the output to bytes; file() is called on several threads at once
+    private interface Renderer {
+        byte[] start(Options options, String[] range, FileChanges files) throws IOException;
+
+        byte[] file(FileChanges files, int index, DiffLines lines) throws IOException;
+
+        byte[] end() throws IOException;
+    }
+
+    private static final class HtmlRenderer implements Renderer {
+        private final String styleSheet;
+
+        HtmlRenderer(Options options) {
+            styleSheet = DiffHtmlWriter.styleSheet(options.addColor, options.delColor, options.headColor)
+                + "h2{font-family:sans-serif;font-size:15px;margin:24px 0 4px}ul{font-family:monospace}";
+        }
+
+        @Override
+        public byte[] start(Options options, String[] range, FileChanges files) throws IOException {
+            return render(html -> {
+                String title = options.from + ".." + options.to;
+                html.writeDocumentStart(title, styleSheet);
+                html.writeRaw("<h1>");
+                html.writeEscaped(title + " (" + range[0] + ".." + range[1] + ")");
+                html.writeRaw("</h1>\n<ul>\n");
+                // Table of contents with links to the sections
+                for (int i = 0; i < files.size(); i++) {
+                    html.writeRaw("<li><a href=\"#f" + i + "\">");
+                    html.writeEscaped(files.getStatus(i) + " " + files.getPath(i));
+                    html.writeRaw("</a>");
+                    html.writeEscaped(counts(files, i));
+                    html.writeRaw("</li>\n");
+                }
+                html.writeRaw("</ul>\n");
+            });
+        }
+
+        @Override
+        public byte[] file(FileChanges files, int index, DiffLines lines) throws IOException {
+            return render(html -> {
+                html.writeRaw("<h2 id=\"f" + index + "\">");
+                html.writeEscaped(files.getStatus(index) + " " + files.getPath(index));
+                html.writeRaw("</h2>\n");
+                html.writePreStart();
+                html.writeLines(lines);
+                html.writePreEnd();
+            });
+        }
+
+        @Override
+        public byte[] end() throws IOException {
+            return render(DiffHtmlWriter::writeDocumentEnd);
+        }
+
+        private interface Body {
+            void write(DiffHtmlWriter html) throws IOException;
+        }
+
+        private static byte[] render(Body body) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+                body.write(new DiffHtmlWriter(writer));
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final class AnsiRenderer implements Renderer {
+        private static final String RESET = "\u001b[0m";
+        private final String[] codes = new String[4];
+
+        AnsiRenderer(Options options) {
+            codes[DiffLines.ADD] = code(options.addColor);
+            codes[DiffLines.DELETE] = code(options.delColor);
+            codes[DiffLines.HEADER] = code(options.headColor);
+        }
+
+        // Bold 24-bit foreground color
+        private static String code(Color c) {
+            return "\u001b[1;38;2;" + c.getRed() + ";" + c.getGreen() + ";" + c.getBlue() + "m";
+        }
+
+        @Override
+        public byte[] start(Options options, String[] range, FileChanges files) {
+            return new byte[0];
+        }
+
+        @Override
+        public byte[] file(FileChanges files, int index, DiffLines lines) {
+            StringBuilder sb = new StringBuilder(lines.getLength() + lines.getLineCount() * 16 + 64);
+            sb.append("\u001b[1;7m ").append(files.getStatus(index)).append(' ').append(files.getPath(index))
+                .append(counts(files, index)).append(' ').append(RESET).append('\n');
+            char[] text = lines.getChars();
+            for (int line = 0; line < lines.getLineCount(); line++) {
+                String code = codes[lines.getKind(line)];
+                if (code != null) sb.append(code);
+                sb.append(text, lines.getLineStart(line), lines.getLineEnd(line) - lines.getLineStart(line));
+                if (code != null) sb.append(RESET);
+                sb.append('\n');
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] end() {
+            return new byte[0];
+        }
+    }
+
+    private static String counts(FileChanges files, int index) {
+        int added = files.getAdded(index);
+        if (added == FileChanges.BINARY) return "  bin";
+        if (added == FileChanges.UNKNOWN) return "";
+        return "  +" + added + " -" + files.getDeleted(index);
+    }
+
+    // Standard output stays open after the export
+    private static final class NonClosing extends java.io.FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
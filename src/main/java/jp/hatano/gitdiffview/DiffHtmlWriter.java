@@ -0,0 +1,117 @@
+package jp.hatano.gitdiffview;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes diff text as HTML in one pass. Text is styled by line kind through CSS classes
+ * ("a" added, "d" removed, "h" header; context text is plain), and consecutive text of
+ * the same kind shares one span, so a block of added lines is a single element.
+ */
+public class DiffHtmlWriter {
+    private static final String[] CLASSES = new String[4];
+
+    static {
+        CLASSES[DiffLines.ADD] = "a";
+        CLASSES[DiffLines.DELETE] = "d";
+        CLASSES[DiffLines.HEADER] = "h";
+    }
+
+    private final Writer out;
+    // Kind of the open span, or -1
+    private int openKind = -1;
+
+    public DiffHtmlWriter(Writer out) {
+        this.out = out;
+    }
+
+    // CSS rules for the classes with the colors of the text pane; bold like its styles
+    public static String styleSheet(Color add, Color del, Color head) {
+        return "pre{font-family:monospace;font-size:14px}"
+            + rule(CLASSES[DiffLines.ADD], add) + rule(CLASSES[DiffLines.DELETE], del) + rule(CLASSES[DiffLines.HEADER], head);
+    }
+
+    private static String rule(String cls, Color color) {
+        return "." + cls + "{color:rgb(" + color.getRed() + "," + color.getGreen() + "," + color.getBlue() + ");font-weight:bold}";
+    }
+
+    // Start of a document with the given style sheet
+    public void writeDocumentStart(String title, String styleSheet) throws IOException {
+        out.write("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>");
+        writeEscaped(title);
+        out.write("</title><style>");
+        out.write(styleSheet);
+        out.write("</style></head><body>\n");
+    }
+
+    public void writeDocumentEnd() throws IOException {
+        out.write("</body></html>\n");
+    }
+
+    public void writePreStart() throws IOException {
+        out.write("<pre>");
+    }
+
+    public void writePreEnd() throws IOException {
+        closeSpan();
+        out.write("</pre>\n");
+    }
+
+    // Text of the given kind; may span lines
+    public void write(byte kind, char[] text, int start, int end) throws IOException {
+        if (start >= end) return;
+        if (kind != openKind) {
+            closeSpan();
+            if (CLASSES[kind] != null) {
+                out.write("<span class=\"");
+                out.write(CLASSES[kind]);
+                out.write("\">");
+                openKind = kind;
+            }
+        }
+        writeEscaped(text, start, end);
+    }
+
+    // Every line of the diff with its kind
+    public void writeLines(DiffLines lines) throws IOException {
+        char[] text = lines.getChars();
+        for (int line = 0; line < lines.getLineCount(); line++) {
+            int end = line + 1 < lines.getLineCount() ? lines.getLineStart(line + 1) : lines.getLength();
+            write(lines.getKind(line), text, lines.getLineStart(line), end);
+        }
+    }
+
+    private void closeSpan() throws IOException {
+        if (openKind >= 0) out.write("</span>");
+        openKind = -1;
+    }
+
+    // Raw markup outside of diff text, e.g. headings between files
+    public void writeRaw(String html) throws IOException {
+        closeSpan();
+        out.write(html);
+    }
+
+    public void writeEscaped(String s) throws IOException {
+        writeEscaped(s.toCharArray(), 0, s.length());
+    }
+
+    private void writeEscaped(char[] text, int start, int end) throws IOException {
+        int plain = start;
+        for (int i = start; i < end; i++) {
+            String entity;
+            switch (text[i]) {
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '"': entity = "&quot;"; break;
+                default: continue;
+            }
+            out.write(text, plain, i - plain);
+            out.write(entity);
+            plain = i + 1;
+        }
+        out.write(text, plain, end - plain);
+    }
+}
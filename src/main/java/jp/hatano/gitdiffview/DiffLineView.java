@@ -0,0 +1,296 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.*;
+import javax.swing.text.DefaultEditorKit;
+import java.awt.*;
+import java.awt.datatransfer.Clipboard;
+import java.awt.event.*;
+
+/**
+ * Read-only diff view that paints only the lines inside the clip, straight from a
+ * {@link DiffLines} index. Used for diffs too large for the styled text pane: setting a
+ * diff costs nothing per line, so huge diffs open at once.
+ *
+ * Supports mouse selection, select all, copying as plain text and HTML, the diff color
+ * scheme and scrolling with line-sized increments.
+ */
+public class DiffLineView extends JComponent implements Scrollable {
+    private static final int MARGIN = 4;
+
+    private DiffLines lines = new DiffLines();
+    private Color addColor;
+    private Color delColor;
+    private Color headColor;
+    private Font boldFont;
+    // Selection as char offsets into the DiffLines buffer; anchor == caret means none
+    private int anchor;
+    private int caret;
+    // Reused buffer for one tab-expanded line
+    private char[] lineBuf = new char[256];
+
+    public DiffLineView(Color addColor, Color delColor, Color headColor) {
+        this.addColor = addColor;
+        this.delColor = delColor;
+        this.headColor = headColor;
+        setOpaque(true);
+        setFocusable(true);
+        setBackground(UIManager.getColor("TextPane.background"));
+        setForeground(UIManager.getColor("TextPane.foreground"));
+        setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+        setFont(UIManager.getFont("TextPane.font"));
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                int offset = offsetAt(e.getPoint());
+                if (!e.isShiftDown()) anchor = offset;
+                caret = offset;
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                caret = offsetAt(e.getPoint());
+                scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        int shortcut = copyShortcutModifiers();
+        InputMap inputs = getInputMap(WHEN_FOCUSED);
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_C, shortcut), "copy");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_INSERT, InputEvent.CTRL_DOWN_MASK), "copy");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_COPY, 0), "copy");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_A, shortcut), "select-all");
+        getActionMap().put("copy", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copy();
+            }
+        });
+        getActionMap().put("select-all", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectAll();
+            }
+        });
+    }
+
+    public void setDiffLines(DiffLines lines) {
+        this.lines = lines;
+        anchor = caret = 0;
+        revalidate();
+        repaint();
+    }
+
+    // The shown DiffLines got more lines; keeps the selection and scroll position
+    public void linesAppended() {
+        revalidate();
+        repaint();
+    }
+
+    public DiffLines getDiffLines() {
+        return lines;
+    }
+
+    public void setColors(Color add, Color del, Color head) {
+        this.addColor = add;
+        this.delColor = del;
+        this.headColor = head;
+        repaint();
+    }
+
+    @Override
+    public void setFont(Font font) {
+        if (font == null) font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+        super.setFont(font);
+        boldFont = font.deriveFont(Font.BOLD);
+        revalidate();
+        repaint();
+    }
+
+    public void selectAll() {
+        anchor = 0;
+        caret = lines.getLength();
+        repaint();
+    }
+
+    public int getSelectionStart() {
+        return Math.min(anchor, caret);
+    }
+
+    public int getSelectionEnd() {
+        return Math.max(anchor, caret);
+    }
+
+    public String getSelectedText() {
+        int start = getSelectionStart(), end = getSelectionEnd();
+        return start == end ? null : lines.getText(start, end);
+    }
+
+    // Copy the selection as plain text and as HTML keeping the diff colors
+    public void copy() {
+        int start = getSelectionStart(), end = getSelectionEnd();
+        if (start == end) return;
+        DiffColorTextArea.HtmlSelection selection = new DiffColorTextArea.HtmlSelection(
+            java.util.Arrays.copyOfRange(lines.getChars(), start, end), DiffHtmlWriter.styleSheet(addColor, delColor, headColor));
+        for (int line = lines.getLineOfOffset(start); line < lines.getLineCount() && lines.getLineStart(line) < end; line++) {
+            selection.addRun(Math.max(start, lines.getLineStart(line)) - start, lines.getKind(line));
+        }
+        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        clipboard.setContents(selection, null);
+    }
+
+    private Color colorOf(byte kind) {
+        switch (kind) {
+            case DiffLines.ADD: return addColor;
+            case DiffLines.DELETE: return delColor;
+            case DiffLines.HEADER: return headColor;
+            default: return getForeground();
+        }
+    }
+
+    // Modifiers of the look and feel's copy keystroke: Ctrl, or Command on macOS
+    private static int copyShortcutModifiers() {
+        InputMap map = (InputMap) UIManager.get("TextField.focusInputMap");
+        KeyStroke[] keys = map == null ? null : map.allKeys();
+        if (keys != null) {
+            for (KeyStroke key : keys) {
+                if (key.getKeyCode() == KeyEvent.VK_C && DefaultEditorKit.copyAction.equals(map.get(key))) return key.getModifiers();
+            }
+        }
+        return InputEvent.CTRL_DOWN_MASK;
+    }
+
+    private int lineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(boldFont != null ? boldFont : getFont());
+        int width = 2 * MARGIN + (lines.getMaxColumns() + 1) * fm.charWidth('m');
+        return new Dimension(width, Math.max(1, lines.getLineCount()) * fm.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (g instanceof Graphics2D) {
+            Object aa = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+            if (aa instanceof java.util.Map) ((Graphics2D) g).addRenderingHints((java.util.Map<?, ?>) aa);
+        }
+        int lh = lineHeight();
+        int count = lines.getLineCount();
+        int first = Math.max(0, clip.y / lh);
+        int last = Math.min(count - 1, (clip.y + clip.height) / lh);
+        int selStart = getSelectionStart(), selEnd = getSelectionEnd();
+        Color selection = UIManager.getColor("TextPane.selectionBackground");
+        if (selection == null) selection = new Color(184, 207, 229);
+        for (int line = first; line <= last; line++) {
+            int start = lines.getLineStart(line);
+            int end = lines.getLineEnd(line);
+            byte kind = lines.getKind(line);
+            Font font = kind == DiffLines.CONTEXT ? getFont() : boldFont;
+            FontMetrics fm = g.getFontMetrics(font);
+            int y = line * lh;
+            if (selStart < selEnd && selStart <= end && selEnd > start) {
+                int x1 = xOf(fm, line, Math.max(selStart, start));
+                // A selected newline is shown as a little extra highlight
+                int x2 = selEnd > end ? xOf(fm, line, end) + fm.charWidth(' ') : xOf(fm, line, selEnd);
+                g.setColor(selection);
+                g.fillRect(x1, y, x2 - x1, lh);
+            }
+            int len = expandTabs(start, end);
+            g.setFont(font);
+            g.setColor(colorOf(kind));
+            g.drawChars(lineBuf, 0, len, MARGIN, y + fm.getAscent());
+        }
+    }
+
+    // Copy the line into lineBuf with tabs replaced by spaces; returns the length
+    private int expandTabs(int start, int end) {
+        char[] text = lines.getChars();
+        int col = 0;
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            int needed = c == '\t' ? DiffLines.TAB_SIZE : 1;
+            if (col + needed > lineBuf.length) lineBuf = java.util.Arrays.copyOf(lineBuf, (col + needed) * 2);
+            if (c == '\t') {
+                int spaces = DiffLines.TAB_SIZE - col % DiffLines.TAB_SIZE;
+                for (int k = 0; k < spaces; k++) lineBuf[col++] = ' ';
+            } else {
+                lineBuf[col++] = c;
+            }
+        }
+        return col;
+    }
+
+    private int xOf(FontMetrics fm, int line, int offset) {
+        int start = lines.getLineStart(line);
+        int len = expandTabs(start, offset);
+        return MARGIN + fm.charsWidth(lineBuf, 0, len);
+    }
+
+    // Char offset nearest to the point
+    private int offsetAt(Point p) {
+        int count = lines.getLineCount();
+        if (count == 0) return 0;
+        int line = Math.max(0, Math.min(count - 1, p.y / lineHeight()));
+        int start = lines.getLineStart(line);
+        int end = lines.getLineEnd(line);
+        FontMetrics fm = getFontMetrics(lines.getKind(line) == DiffLines.CONTEXT ? getFont() : boldFont);
+        char[] text = lines.getChars();
+        int x = MARGIN;
+        int col = 0;
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            int w;
+            if (c == '\t') {
+                int spaces = DiffLines.TAB_SIZE - col % DiffLines.TAB_SIZE;
+                w = spaces * fm.charWidth(' ');
+                col += spaces;
+            } else {
+                w = fm.charWidth(c);
+                col++;
+            }
+            if (p.x < x + w / 2) return i;
+            x += w;
+        }
+        return end;
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? lineHeight() : getFontMetrics(getFont()).charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) return Math.max(lineHeight(), visibleRect.height - lineHeight());
+        return Math.max(1, visibleRect.width - getFontMetrics(getFont()).charWidth('m'));
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+    }
+}
@@ -0,0 +1,197 @@
+package jp.hatano.gitdiffview;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decoded diff text indexed by line: one char buffer, the start offset of every line and a
+ * kind byte per line (context, added, removed, header).
+ *
+ * A diff is classified once, without a String or Element per line, and the same index
+ * backs both diff views. Text can be appended while a diff is still arriving; a last line
+ * without its newline is kept open and reclassified when more text comes in. Not
+ * thread-safe: build it on one thread, then hand it over.
+ */
+public class DiffLines {
+    public static final byte CONTEXT = 0;
+    public static final byte ADD = 1;
+    public static final byte DELETE = 2;
+    public static final byte HEADER = 3;
+
+    static final int TAB_SIZE = 8;
+
+    private char[] text = new char[1024];
+    private int length;
+    private int[] starts = new int[64];
+    private byte[] kinds = new byte[64];
+    private int lineCount;
+    private boolean lastLineOpen;
+    private int maxColumns;
+
+    public static DiffLines of(CharSequence diff) {
+        DiffLines lines = new DiffLines();
+        lines.append(diff);
+        return lines;
+    }
+
+    // Decode raw diff output; CRLF line ends become LF
+    public static DiffLines decode(byte[] raw, Charset charset) {
+        DiffLinesDecoder decoder = new DiffLinesDecoder(charset);
+        decoder.write(raw, 0, raw.length);
+        decoder.finish();
+        DiffLines lines = decoder.takeChunk();
+        return lines != null ? lines : new DiffLines();
+    }
+
+    public void append(CharSequence s) {
+        int n = s.length();
+        ensureText(length + n);
+        for (int i = 0; i < n; i++) text[length + i] = s.charAt(i);
+        indexFrom(length, n);
+    }
+
+    public void append(char[] buf, int offset, int count) {
+        ensureText(length + count);
+        System.arraycopy(buf, offset, text, length, count);
+        indexFrom(length, count);
+    }
+
+    // Append lines indexed elsewhere, e.g. a chunk decoded on a worker thread
+    public void append(DiffLines other) {
+        if (lastLineOpen) {
+            // The open line continues in the other text, so it has to be indexed again
+            append(other.text, 0, other.length);
+            return;
+        }
+        ensureText(length + other.length);
+        System.arraycopy(other.text, 0, text, length, other.length);
+        if (lineCount + other.lineCount > starts.length) {
+            int capacity = Math.max(lineCount + other.lineCount, starts.length * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        for (int i = 0; i < other.lineCount; i++) starts[lineCount + i] = other.starts[i] + length;
+        System.arraycopy(other.kinds, 0, kinds, lineCount, other.lineCount);
+        lineCount += other.lineCount;
+        length += other.length;
+        lastLineOpen = other.lastLineOpen;
+        maxColumns = Math.max(maxColumns, other.maxColumns);
+    }
+
+    // Index the newly appended text[from, from + count)
+    private void indexFrom(int from, int count) {
+        length = from + count;
+        int lineStart = lastLineOpen ? starts[lineCount - 1] : from;
+        if (!lastLineOpen && count > 0) addLine(from);
+        for (int i = from; i < length; i++) {
+            if (text[i] != '\n') continue;
+            finishLine(lineCount - 1, lineStart, i);
+            lineStart = i + 1;
+            if (lineStart < length) addLine(lineStart);
+        }
+        lastLineOpen = lineStart < length;
+        if (lastLineOpen) finishLine(lineCount - 1, lineStart, length);
+    }
+
+    private void addLine(int start) {
+        if (lineCount == starts.length) {
+            starts = Arrays.copyOf(starts, lineCount * 2);
+            kinds = Arrays.copyOf(kinds, lineCount * 2);
+        }
+        starts[lineCount++] = start;
+    }
+
+    private void finishLine(int line, int start, int end) {
+        kinds[line] = classify(text, start, end);
+        int columns = columns(start, end);
+        if (columns > maxColumns) maxColumns = columns;
+    }
+
+    private int columns(int start, int end) {
+        int col = 0;
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            if (c == '\t') col += TAB_SIZE - col % TAB_SIZE;
+            else col += isWide(c) ? 2 : 1;
+        }
+        return col;
+    }
+
+    // East Asian characters take two columns in a monospaced font
+    static boolean isWide(char c) {
+        return c >= 0x1100 && (c <= 0x115f || (c >= 0x2e80 && c <= 0xa4cf) || (c >= 0xac00 && c <= 0xd7a3)
+            || (c >= 0xf900 && c <= 0xfaff) || (c >= 0xfe30 && c <= 0xfe4f) || (c >= 0xff00 && c <= 0xff60) || (c >= 0xffe0 && c <= 0xffe6));
+    }
+
+    // Same rules the text pane has always used; "+++" and "---" count as added and removed
+    static byte classify(char[] text, int start, int end) {
+        if (end == start) return CONTEXT;
+        char c = text[start];
+        if (c == '+') return ADD;
+        if (c == '-') return DELETE;
+        if (startsWith(text, start, end, "@@") || startsWith(text, start, end, "diff") || startsWith(text, start, end, "index")) return HEADER;
+        return CONTEXT;
+    }
+
+    private static boolean startsWith(char[] text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (text[start + i] != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private void ensureText(int needed) {
+        if (needed > text.length) text = Arrays.copyOf(text, Math.max(needed, text.length + (text.length >> 1)));
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getMaxColumns() {
+        return maxColumns;
+    }
+
+    // Backing buffer; only the first getLength() chars are valid
+    public char[] getChars() {
+        return text;
+    }
+
+    public int getLineStart(int line) {
+        return starts[line];
+    }
+
+    // End of the line's text, excluding its newline
+    public int getLineEnd(int line) {
+        int end = line + 1 < lineCount ? starts[line + 1] - 1 : length;
+        if (end > starts[line] && end == length && text[end - 1] == '\n') end--;
+        return end;
+    }
+
+    public byte getKind(int line) {
+        return kinds[line];
+    }
+
+    public int getLineOfOffset(int offset) {
+        if (lineCount == 0) return 0;
+        int lo = 0, hi = lineCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    public String getText(int start, int end) {
+        return new String(text, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(text, 0, length);
+    }
+}
@@ -0,0 +1,118 @@
+package jp.hatano.gitdiffview;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Decodes raw diff output as it arrives into {@link DiffLines} chunks of whole lines.
+ *
+ * Bytes may be split anywhere, also inside a multi-byte character or a CRLF; CRLF line
+ * ends become LF. Complete lines collect in the current chunk until it is taken, the
+ * unfinished last line is held back until its newline or {@link #finish()}.
+ */
+public class DiffLinesDecoder {
+    private final CharsetDecoder decoder;
+    // Bytes not decoded yet, kept in write mode between calls
+    private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+    private final CharBuffer out = CharBuffer.allocate(1 << 16);
+    private char[] carry = new char[256];
+    private int carryLength;
+    private boolean pendingCr;
+    private DiffLines chunk = new DiffLines();
+    private int takenLines;
+
+    public DiffLinesDecoder(Charset charset) {
+        decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void write(byte[] buf, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, in.remaining());
+            in.put(buf, offset, n);
+            offset += n;
+            length -= n;
+            drain(false);
+        }
+    }
+
+    // End of input: the unfinished last line, if any, goes into the chunk without a newline
+    public void finish() {
+        drain(true);
+        while (decoder.flush(out).isOverflow()) consume();
+        consume();
+        if (pendingCr) addCarry(new char[] { '\r' }, 0, 1);
+        pendingCr = false;
+        if (carryLength > 0) chunk.append(carry, 0, carryLength);
+        carryLength = 0;
+    }
+
+    // Lines completed since the last call, or null if there are none
+    public DiffLines takeChunk() {
+        if (chunk.getLineCount() == 0) return null;
+        DiffLines taken = chunk;
+        takenLines += taken.getLineCount();
+        chunk = new DiffLines();
+        return taken;
+    }
+
+    // Complete lines decoded so far, taken or not
+    public int getLineCount() {
+        return takenLines + chunk.getLineCount();
+    }
+
+    private void drain(boolean endOfInput) {
+        in.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, endOfInput);
+            consume();
+        } while (result.isOverflow());
+        in.compact();
+    }
+
+    // Move the decoded chars into the chunk up to the last newline, the rest into carry
+    private void consume() {
+        out.flip();
+        char[] a = out.array();
+        int n = out.limit();
+        if (pendingCr && n > 0) {
+            pendingCr = false;
+            if (a[0] != '\n') addCarry(new char[] { '\r' }, 0, 1);
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            char c = a[i];
+            if (c == '\r') {
+                // A CR at the end may be the first half of a CRLF split across reads
+                if (i + 1 == n) {
+                    pendingCr = true;
+                    break;
+                }
+                if (a[i + 1] == '\n') continue;
+            }
+            a[m++] = c;
+        }
+        int lastNewline = m - 1;
+        while (lastNewline >= 0 && a[lastNewline] != '\n') lastNewline--;
+        if (lastNewline >= 0) {
+            if (carryLength > 0) chunk.append(carry, 0, carryLength);
+            carryLength = 0;
+            chunk.append(a, 0, lastNewline + 1);
+        }
+        addCarry(a, lastNewline + 1, m - lastNewline - 1);
+        out.clear();
+    }
+
+    private void addCarry(char[] a, int offset, int count) {
+        if (carryLength + count > carry.length) carry = Arrays.copyOf(carry, Math.max(carryLength + count, carry.length * 2));
+        System.arraycopy(a, offset, carry, carryLength, count);
+        carryLength += count;
+    }
+}
@@ -0,0 +1,376 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Produces the "git diff oldCommit newCommit -- file" output of one file.
+ *
+ * Tree entries and blobs are read from the {@link ObjectDatabase} when there is one, else
+ * through the {@link GitObjectPool}, and diffed in-process by {@link DiffEngine}, so showing
+ * a diff does not start a process. Objects the database cannot find are asked of the pool.
+ * The diff and quoting settings of the git config are read once, the diff attribute of a
+ * path once per path. Cases the engine does not cover (submodules, a diff.algorithm other
+ * than myers or histogram, diff drivers, external diff tools, unreadable objects) fall
+ * back to running "git diff". Results are kept in a shared {@link DiffCache}.
+ */
+public class DiffLoader {
+    private static final Logger LOGGER = Logger.getLogger(DiffLoader.class.getName());
+    private static final String MODE_GITLINK = "160000";
+    private static final String MODE_TREE = "040000";
+    // Output that is already complete is handed to a Sink in slices of this size
+    private static final int SINK_SLICE = 1 << 16;
+
+    // Receives the diff output while it is produced; called on the loading thread
+    public interface Sink {
+        void write(byte[] buf, int offset, int length) throws IOException;
+    }
+
+    private final String repoPath;
+    private final GitObjectPool pool;
+    private final ObjectDatabase odb;
+    private final DiffCache cache;
+    private volatile DiffEngine engine;
+    private volatile int abbrev;
+    private volatile boolean engineChecked;
+    private final Map<String, DiffAttribute> attributes = new ConcurrentHashMap<>();
+
+    // What the diff attribute of a path asks for
+    private enum DiffAttribute { UNSPECIFIED, TEXT, BINARY, DRIVER }
+
+    public DiffLoader(String repoPath, GitObjectPool pool, DiffCache cache) {
+        this(repoPath, pool, null, cache);
+    }
+
+    // odb may be null, leaving all object reads to the pool
+    public DiffLoader(String repoPath, GitObjectPool pool, ObjectDatabase odb, DiffCache cache) {
+        this.repoPath = repoPath;
+        this.pool = pool;
+        this.odb = odb;
+        this.cache = cache;
+    }
+
+    public String getRepoPath() {
+        return repoPath;
+    }
+
+    public ObjectDatabase getObjectDatabase() {
+        return odb;
+    }
+
+    // Raw diff output of the file between the two commits
+    public byte[] load(GitTaskScheduler.TaskContext ctx, String oldCommit, String newCommit, String file) throws IOException, InterruptedException {
+        return load(ctx, oldCommit, newCommit, file, null);
+    }
+
+    /**
+     * Same as {@link #load(GitTaskScheduler.TaskContext, String, String, String)}, also
+     * passing the whole output to the sink: as it arrives when "git diff" has to run,
+     * otherwise in slices once it is complete.
+     */
+    public byte[] load(GitTaskScheduler.TaskContext ctx, String oldCommit, String newCommit, String file, Sink sink)
+            throws IOException, InterruptedException {
+        DiffCache.Key key = new DiffCache.Key(repoPath, oldCommit, newCommit, file);
+        byte[] diff = cache.get(key);
+        if (diff != null) {
+            feed(sink, diff);
+            return diff;
+        }
+        DiffEngine engine = getEngine(ctx, newCommit);
+        if (engine != null) {
+            try {
+                diff = diffInProcess(ctx, engine, oldCommit, newCommit, file);
+            } catch (ExecutionException | IOException e) {
+                LOGGER.log(Level.WARNING, "In-process diff failed for " + file + ", running git diff", e);
+            }
+        }
+        if (diff != null) {
+            feed(sink, diff);
+        } else {
+            ctx.checkCancelled();
+            diff = runGitDiff(ctx, oldCommit, newCommit, file, sink);
+        }
+        cache.put(key, diff);
+        return diff;
+    }
+
+    // Hand complete output to the sink in slices, so it can show the start early
+    static void feed(Sink sink, byte[] data) throws IOException {
+        if (sink == null) return;
+        for (int offset = 0; offset < data.length; offset += SINK_SLICE) {
+            sink.write(data, offset, Math.min(SINK_SLICE, data.length - offset));
+        }
+    }
+
+    // True if the diff can be served without computing it
+    public boolean isCached(String oldCommit, String newCommit, String file) {
+        return cache.contains(new DiffCache.Key(repoPath, oldCommit, newCommit, file));
+    }
+
+    private byte[] diffInProcess(GitTaskScheduler.TaskContext ctx, DiffEngine engine, String oldCommit, String newCommit, String file)
+            throws IOException, InterruptedException, ExecutionException {
+        DiffAttribute attribute = diffAttribute(file);
+        if (attribute == DiffAttribute.DRIVER) return null;
+        int slash = file.lastIndexOf('/');
+        String dir = slash < 0 ? "" : file.substring(0, slash);
+        String name = file.substring(slash + 1);
+        // Both parent trees are requested before waiting on either
+        CompletableFuture<GitObjectPool.GitObject> oldTree = readTree(oldCommit, dir);
+        CompletableFuture<GitObjectPool.GitObject> newTree = readTree(newCommit, dir);
+        TreeEntry oldEntry = TreeEntry.find(oldTree.get(), name);
+        TreeEntry newEntry = TreeEntry.find(newTree.get(), name);
+        ctx.checkCancelled();
+        if (!isBlob(oldEntry) || !isBlob(newEntry)) return null;
+
+        CompletableFuture<GitObjectPool.GitObject> oldBlob = oldEntry == null ? null : readObject(oldEntry.id);
+        CompletableFuture<GitObjectPool.GitObject> newBlob = newEntry == null ? null : readObject(newEntry.id);
+        DiffEngine.FileSide oldSide = oldEntry == null ? null : new DiffEngine.FileSide(file, oldEntry.id, oldEntry.mode, blobData(oldBlob));
+        DiffEngine.FileSide newSide = newEntry == null ? null : new DiffEngine.FileSide(file, newEntry.id, newEntry.mode, blobData(newBlob));
+        ctx.checkCancelled();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boolean binary = attribute == DiffAttribute.UNSPECIFIED ? null : attribute == DiffAttribute.BINARY;
+        if (oldSide != null || newSide != null) engine.writeFileDiff(oldSide, newSide, abbrev, binary, out);
+        return out.toByteArray();
+    }
+
+    // An absent entry is fine (added or deleted file); trees and submodules are left to git
+    private static boolean isBlob(TreeEntry entry) {
+        return entry == null || (!entry.mode.equals(MODE_GITLINK) && !entry.mode.equals(MODE_TREE));
+    }
+
+    private CompletableFuture<GitObjectPool.GitObject> readObject(String id) {
+        GitObjectPool.GitObject obj = null;
+        if (odb != null) {
+            try {
+                obj = odb.read(id);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read " + id + " from the object database", e);
+            }
+        }
+        return obj != null ? CompletableFuture.completedFuture(obj) : pool.read(id);
+    }
+
+    // Tree of the directory in the commit; a missing object if there is no such directory
+    private CompletableFuture<GitObjectPool.GitObject> readTree(String commit, String dir) {
+        GitObjectPool.GitObject tree = null;
+        if (odb != null) {
+            try {
+                tree = walkTree(commit, dir);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read " + treeName(commit, dir) + " from the object database", e);
+            }
+        }
+        return tree != null ? CompletableFuture.completedFuture(tree) : pool.read(treeName(commit, dir));
+    }
+
+    // Same as the pool's "commit:dir" lookup; null when an object is not in the database
+    private GitObjectPool.GitObject walkTree(String commit, String dir) throws IOException {
+        GitObjectPool.GitObject obj = odb.read(commit);
+        if (obj == null || !"commit".equals(obj.type)) return null;
+        String tree = ObjectDatabase.treeOf(obj.data);
+        obj = tree == null ? null : odb.read(tree);
+        if (obj == null || dir.isEmpty()) return obj;
+        for (String part : dir.split("/")) {
+            TreeEntry entry = TreeEntry.find(obj, part);
+            if (entry == null || !entry.mode.equals(MODE_TREE)) {
+                return new GitObjectPool.GitObject(treeName(commit, dir), null, null, -1, null);
+            }
+            obj = odb.read(entry.id);
+            if (obj == null) return null;
+        }
+        return obj;
+    }
+
+    private static String treeName(String commit, String dir) {
+        return dir.isEmpty() ? commit + "^{tree}" : commit + ":" + dir;
+    }
+
+    private static byte[] blobData(CompletableFuture<GitObjectPool.GitObject> future) throws IOException, InterruptedException, ExecutionException {
+        GitObjectPool.GitObject obj = future.get();
+        if (obj.isMissing() || !"blob".equals(obj.type)) throw new IOException("Not a blob: " + obj.name);
+        return obj.data;
+    }
+
+    // Engine for the repository's diff config, or null if the config asks for something it lacks
+    private DiffEngine getEngine(GitTaskScheduler.TaskContext ctx, String commit) throws IOException, InterruptedException {
+        if (engineChecked) return engine;
+        DiffEngine configured = createEngine(readConfig(ctx));
+        if (configured != null) {
+            abbrev = abbrevLength(ctx, commit);
+            if (abbrev < 0) configured = null;
+        }
+        engine = configured;
+        engineChecked = true;
+        return engine;
+    }
+
+    static DiffEngine createEngine(Map<String, String> config) {
+        DiffEngine.Algorithm algorithm;
+        String name = config.getOrDefault("diff.algorithm", "").toLowerCase();
+        if (name.isEmpty() || name.equals("myers") || name.equals("default")) {
+            algorithm = DiffEngine.Algorithm.MYERS;
+        } else if (name.equals("histogram")) {
+            algorithm = DiffEngine.Algorithm.HISTOGRAM;
+        } else {
+            return null;
+        }
+        // Output only git produces: an external diff tool, context lines without the space
+        if (config.containsKey("diff.external") || flag(config, "diff.suppressblankempty", false)) return null;
+        DiffEngine.Settings settings = new DiffEngine.Settings();
+        try {
+            if (config.containsKey("diff.context")) settings.context = Integer.parseInt(config.get("diff.context"));
+            if (config.containsKey("diff.interhunkcontext")) settings.interHunkContext = Integer.parseInt(config.get("diff.interhunkcontext"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (settings.context < 0 || settings.interHunkContext < 0) return null;
+        settings.indentHeuristic = flag(config, "diff.indentheuristic", true);
+        // diff.mnemonicPrefix does not apply to a diff of two commits
+        settings.srcPrefix = config.getOrDefault("diff.srcprefix", settings.srcPrefix);
+        settings.dstPrefix = config.getOrDefault("diff.dstprefix", settings.dstPrefix);
+        if (flag(config, "diff.noprefix", false)) settings.srcPrefix = settings.dstPrefix = "";
+        settings.quotePath = flag(config, "core.quotepath", true);
+        return new DiffEngine(algorithm, settings);
+    }
+
+    // A boolean config value as git reads it, or the fallback when unset
+    private static boolean flag(Map<String, String> config, String key, boolean fallback) {
+        String value = config.get(key);
+        if (value == null) return fallback;
+        switch (value.toLowerCase()) {
+            case "true": case "yes": case "on": case "1": return true;
+            case "false": case "no": case "off": case "0": case "": return false;
+            default: return fallback;
+        }
+    }
+
+    /**
+     * Length of the abbreviated ids in index lines: core.abbrev, or the length git picks
+     * for the repository's size. Returns -1 if git cannot tell. Unlike git, a blob id
+     * whose abbreviation is ambiguous is not made longer.
+     */
+    private int abbrevLength(GitTaskScheduler.TaskContext ctx, String commit) throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "rev-parse", "--short", commit);
+        String id = "";
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), (byte) '\n')) {
+            if (parser.next()) id = parser.string(StandardCharsets.US_ASCII).trim();
+        }
+        if (proc.waitFor() != 0 || id.isEmpty()) return -1;
+        return id.length();
+    }
+
+    // The diff attribute the .gitattributes files give the path; asked of the pool once per path
+    private DiffAttribute diffAttribute(String file) throws InterruptedException, ExecutionException {
+        DiffAttribute cached = attributes.get(file);
+        if (cached != null) return cached;
+        String value = pool.diffAttribute(file).get();
+        DiffAttribute attribute;
+        switch (value) {
+            case "unspecified": attribute = DiffAttribute.UNSPECIFIED; break;
+            case "set": attribute = DiffAttribute.TEXT; break;
+            case "unset": attribute = DiffAttribute.BINARY; break;
+            default: attribute = DiffAttribute.DRIVER;
+        }
+        attributes.put(file, attribute);
+        return attribute;
+    }
+
+    private byte[] runGitDiff(GitTaskScheduler.TaskContext ctx, String oldCommit, String newCommit, String file, Sink sink)
+            throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "diff", oldCommit, newCommit, "--", file);
+        byte[] diff = readAll(proc.getInputStream(), sink);
+        // A diff cut short by cancellation must not end up in the cache
+        ctx.checkCancelled();
+        if (proc.waitFor() != 0) throw new IOException("git diff failed for " + file);
+        return diff;
+    }
+
+    // All config entries by lowercase key; later entries override earlier ones as in git
+    private Map<String, String> readConfig(GitTaskScheduler.TaskContext ctx) throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "config", "-z", "--list");
+        Map<String, String> config = new HashMap<>();
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), GitOutputParser.NUL)) {
+            while (parser.next()) {
+                String entry = parser.string(StandardCharsets.UTF_8);
+                int newline = entry.indexOf('\n');
+                // A key without a value is a true boolean
+                if (newline < 0) {
+                    config.put(entry.toLowerCase(), "true");
+                } else {
+                    config.put(entry.substring(0, newline).toLowerCase(), entry.substring(newline + 1));
+                }
+            }
+        }
+        proc.waitFor();
+        return config;
+    }
+
+    private static byte[] readAll(InputStream in, Sink sink) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = input.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                if (sink != null) sink.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /** One entry of a raw tree object: "mode name\0" followed by the binary object id. */
+    static final class TreeEntry {
+        final String mode;
+        final String id;
+
+        TreeEntry(String mode, String id) {
+            this.mode = mode;
+            this.id = id;
+        }
+
+        // Returns null when the tree or the entry does not exist
+        static TreeEntry find(GitObjectPool.GitObject tree, String name) throws IOException {
+            if (tree.isMissing()) return null;
+            if (!"tree".equals(tree.type)) throw new IOException("Not a tree: " + tree.name);
+            byte[] data = tree.data;
+            byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+            int hashLength = tree.id.length() / 2;
+            int pos = 0;
+            while (pos < data.length) {
+                int space = pos;
+                while (data[space] != ' ') space++;
+                int nameStart = space + 1;
+                int nul = nameStart;
+                while (data[nul] != 0) nul++;
+                if (nul - nameStart == wanted.length && regionEquals(data, nameStart, wanted)) {
+                    String mode = new String(data, pos, space - pos, StandardCharsets.US_ASCII);
+                    // git writes "40000" for trees; diff headers use six digits
+                    if (mode.length() == 5) mode = "0" + mode;
+                    return new TreeEntry(mode, toHex(data, nul + 1, hashLength));
+                }
+                pos = nul + 1 + hashLength;
+            }
+            return null;
+        }
+
+        private static boolean regionEquals(byte[] data, int offset, byte[] wanted) {
+            for (int i = 0; i < wanted.length; i++) if (data[offset + i] != wanted[i]) return false;
+            return true;
+        }
+
+        private static String toHex(byte[] data, int offset, int length) {
+            StringBuilder sb = new StringBuilder(length * 2);
+            for (int i = 0; i < length; i++) sb.append(String.format("%02x", data[offset + i] & 0xff));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.ListModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the diffs of the files around the selected one ahead of time, so that moving
+ * to the next or previous file is served from the {@link DiffCache}.
+ *
+ * Files are fetched nearest first by a few background tasks of the scheduler. A round of
+ * prefetching stops when its byte budget is used up and is cancelled as a whole when a
+ * new round starts or the commit pair changes.
+ */
+public class DiffPrefetcher {
+    private static final Logger LOGGER = Logger.getLogger(DiffPrefetcher.class.getName());
+    private static final String SLOT_PREFIX = "prefetch-";
+
+    private final GitTaskScheduler scheduler;
+    private final int radius;
+    private final int concurrency;
+    private final long budgetBytes;
+
+    public DiffPrefetcher(GitTaskScheduler scheduler, int radius, int concurrency, long budgetBytes) {
+        this.scheduler = scheduler;
+        this.radius = radius;
+        this.concurrency = Math.max(1, concurrency);
+        this.budgetBytes = budgetBytes;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    // Files to prefetch around the selected row, nearest first, next before previous.
+    // Only those rows of the model are read
+    public List<String> neighbors(ListModel<String> files, int selected) {
+        List<String> order = new ArrayList<>();
+        for (int d = 1; d <= radius; d++) {
+            if (selected + d < files.getSize()) order.add(files.getElementAt(selected + d));
+            if (selected - d >= 0) order.add(files.getElementAt(selected - d));
+        }
+        return order;
+    }
+
+    /**
+     * Start a prefetch round for the given files, replacing the previous round. Files that
+     * are already cached are skipped.
+     */
+    public void prefetch(DiffLoader loader, String oldCommit, String newCommit, List<String> files) {
+        List<String> todo = new ArrayList<>();
+        for (String file : files) {
+            if (!loader.isCached(oldCommit, newCommit, file)) todo.add(file);
+        }
+        if (todo.isEmpty()) {
+            cancel();
+            return;
+        }
+        AtomicLong used = new AtomicLong();
+        for (int i = 0; i < concurrency; i++) {
+            String slot = SLOT_PREFIX + i;
+            if (i >= todo.size()) {
+                scheduler.cancel(slot);
+                continue;
+            }
+            // Worker i takes files i, i + concurrency, ... so the nearest ones start first
+            List<String> share = new ArrayList<>();
+            for (int j = i; j < todo.size(); j += concurrency) share.add(todo.get(j));
+            scheduler.submitBackground(slot, "Prefetching diffs", ctx -> {
+                for (String file : share) {
+                    if (used.get() >= budgetBytes) break;
+                    ctx.checkCancelled();
+                    used.addAndGet(loader.load(ctx, oldCommit, newCommit, file).length);
+                }
+                return null;
+            }, null, ex -> LOGGER.log(Level.FINE, "Prefetch failed", ex));
+        }
+    }
+
+    public void cancel() {
+        for (int i = 0; i < concurrency; i++) scheduler.cancel(SLOT_PREFIX + i);
+    }
+}
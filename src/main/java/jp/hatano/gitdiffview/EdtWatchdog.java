@@ -0,0 +1,90 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects when the Event Dispatch Thread stops processing events. A daemon thread posts a
+ * probe event and checks that it ran; when one has waited longer than the threshold, the
+ * EDT's stack trace is logged as a warning, and once the EDT is back the stall is logged
+ * with its length and recorded in {@link Metrics}.
+ */
+public class EdtWatchdog {
+    private static final Logger LOGGER = Logger.getLogger(EdtWatchdog.class.getName());
+
+    private final long thresholdNanos;
+    private final long intervalMillis;
+    private final Object lock = new Object();
+    private volatile Thread edt;
+    // System.nanoTime when the waiting probe was posted, or 0; guarded by lock
+    private long probePosted;
+    // EDT stack of the stall being waited out, or null; guarded by lock
+    private String stallStack;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.intervalMillis = Math.max(10, thresholdMillis / 4);
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::watch, "gitdiffview-edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (thread != null) thread.interrupt();
+    }
+
+    private void watch() {
+        try {
+            while (!stopped) {
+                synchronized (lock) {
+                    long now = System.nanoTime();
+                    if (probePosted == 0) {
+                        probePosted = now;
+                        SwingUtilities.invokeLater(this::probe);
+                    } else if (stallStack == null && now - probePosted > thresholdNanos) {
+                        stallStack = edtStack();
+                        LOGGER.log(Level.WARNING, "Event Dispatch Thread blocked for " + Metrics.millis(now - probePosted)
+                            + " so far:\n" + stallStack);
+                    }
+                }
+                Thread.sleep(intervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    // Runs on the EDT
+    private void probe() {
+        edt = Thread.currentThread();
+        long waited;
+        String stack;
+        synchronized (lock) {
+            waited = System.nanoTime() - probePosted;
+            stack = stallStack;
+            stallStack = null;
+            probePosted = 0;
+        }
+        if (stack != null) {
+            LOGGER.log(Level.WARNING, "Event Dispatch Thread was blocked for " + Metrics.millis(waited));
+            Metrics.recordEdtStall(waited, stack);
+        }
+    }
+
+    private String edtStack() {
+        Thread t = edt;
+        if (t == null) return "(Event Dispatch Thread not seen yet)\n";
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement e : t.getStackTrace()) sb.append("\tat ").append(e).append('\n');
+        return sb.toString();
+    }
+}
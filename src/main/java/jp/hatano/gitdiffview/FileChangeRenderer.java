@@ -0,0 +1,37 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import java.awt.Component;
+
+/**
+ * Renders a row of a {@link FileListModel} as status letter, path and line counts,
+ * e.g. "M  src/Main.java  +12 -3". Renamed and copied files show their old path in the
+ * tooltip; binary files show "bin" instead of counts.
+ */
+public class FileChangeRenderer extends DefaultListCellRenderer {
+    @Override
+    public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+        String text = value == null ? "" : value.toString();
+        String tooltip = null;
+        if (list.getModel() instanceof FileListModel && index >= 0) {
+            FileListModel model = (FileListModel) list.getModel();
+            FileChanges files = model.getFiles();
+            int file = model.getFileIndex(index);
+            StringBuilder sb = new StringBuilder();
+            sb.append(files.getStatus(file)).append("  ").append(text);
+            int added = files.getAdded(file);
+            if (added == FileChanges.BINARY) {
+                sb.append("  bin");
+            } else if (added != FileChanges.UNKNOWN) {
+                sb.append("  +").append(added).append(" -").append(files.getDeleted(file));
+            }
+            text = sb.toString();
+            String oldPath = files.getOldPath(file);
+            if (oldPath != null) tooltip = oldPath + " -> " + value;
+        }
+        super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+        setToolTipText(tooltip);
+        return this;
+    }
+}
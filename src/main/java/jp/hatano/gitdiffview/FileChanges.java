@@ -0,0 +1,200 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Files changed between two commits with their status and added and deleted line counts,
+ * all from one "git diff --raw --numstat -z" run.
+ *
+ * Stored column-wise like {@link CommitStore}: a status byte and two counts per file, and
+ * all paths as UTF-8 in one byte pool, so a range touching tens of thousands of files
+ * costs a few arrays. Paths are decoded when a row is shown.
+ */
+public class FileChanges {
+    // Counts of a binary file, and of a file whose numstat record has not been read
+    public static final int BINARY = -1;
+    public static final int UNKNOWN = -2;
+    // Status of files listed without one (single pass mode)
+    public static final char NO_STATUS = ' ';
+
+    /** Receives the files once their names and statuses are known, before the line counts. */
+    public interface Listener {
+        void filesListed(FileChanges files);
+    }
+
+    private int count;
+    private byte[] statuses = new byte[64];
+    private int[] added = new int[64];
+    private int[] deleted = new int[64];
+    // The path of file i spans [entryStart(i), pathEnds[i]) of the pool, the old path of a
+    // rename or copy [pathEnds[i], entryEnds[i])
+    private int[] pathEnds = new int[64];
+    private int[] entryEnds = new int[64];
+    private byte[] pool = new byte[64 * 32];
+
+    /**
+     * Run "git diff --raw --numstat -z oldCommit newCommit". The raw records come first and
+     * give names and statuses, the numstat records then give the counts in the same order.
+     */
+    public static FileChanges load(GitTaskScheduler.TaskContext ctx, String repoPath, String oldCommit, String newCommit, Listener listener)
+            throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "diff", "--raw", "--numstat", "-z", oldCommit, newCommit);
+        FileChanges files = new FileChanges();
+        int counted = 0;
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), GitOutputParser.NUL)) {
+            while (parser.next()) {
+                ctx.checkCancelled();
+                byte[] data = parser.array();
+                if (parser.length() > 0 && data[parser.start()] == ':') {
+                    // ":oldmode newmode oldid newid status", then the path; renames and copies have two
+                    int space = parser.end() - 1;
+                    while (space > parser.start() && data[space] != ' ') space--;
+                    char status = (char) data[space + 1];
+                    boolean twoPaths = status == 'R' || status == 'C';
+                    if (!parser.next()) throw new IOException("Truncated git diff output");
+                    byte[] oldPath = null;
+                    if (twoPaths) {
+                        oldPath = Arrays.copyOfRange(parser.array(), parser.start(), parser.end());
+                        if (!parser.next()) throw new IOException("Truncated git diff output");
+                    }
+                    files.add(status, parser.array(), parser.start(), parser.length(),
+                        oldPath == null ? new byte[0] : oldPath, 0, oldPath == null ? 0 : oldPath.length);
+                } else {
+                    if (counted == 0 && listener != null) listener.filesListed(files.copy());
+                    // "added\tdeleted\tpath", or "added\tdeleted\t" with old and new path as the next records
+                    int tab1 = parser.indexOf((byte) '\t', parser.start());
+                    int tab2 = tab1 < 0 ? -1 : parser.indexOf((byte) '\t', tab1 + 1);
+                    if (tab2 < 0) throw new IOException("Unexpected git diff output");
+                    int a = parseCount(data, parser.start(), tab1);
+                    int d = parseCount(data, tab1 + 1, tab2);
+                    if (tab2 + 1 == parser.end() && !(parser.next() && parser.next())) {
+                        throw new IOException("Truncated git diff output");
+                    }
+                    if (counted < files.count) files.setCounts(counted++, a, d);
+                }
+            }
+        }
+        ctx.checkCancelled();
+        if (proc.waitFor() != 0) throw new IOException("git diff failed");
+        return files;
+    }
+
+    // A decimal count, or "-" for binary files
+    private static int parseCount(byte[] data, int from, int to) {
+        if (to - from == 1 && data[from] == '-') return BINARY;
+        long value = 0;
+        for (int i = from; i < to; i++) value = Math.min(Integer.MAX_VALUE, value * 10 + (data[i] - '0'));
+        return (int) value;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void add(char status, String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        add(status, bytes, 0, bytes.length, bytes, 0, 0);
+    }
+
+    // Add a file from raw git output; the old path is empty unless it was renamed or copied
+    public void add(char status, byte[] path, int pathOffset, int pathLength, byte[] oldPath, int oldOffset, int oldLength) {
+        ensureCapacity(count + 1, pathLength + oldLength);
+        int start = entryStart(count);
+        System.arraycopy(path, pathOffset, pool, start, pathLength);
+        System.arraycopy(oldPath, oldOffset, pool, start + pathLength, oldLength);
+        statuses[count] = (byte) status;
+        added[count] = UNKNOWN;
+        deleted[count] = UNKNOWN;
+        pathEnds[count] = start + pathLength;
+        entryEnds[count] = start + pathLength + oldLength;
+        count++;
+    }
+
+    void setCounts(int index, int addedLines, int deletedLines) {
+        checkIndex(index);
+        added[index] = addedLines;
+        deleted[index] = deletedLines;
+    }
+
+    // Snapshot that later additions to this list do not change
+    FileChanges copy() {
+        FileChanges c = new FileChanges();
+        c.count = count;
+        c.statuses = Arrays.copyOf(statuses, count);
+        c.added = Arrays.copyOf(added, count);
+        c.deleted = Arrays.copyOf(deleted, count);
+        c.pathEnds = Arrays.copyOf(pathEnds, count);
+        c.entryEnds = Arrays.copyOf(entryEnds, count);
+        c.pool = Arrays.copyOf(pool, entryStart(count));
+        return c;
+    }
+
+    private void ensureCapacity(int files, int moreBytes) {
+        if (files > statuses.length) {
+            int newCap = Math.max(files, statuses.length + (statuses.length >> 1));
+            statuses = Arrays.copyOf(statuses, newCap);
+            added = Arrays.copyOf(added, newCap);
+            deleted = Arrays.copyOf(deleted, newCap);
+            pathEnds = Arrays.copyOf(pathEnds, newCap);
+            entryEnds = Arrays.copyOf(entryEnds, newCap);
+        }
+        long needed = (long) entryStart(count) + moreBytes;
+        if (needed > pool.length) {
+            long newCap = Math.max(needed, pool.length + ((long) pool.length >> 1));
+            if (newCap > Integer.MAX_VALUE - 8) throw new OutOfMemoryError("Path pool too large");
+            pool = Arrays.copyOf(pool, (int) newCap);
+        }
+    }
+
+    private int entryStart(int index) {
+        return index == 0 ? 0 : entryEnds[index - 1];
+    }
+
+    // A, M, D, R, C, T, U or NO_STATUS
+    public char getStatus(int index) {
+        checkIndex(index);
+        return (char) statuses[index];
+    }
+
+    public String getPath(int index) {
+        checkIndex(index);
+        int start = entryStart(index);
+        return new String(pool, start, pathEnds[index] - start, StandardCharsets.UTF_8);
+    }
+
+    // Path before a rename or copy, or null
+    public String getOldPath(int index) {
+        checkIndex(index);
+        int length = entryEnds[index] - pathEnds[index];
+        return length == 0 ? null : new String(pool, pathEnds[index], length, StandardCharsets.UTF_8);
+    }
+
+    // Added lines, BINARY or UNKNOWN
+    public int getAdded(int index) {
+        checkIndex(index);
+        return added[index];
+    }
+
+    public int getDeleted(int index) {
+        checkIndex(index);
+        return deleted[index];
+    }
+
+    public boolean isBinary(int index) {
+        return getAdded(index) == BINARY;
+    }
+
+    // Added plus deleted lines; 0 for binary files and unknown counts
+    public int getChurn(int index) {
+        int a = getAdded(index);
+        int d = getDeleted(index);
+        if (a < 0 || d < 0) return 0;
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + d);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+}
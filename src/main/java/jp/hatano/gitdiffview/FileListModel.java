@@ -0,0 +1,201 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * List model of the changed files, showing the paths of a {@link FileChanges} in git's
+ * order or most changed first, optionally limited to some statuses and to paths fuzzily
+ * matching a filter text, best matches first.
+ *
+ * Sorting and filtering only rearrange an array of row indexes. When new counts leave
+ * the rows in place, or files are only appended, the list keeps its selection. A filter
+ * text that extends the previous one only searches the files the previous one matched.
+ * The row of a file is looked up by its index, so a selection is restored without
+ * comparing paths.
+ * Must only be used on the Event Dispatch Thread.
+ */
+public class FileListModel extends AbstractListModel<String> {
+    public enum Order { PATH, CHURN }
+
+    private FileChanges files = new FileChanges();
+    private int[] rows = new int[0];
+    // Row of each file of files, -1 if it is not listed
+    private int[] rowOfFile = new int[0];
+    private Order order = Order.PATH;
+    private String statuses;
+    private String filterText = "";
+    private PathFilterIndex index;
+    // Files matching filterText, in no particular order; null when they must be searched again
+    private int[] matched;
+    private int matchedCount;
+
+    @Override
+    public int getSize() {
+        return rows.length;
+    }
+
+    @Override
+    public String getElementAt(int row) {
+        return files.getPath(rows[row]);
+    }
+
+    public FileChanges getFiles() {
+        return files;
+    }
+
+    // Index into getFiles() of the file shown in the row
+    public int getFileIndex(int row) {
+        return rows[row];
+    }
+
+    // Indexes into getFiles() in row order
+    public int[] getFileIndexes() {
+        return rows.clone();
+    }
+
+    public void setFiles(FileChanges files) {
+        setFiles(files, null);
+    }
+
+    // Files with a filter index built for them, e.g. by the task that loaded them
+    public void setFiles(FileChanges files, PathFilterIndex index) {
+        this.files = files;
+        if (index != null && index.getFiles() == files) this.index = index;
+        matched = null;
+        update();
+    }
+
+    // Files of a diff streamed in single pass mode, which come without status and counts
+    public void addPaths(List<String> paths) {
+        if (paths.isEmpty()) return;
+        for (String path : paths) files.add(FileChanges.NO_STATUS, path);
+        matched = null;
+        update();
+    }
+
+    public void clear() {
+        setFiles(new FileChanges());
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+        update();
+    }
+
+    // Status letters to show, e.g. "RC"; null shows all files
+    public void setStatusFilter(String statuses) {
+        this.statuses = statuses;
+        matched = null;
+        update();
+    }
+
+    public String getFilterText() {
+        return filterText;
+    }
+
+    // Show only paths containing the characters of the text in order; "" shows all
+    public void setFilterText(String text) {
+        String t = text == null ? "" : text.trim();
+        if (t.equals(filterText)) return;
+        // Whatever matches the longer text also matched the shorter one
+        if (filterText.isEmpty() || !t.startsWith(filterText)) matched = null;
+        filterText = t;
+        update();
+    }
+
+    // Paths in row order
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(rows.length);
+        for (int row : rows) paths.add(files.getPath(row));
+        return paths;
+    }
+
+    // Row of the file with the index into getFiles(), or -1 if it is not listed
+    public int getRow(int fileIndex) {
+        return fileIndex >= 0 && fileIndex < rowOfFile.length ? rowOfFile[fileIndex] : -1;
+    }
+
+    /**
+     * Row of a file given by its index into other files of the same diff, e.g. the list
+     * shown before the counts arrived, or -1. Files of the same diff are in git's order,
+     * so only the path at that index needs to match.
+     */
+    public int getRow(FileChanges other, int fileIndex) {
+        if (other == files) return getRow(fileIndex);
+        if (fileIndex < 0 || fileIndex >= other.size() || fileIndex >= files.size()) return -1;
+        return other.getPath(fileIndex).equals(files.getPath(fileIndex)) ? getRow(fileIndex) : -1;
+    }
+
+    private void update() {
+        int[] view = new int[files.size()];
+        int n = 0;
+        for (int i = 0; i < files.size(); i++) {
+            char status = files.getStatus(i);
+            // Files without a status are kept so single pass lists stay complete
+            if (statuses == null || status == FileChanges.NO_STATUS || statuses.indexOf(status) >= 0) view[n++] = i;
+        }
+        if (!filterText.isEmpty()) {
+            view = search(view, n);
+            n = view.length;
+        } else {
+            matched = null;
+        }
+        if (n < view.length) view = Arrays.copyOf(view, n);
+        if (filterText.isEmpty() && order == Order.CHURN) {
+            // Most churn first, ties in git's order; sorting packed keys avoids boxing
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) keys[i] = ((long) (Integer.MAX_VALUE - files.getChurn(view[i])) << 32) | view[i];
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) view[i] = (int) keys[i];
+        }
+        int[] old = rows;
+        rows = view;
+        rowOfFile = new int[files.size()];
+        Arrays.fill(rowOfFile, -1);
+        for (int row = 0; row < n; row++) rowOfFile[view[row]] = row;
+        if (Arrays.equals(old, view)) {
+            if (view.length > 0) fireContentsChanged(this, 0, view.length - 1);
+            return;
+        }
+        if (view.length > old.length && Arrays.equals(old, Arrays.copyOf(view, old.length))) {
+            // Appended rows only
+            fireIntervalAdded(this, old.length, view.length - 1);
+            return;
+        }
+        if (old.length > 0) fireIntervalRemoved(this, 0, old.length - 1);
+        if (view.length > 0) fireIntervalAdded(this, 0, view.length - 1);
+    }
+
+    // Files of the first n of view matching filterText, best score first
+    private int[] search(int[] view, int n) {
+        if (index == null || index.getFiles() != files) {
+            index = new PathFilterIndex(files);
+        } else if (index.size() < files.size()) {
+            index.extend();
+        }
+        int[] candidates = matched != null ? matched : view;
+        int count = matched != null ? matchedCount : n;
+        int[] found = new int[count];
+        int[] scores = new int[count];
+        int m = index.match(PathFilterIndex.query(filterText), candidates, count, found, scores);
+        matched = found;
+        matchedCount = m;
+        // Scores are small positive numbers, so a counting sort ranks them in linear time;
+        // it is stable and the candidates are in git's order, so ties stay in that order
+        int max = 0;
+        for (int i = 0; i < m; i++) max = Math.max(max, scores[i]);
+        int[] starts = new int[max + 2];
+        for (int i = 0; i < m; i++) starts[max - scores[i] + 1]++;
+        for (int i = 1; i < starts.length; i++) starts[i] += starts[i - 1];
+        int[] result = new int[m];
+        for (int i = 0; i < m; i++) result[starts[max - scores[i]]++] = found[i];
+        return result;
+    }
+}
@@ -1,11 +1,20 @@
 package jp.hatano.gitdiffview;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.tree.TreePath;
+import javax.swing.tree.TreeSelectionModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
 public class GitDiffViewApp extends JFrame {
@@ -18,23 +27,89 @@ public class GitDiffViewApp extends JFrame {
         }
     }
 
+    private static final Logger LOGGER = Logger.getLogger(GitDiffViewApp.class.getName());
+
     private EncodingHistoryManager encodingHistoryManager;
     private JComboBox<String> repoBox;
     private JButton repoSelectButton;
     private JComboBox<String> branchBox;
     private JButton loadButton;
-    private JComboBox<String> commitBox1;
-    private JComboBox<String> commitBox2;
+    private CommitComboBox commitBox1;
+    private CommitComboBox commitBox2;
+    private JButton findCommitButton1;
+    private JButton findCommitButton2;
     private JButton showFilesButton;
+    private JCheckBox singlePassBox;
+    private JButton compareButton;
+    // Shows the refs being compared while a comparison replaces the commit boxes
+    private JLabel compareLabel;
+    private String[] comparePair;
     private JList<String> fileList;
-    private DefaultListModel<String> fileListModel;
+    private FileListModel fileListModel;
+    private JComboBox<String> fileOrderBox;
+    private JComboBox<String> fileStatusBox;
+    private JTextField fileFilterField;
+    // Status letters shown by each entry of fileStatusBox; null for all files
+    private static final String[] FILE_STATUS_FILTERS = { null, "A", "MT", "D", "RC" };
+    // Directory tree of the listed files, shown instead of fileList when fileTreeBox is set
+    private JTree fileTree;
+    private PathTreeModel pathTreeModel;
+    private JCheckBox fileTreeBox;
+    private JScrollPane fileScroll;
+    // fileListModel changed since pathTreeModel was built
+    private boolean fileTreeStale;
+    // A rebuild for the changes of the current event is already queued
+    private boolean fileTreeRebuildQueued;
+    // File to select once the tree being built is shown; null keeps the tree's selection
+    private String fileTreeSelection;
+    // Set while a rebuild restores the tree's selection
+    private boolean rebuildingFileTree;
     private DiffColorTextArea diffArea;
+    // Diffs with more lines than LARGE_DIFF_LINES are painted by diffLineView instead
+    private DiffLineView diffLineView;
+    private JScrollPane diffScroll;
+    private static final int LARGE_DIFF_LINES = 5000;
+    private static final long EDT_STALL_MILLIS = 500;
+    // Lines of the diff being shown; grows while the diff streams in (EDT only)
+    private DiffLines shownLines = new DiffLines();
+    private JLabel diffLoadingLabel;
+    // A diff is shown once this many lines are decoded, further lines are appended in batches
+    private static final int FIRST_PAINT_LINES = 200;
+    private static final long DIFF_PUBLISH_INTERVAL_MS = 100;
     private JComboBox<String> encodingBox; // Encoding selection
-    private java.util.List<String> commitIds = new ArrayList<>();
+    // Commits of the loaded branch, shared by commitBox1 and commitBox2
+    private final CommitStore commitStore = new CommitStore();
+    private final CommitComboBoxModel commitModel1 = commitStore.createComboBoxModel();
+    private final CommitComboBoxModel commitModel2 = commitStore.createComboBoxModel();
     private String repoPath = "";
     private String branch = "";
     private String currentEncoding = "UTF-8"; // Default encoding
 
+    // Background execution of git commands, one "latest request wins" slot per kind of work
+    private final GitTaskScheduler scheduler = new GitTaskScheduler();
+    private static final String SLOT_BRANCHES = "branches";
+    private static final String SLOT_COMMITS = "commits";
+    private static final String SLOT_FILES = "files";
+    private static final String SLOT_DIFF = "diff";
+    private static final String SLOT_COMPARE = "compare";
+    private static final String SLOT_TREE = "tree";
+    // Diffs of the files next to the selection are computed while the user reads
+    private final DiffPrefetcher prefetcher = new DiffPrefetcher(scheduler, 3, 2, 16L * 1024 * 1024);
+    // Long-lived cat-file workers of the repository whose commits are loaded
+    private GitObjectPool objectPool;
+    private ObjectDatabase objectDatabase;
+    private DiffLoader diffLoader;
+    // Raw diff output shared by all repositories; re-decoding for another encoding reuses it
+    private final DiffCache diffCache;
+    // Whole-range diff of the listed files when single pass mode is on (EDT only)
+    private RangeDiff rangeDiff;
+    // Refs of the repository whose branches are listed, kept current by the watcher
+    private RefReader refReader;
+    private RefWatcher refWatcher;
+    // Branch whose commits are in commitStore
+    private String loadedBranch = "";
+    private static final int OBJECT_POOL_WORKERS = 2;
+
     // Preferences keys for window position/size and encoding history
     private static final String PREF_KEY_WIN_X = "windowX";
     private static final String PREF_KEY_WIN_Y = "windowY";
@@ -42,6 +117,11 @@ public class GitDiffViewApp extends JFrame {
     private static final String PREF_KEY_WIN_H = "windowH";
     private static final String PREF_KEY_LAST_REPOSITORY = "lastRepository";
     private static final String PREF_KEY_ENCODING_HISTORY = "encodingHistory";
+    private static final String PREF_KEY_DIFF_CACHE_MB = "diffCacheMegabytes";
+    private static final int DEFAULT_DIFF_CACHE_MB = 64;
+    private static final String PREF_KEY_SINGLE_PASS = "singlePassDiff";
+    private static final String PREF_KEY_FILE_ORDER = "fileOrder";
+    private static final String PREF_KEY_FILE_TREE = "fileTree";
     static final String PREF_DIFF_ADD_COLOR = "diffAddColor";
     static final String PREF_DIFF_DEL_COLOR = "diffDelColor";
     static final String PREF_DIFF_HEAD_COLOR = "diffHeadColor";
@@ -65,6 +145,7 @@ public class GitDiffViewApp extends JFrame {
         int w = prefs.getInt(PREF_KEY_WIN_W, 1000);
         int h = prefs.getInt(PREF_KEY_WIN_H, 700);
         setBounds(x, y, w, h);
+        diffCache = new DiffCache(prefs.getInt(PREF_KEY_DIFF_CACHE_MB, DEFAULT_DIFF_CACHE_MB) * 1024L * 1024L);
 
         setLayout(new BorderLayout());
 
@@ -147,8 +228,10 @@ public class GitDiffViewApp extends JFrame {
         // 2nd row: Commit selection + Encoding
         JPanel commitPanel = new JPanel();
         commitPanel.setLayout(new BoxLayout(commitPanel, BoxLayout.X_AXIS));
-        commitBox1 = new JComboBox<>();
-        commitBox2 = new JComboBox<>();
+        // Without a prototype the combo box measures every item whenever commits are appended
+        String prototype = "0000000000000000000000000000";
+        commitBox1 = new CommitComboBox(commitModel1, prototype);
+        commitBox2 = new CommitComboBox(commitModel2, prototype);
         Dimension comboSize = new Dimension(220, 26);
         commitBox1.setMaximumSize(comboSize);
         commitBox2.setMaximumSize(comboSize);
@@ -158,7 +241,21 @@ public class GitDiffViewApp extends JFrame {
         commitBox1.addActionListener(e -> fileListModel.clear());
         commitBox2.setRenderer(new DefaultListCellRendererExtension());
         commitBox2.addActionListener(e -> fileListModel.clear());
+        findCommitButton1 = new JButton("Find...");
+        findCommitButton1.setToolTipText("Search the commits for Commit 1 by id, subject, author or date");
+        findCommitButton1.addActionListener(e -> showCommitSearch("Find Commit 1", commitModel1));
+        findCommitButton2 = new JButton("Find...");
+        findCommitButton2.setToolTipText("Search the commits for Commit 2 by id, subject, author or date");
+        findCommitButton2.addActionListener(e -> showCommitSearch("Find Commit 2", commitModel2));
         showFilesButton = new JButton("Show Diff Files");
+        singlePassBox = new JCheckBox("Single pass", prefs.getBoolean(PREF_KEY_SINGLE_PASS, false));
+        singlePassBox.setToolTipText("Run one git diff for the whole range instead of one per file");
+        singlePassBox.addActionListener(e -> prefs.putBoolean(PREF_KEY_SINGLE_PASS, singlePassBox.isSelected()));
+        compareButton = new JButton("Compare Refs...");
+        compareButton.setToolTipText("Compare any two branches, tags or remote branches");
+        compareButton.addActionListener(e -> showCompareDialog());
+        compareLabel = new JLabel();
+        compareLabel.setVisible(false);
 
         // Encoding selection dropdown (editable, with history)
         java.util.List<String> encodings = new ArrayList<>(Arrays.asList("UTF-8", "Shift_JIS", "EUC-JP", "ISO-8859-1", "US-ASCII"));
@@ -216,12 +313,22 @@ public class GitDiffViewApp extends JFrame {
         commitPanel.add(new JLabel("Commit 1:"));
         commitPanel.add(Box.createHorizontalStrut(4));
         commitPanel.add(commitBox1);
+        commitPanel.add(Box.createHorizontalStrut(2));
+        commitPanel.add(findCommitButton1);
         commitPanel.add(Box.createHorizontalStrut(8));
         commitPanel.add(new JLabel("Commit 2:"));
         commitPanel.add(Box.createHorizontalStrut(4));
         commitPanel.add(commitBox2);
+        commitPanel.add(Box.createHorizontalStrut(2));
+        commitPanel.add(findCommitButton2);
         commitPanel.add(Box.createHorizontalStrut(8));
         commitPanel.add(showFilesButton);
+        commitPanel.add(Box.createHorizontalStrut(4));
+        commitPanel.add(singlePassBox);
+        commitPanel.add(Box.createHorizontalStrut(8));
+        commitPanel.add(compareButton);
+        commitPanel.add(Box.createHorizontalStrut(4));
+        commitPanel.add(compareLabel);
         commitPanel.add(Box.createHorizontalStrut(16));
         commitPanel.add(new JLabel("Encoding:"));
         commitPanel.add(Box.createHorizontalStrut(4));
@@ -229,7 +336,10 @@ public class GitDiffViewApp extends JFrame {
 
         // Move Config Diff Colors button to the second row (commitPanel)
         colorSchemeButton = new JButton("Config Diff Colors");
-        colorSchemeButton.addActionListener(e -> diffArea.showColorSchemeDialog(this));
+        colorSchemeButton.addActionListener(e -> {
+            diffArea.showColorSchemeDialog(this);
+            diffLineView.setColors(addColor, delColor, headColor);
+        });
         commitPanel.add(Box.createHorizontalStrut(8));
         commitPanel.add(colorSchemeButton);
         commitPanel.add(Box.createHorizontalGlue());
@@ -241,11 +351,97 @@ public class GitDiffViewApp extends JFrame {
         topPanel.add(commitPanel);
         add(topPanel, BorderLayout.NORTH);
 
-        fileListModel = new DefaultListModel<>();
+        fileListModel = new FileListModel();
         fileList = new JList<>(fileListModel);
-        JScrollPane fileScroll = new JScrollPane(fileList);
-        fileScroll.setPreferredSize(new Dimension(250, 0));
-        add(fileScroll, BorderLayout.WEST);
+        fileList.setCellRenderer(new FileChangeRenderer());
+        // Rows are all the same height; without a prototype every row is measured
+        fileList.setPrototypeCellValue("M  src/main/java/Prototype.java  +1000 -1000");
+        fileScroll = new JScrollPane(fileList);
+        pathTreeModel = new PathTreeModel();
+        fileTree = new JTree(pathTreeModel);
+        fileTree.setRootVisible(false);
+        fileTree.setShowsRootHandles(true);
+        fileTree.setCellRenderer(new PathTreeRenderer());
+        fileTree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
+        // Fixed height rows and the large model keep JTree from sizing every child of an opened directory
+        fileTree.setRowHeight(fileList.getFixedCellHeight());
+        fileTree.setLargeModel(true);
+        ToolTipManager.sharedInstance().registerComponent(fileTree);
+        fileListModel.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                fileListChanged();
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                fileListChanged();
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                fileListChanged();
+            }
+        });
+        fileOrderBox = new JComboBox<>(new String[] { "Path order", "Most changed first" });
+        fileOrderBox.setSelectedIndex(prefs.getInt(PREF_KEY_FILE_ORDER, 0) == 1 ? 1 : 0);
+        fileListModel.setOrder(fileOrderBox.getSelectedIndex() == 1 ? FileListModel.Order.CHURN : FileListModel.Order.PATH);
+        fileOrderBox.addActionListener(e -> {
+            prefs.putInt(PREF_KEY_FILE_ORDER, fileOrderBox.getSelectedIndex());
+            keepFileSelection(() -> fileListModel.setOrder(fileOrderBox.getSelectedIndex() == 1 ? FileListModel.Order.CHURN : FileListModel.Order.PATH));
+        });
+        fileStatusBox = new JComboBox<>(new String[] { "All files", "Added", "Modified", "Deleted", "Renamed/Copied" });
+        fileStatusBox.addActionListener(e -> keepFileSelection(() -> fileListModel.setStatusFilter(FILE_STATUS_FILTERS[fileStatusBox.getSelectedIndex()])));
+        fileTreeBox = new JCheckBox("Tree", prefs.getBoolean(PREF_KEY_FILE_TREE, false));
+        fileTreeBox.setToolTipText("Show the changed files as a directory tree");
+        fileTreeBox.addActionListener(e -> {
+            prefs.putBoolean(PREF_KEY_FILE_TREE, fileTreeBox.isSelected());
+            showFileView();
+        });
+        JPanel fileControls = new JPanel(new BorderLayout(4, 0));
+        JPanel fileBoxes = new JPanel(new GridLayout(1, 2, 4, 0));
+        fileBoxes.add(fileOrderBox);
+        fileBoxes.add(fileStatusBox);
+        fileControls.add(fileBoxes, BorderLayout.CENTER);
+        fileControls.add(fileTreeBox, BorderLayout.EAST);
+        fileFilterField = new JTextField();
+        fileFilterField.setToolTipText("Filter files: characters of the path in order, e.g. \"gdvapp\"");
+        fileFilterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterFiles();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterFiles();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterFiles();
+            }
+        });
+        // Escape clears the filter, Enter shows the best match
+        fileFilterField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    fileFilterField.setText("");
+                } else if (e.getKeyCode() == KeyEvent.VK_ENTER && fileListModel.getSize() > 0 && !isFileTreeShown()) {
+                    fileList.setSelectedIndex(0);
+                    fileList.ensureIndexIsVisible(0);
+                }
+            }
+        });
+        JPanel fileHeader = new JPanel(new GridLayout(2, 1, 0, 2));
+        fileHeader.add(fileControls);
+        fileHeader.add(fileFilterField);
+        JPanel filePanel = new JPanel(new BorderLayout());
+        filePanel.add(fileHeader, BorderLayout.NORTH);
+        filePanel.add(fileScroll, BorderLayout.CENTER);
+        filePanel.setPreferredSize(new Dimension(300, 0));
+        add(filePanel, BorderLayout.WEST);
 
         String strAddColor = prefs.get(PREF_DIFF_ADD_COLOR, "0,128,0");
         String strDelColor = prefs.get(PREF_DIFF_DEL_COLOR, "255,0,0");
@@ -255,19 +451,46 @@ public class GitDiffViewApp extends JFrame {
         headColor = DiffColorTextArea.parseColor(strHeadColor);
 
         diffArea = new DiffColorTextArea(addColor, delColor, headColor);
+        diffLineView = new DiffLineView(addColor, delColor, headColor);
+        diffLineView.setFont(diffArea.getFont());
 
-        JScrollPane diffScroll = new JScrollPane(diffArea);
-        add(diffScroll, BorderLayout.CENTER);
+        diffScroll = new JScrollPane(diffArea);
+        diffLoadingLabel = new JLabel();
+        diffLoadingLabel.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        diffLoadingLabel.setVisible(false);
+        JPanel diffPanel = new JPanel(new BorderLayout());
+        diffPanel.add(diffScroll, BorderLayout.CENTER);
+        diffPanel.add(diffLoadingLabel, BorderLayout.SOUTH);
+        add(diffPanel, BorderLayout.CENTER);
+
+        // Progress and cancel affordance for the background git tasks
+        add(new TaskStatusBar(scheduler), BorderLayout.SOUTH);
 
         loadButton.addActionListener(e -> loadCommits());
-        showFilesButton.addActionListener(e -> loadDiffFiles());
+        showFilesButton.addActionListener(e -> {
+            clearCompare();
+            loadDiffFiles();
+        });
         fileList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 showDiffForSelectedFile();
             }
         });
+        fileTree.addTreeSelectionListener(e -> {
+            if (rebuildingFileTree) return;
+            // Selecting a directory keeps the shown diff
+            TreePath selected = fileTree.getSelectionPath();
+            if (selected == null || pathTreeModel.isLeaf(selected.getLastPathComponent())) showDiffForSelectedFile();
+        });
+        showFileView();
         // Clear diff area when commit is selected
-        ActionListener clearDiffListener = e -> diffArea.setText("");
+        ActionListener clearDiffListener = e -> {
+            scheduler.cancel(SLOT_FILES);
+            scheduler.cancel(SLOT_DIFF);
+            prefetcher.cancel();
+            closeRangeDiff();
+            showDiffMessage("");
+        };
         commitBox1.addActionListener(clearDiffListener);
         commitBox2.addActionListener(clearDiffListener);
 
@@ -285,177 +508,630 @@ public class GitDiffViewApp extends JFrame {
                 }
                 encodingHistoryManager.saveEncodingHistory((DefaultComboBoxModel<String>) encodingBox.getModel());
                 diffArea.saveDiffColors(GitDiffViewApp.this);
+                // Do not leave git processes running after exit
+                scheduler.shutdown();
+                if (objectPool != null) objectPool.close();
+                closeRangeDiff();
+                closeRefWatcher();
             }
         });
     }
 
     // Save encoding history to preferences (top 10, last used at top)
     // Encoding history logic moved to EncodingHistoryManager
-    
-    private void setWaitCursor(boolean wait) {
-        Cursor cursor = wait ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor();
-        setCursor(cursor);
-        // Also apply to main child components (add more if needed)
-        repoBox.setCursor(cursor);
-        branchBox.setCursor(cursor);
-        commitBox1.setCursor(cursor);
-        commitBox2.setCursor(cursor);
-        fileList.setCursor(cursor);
-        diffArea.setCursor(cursor);
-    }
 
     private void loadCommits() {
-        setWaitCursor(true);
-        try {
-            repoPath = repoBox.getEditor().getItem().toString().trim();
-            Object sel = branchBox.getSelectedItem();
-            branch = sel == null ? "" : sel.toString();
-            commitBox1.removeAllItems();
-            commitBox2.removeAllItems();
-            commitBox1.setEnabled(false); // Temporarily disable
-            commitBox2.setEnabled(false); // Temporarily disable
-            commitBox1.revalidate();
-            commitBox1.repaint();
-            commitBox2.revalidate();
-            commitBox2.repaint();
-            commitIds.clear();
-            int count = 0;
-            try {
-                ProcessBuilder pb = new ProcessBuilder(
-                    "git", "-C", repoPath, "log", branch, "--pretty=format:%H %s"
-                );
-                Process proc = pb.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(" ", 2);
-                    if (parts.length > 0) {
-                        commitIds.add(parts[0]);
-                        String label = parts[0] + (parts.length > 1 ? (" " + parts[1]) : "");
-                        commitBox1.addItem(label);
-                        commitBox2.addItem(label);
-                        count++;
-                    }
-                }
-                if (count > 0) {
-                    commitBox1.setSelectedIndex(0);
-                    if (commitBox2.getItemCount() > 1) commitBox2.setSelectedIndex(1);
-                    commitBox1.setEnabled(true); // Enable if items exist
-                    commitBox2.setEnabled(true);
-                } else {
-                    commitBox1.setEnabled(false); // Just in case
-                    commitBox2.setEnabled(false);
-                }
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Failed to load commits: " + ex.getMessage());
+        repoPath = repoBox.getEditor().getItem().toString().trim();
+        Object sel = branchBox.getSelectedItem();
+        branch = sel == null ? "" : sel.toString();
+        loadedBranch = branch;
+        clearCompare();
+        // Results of the previous commit pair are stale now
+        scheduler.cancel(SLOT_FILES);
+        scheduler.cancel(SLOT_DIFF);
+        commitStore.clear();
+        commitBox1.setEnabled(false); // Temporarily disable
+        commitBox2.setEnabled(false); // Temporarily disable
+        // Start the cat-file workers while the commits load so the first diff does not wait for them;
+        // they are only a fallback when the object files can be read directly
+        final ObjectDatabase odb = getDiffLoader().getObjectDatabase();
+        if (odb == null) getObjectPool().start();
+        final String path = repoPath;
+        final String br = branch;
+        scheduler.submit(SLOT_COMMITS, "Loading commits of " + br, ctx -> {
+            CommitLoader loader = new CommitLoader(ctx, path, br, odb);
+            return loader.load(commitSink(ctx));
+        }, total -> {
+            if (total == 0) {
+                commitBox1.setEnabled(false); // Just in case
+                commitBox2.setEnabled(false);
             }
-        } finally {
-            setWaitCursor(false);
+        }, ex -> JOptionPane.showMessageDialog(this, "Failed to load commits: " + ex.getMessage()));
+    }
+
+    // The shown branch moved: add its new commits, keeping the selected ones
+    private void refreshCommits() {
+        final String path = repoPath;
+        final String br = loadedBranch;
+        final String shownTip = commitStore.getId(0);
+        final ObjectDatabase odb = getDiffLoader().getObjectDatabase();
+        scheduler.submit(SLOT_COMMITS, "Updating commits of " + br, ctx -> {
+            CommitLoader loader = new CommitLoader(ctx, path, br, odb);
+            return loader.update(shownTip, commitSink(ctx));
+        }, null, ex -> LOGGER.log(Level.WARNING, "Failed to update commits of " + br, ex));
+    }
+
+    private CommitLoader.Sink commitSink(GitTaskScheduler.TaskContext ctx) {
+        return new CommitLoader.Sink() {
+            public void reset() {
+                ctx.publish(commitStore::clear);
+            }
+
+            // Batches are tokenized for the commit search here, off the EDT
+            public void append(CommitStore.Batch batch) {
+                batch.searchTerms();
+                publishCommits(ctx, () -> commitStore.append(batch), batch);
+            }
+
+            public void prepend(CommitStore.Batch batch) {
+                batch.searchTerms();
+                publishCommits(ctx, () -> commitStore.prepend(batch), batch);
+            }
+        };
+    }
+
+    // Add a batch of commits on the EDT; selects the two newest commits once they arrive
+    private void publishCommits(GitTaskScheduler.TaskContext ctx, Runnable addBatch, CommitStore.Batch batch) {
+        if (batch.size() == 0) return;
+        ctx.publish(() -> {
+            addBatch.run();
+            if (commitModel1.getSelectedIndex() < 0) commitModel1.setSelectedIndex(0);
+            if (commitModel2.getSelectedIndex() < 0 && commitStore.size() > 1) commitModel2.setSelectedIndex(1);
+            commitBox1.setEnabled(true); // Enable if items exist
+            commitBox2.setEnabled(true);
+        });
+    }
+
+    private void showCommitSearch(String title, CommitComboBoxModel target) {
+        if (commitStore.size() == 0) {
+            JOptionPane.showMessageDialog(this, "Load the commits of a branch first.");
+            return;
+        }
+        new CommitSearchDialog(this, title, commitStore, target).setVisible(true);
+    }
+
+    // Object pool of the current repository, replacing the pool of a previous repository
+    private GitObjectPool getObjectPool() {
+        if (objectPool != null && !objectPool.getRepoPath().equals(repoPath)) {
+            objectPool.close();
+            objectPool = null;
+            diffLoader = null;
+        }
+        if (objectPool == null) objectPool = new GitObjectPool(repoPath, OBJECT_POOL_WORKERS);
+        return objectPool;
+    }
+
+    private DiffLoader getDiffLoader() {
+        GitObjectPool pool = getObjectPool();
+        if (diffLoader == null) diffLoader = new DiffLoader(repoPath, pool, openObjectDatabase(), diffCache);
+        return diffLoader;
+    }
+
+    // Object files of the current repository, or null if they cannot be read directly
+    private ObjectDatabase openObjectDatabase() {
+        if (objectDatabase != null && objectDatabase.getRepoPath().equals(repoPath)) return objectDatabase;
+        try {
+            objectDatabase = ObjectDatabase.open(repoPath);
+        } catch (IOException | java.nio.file.InvalidPathException e) {
+            LOGGER.log(Level.WARNING, "Cannot open the object database of " + repoPath, e);
+            objectDatabase = null;
         }
+        return objectDatabase;
+    }
+
+    // Returns {commit1, commit2} of the current comparison or selection, or null if no valid pair is selected
+    private String[] getSelectedCommitPair() {
+        if (comparePair != null) return comparePair.clone();
+        int idx1 = commitModel1.getSelectedIndex();
+        int idx2 = commitModel2.getSelectedIndex();
+        int maxIdx = commitStore.size() - 1;
+        if (idx1 < 0 || idx2 < 0 || idx1 > maxIdx || idx2 > maxIdx || idx1 == idx2) return null;
+        return new String[] { commitStore.getId(idx1), commitStore.getId(idx2) };
     }
 
     // Get local branch list of repository and set to branchBox
     private void loadBranches() {
-        setWaitCursor(true);
+        String path = repoBox.getEditor().getItem().toString().trim();
+        // The repository box reports one change through several events; the watcher keeps a listed repository current
+        if (refReader != null && refReader.getRepoPath().equals(path)) return;
+        scheduler.cancel(SLOT_COMMITS);
+        scheduler.cancel(SLOT_FILES);
+        scheduler.cancel(SLOT_DIFF);
+        prefetcher.cancel();
+        closeRangeDiff();
+        closeRefWatcher();
+        clearCompare();
+        branchBox.removeAllItems();
+        branchBox.setEnabled(false);
+        // Clear and disable commit list when updating branch list
+        commitStore.clear();
+        commitBox1.setEnabled(false);
+        commitBox2.setEnabled(false);
+        if (path.isEmpty()) {
+            scheduler.cancel(SLOT_BRANCHES);
+            return;
+        }
+        RefReader reader;
         try {
-            String path = repoBox.getEditor().getItem().toString().trim();
-            branchBox.removeAllItems();
-            branchBox.setEnabled(false);
-            // Clear and disable commit list when updating branch list
-            commitBox1.removeAllItems();
-            commitBox2.removeAllItems();
-            commitBox1.setEnabled(false);
-            commitBox2.setEnabled(false);
-            commitIds.clear();
-            if (path.isEmpty()) return;
-            java.util.List<String> branches = new ArrayList<>();
-            try {
-                ProcessBuilder pb = new ProcessBuilder("git", "-C", path, "branch", "--list");
-                Process proc = pb.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.replace("*", "").trim();
-                    if (!line.isEmpty()) branches.add(line);
-                }
-            } catch (IOException ex) {
-                // ignore
-            }
-            // Default is master if exists, otherwise first
+            reader = new RefReader(path);
+        } catch (IOException ex) {
+            // Not a repository (yet); git reports it when commits are loaded
+            scheduler.cancel(SLOT_BRANCHES);
+            return;
+        }
+        refReader = reader;
+        scheduler.submit(SLOT_BRANCHES, "Loading branches", ctx -> readRefs(ctx, reader), refs -> {
+            // Default is the checked out branch, then master if exists, otherwise first
+            java.util.List<String> branches = refs.getBranches();
             int defIdx = 0;
             for (int i = 0; i < branches.size(); i++) {
                 branchBox.addItem(branches.get(i));
                 if (branches.get(i).equals("master")) defIdx = i;
             }
+            if (refs.getHeadBranch() != null && branches.contains(refs.getHeadBranch())) defIdx = branches.indexOf(refs.getHeadBranch());
             if (branchBox.getItemCount() > 0) {
                 branchBox.setSelectedIndex(defIdx);
                 branchBox.setEnabled(true);
+                // Commits already indexed on disk can be shown right away
+                if (CommitIndexCache.exists(path, branchBox.getItemAt(defIdx))) loadCommits();
             } else {
                 branchBox.setEnabled(false);
             }
+            startRefWatcher(reader);
+        }, ex -> LOGGER.log(Level.WARNING, "Failed to read branches of " + path, ex));
+    }
+
+    // Refs from the ref files, or from git when the repository does not keep refs as files
+    private static RefReader.Refs readRefs(GitTaskScheduler.TaskContext ctx, RefReader reader) throws IOException {
+        RefReader.Refs refs = reader.read();
+        if (refs != null) return refs;
+        Map<String, String> branches = new LinkedHashMap<>();
+        Process proc = ctx.startGit(reader.getRepoPath(), "for-each-ref", "--format=%(objectname) %(refname:strip=2)", "refs/heads");
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), (byte) '\n')) {
+            while (parser.next()) {
+                int space = parser.indexOf((byte) ' ', parser.start());
+                if (space < 0) continue;
+                branches.put(parser.string(space + 1, parser.end(), StandardCharsets.UTF_8), parser.string(parser.start(), space, StandardCharsets.US_ASCII));
+            }
+        }
+        return new RefReader.Refs(branches, new HashMap<String, String>(), new HashMap<String, String>(), null, null);
+    }
+
+    private void startRefWatcher(RefReader reader) {
+        if (reader != refReader || !reader.isSupported()) return;
+        try {
+            refWatcher = new RefWatcher(reader, () -> SwingUtilities.invokeLater(() -> refreshRefs(reader)));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Cannot watch the refs of " + reader.getRepoPath(), ex);
+        }
+    }
+
+    private void closeRefWatcher() {
+        if (refWatcher != null) refWatcher.close();
+        refWatcher = null;
+        refReader = null;
+    }
+
+    // Refs moved on disk: update the branch list and follow the tip of the shown branch
+    private void refreshRefs(RefReader reader) {
+        if (reader != refReader) return;
+        scheduler.submit(SLOT_BRANCHES, "Reading branches", ctx -> readRefs(ctx, reader), refs -> {
+            if (reader != refReader) return;
+            java.util.List<String> branches = refs.getBranches();
+            java.util.List<String> listed = new ArrayList<>();
+            for (int i = 0; i < branchBox.getItemCount(); i++) listed.add(branchBox.getItemAt(i));
+            if (!branches.equals(listed)) {
+                Object selected = branchBox.getSelectedItem();
+                branchBox.removeAllItems();
+                for (String b : branches) branchBox.addItem(b);
+                if (selected != null && branches.contains(selected)) branchBox.setSelectedItem(selected);
+                branchBox.setEnabled(!branches.isEmpty());
+            }
+            if (commitStore.size() > 0 && reader.getRepoPath().equals(repoPath)) {
+                String tip = refs.getBranchId(loadedBranch);
+                if (tip != null && !tip.equals(commitStore.getId(0))) refreshCommits();
+            }
+        }, ex -> LOGGER.log(Level.WARNING, "Failed to read branches of " + reader.getRepoPath(), ex));
+    }
+
+    // Pick two refs and show their diff in place of the commit boxes' pair
+    private void showCompareDialog() {
+        String path = repoBox.getEditor().getItem().toString().trim();
+        if (path.isEmpty()) return;
+        RefReader reader = refReader != null && refReader.getRepoPath().equals(path) ? refReader : null;
+        scheduler.submit(SLOT_COMPARE, "Reading refs", ctx -> {
+            return readRefs(ctx, reader != null ? reader : new RefReader(path));
+        }, refs -> {
+            java.util.List<String> names = new ArrayList<>(refs.getBranches());
+            names.addAll(refs.getTags());
+            names.addAll(refs.getRemotes());
+            JComboBox<String> fromBox = new JComboBox<>(names.toArray(new String[0]));
+            JComboBox<String> toBox = new JComboBox<>(names.toArray(new String[0]));
+            // Any revision git understands can be typed too
+            fromBox.setEditable(true);
+            toBox.setEditable(true);
+            if (refs.getHeadBranch() != null) toBox.setSelectedItem(refs.getHeadBranch());
+            JCheckBox mergeBaseBox = new JCheckBox("Only changes on \"To\" since the merge base (From...To)", true);
+            JPanel panel = new JPanel(new GridLayout(0, 1, 4, 4));
+            panel.add(new JLabel("From:"));
+            panel.add(fromBox);
+            panel.add(new JLabel("To:"));
+            panel.add(toBox);
+            panel.add(mergeBaseBox);
+            int answer = JOptionPane.showConfirmDialog(this, panel, "Compare Refs", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (answer != JOptionPane.OK_OPTION) return;
+            Object from = fromBox.getEditor().getItem();
+            Object to = toBox.getEditor().getItem();
+            if (from == null || to == null || from.toString().trim().isEmpty() || to.toString().trim().isEmpty()) return;
+            compareRefs(path, refs, from.toString().trim(), to.toString().trim(), mergeBaseBox.isSelected());
+        }, ex -> JOptionPane.showMessageDialog(this, "Failed to read refs: " + ex.getMessage()));
+    }
+
+    private void compareRefs(String path, RefReader.Refs refs, String from, String to, boolean sinceMergeBase) {
+        repoPath = path;
+        ObjectDatabase odb = getDiffLoader().getObjectDatabase();
+        String label = from + (sinceMergeBase ? "..." : "..") + to;
+        scheduler.submit(SLOT_COMPARE, "Comparing " + label, ctx -> {
+            RefResolver resolver = new RefResolver(ctx, path, refs, odb);
+            String fromId = resolver.resolveCommit(from);
+            String toId = resolver.resolveCommit(to);
+            // Three dots: what "to" changed since it forked from "from"
+            String oldId = sinceMergeBase ? resolver.mergeBase(fromId, toId) : fromId;
+            return new String[] { toId, oldId };
+        }, pair -> {
+            if (!path.equals(repoPath)) return;
+            comparePair = pair;
+            compareLabel.setText("Comparing " + label);
+            compareLabel.setToolTipText(pair[1] + " -> " + pair[0]);
+            compareLabel.setVisible(true);
+            loadDiffFiles();
+        }, ex -> JOptionPane.showMessageDialog(this, "Failed to compare " + label + ": " + ex.getMessage()));
+    }
+
+    // Back to the pair of the commit boxes
+    private void clearCompare() {
+        scheduler.cancel(SLOT_COMPARE);
+        comparePair = null;
+        if (compareLabel != null) compareLabel.setVisible(false);
+    }
+
+    // Reselect the shown file after the file list was sorted, filtered or refreshed
+    private void keepFileSelection(Runnable change) {
+        int selectedRow = fileList.getSelectedIndex();
+        FileChanges files = fileListModel.getFiles();
+        int selected = selectedRow < 0 ? -1 : fileListModel.getFileIndex(selectedRow);
+        change.run();
+        if (selected < 0) return;
+        int row = fileListModel.getRow(files, selected);
+        if (row >= 0 && row != fileList.getSelectedIndex()) {
+            fileList.setSelectedIndex(row);
+            fileList.ensureIndexIsVisible(row);
+        }
+    }
+
+    private boolean isFileTreeShown() {
+        return fileTreeBox.isSelected();
+    }
+
+    // Swap the list and the tree, selecting the file of the other view in the one shown
+    private void showFileView() {
+        if (isFileTreeShown()) {
+            String file = fileList.getSelectedValue();
+            fileScroll.setViewportView(fileTree);
+            if (fileTreeStale) {
+                rebuildFileTree(file);
+                return;
+            }
+            TreePath path = file == null ? null : pathTreeModel.pathTo(file);
+            if (path != null) {
+                fileTree.setSelectionPath(path);
+                fileTree.scrollPathToVisible(path);
+            }
+        } else {
+            int row = getSelectedTreeRow();
+            fileScroll.setViewportView(fileList);
+            if (row >= 0) {
+                fileList.setSelectedIndex(row);
+                fileList.ensureIndexIsVisible(row);
+            }
+        }
+    }
+
+    // The tree is only rebuilt while it is shown, once for all changes of one event:
+    // replacing the rows fires both intervalRemoved and intervalAdded
+    private void fileListChanged() {
+        fileTreeStale = true;
+        if (fileTreeBox == null || !isFileTreeShown() || fileTreeRebuildQueued) return;
+        fileTreeRebuildQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            fileTreeRebuildQueued = false;
+            if (fileTreeStale && isFileTreeShown()) rebuildFileTree(null);
+        });
+    }
+
+    /**
+     * Build a trie for the listed files on a worker, then show it keeping the opened
+     * directories. The file to select is the one selected in the tree when null. A newer
+     * rebuild cancels one still running but keeps the file it was to select.
+     */
+    private void rebuildFileTree(String file) {
+        fileTreeStale = false;
+        if (file != null) fileTreeSelection = file;
+        // Single pass mode appends to the listed files while the trie is built
+        FileChanges files = fileListModel.getFiles().copy();
+        int[] indexes = fileListModel.getFileIndexes();
+        java.util.List<String> expanded = getExpandedDirectories();
+        // The root, which is always open
+        expanded.add("");
+        scheduler.submit(SLOT_TREE, "Building file tree", ctx -> {
+            PathTrie trie = new PathTrie(files, indexes);
+            // Sort the children of the directories that are opened again here, not on the EDT
+            for (String dir : expanded) {
+                ctx.checkCancelled();
+                int node = trie.find(dir);
+                if (node >= 0 && trie.getChildCount(node) > 0) trie.getChild(node, 0);
+            }
+            return trie;
+        }, this::showFileTree, ex -> LOGGER.log(Level.WARNING, "Failed to build the file tree", ex));
+    }
+
+    // Show a rebuilt trie, keeping opened directories and the selected file
+    private void showFileTree(PathTrie trie) {
+        String file = fileTreeSelection;
+        fileTreeSelection = null;
+        java.util.List<String> expanded = getExpandedDirectories();
+        String selectedFile = getSelectedTreeFile();
+        String select = file != null ? file : selectedFile;
+        rebuildingFileTree = true;
+        try {
+            pathTreeModel.setTrie(trie);
+            for (String dir : expanded) {
+                TreePath path = pathTreeModel.pathTo(dir);
+                if (path != null) fileTree.expandPath(path);
+            }
+            TreePath path = select == null ? null : pathTreeModel.pathTo(select);
+            if (path != null) {
+                fileTree.setSelectionPath(path);
+                if (file != null) fileTree.scrollPathToVisible(path);
+            }
         } finally {
-            setWaitCursor(false);
+            rebuildingFileTree = false;
         }
+        String shown = getSelectedTreeFile();
+        if (shown == null ? selectedFile != null : !shown.equals(selectedFile)) showDiffForSelectedFile();
+    }
+
+    private java.util.List<String> getExpandedDirectories() {
+        java.util.List<String> expanded = new ArrayList<>();
+        Enumeration<TreePath> open = fileTree.getExpandedDescendants(new TreePath(pathTreeModel.getRoot()));
+        while (open != null && open.hasMoreElements()) expanded.add(pathTreeModel.getPath(open.nextElement().getLastPathComponent()));
+        return expanded;
+    }
+
+    private String getSelectedTreeFile() {
+        TreePath selected = fileTree.getSelectionPath();
+        if (selected == null || !pathTreeModel.isLeaf(selected.getLastPathComponent())) return null;
+        return pathTreeModel.getPath(selected.getLastPathComponent());
+    }
+
+    // Row of the file list showing the file selected in the tree, or -1
+    private int getSelectedTreeRow() {
+        TreePath selected = fileTree.getSelectionPath();
+        if (selected == null || !pathTreeModel.isLeaf(selected.getLastPathComponent())) return -1;
+        int fileIndex = pathTreeModel.getFileIndex(selected.getLastPathComponent());
+        return fileListModel.getRow(pathTreeModel.getTrie().getFiles(), fileIndex);
+    }
+
+    // File whose diff is shown, from the list or the tree
+    private String getSelectedFile() {
+        return isFileTreeShown() ? getSelectedTreeFile() : fileList.getSelectedValue();
+    }
+
+    private void filterFiles() {
+        keepFileSelection(() -> fileListModel.setFilterText(fileFilterField.getText()));
     }
 
     private void loadDiffFiles() {
-        int idx1 = commitBox1.getSelectedIndex();
-        int idx2 = commitBox2.getSelectedIndex();
-        int maxIdx = commitIds.size() - 1;
-        if (idx1 < 0 || idx2 < 0 || idx1 > maxIdx || idx2 > maxIdx || idx1 == idx2) return;
+        String[] pair = getSelectedCommitPair();
+        if (pair == null) return;
         // Clear file list every time to prevent duplicates
+        scheduler.cancel(SLOT_DIFF);
+        prefetcher.cancel();
         fileListModel.clear();
-        String c1 = commitIds.get(idx1);
-        String c2 = commitIds.get(idx2);
+        String c1 = pair[0];
+        String c2 = pair[1];
+        String path = repoPath;
+        if (singlePassBox.isSelected()) {
+            loadRangeDiff(c1, c2);
+            return;
+        }
+        closeRangeDiff();
+        // diff in order: commit2, commit1; names are shown as soon as git lists them, counts follow.
+        // The filter index is built here rather than on the first keystroke
+        scheduler.submit(SLOT_FILES, "Loading changed files", ctx -> new PathFilterIndex(FileChanges.load(ctx, path, c2, c1,
+            listed -> ctx.publish(() -> fileListModel.setFiles(listed)))),
+            index -> keepFileSelection(() -> fileListModel.setFiles(index.getFiles(), index)),
+            ex -> JOptionPane.showMessageDialog(this, "Failed to load diff files: " + ex.getMessage()));
+    }
+
+    // Single pass mode: one git diff for the range, listing files as their sections arrive
+    private void loadRangeDiff(String c1, String c2) {
+        closeRangeDiff();
+        RangeDiff range;
         try {
-            // diff in order: commit2, commit1
-            ProcessBuilder pb = new ProcessBuilder(
-            "git", "-C", repoPath, "diff", "--name-only", c2, c1
-            );
-            Process proc = pb.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                fileListModel.addElement(line);
-            }
+            range = new RangeDiff(repoPath, c2, c1);
         } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Failed to load diff files: " + ex.getMessage());
+            JOptionPane.showMessageDialog(this, "Failed to create spill file: " + ex.getMessage());
+            return;
         }
+        rangeDiff = range;
+        scheduler.submit(SLOT_FILES, "Loading diff of the range", ctx -> range.stream(ctx, files -> ctx.publish(() -> {
+            fileListModel.addPaths(files);
+        })), null, ex -> JOptionPane.showMessageDialog(this, "Failed to load diff files: " + ex.getMessage()));
+    }
+
+    private void closeRangeDiff() {
+        if (rangeDiff == null) return;
+        // Stop the stream before its spill file goes away
+        scheduler.cancel(SLOT_FILES);
+        rangeDiff.close();
+        rangeDiff = null;
     }
 
     private void showDiffForSelectedFile() {
-        String file = fileList.getSelectedValue();
-        if (file == null) return;
-        int idx1 = commitBox1.getSelectedIndex();
-        int idx2 = commitBox2.getSelectedIndex();
-        int maxIdx = commitIds.size() - 1;
-        if (idx1 < 0 || idx2 < 0 || idx1 > maxIdx || idx2 > maxIdx || idx1 == idx2) return;
-        String c1 = commitIds.get(idx1);
-        String c2 = commitIds.get(idx2);
-        try {
-            // Use selected encoding for diff output
-            ProcessBuilder pb = new ProcessBuilder(
-                "git", "-C", repoPath, "diff", c2, c1, "--", file
-            );
-            Process proc = pb.start();
-            InputStream is = proc.getInputStream();
-            InputStreamReader isr = new InputStreamReader(is, Charset.forName(currentEncoding));
-            BufferedReader reader = new BufferedReader(isr);
-            StringBuilder diff = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                diff.append(line).append("\n");
-            }
-            diffArea.setDiffText(diff.toString());
+        String file = getSelectedFile();
+        if (file == null) {
+            scheduler.cancel(SLOT_DIFF);
+            prefetcher.cancel();
+            diffLoadingLabel.setVisible(false);
+            return;
+        }
+        String[] pair = getSelectedCommitPair();
+        if (pair == null) return;
+        String c1 = pair[0];
+        String c2 = pair[1];
+        // Use selected encoding for diff output
+        Charset charset = Charset.forName(currentEncoding);
+        DiffLoader loader = getDiffLoader();
+        RangeDiff range = rangeDiff != null && rangeDiff.matches(repoPath, c2, c1) ? rangeDiff : null;
+        scheduler.submit(SLOT_DIFF, "Loading diff of " + file, ctx -> {
+            DiffStream stream = new DiffStream(ctx, charset);
+            byte[] raw = range != null ? range.read(file) : null;
+            if (raw != null) {
+                DiffLoader.feed(stream, raw);
+            } else {
+                loader.load(ctx, c2, c1, file, stream);
+            }
+            stream.finish();
+            return null;
+        }, ignored -> {
+            // Single pass slices are cheap already; otherwise warm up the neighbors
+            if (range == null) {
+                int row = isFileTreeShown() ? getSelectedTreeRow() : fileList.getSelectedIndex();
+                if (row >= 0 && file.equals(fileListModel.getElementAt(row))) {
+                    prefetcher.prefetch(loader, c2, c1, prefetcher.neighbors(fileListModel, row));
+                }
+            }
+        }, ex -> showDiffMessage("Failed to load diff: " + ex.getMessage()));
+    }
+
+    /**
+     * Decodes a diff while it arrives and hands whole lines to the EDT: the first ones as
+     * soon as there are enough for a screen, the rest coalesced into one chunk per
+     * DIFF_PUBLISH_INTERVAL_MS. Chunks of a superseded task are dropped by publish.
+     */
+    private final class DiffStream implements DiffLoader.Sink {
+        private final GitTaskScheduler.TaskContext ctx;
+        private final DiffLinesDecoder decoder;
+        private boolean started;
+        private long lastPublish = System.currentTimeMillis();
+
+        DiffStream(GitTaskScheduler.TaskContext ctx, Charset charset) {
+            this.ctx = ctx;
+            this.decoder = new DiffLinesDecoder(charset);
+        }
+
+        @Override
+        public void write(byte[] buf, int offset, int length) {
+            ctx.checkCancelled();
+            decoder.write(buf, offset, length);
+            boolean due = System.currentTimeMillis() - lastPublish >= DIFF_PUBLISH_INTERVAL_MS;
+            if (due || (!started && decoder.getLineCount() >= FIRST_PAINT_LINES)) publish(false);
+        }
+
+        void finish() {
+            ctx.checkCancelled();
+            decoder.finish();
+            publish(true);
+        }
+
+        private void publish(boolean done) {
+            DiffLines chunk = decoder.takeChunk();
+            int total = decoder.getLineCount();
+            lastPublish = System.currentTimeMillis();
+            if (!started) {
+                started = true;
+                DiffLines first = chunk != null ? chunk : new DiffLines();
+                // The text pane's document is built here so the EDT only swaps it in
+                DiffDocument document = first.getLineCount() > LARGE_DIFF_LINES ? null : diffArea.buildDocument(first);
+                ctx.publish(() -> startDiff(first, document, total, done));
+            } else if (chunk != null || done) {
+                ctx.publish(() -> appendDiff(chunk, total, done));
+            }
+        }
+    }
+
+    // Show the first lines of a diff; small diffs go to the styled text pane
+    private void startDiff(DiffLines first, DiffDocument document, int total, boolean done) {
+        shownLines = first;
+        if (document == null) {
+            showInLineView();
+        } else {
+            diffLineView.setDiffLines(new DiffLines());
+            diffArea.setDiffDocument(document);
+            setDiffView(diffArea);
             // Scroll to top after setting diff text
             SwingUtilities.invokeLater(() -> diffArea.setCaretPosition(0));
-        } catch (IOException ex) {
-            diffArea.setText("Failed to load diff: " + ex.getMessage());
-            SwingUtilities.invokeLater(() -> diffArea.setCaretPosition(0));
         }
+        showLoading(total, done);
+    }
+
+    // Append lines that arrived later; moves to the line view once the diff gets large
+    private void appendDiff(DiffLines chunk, int total, boolean done) {
+        if (chunk != null) {
+            shownLines.append(chunk);
+            if (diffScroll.getViewport().getView() == diffLineView) {
+                diffLineView.linesAppended();
+            } else if (shownLines.getLineCount() > LARGE_DIFF_LINES) {
+                Point position = diffScroll.getViewport().getViewPosition();
+                showInLineView();
+                diffScroll.getViewport().setViewPosition(position);
+            } else {
+                diffArea.appendDiffLines(chunk);
+            }
+        }
+        showLoading(total, done);
+    }
+
+    // Large diffs go to the view that paints visible lines only
+    private void showInLineView() {
+        diffArea.setText("");
+        diffLineView.setDiffLines(shownLines);
+        setDiffView(diffLineView);
+        diffScroll.getViewport().setViewPosition(new Point(0, 0));
+    }
+
+    private void showLoading(int lines, boolean done) {
+        diffLoadingLabel.setText("Loading diff... " + lines + " lines");
+        diffLoadingLabel.setVisible(!done);
+    }
+
+    private void showDiffMessage(String message) {
+        shownLines = new DiffLines();
+        diffLoadingLabel.setVisible(false);
+        diffLineView.setDiffLines(new DiffLines());
+        diffArea.setText(message);
+        setDiffView(diffArea);
+        SwingUtilities.invokeLater(() -> diffArea.setCaretPosition(0));
+    }
+
+    private void setDiffView(JComponent view) {
+        if (diffScroll.getViewport().getView() != view) diffScroll.setViewportView(view);
     }
 
     public static void main(String[] options) {
+        // Logs the stack of the EDT whenever it is blocked longer than the threshold
+        new EdtWatchdog(Long.getLong("gitdiffview.edtStallMillis", EDT_STALL_MILLIS)).start();
         SwingUtilities.invokeLater(() -> {
             GitDiffViewApp app = new GitDiffViewApp();
             // Set last selected repository
@@ -0,0 +1,384 @@
+package jp.hatano.gitdiffview;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of long-lived "git cat-file --batch" and "--batch-check" processes for one repository,
+ * plus one "git check-attr --stdin" process for the diff attribute of paths.
+ *
+ * Object reads are written to the pipe of a worker immediately and answered in order by
+ * the worker's reader thread, so several reads can be in flight at once and a read costs
+ * a pipe round-trip instead of a process start. Object names may be anything cat-file
+ * accepts, e.g. a blob id or "commit:path".
+ */
+public class GitObjectPool implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(GitObjectPool.class.getName());
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    // Object returned by the pool; data is null for --batch-check reads
+    public static class GitObject {
+        public final String name;
+        public final String id;
+        public final String type;
+        public final long size;
+        public final byte[] data;
+
+        GitObject(String name, String id, String type, long size, byte[] data) {
+            this.name = name;
+            this.id = id;
+            this.type = type;
+            this.size = size;
+            this.data = data;
+        }
+
+        public boolean isMissing() {
+            return id == null;
+        }
+    }
+
+    private final String repoPath;
+    private final Worker[] readers;
+    private final Worker[] checkers;
+    private AttributeWorker attributes;
+    private volatile boolean closed;
+
+    public GitObjectPool(String repoPath, int workers) {
+        this.repoPath = repoPath;
+        this.readers = new Worker[Math.max(1, workers)];
+        this.checkers = new Worker[1];
+    }
+
+    public String getRepoPath() {
+        return repoPath;
+    }
+
+    // Start the workers ahead of the first read
+    public synchronized void start() {
+        if (closed) return;
+        for (int i = 0; i < readers.length; i++) {
+            if (readers[i] == null || !readers[i].isAlive()) readers[i] = new Worker("--batch");
+        }
+    }
+
+    // Read type, size and content of an object
+    public CompletableFuture<GitObject> read(String objectName) {
+        return submit(readers, "--batch", objectName);
+    }
+
+    // Read only type and size of an object
+    public CompletableFuture<GitObject> check(String objectName) {
+        return submit(checkers, "--batch-check", objectName);
+    }
+
+    /**
+     * Value of the diff attribute of a path as "git check-attr" prints it: "unspecified",
+     * "set", "unset" or the value given in .gitattributes.
+     */
+    public CompletableFuture<String> diffAttribute(String path) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (path.indexOf('\0') >= 0) {
+            future.completeExceptionally(new IllegalArgumentException("Path contains a NUL: " + path));
+            return future;
+        }
+        AttributeWorker worker;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IOException("Object pool is closed"));
+                return future;
+            }
+            if (attributes == null || !attributes.isAlive()) attributes = new AttributeWorker();
+            worker = attributes;
+        }
+        worker.request(path, future);
+        return future;
+    }
+
+    private CompletableFuture<GitObject> submit(Worker[] workers, String mode, String objectName) {
+        CompletableFuture<GitObject> future = new CompletableFuture<>();
+        if (objectName.indexOf('\n') >= 0) {
+            future.completeExceptionally(new IllegalArgumentException("Object name contains a newline: " + objectName));
+            return future;
+        }
+        Worker worker;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IOException("Object pool is closed"));
+                return future;
+            }
+            worker = pick(workers, mode);
+        }
+        worker.request(objectName, future);
+        return future;
+    }
+
+    // Choose the worker with the fewest reads in flight, restarting dead ones
+    private Worker pick(Worker[] workers, String mode) {
+        Worker best = null;
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] == null || !workers[i].isAlive()) {
+                workers[i] = new Worker(mode);
+                return workers[i];
+            }
+            if (best == null || workers[i].pendingCount() < best.pendingCount()) best = workers[i];
+        }
+        return best;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Worker w : readers) if (w != null) w.shutdown();
+        for (Worker w : checkers) if (w != null) w.shutdown();
+        if (attributes != null) attributes.shutdown();
+    }
+
+    private static final class Request<T> {
+        final String name;
+        final CompletableFuture<T> future;
+        // System.nanoTime when the request was queued, for Metrics
+        final long requested = System.nanoTime();
+
+        Request(String name, CompletableFuture<T> future) {
+            this.name = name;
+            this.future = future;
+        }
+    }
+
+    /** One cat-file process with a reader thread answering requests in FIFO order. */
+    private final class Worker {
+        private final boolean withContent;
+        private final String command;
+        private final ArrayDeque<Request<GitObject>> pending = new ArrayDeque<>();
+        private Process process;
+        private OutputStream stdin;
+        private volatile boolean dead;
+
+        Worker(String mode) {
+            this.withContent = mode.equals("--batch");
+            this.command = mode.equals("--batch") ? "git cat-file" : "git cat-file --batch-check";
+            try {
+                process = new ProcessBuilder("git", "-C", repoPath, "cat-file", mode).start();
+                stdin = new BufferedOutputStream(process.getOutputStream());
+                InputStream stdout = new BufferedInputStream(process.getInputStream(), 1 << 16);
+                Thread t = new Thread(() -> readLoop(stdout), "gitdiffview-cat-file-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to start git cat-file", e);
+                dead = true;
+            }
+        }
+
+        boolean isAlive() {
+            return !dead && process != null && process.isAlive();
+        }
+
+        int pendingCount() {
+            synchronized (pending) {
+                return pending.size();
+            }
+        }
+
+        // The write lock keeps the queue in pipe order; the reader thread only takes the
+        // queue lock, so a writer blocked on a full pipe never stalls the reader
+        void request(String name, CompletableFuture<GitObject> future) {
+            synchronized (this) {
+                if (!isAlive()) {
+                    future.completeExceptionally(new IOException("git cat-file is not running"));
+                    return;
+                }
+                synchronized (pending) {
+                    pending.addLast(new Request<>(name, future));
+                }
+                try {
+                    stdin.write((name + "\n").getBytes(StandardCharsets.UTF_8));
+                    stdin.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void readLoop(InputStream in) {
+            try {
+                while (true) {
+                    String header = readLine(in);
+                    if (header == null) break;
+                    Request<GitObject> req;
+                    synchronized (pending) {
+                        req = pending.pollFirst();
+                    }
+                    if (req == null) throw new IOException("Unexpected cat-file output: " + header);
+                    long headerRead = System.nanoTime();
+                    try {
+                        GitObject object = parse(req.name, header, in);
+                        // One request of the long running process counts as an invocation
+                        Metrics.recordGit(command, req.name, req.requested, headerRead, System.nanoTime(), Math.max(0, object.size), 0);
+                        req.future.complete(object);
+                    } catch (IOException | RuntimeException e) {
+                        req.future.completeExceptionally(e);
+                        throw e;
+                    }
+                }
+                fail(new EOFException("git cat-file exited"));
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            }
+        }
+
+        private GitObject parse(String name, String header, InputStream in) throws IOException {
+            // "<id> <type> <size>" or "<name> missing" / "<name> ambiguous"
+            if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+                return new GitObject(name, null, null, -1, null);
+            }
+            String[] parts = header.split(" ");
+            if (parts.length != 3) throw new IOException("Unexpected cat-file output: " + header);
+            long size = Long.parseLong(parts[2]);
+            byte[] data = null;
+            if (withContent) {
+                if (size > Integer.MAX_VALUE - 8) throw new IOException("Object too large: " + name);
+                data = new byte[(int) size];
+                readFully(in, data);
+                if (in.read() != '\n') throw new IOException("Malformed cat-file output for " + name);
+            }
+            return new GitObject(name, parts[0], parts[1], size, data);
+        }
+
+        private void fail(IOException e) {
+            List<Request<GitObject>> failed;
+            dead = true;
+            synchronized (pending) {
+                failed = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Request<GitObject> r : failed) r.future.completeExceptionally(e);
+            if (process != null) process.destroy();
+        }
+
+        void shutdown() {
+            fail(new IOException("Object pool is closed"));
+        }
+    }
+
+    /** The check-attr process, answering the paths written to it in FIFO order. */
+    private final class AttributeWorker {
+        private final ArrayDeque<Request<String>> pending = new ArrayDeque<>();
+        private Process process;
+        private OutputStream stdin;
+        private volatile boolean dead;
+
+        AttributeWorker() {
+            try {
+                // "binary" is a macro for "-diff -merge -text", so the diff attribute covers it
+                ProcessBuilder pb = new ProcessBuilder("git", "-C", repoPath, "check-attr", "--stdin", "-z", "diff");
+                // Answer each path at once instead of when the output buffer fills up
+                pb.environment().put("GIT_FLUSH", "1");
+                process = pb.start();
+                stdin = new BufferedOutputStream(process.getOutputStream());
+                InputStream stdout = new BufferedInputStream(process.getInputStream());
+                Thread t = new Thread(() -> readLoop(stdout), "gitdiffview-check-attr-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to start git check-attr", e);
+                dead = true;
+            }
+        }
+
+        boolean isAlive() {
+            return !dead && process != null && process.isAlive();
+        }
+
+        void request(String path, CompletableFuture<String> future) {
+            synchronized (this) {
+                if (!isAlive()) {
+                    future.completeExceptionally(new IOException("git check-attr is not running"));
+                    return;
+                }
+                synchronized (pending) {
+                    pending.addLast(new Request<>(path, future));
+                }
+                try {
+                    stdin.write(path.getBytes(StandardCharsets.UTF_8));
+                    stdin.write(0);
+                    stdin.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void readLoop(InputStream in) {
+            try {
+                while (true) {
+                    // Path, attribute name and value
+                    String path = readField(in);
+                    if (path == null) break;
+                    if (readField(in) == null) break;
+                    String value = readField(in);
+                    if (value == null) break;
+                    Request<String> req;
+                    synchronized (pending) {
+                        req = pending.pollFirst();
+                    }
+                    if (req == null) throw new IOException("Unexpected check-attr output: " + path);
+                    Metrics.recordGit("git check-attr", req.name, req.requested, 0, System.nanoTime(), value.length(), 0);
+                    req.future.complete(value);
+                }
+                fail(new EOFException("git check-attr exited"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            List<Request<String>> failed;
+            dead = true;
+            synchronized (pending) {
+                failed = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Request<String> r : failed) r.future.completeExceptionally(e);
+            if (process != null) process.destroy();
+        }
+
+        void shutdown() {
+            fail(new IOException("Object pool is closed"));
+        }
+    }
+
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream(64);
+        int c;
+        while ((c = in.read()) >= 0 && c != 0) field.write(c);
+        if (c < 0) return null;
+        return new String(field.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') line.write(c);
+        if (c < 0 && line.size() == 0) return null;
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int off = 0;
+        while (off < data.length) {
+            int n = in.read(data, off, data.length - off);
+            if (n < 0) throw new EOFException();
+            off += n;
+        }
+    }
+}
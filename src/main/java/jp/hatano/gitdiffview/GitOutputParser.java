@@ -0,0 +1,115 @@
+package jp.hatano.gitdiffview;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits the output of a git command into records at a separator byte, typically NUL for
+ * "-z" output or a control character chosen in a "--pretty" format.
+ *
+ * Output is read in large blocks into one buffer and records are located in place: the
+ * current record is a range of {@link #array()} and nothing is allocated per record.
+ * Callers split fields with {@link #indexOf} and decode only the ranges they need. The
+ * range is valid until the next call to {@link #next()}.
+ */
+public class GitOutputParser implements Closeable {
+    public static final byte NUL = 0;
+    // ASCII unit and record separators, for fields of custom formats ("%x1f", "%x1e")
+    public static final byte US = 0x1f;
+    public static final byte RS = 0x1e;
+
+    private static final int BLOCK = 1 << 18;
+
+    private final InputStream in;
+    private final byte separator;
+    private byte[] data = new byte[BLOCK];
+    private int limit;
+    private int nextStart;
+    private int start;
+    private int end;
+    private boolean eof;
+
+    public GitOutputParser(InputStream in, byte separator) {
+        this.in = in;
+        this.separator = separator;
+    }
+
+    // Advance to the next record; false at the end of the output
+    public boolean next() throws IOException {
+        int from = nextStart;
+        int scan = from;
+        while (true) {
+            int sep = find(data, scan, limit, separator);
+            if (sep >= 0) {
+                start = from;
+                end = sep;
+                nextStart = sep + 1;
+                return true;
+            }
+            if (eof) {
+                // Output need not end with a separator
+                if (from == limit) return false;
+                start = from;
+                end = limit;
+                nextStart = limit;
+                return true;
+            }
+            // Keep the partial record at the front and read the next block after it
+            if (from > 0) {
+                System.arraycopy(data, from, data, 0, limit - from);
+                limit -= from;
+                from = 0;
+            }
+            scan = limit;
+            if (limit == data.length) data = Arrays.copyOf(data, data.length * 2);
+            int n = in.read(data, limit, data.length - limit);
+            if (n < 0) eof = true;
+            else limit += n;
+        }
+    }
+
+    private static int find(byte[] data, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) return i;
+        }
+        return -1;
+    }
+
+    // Buffer holding the current record
+    public byte[] array() {
+        return data;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    // Offset of the first b in the record at or after from, or -1
+    public int indexOf(byte b, int from) {
+        return find(data, from, end, b);
+    }
+
+    public String string(Charset charset) {
+        return string(start, end, charset);
+    }
+
+    public String string(int from, int to, Charset charset) {
+        return new String(data, from, to - from, charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,277 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs git work off the Event Dispatch Thread.
+ *
+ * Tasks are submitted to a named slot ("commits", "files", "diff", ...). Submitting a new
+ * task to a slot cancels the task currently running in it, so only the latest request of
+ * each slot is computed, and any git process the cancelled task started is destroyed.
+ * Result and error handlers are always called on the EDT and only for the current task.
+ * Background tasks (speculative work such as prefetching) run at minimum thread priority
+ * and are not reported to activity listeners.
+ */
+public class GitTaskScheduler {
+    private static final Logger LOGGER = Logger.getLogger(GitTaskScheduler.class.getName());
+
+    // Work done on a background thread
+    public interface Task<T> {
+        T run(TaskContext ctx) throws Exception;
+    }
+
+    // Called on the EDT with the result of the current task of a slot
+    public interface ResultHandler<T> {
+        void onSuccess(T result);
+    }
+
+    // Called on the EDT when the current task of a slot failed
+    public interface ErrorHandler {
+        void onFailure(Exception e);
+    }
+
+    // Called on the EDT whenever the set of running tasks changes
+    public interface ActivityListener {
+        void activityChanged(List<String> runningTasks);
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, TaskContext> current = new LinkedHashMap<>();
+    private final List<ActivityListener> listeners = new CopyOnWriteArrayList<>();
+
+    public GitTaskScheduler() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "gitdiffview-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public <T> TaskContext submit(String slot, String description, Task<T> task,
+                                  ResultHandler<? super T> onSuccess, ErrorHandler onFailure) {
+        return submit(slot, description, false, task, onSuccess, onFailure);
+    }
+
+    public <T> TaskContext submitBackground(String slot, String description, Task<T> task,
+                                            ResultHandler<? super T> onSuccess, ErrorHandler onFailure) {
+        return submit(slot, description, true, task, onSuccess, onFailure);
+    }
+
+    private <T> TaskContext submit(String slot, String description, boolean background, Task<T> task,
+                                   ResultHandler<? super T> onSuccess, ErrorHandler onFailure) {
+        TaskContext ctx = new TaskContext(slot, description, background);
+        TaskContext previous;
+        synchronized (this) {
+            previous = current.put(slot, ctx);
+        }
+        if (previous != null) previous.cancel();
+        ctx.future = executor.submit(() -> {
+            T result = null;
+            Exception error = null;
+            Thread thread = Thread.currentThread();
+            if (background) thread.setPriority(Thread.MIN_PRIORITY);
+            try {
+                result = task.run(ctx);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                ctx.destroyProcesses();
+                if (background) thread.setPriority(Thread.NORM_PRIORITY);
+            }
+            // A cancelled task has already left its slot; nothing to report
+            if (ctx.cancelled) return;
+            final T r = result;
+            final Exception err = error;
+            SwingUtilities.invokeLater(() -> complete(ctx, r, err, onSuccess, onFailure));
+        });
+        // A task cancelled before it ever started still has to leave the slot
+        if (ctx.cancelled) ctx.future.cancel(true);
+        fireActivityChanged();
+        return ctx;
+    }
+
+    /**
+     * Run a task on the calling thread, outside any slot, for callers that manage their own
+     * threads such as the command line export. Git processes it started are destroyed when
+     * it returns; it cannot publish, as nothing waits on the EDT.
+     */
+    public <T> T run(String description, Task<T> task) throws Exception {
+        TaskContext ctx = new TaskContext("direct", description, false);
+        try {
+            return task.run(ctx);
+        } finally {
+            ctx.destroyProcesses();
+        }
+    }
+
+    private <T> void complete(TaskContext ctx, T result, Exception error,
+                              ResultHandler<? super T> onSuccess, ErrorHandler onFailure) {
+        boolean isCurrent;
+        synchronized (this) {
+            isCurrent = current.get(ctx.slot) == ctx;
+            if (isCurrent) current.remove(ctx.slot);
+        }
+        fireActivityChanged();
+        if (!isCurrent || ctx.cancelled) return;
+        if (error == null) {
+            if (onSuccess != null) onSuccess.onSuccess(result);
+        } else if (!(error instanceof CancellationException)) {
+            if (onFailure != null) {
+                onFailure.onFailure(error);
+            } else {
+                LOGGER.log(Level.WARNING, "Task failed: " + ctx.description, error);
+            }
+        }
+    }
+
+    // Cancel the running task of the slot, if any
+    public void cancel(String slot) {
+        TaskContext ctx;
+        synchronized (this) {
+            ctx = current.remove(slot);
+        }
+        if (ctx != null) {
+            ctx.cancel();
+            fireActivityChanged();
+        }
+    }
+
+    public void cancelAll() {
+        List<TaskContext> all;
+        synchronized (this) {
+            all = new ArrayList<>(current.values());
+            current.clear();
+        }
+        for (TaskContext ctx : all) ctx.cancel();
+        fireActivityChanged();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    public synchronized boolean isRunning(String slot) {
+        return current.containsKey(slot);
+    }
+
+    public synchronized List<String> getRunningTasks() {
+        List<String> list = new ArrayList<>();
+        for (TaskContext ctx : current.values()) {
+            if (!ctx.background) list.add(ctx.getDescription());
+        }
+        return list;
+    }
+
+    public void addActivityListener(ActivityListener listener) {
+        listeners.add(listener);
+    }
+
+    private void fireActivityChanged() {
+        if (listeners.isEmpty()) return;
+        Runnable notify = () -> {
+            List<String> running = getRunningTasks();
+            for (ActivityListener l : listeners) l.activityChanged(running);
+        };
+        if (SwingUtilities.isEventDispatchThread()) {
+            notify.run();
+        } else {
+            SwingUtilities.invokeLater(notify);
+        }
+    }
+
+    /**
+     * Handle of a submitted task, passed to the task itself so it can start git
+     * processes that are destroyed on cancellation and publish partial results.
+     */
+    public final class TaskContext {
+        private final String slot;
+        private final boolean background;
+        private volatile String description;
+        private final List<Process> processes = new ArrayList<>();
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+
+        private TaskContext(String slot, String description, boolean background) {
+            this.slot = slot;
+            this.description = description;
+            this.background = background;
+        }
+
+        public String getSlot() { return slot; }
+
+        public String getDescription() { return description; }
+
+        public boolean isBackground() { return background; }
+
+        // Update the text shown for this task, e.g. with a progress count
+        public void setDescription(String description) {
+            this.description = description;
+            if (!cancelled) fireActivityChanged();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void checkCancelled() {
+            if (isCancelled()) throw new CancellationException(description);
+        }
+
+        // Start "git -C repoPath args..."; the process is destroyed when the task is cancelled
+        public Process startGit(String repoPath, String... args) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add("git");
+            command.add("-C");
+            command.add(repoPath);
+            command.addAll(Arrays.asList(args));
+            return start(new ProcessBuilder(command));
+        }
+
+        public Process start(ProcessBuilder pb) throws IOException {
+            checkCancelled();
+            // Timed and counted for Metrics
+            Process proc = new MeteredProcess(pb.command(), System.nanoTime(), pb.start());
+            synchronized (processes) {
+                processes.add(proc);
+            }
+            // Cancelled while starting: make sure the new process does not outlive the task
+            if (cancelled) {
+                proc.destroy();
+                throw new CancellationException(description);
+            }
+            return proc;
+        }
+
+        // Run the given code on the EDT unless this task has been superseded by then
+        public void publish(Runnable onEdt) {
+            if (cancelled) return;
+            SwingUtilities.invokeLater(() -> {
+                if (!cancelled) onEdt.run();
+            });
+        }
+
+        public void cancel() {
+            cancelled = true;
+            destroyProcesses();
+            Future<?> f = future;
+            if (f != null) f.cancel(true);
+        }
+
+        private void destroyProcesses() {
+            synchronized (processes) {
+                for (Process p : processes) {
+                    if (p.isAlive()) p.destroy();
+                }
+                processes.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merge bases and ancestry of commits, computed in-process the way "git merge-base" does.
+ *
+ * Commits in the {@link CommitGraph} are walked by graph position, taking parents, times
+ * and generation numbers from the mapped file. Commits newer than the graph, or all of
+ * them when git has not written one, are parsed from the {@link ObjectDatabase} and
+ * numbered after the graph positions. Walk state lives in a byte array indexed by that
+ * number. The walk visits the highest generation first, so it can stop as soon as every
+ * commit left in the queue lies below a merge base already found; commits without a
+ * generation number are ordered by commit time, as git does.
+ *
+ * Walk state is kept between calls, so an instance answers one query and is then
+ * dropped.
+ */
+public class MergeBase {
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+    private static final byte SEEN = 16;
+    private static final int NO_GENERATION = Integer.MAX_VALUE;
+
+    private final ObjectDatabase odb;
+    private final CommitGraph graph;
+    private final int graphSize;
+    // Flags by node: graph positions first, then the commits read as objects
+    private byte[] flags;
+    private final IdTable others = new IdTable();
+    private long[] otherTimes = new long[16];
+    private byte[][][] otherParentIds = new byte[16][][];
+    private int[][] otherParents = new int[16][];
+
+    public MergeBase(ObjectDatabase odb) throws IOException {
+        this(odb, odb.getCommitGraph());
+    }
+
+    // graph may be null to walk the objects only
+    MergeBase(ObjectDatabase odb, CommitGraph graph) {
+        this.odb = odb;
+        this.graph = graph;
+        this.graphSize = graph == null ? 0 : graph.size();
+        this.flags = new byte[graphSize + otherTimes.length];
+    }
+
+    // Best merge bases of the two commits, newest first; empty for unrelated histories
+    public List<String> find(String commit1, String commit2) throws IOException {
+        int one = node(parseId(commit1));
+        int two = node(parseId(commit2));
+        List<String> bases = new ArrayList<>();
+        if (one == two) {
+            bases.add(id(one));
+            return bases;
+        }
+        List<Integer> found = new ArrayList<>();
+        for (int n : paintDownToCommon(one, two)) {
+            // A merge base reached from another one is an ancestor of it
+            if ((flags[n] & STALE) == 0) found.add(n);
+        }
+        if (found.size() > 1) found = removeRedundant(found);
+        found.sort((a, b) -> Long.compare(time(b), time(a)));
+        for (int n : found) bases.add(id(n));
+        return bases;
+    }
+
+    // True if ancestor is reachable from descendant (or is the same commit)
+    public boolean isAncestor(String ancestor, String descendant) throws IOException {
+        return reaches(node(parseId(descendant)), node(parseId(ancestor)));
+    }
+
+    private List<Integer> paintDownToCommon(int one, int two) throws IOException {
+        List<Integer> results = new ArrayList<>();
+        Queue queue = new Queue();
+        flags[one] |= PARENT1;
+        queue.push(one);
+        flags[two] |= PARENT2;
+        queue.push(two);
+        while (queue.hasNonStale()) {
+            int n = queue.pop();
+            int f = flags[n] & (PARENT1 | PARENT2 | STALE);
+            if (f == (PARENT1 | PARENT2)) {
+                if ((flags[n] & RESULT) == 0) {
+                    flags[n] |= RESULT;
+                    results.add(n);
+                }
+                // Everything below a merge base is common too
+                f |= STALE;
+            }
+            for (int p : parents(n)) {
+                if ((flags[p] & f) == f) continue;
+                flags[p] |= f;
+                queue.push(p);
+            }
+        }
+        return results;
+    }
+
+    // Drop candidates that are ancestors of another candidate
+    private List<Integer> removeRedundant(List<Integer> candidates) throws IOException {
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            boolean redundant = false;
+            for (int j = 0; j < candidates.size() && !redundant; j++) {
+                if (i != j && reaches(candidates.get(j), candidates.get(i))) redundant = true;
+            }
+            if (!redundant) kept.add(candidates.get(i));
+        }
+        return kept;
+    }
+
+    // Depth-first search from start; commits below the target's generation cannot lead to it
+    private boolean reaches(int start, int target) throws IOException {
+        int minGeneration = generation(target) == NO_GENERATION ? 0 : generation(target);
+        // The graph is closed under parents: nothing in it reaches a newer commit
+        boolean targetOutside = target >= graphSize;
+        int[] stack = new int[64];
+        int depth = 0;
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        stack[depth++] = start;
+        boolean found = false;
+        try {
+            while (depth > 0 && !found) {
+                int n = stack[--depth];
+                if (n == target) {
+                    found = true;
+                    break;
+                }
+                if ((flags[n] & SEEN) != 0) continue;
+                flags[n] |= SEEN;
+                if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                touched[touchedCount++] = n;
+                if (targetOutside && n < graphSize) continue;
+                if (generation(n) < minGeneration) continue;
+                for (int p : parents(n)) {
+                    if ((flags[p] & SEEN) != 0) continue;
+                    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                    stack[depth++] = p;
+                }
+            }
+        } finally {
+            for (int i = 0; i < touchedCount; i++) flags[touched[i]] &= ~SEEN;
+        }
+        return found;
+    }
+
+    private byte[] parseId(String id) throws IOException {
+        byte[] raw = ObjectDatabase.parseId(id, odb.getHashLength());
+        if (raw == null) throw new IOException("Not a commit id: " + id);
+        return raw;
+    }
+
+    // Node number of the commit, reading it from the object database when the graph lacks it
+    private int node(byte[] id) throws IOException {
+        if (graph != null) {
+            int pos = graph.find(id);
+            if (pos >= 0) return pos;
+        }
+        int index = others.get(id);
+        if (index >= 0) return graphSize + index;
+        String hex = ObjectDatabase.toHex(id);
+        GitObjectPool.GitObject obj = odb.read(hex);
+        if (obj == null || !"commit".equals(obj.type)) throw new IOException("Cannot read commit " + hex);
+        index = others.add(id);
+        if (index == otherTimes.length) {
+            int capacity = index * 2;
+            otherTimes = Arrays.copyOf(otherTimes, capacity);
+            otherParentIds = Arrays.copyOf(otherParentIds, capacity);
+            otherParents = Arrays.copyOf(otherParents, capacity);
+            flags = Arrays.copyOf(flags, graphSize + capacity);
+        }
+        parseCommit(obj.data, index);
+        return graphSize + index;
+    }
+
+    // Parent ids and committer time from the commit header
+    private void parseCommit(byte[] data, int index) throws IOException {
+        List<byte[]> parents = new ArrayList<>();
+        long time = 0;
+        int pos = 0;
+        // The header ends at the first empty line
+        while (pos < data.length && data[pos] != '\n') {
+            int end = pos;
+            while (end < data.length && data[end] != '\n') end++;
+            if (startsWith(data, pos, end, "parent ")) {
+                parents.add(parseId(new String(data, pos + 7, end - pos - 7, StandardCharsets.US_ASCII)));
+            } else if (startsWith(data, pos, end, "committer ")) {
+                time = parseTime(data, pos, end);
+            }
+            pos = end + 1;
+        }
+        otherTimes[index] = time;
+        otherParentIds[index] = parents.toArray(new byte[0][]);
+    }
+
+    private static boolean startsWith(byte[] data, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[from + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // "committer Name <mail> 1700000000 +0900": the seconds after the mail address
+    private static long parseTime(byte[] data, int from, int to) {
+        int gt = to - 1;
+        while (gt > from && data[gt] != '>') gt--;
+        int pos = gt + 1;
+        while (pos < to && data[pos] == ' ') pos++;
+        long time = 0;
+        while (pos < to && data[pos] >= '0' && data[pos] <= '9') time = time * 10 + (data[pos++] - '0');
+        return time;
+    }
+
+    private int[] parents(int node) throws IOException {
+        if (node < graphSize) return graph.getParents(node);
+        int index = node - graphSize;
+        if (otherParents[index] == null) {
+            byte[][] ids = otherParentIds[index];
+            int[] parents = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) parents[i] = node(ids[i]);
+            otherParents[index] = parents;
+        }
+        return otherParents[index];
+    }
+
+    // Old graphs store 0 for commits whose generation was not computed
+    private int generation(int node) {
+        if (node >= graphSize) return NO_GENERATION;
+        int generation = graph.getGeneration(node);
+        return generation == 0 ? NO_GENERATION : generation;
+    }
+
+    private long time(int node) {
+        return node < graphSize ? graph.getCommitTime(node) : otherTimes[node - graphSize];
+    }
+
+    private String id(int node) {
+        return node < graphSize ? graph.getId(node) : ObjectDatabase.toHex(others.ids[node - graphSize]);
+    }
+
+    // Higher generation first, then newer commit time
+    private boolean before(int a, int b) {
+        int ga = generation(a);
+        int gb = generation(b);
+        if (ga != gb) return ga > gb;
+        return time(a) > time(b);
+    }
+
+    /** Binary heap of node numbers, ordered by {@link #before}. */
+    private final class Queue {
+        private int[] heap = new int[64];
+        private int size;
+
+        void push(int node) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!before(node, heap[parent])) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = node;
+        }
+
+        int pop() {
+            int top = heap[0];
+            int last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(heap[child + 1], heap[child])) child++;
+                if (!before(heap[child], last)) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        boolean hasNonStale() {
+            for (int i = 0; i < size; i++) {
+                if ((flags[heap[i]] & STALE) == 0) return true;
+            }
+            return false;
+        }
+    }
+
+    /** Open addressing table from the ids of commits outside the graph to their index. */
+    private static final class IdTable {
+        private int[] slots = new int[64];
+        private byte[][] ids = new byte[16][];
+        private int size;
+
+        // Index of the id, or -1
+        int get(byte[] id) {
+            int mask = slots.length - 1;
+            for (int i = hash(id) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (Arrays.equals(ids[slots[i] - 1], id)) return slots[i] - 1;
+            }
+            return -1;
+        }
+
+        int add(byte[] id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size] = id;
+            if ((size + 1) * 2 > slots.length) {
+                slots = new int[slots.length * 2];
+                for (int i = 0; i < size; i++) insert(i);
+            }
+            insert(size);
+            return size++;
+        }
+
+        // Slots hold index + 1 so that 0 means empty
+        private void insert(int index) {
+            int mask = slots.length - 1;
+            int i = hash(ids[index]) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = index + 1;
+        }
+
+        // Object ids are uniformly distributed already
+        private static int hash(byte[] id) {
+            return (id[0] & 0xff) << 24 | (id[1] & 0xff) << 16 | (id[2] & 0xff) << 8 | (id[3] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package jp.hatano.gitdiffview;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A git process whose standard output is counted, for {@link Metrics}. The invocation
+ * is recorded once: when its output has been read to the end or closed, or when it has
+ * been waited for or destroyed, whichever comes first.
+ */
+final class MeteredProcess extends Process {
+    // Arguments longer than this are cut in the recorded command line
+    private static final int MAX_ARGUMENTS_LENGTH = 200;
+
+    private final Process process;
+    private final String name;
+    private final String arguments;
+    private final long start;
+    private final Output output;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+    private volatile long firstByte;
+    private volatile long bytes;
+
+    MeteredProcess(List<String> command, long start, Process process) {
+        this.process = process;
+        this.start = start;
+        // "git -C repo diff a b" is recorded as "git diff" with the arguments "a b"
+        int i = 1;
+        if (command.size() > 2 && command.get(1).equals("-C")) i = 3;
+        name = i < command.size() ? command.get(0) + " " + command.get(i) : command.get(0);
+        StringBuilder sb = new StringBuilder();
+        for (int k = i + 1; k < command.size() && sb.length() < MAX_ARGUMENTS_LENGTH; k++) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(command.get(k));
+        }
+        if (sb.length() > MAX_ARGUMENTS_LENGTH) sb.setLength(MAX_ARGUMENTS_LENGTH);
+        arguments = sb.toString();
+        output = new Output(process.getInputStream());
+    }
+
+    private void count(long n) {
+        if (n <= 0) return;
+        if (firstByte == 0) firstByte = System.nanoTime();
+        bytes += n;
+    }
+
+    private void finish() {
+        if (!recorded.compareAndSet(false, true)) return;
+        long end = System.nanoTime();
+        int exitCode = process.isAlive() ? -1 : process.exitValue();
+        Metrics.recordGit(name, arguments, start, firstByte, end, bytes, exitCode);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return process.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return output;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return process.getErrorStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        int exit = process.waitFor();
+        finish();
+        return exit;
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean exited = process.waitFor(timeout, unit);
+        if (exited) finish();
+        return exited;
+    }
+
+    @Override
+    public int exitValue() {
+        return process.exitValue();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    @Override
+    public void destroy() {
+        process.destroy();
+        finish();
+    }
+
+    @Override
+    public Process destroyForcibly() {
+        process.destroyForcibly();
+        finish();
+        return this;
+    }
+
+    private final class Output extends FilterInputStream {
+        Output(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count(1);
+            } else {
+                finish();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            } else if (n < 0) {
+                finish();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            finish();
+        }
+    }
+}
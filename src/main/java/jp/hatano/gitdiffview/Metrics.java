@@ -0,0 +1,251 @@
+package jp.hatano.gitdiffview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timings of the operations a user waits for: git invocations (time to the first byte of
+ * output, total time and bytes read), building and showing diff documents, and stalls of
+ * the Event Dispatch Thread. Every operation is logged at FINE, added to running totals
+ * per operation name that {@link #snapshot} returns, passed to listeners, and emitted as
+ * a JFR event when a flight recording is running (see {@link MetricsEvents}).
+ * Operations can be recorded from any thread.
+ */
+public final class Metrics {
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+    private static final boolean JFR = isJfrAvailable();
+
+    private static final Map<String, Stats> STATS = new TreeMap<>();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile Operation last;
+
+    private Metrics() {
+    }
+
+    // Called on the recording thread
+    public interface Listener {
+        void operationRecorded(Operation operation);
+    }
+
+    /** One finished operation. Times are in nanoseconds; -1 where not applicable. */
+    public static final class Operation {
+        private final String name;
+        private final String detail;
+        private final long totalNanos;
+        private final long firstByteNanos;
+        private final long bytes;
+
+        Operation(String name, String detail, long totalNanos, long firstByteNanos, long bytes) {
+            this.name = name;
+            this.detail = detail;
+            this.totalNanos = totalNanos;
+            this.firstByteNanos = firstByteNanos;
+            this.bytes = bytes;
+        }
+
+        public String getName() { return name; }
+
+        public String getDetail() { return detail; }
+
+        public long getTotalNanos() { return totalNanos; }
+
+        public long getFirstByteNanos() { return firstByteNanos; }
+
+        public long getBytes() { return bytes; }
+
+        // e.g. "git diff 182 ms (first byte 12 ms, 1.4 MB)"
+        public String summary() {
+            StringBuilder sb = new StringBuilder(name).append(' ').append(millis(totalNanos));
+            List<String> parts = new ArrayList<>();
+            if (firstByteNanos >= 0) parts.add("first byte " + millis(firstByteNanos));
+            if (bytes >= 0) parts.add(formatBytes(bytes));
+            if (detail != null && !name.startsWith("git ")) parts.add(detail);
+            if (!parts.isEmpty()) sb.append(" (").append(String.join(", ", parts)).append(')');
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return detail != null && name.startsWith("git ") ? summary() + " " + detail : summary();
+        }
+    }
+
+    /** Running totals of one operation name. */
+    public static final class Stats {
+        private final String name;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long firstByteCount;
+        private long firstByteNanos;
+        private long bytes;
+
+        private Stats(String name) {
+            this.name = name;
+        }
+
+        private Stats(Stats other) {
+            name = other.name;
+            count = other.count;
+            totalNanos = other.totalNanos;
+            maxNanos = other.maxNanos;
+            firstByteCount = other.firstByteCount;
+            firstByteNanos = other.firstByteNanos;
+            bytes = other.bytes;
+        }
+
+        private void add(Operation op) {
+            count++;
+            totalNanos += op.totalNanos;
+            maxNanos = Math.max(maxNanos, op.totalNanos);
+            if (op.firstByteNanos >= 0) {
+                firstByteCount++;
+                firstByteNanos += op.firstByteNanos;
+            }
+            if (op.bytes > 0) bytes += op.bytes;
+        }
+
+        public String getName() { return name; }
+
+        public long getCount() { return count; }
+
+        public long getTotalNanos() { return totalNanos; }
+
+        public long getMaxNanos() { return maxNanos; }
+
+        // Average time to the first byte of output over the calls that had any, or -1
+        public long getAverageFirstByteNanos() {
+            return firstByteCount == 0 ? -1 : firstByteNanos / firstByteCount;
+        }
+
+        public long getBytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(": ").append(count).append(count == 1 ? " call" : " calls")
+                .append(", avg ").append(millis(totalNanos / Math.max(1, count)))
+                .append(", max ").append(millis(maxNanos));
+            if (firstByteCount > 0) sb.append(", first byte avg ").append(millis(getAverageFirstByteNanos()));
+            if (bytes > 0) sb.append(", ").append(formatBytes(bytes));
+            return sb.toString();
+        }
+    }
+
+    /** Copy of the totals at one point in time. */
+    public static final class Snapshot {
+        private final List<Stats> stats;
+        private final Operation last;
+
+        private Snapshot(List<Stats> stats, Operation last) {
+            this.stats = stats;
+            this.last = last;
+        }
+
+        // Sorted by operation name
+        public List<Stats> getStats() { return stats; }
+
+        public Stats get(String name) {
+            for (Stats s : stats) if (s.name.equals(name)) return s;
+            return null;
+        }
+
+        // The most recent operation, or null
+        public Operation getLast() { return last; }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Stats s : stats) sb.append(s).append('\n');
+            return sb.toString();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        List<Stats> copy = new ArrayList<>();
+        synchronized (STATS) {
+            for (Stats s : STATS.values()) copy.add(new Stats(s));
+        }
+        return new Snapshot(copy, last);
+    }
+
+    // The most recent operation, or null
+    public static Operation getLast() {
+        return last;
+    }
+
+    public static void reset() {
+        synchronized (STATS) {
+            STATS.clear();
+        }
+        last = null;
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * A git invocation: name is e.g. "git diff", arguments the rest of the command line.
+     * Times are System.nanoTime values; firstByte is 0 when there was no output.
+     */
+    static void recordGit(String name, String arguments, long start, long firstByte, long end, long bytes, int exitCode) {
+        long firstByteNanos = firstByte == 0 ? -1 : firstByte - start;
+        record(new Operation(name, arguments, end - start, firstByteNanos, bytes));
+        if (JFR) MetricsEvents.git(name, arguments, end - start, firstByteNanos, bytes, exitCode);
+    }
+
+    // Building or showing the styled document of a diff
+    static void recordDocument(String name, int lines, long start, long end) {
+        record(new Operation(name, lines + " lines", end - start, -1, -1));
+        if (JFR) MetricsEvents.document(name, lines, end - start);
+    }
+
+    // The EDT did not process events for the duration; stack is where it was found blocked
+    static void recordEdtStall(long nanos, String stack) {
+        record(new Operation("EDT stall", null, nanos, -1, -1));
+        if (JFR) MetricsEvents.edtStall(nanos, stack);
+    }
+
+    private static void record(Operation op) {
+        synchronized (STATS) {
+            Stats stats = STATS.get(op.name);
+            if (stats == null) {
+                stats = new Stats(op.name);
+                STATS.put(op.name, stats);
+            }
+            stats.add(op);
+        }
+        last = op;
+        if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine(op.toString());
+        for (Listener l : LISTENERS) l.operationRecorded(op);
+    }
+
+    static String millis(long nanos) {
+        return (nanos / 1000000) + " ms";
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    // Flight recorder events need jdk.jfr, which older Java 8 runtimes lack
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package jp.hatano.gitdiffview;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of {@link Metrics}, shown under "gitdiffview" in JDK Mission Control. Only
+ * loaded when the runtime has jdk.jfr; events cost nothing unless a recording enables them,
+ * e.g. "java -XX:StartFlightRecording=filename=gitdiffview.jfr -jar gitdiffview.jar".
+ * The events are committed when the operation has finished, so their durations are
+ * carried in fields rather than in the event's own start and end.
+ */
+final class MetricsEvents {
+    private MetricsEvents() {
+    }
+
+    @Name("jp.hatano.gitdiffview.GitInvocation")
+    @Label("Git Invocation")
+    @Category("gitdiffview")
+    @StackTrace(false)
+    static final class GitInvocation extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Arguments")
+        String arguments;
+
+        @Label("Total Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long totalTime;
+
+        @Label("Time to First Byte")
+        @Description("From starting the process to the first byte of its output; -1 without output")
+        @Timespan(Timespan.NANOSECONDS)
+        long firstByte;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Exit Code")
+        @Description("-1 when the output ended before the process had exited")
+        int exitCode;
+    }
+
+    @Name("jp.hatano.gitdiffview.DiffDocument")
+    @Label("Diff Document")
+    @Category("gitdiffview")
+    static final class DiffDocumentEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("jp.hatano.gitdiffview.EdtStall")
+    @Label("EDT Stall")
+    @Category("gitdiffview")
+    @StackTrace(false)
+    static final class EdtStall extends Event {
+        @Label("Blocked Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long blockedTime;
+
+        @Label("EDT Stack")
+        @Description("Stack of the Event Dispatch Thread when the stall was detected")
+        String stack;
+    }
+
+    static void git(String command, String arguments, long totalTime, long firstByte, long bytesRead, int exitCode) {
+        GitInvocation event = new GitInvocation();
+        if (!event.isEnabled()) return;
+        event.command = command;
+        event.arguments = arguments;
+        event.totalTime = totalTime;
+        event.firstByte = firstByte;
+        event.bytesRead = bytesRead;
+        event.exitCode = exitCode;
+        event.commit();
+    }
+
+    static void document(String operation, int lines, long time) {
+        DiffDocumentEvent event = new DiffDocumentEvent();
+        if (!event.isEnabled()) return;
+        event.operation = operation;
+        event.lines = lines;
+        event.time = time;
+        event.commit();
+    }
+
+    static void edtStall(long blockedTime, String stack) {
+        EdtStall event = new EdtStall();
+        if (!event.isEnabled()) return;
+        event.blockedTime = blockedTime;
+        event.stack = stack;
+        event.commit();
+    }
+}
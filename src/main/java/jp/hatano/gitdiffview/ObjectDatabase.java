@@ -0,0 +1,658 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads objects straight from a repository's object store, without running git.
+ *
+ * Pack files are memory-mapped and looked up through the fanout table and sorted ids of
+ * their version 2 ".idx" file; OFS and REF deltas are resolved in-process, keeping recently
+ * built delta bases in a bounded cache since the objects of one commit pair tend to share
+ * chains. Loose objects are inflated from "objects/xx/...". Alternates are followed.
+ *
+ * Objects that are not found give null, so callers fall back to {@link GitObjectPool}.
+ * The pack directories are scanned again on a miss, which picks up packs written by a
+ * fetch or gc. The reader is safe for use from several threads.
+ */
+public class ObjectDatabase {
+    private static final Logger LOGGER = Logger.getLogger(ObjectDatabase.class.getName());
+
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    static final int OBJ_TAG = 4;
+    static final int OBJ_OFS_DELTA = 6;
+    static final int OBJ_REF_DELTA = 7;
+    private static final String[] TYPE_NAMES = { null, "commit", "tree", "blob", "tag" };
+
+    private static final int IDX_MAGIC = 0xff744f63;
+    private static final int PACK_MAGIC = 0x5041434b;
+    // Git refuses deeper alternates chains too
+    private static final int MAX_ALTERNATE_DEPTH = 5;
+    // Longer chains only come from a corrupt (cyclic) pack
+    private static final int MAX_DELTA_CHAIN = 10000;
+    private static final int MAX_OBJECT_SIZE = Integer.MAX_VALUE - 8;
+    private static final long BASE_CACHE_BYTES = 32L << 20;
+    private static final Pattern SHA256_FORMAT = Pattern.compile("(?im)^\\s*objectformat\\s*=\\s*sha256\\s*$");
+
+    /** Type and content of an object. */
+    private static final class RawObject {
+        final int type;
+        final byte[] data;
+
+        RawObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final String repoPath;
+    private final List<Path> objectDirs = new ArrayList<>();
+    private final int hashLength;
+    private final BaseCache bases = new BaseCache(BASE_CACHE_BYTES);
+    // Guarded by this: packs by index path, indexes that could not be read, directory stamps
+    private final Map<String, Pack> packsByIndex = new HashMap<>();
+    private final Set<String> unreadable = new HashSet<>();
+    private final Map<Path, FileTime> scanned = new HashMap<>();
+    private volatile Pack[] packs;
+    // Guarded by this: the commit graph and the times of the files it was read from
+    private CommitGraph commitGraph;
+    private List<FileTime> commitGraphStamps;
+
+    ObjectDatabase(String repoPath, Path objectsDir, int hashLength) throws IOException {
+        this.repoPath = repoPath;
+        this.hashLength = hashLength;
+        objectDirs.add(objectsDir);
+        addAlternates(objectsDir, 0);
+    }
+
+    // Object database of the repository, or null if it is not a repository
+    public static ObjectDatabase open(String repoPath) throws IOException {
+        Path gitDir = RefReader.findGitDir(Paths.get(repoPath));
+        if (gitDir == null) return null;
+        Path commonDir = RefReader.findCommonDir(gitDir);
+        Path objects = commonDir.resolve("objects");
+        if (!Files.isDirectory(objects)) return null;
+        return new ObjectDatabase(repoPath, objects, readHashLength(commonDir));
+    }
+
+    // SHA-256 repositories say so in extensions.objectFormat
+    private static int readHashLength(Path commonDir) throws IOException {
+        Path config = commonDir.resolve("config");
+        if (!Files.isRegularFile(config)) return 20;
+        String text = new String(Files.readAllBytes(config), StandardCharsets.UTF_8);
+        return SHA256_FORMAT.matcher(text).find() ? 32 : 20;
+    }
+
+    // "objects/info/alternates" lists further object directories, one per line
+    private void addAlternates(Path objectsDir, int depth) throws IOException {
+        Path file = objectsDir.resolve("info/alternates");
+        if (depth >= MAX_ALTERNATE_DEPTH || !Files.isRegularFile(file)) return;
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            Path dir = objectsDir.resolve(line).normalize();
+            if (Files.isDirectory(dir) && !objectDirs.contains(dir)) {
+                objectDirs.add(dir);
+                addAlternates(dir, depth + 1);
+            }
+        }
+    }
+
+    public String getRepoPath() {
+        return repoPath;
+    }
+
+    // Length of object ids in bytes: 20, or 32 in SHA-256 repositories
+    public int getHashLength() {
+        return hashLength;
+    }
+
+    // Commit graph of the repository, read again after git rewrote it; null if there is none
+    public synchronized CommitGraph getCommitGraph() throws IOException {
+        Path objects = objectDirs.get(0);
+        List<FileTime> stamps = new ArrayList<>();
+        for (Path file : CommitGraph.stampFiles(objects)) {
+            stamps.add(Files.isRegularFile(file) ? Files.getLastModifiedTime(file) : null);
+        }
+        if (!stamps.equals(commitGraphStamps)) {
+            commitGraphStamps = stamps;
+            try {
+                commitGraph = CommitGraph.open(objects, hashLength);
+            } catch (IOException e) {
+                // Commits are then read one by one
+                LOGGER.log(Level.WARNING, "Cannot read the commit graph of " + repoPath, e);
+                commitGraph = null;
+            }
+        }
+        return commitGraph;
+    }
+
+    // Type, size and content of the object with the given full id, or null if it is not found
+    public GitObjectPool.GitObject read(String id) throws IOException {
+        byte[] raw = parseId(id, hashLength);
+        if (raw == null) return null;
+        RawObject obj = find(raw);
+        if (obj == null) return null;
+        String hex = id.toLowerCase();
+        return new GitObjectPool.GitObject(id, hex, TYPE_NAMES[obj.type], obj.data.length, obj.data);
+    }
+
+    // Commit an id stands for, following annotated tags; null if it is not found or not a commit
+    public String peelToCommit(String id) throws IOException {
+        // Tags of tags are rare; a cycle would need a hash collision
+        for (int depth = 0; depth < 64 && id != null; depth++) {
+            GitObjectPool.GitObject obj = read(id);
+            if (obj == null) return null;
+            if ("commit".equals(obj.type)) return obj.id;
+            if (!"tag".equals(obj.type)) return null;
+            id = headerValue(obj.data, "object");
+        }
+        return null;
+    }
+
+    // Value of the first header line with the given key, or null
+    private static String headerValue(byte[] data, String key) {
+        byte[] prefix = (key + " ").getBytes(StandardCharsets.US_ASCII);
+        int pos = 0;
+        while (pos < data.length && data[pos] != '\n') {
+            int end = pos;
+            while (end < data.length && data[end] != '\n') end++;
+            if (end - pos >= prefix.length && regionEquals(data, pos, prefix)) {
+                return new String(data, pos + prefix.length, end - pos - prefix.length, StandardCharsets.US_ASCII);
+            }
+            pos = end + 1;
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(byte[] data, int offset, byte[] wanted) {
+        for (int i = 0; i < wanted.length; i++) {
+            if (data[offset + i] != wanted[i]) return false;
+        }
+        return true;
+    }
+
+    // Tree id on the first line of a commit, or null
+    static String treeOf(byte[] commit) {
+        return headerValue(commit, "tree");
+    }
+
+    private RawObject find(byte[] id) throws IOException {
+        RawObject obj = findInPacks(getPacks(), id);
+        if (obj != null) return obj;
+        obj = readLoose(id);
+        if (obj != null) return obj;
+        // A pack written since the last scan, e.g. by a gc that also removed the loose object
+        if (scanPacks()) return findInPacks(getPacks(), id);
+        return null;
+    }
+
+    private RawObject findInPacks(Pack[] packs, byte[] id) throws IOException {
+        for (Pack pack : packs) {
+            long offset = pack.find(id);
+            if (offset >= 0) return load(pack, offset);
+        }
+        return null;
+    }
+
+    private Pack[] getPacks() throws IOException {
+        Pack[] p = packs;
+        if (p != null) return p;
+        scanPacks();
+        return packs;
+    }
+
+    // Map the packs that appeared since the last scan; true if there were any
+    private synchronized boolean scanPacks() throws IOException {
+        boolean changed = packs == null;
+        for (Path dir : objectDirs) {
+            Path packDir = dir.resolve("pack");
+            FileTime stamp = Files.isDirectory(packDir) ? Files.getLastModifiedTime(packDir) : null;
+            if (!scanned.containsKey(packDir) || !Objects.equals(stamp, scanned.get(packDir))) changed = true;
+            scanned.put(packDir, stamp);
+        }
+        if (!changed) return false;
+        List<Pack> found = new ArrayList<>();
+        boolean added = false;
+        for (Path dir : objectDirs) {
+            Path packDir = dir.resolve("pack");
+            if (!Files.isDirectory(packDir)) continue;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(packDir, "*.idx")) {
+                for (Path idx : entries) {
+                    String key = idx.toString();
+                    Pack pack = packsByIndex.get(key);
+                    if (pack == null && !unreadable.contains(key)) {
+                        String name = idx.getFileName().toString();
+                        Path packFile = idx.resolveSibling(name.substring(0, name.length() - 4) + ".pack");
+                        try {
+                            pack = new Pack(idx, packFile, hashLength);
+                            packsByIndex.put(key, pack);
+                            added = true;
+                        } catch (NoSuchFileException e) {
+                            // Index written before its pack
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Cannot read pack " + packFile, e);
+                            unreadable.add(key);
+                        }
+                    }
+                    if (pack != null) found.add(pack);
+                }
+            }
+        }
+        // Packs deleted by gc drop out; mapped memory stays valid while a reader still uses it
+        packsByIndex.values().retainAll(found);
+        packs = found.toArray(new Pack[0]);
+        return added;
+    }
+
+    // Object at the offset of the pack, with its delta chain applied
+    private RawObject load(Pack pack, long offset) throws IOException {
+        List<Delta> chain = new ArrayList<>();
+        Pack p = pack;
+        long pos = offset;
+        RawObject base;
+        while (true) {
+            if (chain.size() > MAX_DELTA_CHAIN) throw new IOException("Delta chain too long in " + pack.name);
+            base = bases.get(p, pos);
+            if (base != null) break;
+            long at = pos;
+            int c = p.get(at++) & 0xff;
+            int type = (c >> 4) & 7;
+            long size = c & 15;
+            int shift = 4;
+            while ((c & 0x80) != 0) {
+                c = p.get(at++) & 0xff;
+                size |= (long) (c & 0x7f) << shift;
+                shift += 7;
+            }
+            if (type == OBJ_OFS_DELTA) {
+                c = p.get(at++) & 0xff;
+                long distance = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = p.get(at++) & 0xff;
+                    distance = ((distance + 1) << 7) | (c & 0x7f);
+                }
+                chain.add(new Delta(p, pos, at, size));
+                pos -= distance;
+            } else if (type == OBJ_REF_DELTA) {
+                byte[] baseId = new byte[hashLength];
+                p.copy(at, baseId, 0, hashLength);
+                chain.add(new Delta(p, pos, at + hashLength, size));
+                long basePos = p.find(baseId);
+                if (basePos >= 0) {
+                    pos = basePos;
+                } else {
+                    // The base of a thin pack lives in another pack or is loose
+                    base = find(baseId);
+                    if (base == null) throw new IOException("Missing delta base " + toHex(baseId) + " in " + p.name);
+                    break;
+                }
+            } else if (type >= OBJ_COMMIT && type <= OBJ_TAG) {
+                base = new RawObject(type, p.inflate(at, size));
+                if (!chain.isEmpty()) bases.put(p, pos, base);
+                break;
+            } else {
+                throw new IOException("Bad object type " + type + " at " + pos + " in " + p.name);
+            }
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Delta d = chain.get(i);
+            base = new RawObject(base.type, applyDelta(base.data, d.pack.inflate(d.dataStart, d.size)));
+            if (i > 0) bases.put(d.pack, d.offset, base);
+        }
+        return base;
+    }
+
+    /** A delta entry of a pack waiting for its base. */
+    private static final class Delta {
+        final Pack pack;
+        final long offset;
+        final long dataStart;
+        final long size;
+
+        Delta(Pack pack, long offset, long dataStart, long size) {
+            this.pack = pack;
+            this.offset = offset;
+            this.dataStart = dataStart;
+            this.size = size;
+        }
+    }
+
+    // Git's delta format: source and result sizes, then copy-from-base and insert instructions
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        try {
+            int[] pos = { 0 };
+            long baseSize = readSize(delta, pos);
+            long resultSize = readSize(delta, pos);
+            if (baseSize != base.length) throw new IOException("Delta base has the wrong size");
+            if (resultSize > MAX_OBJECT_SIZE) throw new IOException("Object too large: " + resultSize);
+            byte[] out = new byte[(int) resultSize];
+            int i = pos[0];
+            int o = 0;
+            while (i < delta.length) {
+                int op = delta[i++] & 0xff;
+                if ((op & 0x80) != 0) {
+                    long from = 0;
+                    int size = 0;
+                    if ((op & 0x01) != 0) from = delta[i++] & 0xff;
+                    if ((op & 0x02) != 0) from |= (delta[i++] & 0xff) << 8;
+                    if ((op & 0x04) != 0) from |= (delta[i++] & 0xff) << 16;
+                    if ((op & 0x08) != 0) from |= (long) (delta[i++] & 0xff) << 24;
+                    if ((op & 0x10) != 0) size = delta[i++] & 0xff;
+                    if ((op & 0x20) != 0) size |= (delta[i++] & 0xff) << 8;
+                    if ((op & 0x40) != 0) size |= (delta[i++] & 0xff) << 16;
+                    if (size == 0) size = 0x10000;
+                    if (from + size > base.length) throw new IOException("Delta copies past its base");
+                    System.arraycopy(base, (int) from, out, o, size);
+                    o += size;
+                } else if (op != 0) {
+                    System.arraycopy(delta, i, out, o, op);
+                    i += op;
+                    o += op;
+                } else {
+                    throw new IOException("Bad delta instruction");
+                }
+            }
+            if (o != out.length) throw new IOException("Delta result has the wrong size");
+            return out;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt delta", e);
+        }
+    }
+
+    // Little-endian base-128 number
+    private static long readSize(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = data[pos[0]++] & 0xff;
+            value |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+
+    private RawObject readLoose(byte[] id) throws IOException {
+        String hex = toHex(id);
+        for (Path dir : objectDirs) {
+            byte[] compressed;
+            try {
+                compressed = Files.readAllBytes(dir.resolve(hex.substring(0, 2)).resolve(hex.substring(2)));
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            return inflateLoose(compressed, hex);
+        }
+        return null;
+    }
+
+    // A deflated "type size\0" header followed by the content
+    private static RawObject inflateLoose(byte[] compressed, String hex) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] head = new byte[64];
+            int n = inflateFully(inflater, head, 0, head.length);
+            int space = indexOf(head, n, (byte) ' ');
+            int nul = indexOf(head, n, (byte) 0);
+            if (space < 0 || nul < space) throw new IOException("Bad loose object header: " + hex);
+            String typeName = new String(head, 0, space, StandardCharsets.US_ASCII);
+            int type = 0;
+            for (int t = OBJ_COMMIT; t <= OBJ_TAG; t++) {
+                if (TYPE_NAMES[t].equals(typeName)) type = t;
+            }
+            long size = Long.parseLong(new String(head, space + 1, nul - space - 1, StandardCharsets.US_ASCII));
+            if (type == 0) throw new IOException("Bad loose object type: " + hex);
+            if (size > MAX_OBJECT_SIZE) throw new IOException("Object too large: " + hex);
+            byte[] data = new byte[(int) size];
+            int start = Math.min(n - nul - 1, data.length);
+            System.arraycopy(head, nul + 1, data, 0, start);
+            if (inflateFully(inflater, data, start, data.length - start) != data.length - start) {
+                throw new IOException("Truncated loose object: " + hex);
+            }
+            return new RawObject(type, data);
+        } catch (DataFormatException | NumberFormatException e) {
+            throw new IOException("Corrupt loose object: " + hex, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Inflate until length bytes are out or the input ends; returns the number of bytes
+    private static int inflateFully(Inflater inflater, byte[] out, int offset, int length) throws DataFormatException {
+        int done = 0;
+        while (done < length) {
+            int n = inflater.inflate(out, offset + done, length - done);
+            if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+            done += n;
+        }
+        return done;
+    }
+
+    private static int indexOf(byte[] data, int length, byte b) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] == b) return i;
+        }
+        return -1;
+    }
+
+    // Binary form of a full hex id, or null if the name is something else
+    static byte[] parseId(String id, int hashLength) {
+        if (id.length() != hashLength * 2) return null;
+        byte[] raw = new byte[hashLength];
+        for (int i = 0; i < hashLength; i++) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            raw[i] = (byte) (hi << 4 | lo);
+        }
+        return raw;
+    }
+
+    static String toHex(byte[] id) {
+        StringBuilder sb = new StringBuilder(id.length * 2);
+        for (byte b : id) sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        return sb.toString();
+    }
+
+    /** One pack and its version 2 index, both memory-mapped read-only. */
+    private static final class Pack {
+        // Packs are mapped in windows since one mapping cannot exceed 2 GiB
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+        final String name;
+        private final int hashLength;
+        private final ByteBuffer idx;
+        private final int namesOffset;
+        private final int offsetsOffset;
+        private final int largeOffsetsOffset;
+        private final ByteBuffer[] segments;
+        private final long length;
+
+        Pack(Path idxFile, Path packFile, int hashLength) throws IOException {
+            this.name = packFile.getFileName().toString();
+            this.hashLength = hashLength;
+            try (FileChannel pack = FileChannel.open(packFile, StandardOpenOption.READ);
+                 FileChannel index = FileChannel.open(idxFile, StandardOpenOption.READ)) {
+                if (index.size() > Integer.MAX_VALUE) throw new IOException("Pack index too large");
+                idx = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+                if (idx.capacity() < 8 + 256 * 4 || idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != 2) {
+                    throw new IOException("Unsupported pack index " + idxFile);
+                }
+                int count = idx.getInt(8 + 255 * 4);
+                namesOffset = 8 + 256 * 4;
+                // Ids, then a CRC and a 4-byte offset per object, then the 8-byte offsets
+                offsetsOffset = namesOffset + count * (hashLength + 4);
+                largeOffsetsOffset = offsetsOffset + count * 4;
+                if (count < 0 || largeOffsetsOffset < 0 || largeOffsetsOffset > idx.capacity()) {
+                    throw new IOException("Truncated pack index " + idxFile);
+                }
+                length = pack.size();
+                segments = new ByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i << SEGMENT_SHIFT;
+                    segments[i] = pack.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, 1L << SEGMENT_SHIFT));
+                }
+                if (length < 12 || segments[0].getInt(0) != PACK_MAGIC) throw new IOException("Not a pack: " + packFile);
+            }
+        }
+
+        // Offset of the object in the pack, or -1
+        long find(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+            int hi = idx.getInt(8 + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(namesOffset + mid * hashLength, id);
+                if (cmp == 0) return offset(mid);
+                if (cmp < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return -1;
+        }
+
+        private int compare(int at, byte[] id) {
+            for (int i = 0; i < hashLength; i++) {
+                int diff = (idx.get(at + i) & 0xff) - (id[i] & 0xff);
+                if (diff != 0) return diff;
+            }
+            return 0;
+        }
+
+        // Offsets past 2 GiB are stored in the large offset table
+        private long offset(int i) {
+            int value = idx.getInt(offsetsOffset + i * 4);
+            if (value >= 0) return value;
+            return idx.getLong(largeOffsetsOffset + (value & 0x7fffffff) * 8);
+        }
+
+        byte get(long pos) throws IOException {
+            if (pos < 0 || pos >= length) throw new IOException("Offset " + pos + " outside of " + name);
+            return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+        }
+
+        void copy(long pos, byte[] dst, int offset, int len) throws IOException {
+            if (pos < 0 || pos + len > length) throw new IOException("Offset " + pos + " outside of " + name);
+            while (len > 0) {
+                // Absolute bulk reads are missing before Java 13; a duplicate keeps threads apart
+                ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)].duplicate();
+                int at = (int) (pos & SEGMENT_MASK);
+                int n = Math.min(len, segment.capacity() - at);
+                segment.position(at);
+                segment.get(dst, offset, n);
+                pos += n;
+                offset += n;
+                len -= n;
+            }
+        }
+
+        // Inflate the zlib stream at pos into size bytes
+        byte[] inflate(long pos, long size) throws IOException {
+            if (size > MAX_OBJECT_SIZE) throw new IOException("Object too large: " + size);
+            byte[] out = new byte[(int) size];
+            byte[] in = new byte[(int) Math.min(1 << 16, size + 64)];
+            Inflater inflater = new Inflater();
+            try {
+                int done = 0;
+                while (done < out.length) {
+                    if (inflater.needsInput()) {
+                        int n = (int) Math.min(in.length, length - pos);
+                        if (n <= 0) throw new IOException("Truncated object in " + name);
+                        copy(pos, in, 0, n);
+                        pos += n;
+                        inflater.setInput(in, 0, n);
+                    }
+                    int n = inflater.inflate(out, done, out.length - done);
+                    if (n == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated object in " + name);
+                    }
+                    done += n;
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt object in " + name, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /** Delta bases by pack and offset, least recently used dropped first, bounded in bytes. */
+    private static final class BaseCache {
+        private final long maxBytes;
+        private final LinkedHashMap<Key, RawObject> map = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+
+        BaseCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized RawObject get(Pack pack, long offset) {
+            return map.get(new Key(pack, offset));
+        }
+
+        synchronized void put(Pack pack, long offset, RawObject obj) {
+            // One huge base would push out everything else
+            if (obj.data.length > maxBytes / 4) return;
+            RawObject old = map.put(new Key(pack, offset), obj);
+            if (old != null) bytes -= old.data.length;
+            bytes += obj.data.length;
+            Iterator<RawObject> it = map.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().data.length;
+                it.remove();
+            }
+        }
+
+        private static final class Key {
+            final Pack pack;
+            final long offset;
+
+            Key(Pack pack, long offset) {
+                this.pack = pack;
+                this.offset = offset;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key k = (Key) o;
+                return pack == k.pack && offset == k.offset;
+            }
+
+            @Override
+            public int hashCode() {
+                return System.identityHashCode(pack) * 31 + Long.hashCode(offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package jp.hatano.gitdiffview;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Index for fuzzy filtering the paths of a {@link FileChanges}: a query matches a path
+ * whose characters contain the query's characters in order, ignoring ASCII case.
+ *
+ * Each path is kept lower-cased in one byte pool together with a 64-bit mask of the
+ * characters it contains. A path whose mask lacks one of the query's characters is
+ * skipped with a single AND, so most paths are never scanned. Matches are scored higher
+ * for consecutive characters, characters starting a path segment or word, and matches
+ * in the file name.
+ */
+public class PathFilterIndex {
+    private final FileChanges files;
+    private int count;
+    private long[] masks = new long[64];
+    // Path i spans [ends[i - 1], ends[i]) of the pool, its file name starts at nameStarts[i]
+    private int[] ends = new int[64];
+    private int[] nameStarts = new int[64];
+    private byte[] pool = new byte[64 * 32];
+
+    public PathFilterIndex(FileChanges files) {
+        this.files = files;
+        extend();
+    }
+
+    public FileChanges getFiles() {
+        return files;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Index the files added since the index was built or last extended
+    public void extend() {
+        int total = files.size();
+        if (total > masks.length) {
+            int newCap = Math.max(total, masks.length + (masks.length >> 1));
+            masks = Arrays.copyOf(masks, newCap);
+            ends = Arrays.copyOf(ends, newCap);
+            nameStarts = Arrays.copyOf(nameStarts, newCap);
+        }
+        for (int i = count; i < total; i++) {
+            byte[] path = files.getPath(i).getBytes(StandardCharsets.UTF_8);
+            int start = start(i);
+            if (start + path.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(start + path.length, pool.length + (pool.length >> 1)));
+            }
+            long mask = 0;
+            int nameStart = start;
+            for (int j = 0; j < path.length; j++) {
+                byte c = lower(path[j]);
+                pool[start + j] = c;
+                mask |= bit(c);
+                if (c == '/') nameStart = start + j + 1;
+            }
+            masks[i] = mask;
+            ends[i] = start + path.length;
+            nameStarts[i] = nameStart;
+        }
+        count = total;
+    }
+
+    private int start(int index) {
+        return index == 0 ? 0 : ends[index - 1];
+    }
+
+    private static byte lower(byte c) {
+        return c >= 'A' && c <= 'Z' ? (byte) (c + ('a' - 'A')) : c;
+    }
+
+    // Bit of a character in the masks; letters and digits get their own, the rest share a few
+    private static long bit(byte c) {
+        if (c >= 'a' && c <= 'z') return 1L << (c - 'a');
+        if (c >= '0' && c <= '9') return 1L << (26 + c - '0');
+        switch (c) {
+            case '.': return 1L << 36;
+            case '/': return 1L << 37;
+            case '_': return 1L << 38;
+            case '-': return 1L << 39;
+            case ' ': return 1L << 40;
+            default: return 1L << (48 + (c & 15));
+        }
+    }
+
+    /** Lower-cased UTF-8 bytes of a query. */
+    public static byte[] query(String text) {
+        byte[] q = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < q.length; i++) q[i] = lower(q[i]);
+        return q;
+    }
+
+    /**
+     * Match the query against the first n candidate files. Matching files are written to
+     * outFiles and their scores to outScores, in candidate order; returns how many matched.
+     */
+    public int match(byte[] query, int[] candidates, int n, int[] outFiles, int[] outScores) {
+        long needed = 0;
+        for (byte c : query) needed |= bit(c);
+        int matched = 0;
+        for (int k = 0; k < n; k++) {
+            int file = candidates[k];
+            if (file >= count || (masks[file] & needed) != needed) continue;
+            int score = score(query, start(file), ends[file], nameStarts[file]);
+            if (score == Integer.MIN_VALUE) continue;
+            outFiles[matched] = file;
+            outScores[matched] = score;
+            matched++;
+        }
+        return matched;
+    }
+
+    // Score of the better of a match in the file name alone and one over the whole path
+    private int score(byte[] query, int start, int end, int nameStart) {
+        int whole = scoreFrom(query, start, start, end);
+        if (whole == Integer.MIN_VALUE) return whole;
+        int inName = scoreFrom(query, nameStart, start, end);
+        if (inName != Integer.MIN_VALUE) inName += 2 * query.length;
+        // Shorter paths win ties between otherwise equal matches
+        return Math.max(inName, whole) * 64 - Math.min(63, (end - start) / 4);
+    }
+
+    // Greedy leftmost match from a position, or Integer.MIN_VALUE if the query is not contained
+    private int scoreFrom(byte[] query, int from, int start, int end) {
+        int score = 0;
+        int q = 0;
+        int previous = -2;
+        for (int i = from; i < end && q < query.length; i++) {
+            if (pool[i] != query[q]) continue;
+            int bonus = 1;
+            if (i == previous + 1) bonus += 4;
+            if (i == start || isSeparator(pool[i - 1])) bonus += 3;
+            previous = i;
+            q++;
+            score += bonus;
+        }
+        return q < query.length ? Integer.MIN_VALUE : score;
+    }
+
+    private static boolean isSeparator(byte c) {
+        return c == '/' || c == '.' || c == '_' || c == '-' || c == ' ';
+    }
+}
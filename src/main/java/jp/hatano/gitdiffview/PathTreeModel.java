@@ -0,0 +1,124 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tree model over a {@link PathTrie}. The nodes handed to JTree are small wrappers around
+ * trie node numbers made when JTree asks for a child, which it only does for expanded
+ * directories. Used with a fixed row height and JTree's large model mode, opening a
+ * directory with many thousands of files does not build per-row state.
+ * Must only be used on the Event Dispatch Thread.
+ */
+public class PathTreeModel implements TreeModel {
+    /** A trie node; equal nodes have the same number, so JTree can keep paths across calls. */
+    public static final class Node {
+        final int id;
+        private final PathTrie trie;
+
+        Node(PathTrie trie, int id) {
+            this.trie = trie;
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Node && ((Node) o).id == id && ((Node) o).trie == trie;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return trie.getName(id);
+        }
+    }
+
+    private final List<TreeModelListener> listeners = new ArrayList<>();
+    private PathTrie trie = new PathTrie(new FileChanges(), new int[0]);
+    private Node root = new Node(trie, PathTrie.ROOT);
+
+    public PathTrie getTrie() {
+        return trie;
+    }
+
+    public void setTrie(PathTrie trie) {
+        this.trie = trie;
+        root = new Node(trie, PathTrie.ROOT);
+        TreeModelEvent event = new TreeModelEvent(this, new TreePath(root));
+        for (TreeModelListener l : new ArrayList<>(listeners)) l.treeStructureChanged(event);
+    }
+
+    // Path of the node of a file or directory, or null
+    public TreePath pathTo(String path) {
+        int node = trie.find(path);
+        if (node < 0) return null;
+        int depth = 0;
+        for (int n = node; n >= 0; n = trie.getParent(n)) depth++;
+        Object[] nodes = new Object[depth];
+        for (int n = node; n >= 0; n = trie.getParent(n)) nodes[--depth] = n == PathTrie.ROOT ? root : new Node(trie, n);
+        return new TreePath(nodes);
+    }
+
+    // Full path of a node given by JTree
+    public String getPath(Object node) {
+        return trie.getPath(((Node) node).id);
+    }
+
+    // Index into getTrie().getFiles() of a file node given by JTree, -1 for a directory
+    public int getFileIndex(Object node) {
+        return trie.getFileIndex(((Node) node).id);
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return new Node(trie, trie.getChild(((Node) parent).id, index));
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return trie.getChildCount(((Node) parent).id);
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return trie.isFile(((Node) node).id);
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof Node) || !(child instanceof Node)) return -1;
+        return trie.getIndexOfChild(((Node) parent).id, ((Node) child).id);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // Not editable
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(l);
+    }
+}
@@ -0,0 +1,46 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.JTree;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import java.awt.Component;
+
+/**
+ * Renders a node of a {@link PathTreeModel}: a directory with its file count and the
+ * lines changed below it, a file like {@link FileChangeRenderer} does.
+ */
+public class PathTreeRenderer extends DefaultTreeCellRenderer {
+    @Override
+    public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected, boolean expanded,
+            boolean leaf, int row, boolean hasFocus) {
+        String text = value == null ? "" : value.toString();
+        String tooltip = null;
+        if (value instanceof PathTreeModel.Node && tree.getModel() instanceof PathTreeModel) {
+            PathTrie trie = ((PathTreeModel) tree.getModel()).getTrie();
+            int node = ((PathTreeModel.Node) value).getId();
+            StringBuilder sb = new StringBuilder();
+            if (trie.isFile(node)) {
+                FileChanges files = trie.getFiles();
+                int file = trie.getFileIndex(node);
+                sb.append(files.getStatus(file)).append("  ").append(text);
+                int added = files.getAdded(file);
+                if (added == FileChanges.BINARY) {
+                    sb.append("  bin");
+                } else if (added != FileChanges.UNKNOWN) {
+                    sb.append("  +").append(added).append(" -").append(files.getDeleted(file));
+                }
+                String oldPath = files.getOldPath(file);
+                if (oldPath != null) tooltip = oldPath + " -> " + files.getPath(file);
+            } else {
+                int count = trie.getFileCount(node);
+                sb.append(text).append("/  ").append(count).append(count == 1 ? " file" : " files");
+                if (trie.getAdded(node) > 0 || trie.getDeleted(node) > 0) {
+                    sb.append("  +").append(trie.getAdded(node)).append(" -").append(trie.getDeleted(node));
+                }
+            }
+            text = sb.toString();
+        }
+        super.getTreeCellRendererComponent(tree, text, selected, expanded, leaf, row, hasFocus);
+        setToolTipText(tooltip);
+        return this;
+    }
+}
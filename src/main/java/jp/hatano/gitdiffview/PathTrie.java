@@ -0,0 +1,193 @@
+package jp.hatano.gitdiffview;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Directory tree of changed files. Each node is one path segment, so a directory shared
+ * by many files is stored once, and nodes are numbers into parallel arrays rather than
+ * objects.
+ *
+ * Every node carries the file count and the added and deleted lines of its subtree.
+ * Children are linked in the order files were added; the sorted child array of a
+ * directory (subdirectories first, then files, each by name) is only built when the
+ * directory is first opened.
+ */
+public class PathTrie {
+    public static final int ROOT = 0;
+
+    private final FileChanges files;
+    private int nodeCount;
+    private String[] names = new String[64];
+    private int[] parents = new int[64];
+    private int[] firstChildren = new int[64];
+    private int[] nextSiblings = new int[64];
+    private int[] childCounts = new int[64];
+    // File index of a leaf, -1 for directories
+    private int[] fileIndexes = new int[64];
+    private int[] fileCounts = new int[64];
+    private long[] added = new long[64];
+    private long[] deleted = new long[64];
+    // Built on first use: sorted children and each node's position among its siblings
+    private int[][] sortedChildren = new int[64][];
+    private int[] indexInParent = new int[64];
+
+    // Trie of the given files of the list
+    public PathTrie(FileChanges files, int[] indexes) {
+        this.files = files;
+        newNode(-1, "", -1);
+        Map<String, Integer> dirs = new HashMap<>();
+        for (int index : indexes) {
+            String path = files.getPath(index);
+            int slash = path.lastIndexOf('/');
+            int dir = slash < 0 ? ROOT : directory(dirs, path.substring(0, slash));
+            int leaf = newNode(dir, path.substring(slash + 1), index);
+            int a = Math.max(0, files.getAdded(index));
+            int d = Math.max(0, files.getDeleted(index));
+            for (int n = leaf; n >= 0; n = parents[n]) {
+                fileCounts[n]++;
+                added[n] += a;
+                deleted[n] += d;
+            }
+        }
+    }
+
+    // Node of the directory, creating it and missing parents
+    private int directory(Map<String, Integer> dirs, String dirPath) {
+        Integer node = dirs.get(dirPath);
+        if (node != null) return node;
+        int slash = dirPath.lastIndexOf('/');
+        int parent = slash < 0 ? ROOT : directory(dirs, dirPath.substring(0, slash));
+        int dir = newNode(parent, dirPath.substring(slash + 1), -1);
+        dirs.put(dirPath, dir);
+        return dir;
+    }
+
+    private int newNode(int parent, String name, int fileIndex) {
+        if (nodeCount == names.length) grow();
+        int n = nodeCount++;
+        names[n] = name;
+        parents[n] = parent;
+        firstChildren[n] = -1;
+        nextSiblings[n] = -1;
+        fileIndexes[n] = fileIndex;
+        if (parent >= 0) {
+            nextSiblings[n] = firstChildren[parent];
+            firstChildren[parent] = n;
+            childCounts[parent]++;
+        }
+        return n;
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+        fileIndexes = Arrays.copyOf(fileIndexes, capacity);
+        fileCounts = Arrays.copyOf(fileCounts, capacity);
+        added = Arrays.copyOf(added, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        sortedChildren = Arrays.copyOf(sortedChildren, capacity);
+        indexInParent = Arrays.copyOf(indexInParent, capacity);
+    }
+
+    public FileChanges getFiles() {
+        return files;
+    }
+
+    public int size() {
+        return nodeCount;
+    }
+
+    public int getChildCount(int node) {
+        return childCounts[node];
+    }
+
+    public int getChild(int node, int index) {
+        return children(node)[index];
+    }
+
+    // Position of the child among the sorted children of its parent, or -1
+    public int getIndexOfChild(int node, int child) {
+        if (child <= 0 || child >= nodeCount || parents[child] != node) return -1;
+        children(node);
+        return indexInParent[child];
+    }
+
+    private int[] children(int node) {
+        int[] sorted = sortedChildren[node];
+        if (sorted != null) return sorted;
+        Integer[] order = new Integer[childCounts[node]];
+        int i = 0;
+        for (int c = firstChildren[node]; c >= 0; c = nextSiblings[c]) order[i++] = c;
+        Arrays.sort(order, (a, b) -> {
+            boolean dirA = fileIndexes[a] < 0;
+            boolean dirB = fileIndexes[b] < 0;
+            if (dirA != dirB) return dirA ? -1 : 1;
+            return names[a].compareTo(names[b]);
+        });
+        sorted = new int[order.length];
+        for (i = 0; i < order.length; i++) {
+            sorted[i] = order[i];
+            indexInParent[order[i]] = i;
+        }
+        sortedChildren[node] = sorted;
+        return sorted;
+    }
+
+    public boolean isFile(int node) {
+        return fileIndexes[node] >= 0;
+    }
+
+    // Index into getFiles(), or -1 for a directory
+    public int getFileIndex(int node) {
+        return fileIndexes[node];
+    }
+
+    public String getName(int node) {
+        return names[node];
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    // Full path of the node, "" for the root
+    public String getPath(int node) {
+        if (node == ROOT) return "";
+        String parent = getPath(parents[node]);
+        return parent.isEmpty() ? names[node] : parent + "/" + names[node];
+    }
+
+    // Node of a file or directory path, or -1
+    public int find(String path) {
+        int node = ROOT;
+        if (path.isEmpty()) return node;
+        for (String segment : path.split("/", -1)) {
+            int next = -1;
+            for (int c = firstChildren[node]; c >= 0; c = nextSiblings[c]) {
+                // A directory and a file of the same name can both be listed (type changes)
+                if (names[c].equals(segment) && (next < 0 || fileIndexes[c] < 0)) next = c;
+            }
+            if (next < 0) return -1;
+            node = next;
+        }
+        return node;
+    }
+
+    public int getFileCount(int node) {
+        return fileCounts[node];
+    }
+
+    public long getAdded(int node) {
+        return added[node];
+    }
+
+    public long getDeleted(int node) {
+        return deleted[node];
+    }
+}
@@ -0,0 +1,293 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Diff of a whole commit range produced by a single "git diff" run.
+ *
+ * The output is streamed into a temporary spill file while the "diff --git" headers are
+ * parsed into an index of per-file byte ranges. Files become available as soon as their
+ * section has been written; reading one is a slice of the spill file. The file is accessed
+ * through plain streams rather than an interruptible channel, so cancelling a task that
+ * reads a section does not close it for everyone else. Sections of renamed files are
+ * indexed under their new path.
+ */
+public class RangeDiff implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(RangeDiff.class.getName());
+    private static final byte[] DIFF_GIT = "diff --git ".getBytes(StandardCharsets.US_ASCII);
+    // Header lines longer than this are not needed for the index
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final long PUBLISH_INTERVAL_MS = 100;
+
+    // Receives the files whose sections are complete; called on the worker thread
+    public interface Listener {
+        void filesIndexed(List<String> files);
+    }
+
+    private final String repoPath;
+    private final String oldCommit;
+    private final String newCommit;
+    private final Path spillFile;
+    private final FileOutputStream writer;
+    private final RandomAccessFile reader;
+    private final Map<String, long[]> index = new LinkedHashMap<>();
+    private boolean closed;
+
+    public RangeDiff(String repoPath, String oldCommit, String newCommit) throws IOException {
+        this.repoPath = repoPath;
+        this.oldCommit = oldCommit;
+        this.newCommit = newCommit;
+        this.spillFile = Files.createTempFile("gitdiffview-range", ".diff");
+        spillFile.toFile().deleteOnExit();
+        this.writer = new FileOutputStream(spillFile.toFile());
+        this.reader = new RandomAccessFile(spillFile.toFile(), "r");
+    }
+
+    public boolean matches(String repoPath, String oldCommit, String newCommit) {
+        return this.repoPath.equals(repoPath) && this.oldCommit.equals(oldCommit) && this.newCommit.equals(newCommit);
+    }
+
+    // Run "git diff" for the range and index it; returns the number of files
+    public int stream(GitTaskScheduler.TaskContext ctx, Listener listener) throws IOException, InterruptedException {
+        Process proc = ctx.startGit(repoPath, "diff", "--no-color", "--no-ext-diff", "--src-prefix=a/", "--dst-prefix=b/", oldCommit, newCommit);
+        HeaderParser parser = new HeaderParser(listener);
+        long written = 0;
+        try (InputStream in = proc.getInputStream()) {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                ctx.checkCancelled();
+                writer.write(buf, 0, n);
+                written += n;
+                parser.feed(buf, n);
+            }
+        }
+        ctx.checkCancelled();
+        if (proc.waitFor() != 0) throw new IOException("git diff " + oldCommit + " " + newCommit + " failed");
+        parser.finish(written);
+        return parser.files;
+    }
+
+    public synchronized boolean contains(String file) {
+        return index.containsKey(file);
+    }
+
+    public synchronized List<String> getFiles() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    // Diff section of the file, or null if the range does not contain it
+    public byte[] read(String file) throws IOException {
+        long[] range;
+        synchronized (this) {
+            if (closed) throw new IOException("Range diff is closed");
+            range = index.get(file);
+        }
+        if (range == null) return null;
+        long length = range[1] - range[0];
+        if (length > Integer.MAX_VALUE - 8) throw new IOException("Diff of " + file + " is too large");
+        byte[] data = new byte[(int) length];
+        synchronized (reader) {
+            reader.seek(range[0]);
+            reader.readFully(data);
+        }
+        return data;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            writer.close();
+            reader.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove " + spillFile, e);
+        }
+    }
+
+    private synchronized void addEntry(String file, long start, long end) {
+        index.put(file, new long[] { start, end });
+    }
+
+    /** Scans the diff output for file headers without keeping more than the current line. */
+    private final class HeaderParser {
+        private final Listener listener;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private final List<String> pending = new ArrayList<>();
+        private long lastPublish = System.currentTimeMillis();
+        private long offset;
+        private long lineStart;
+        private int lineLength;
+        private boolean captureLine = true;
+        private boolean inHeader;
+        int files;
+
+        // Current section: start offset and candidate names in order of preference
+        private long sectionStart = -1;
+        private String headerName;
+        private String oldName;
+        private String newName;
+        private String renamedTo;
+
+        HeaderParser(Listener listener) {
+            this.listener = listener;
+        }
+
+        void feed(byte[] buf, int n) {
+            for (int i = 0; i < n; i++) {
+                byte b = buf[i];
+                if (b == '\n') {
+                    if (captureLine) handleLine(line.toByteArray());
+                    line.reset();
+                    lineLength = 0;
+                    lineStart = offset + i + 1;
+                    captureLine = true;
+                    continue;
+                }
+                if (captureLine) {
+                    // Outside headers only a "diff --git " prefix is of interest
+                    if (lineLength < DIFF_GIT.length && !inHeader && b != DIFF_GIT[lineLength]) {
+                        captureLine = false;
+                    } else if (lineLength >= MAX_HEADER_LINE) {
+                        captureLine = false;
+                    } else {
+                        line.write(b);
+                    }
+                }
+                lineLength++;
+            }
+            offset += n;
+            publish(false);
+        }
+
+        void finish(long end) {
+            endSection(end);
+            publish(true);
+        }
+
+        private void handleLine(byte[] bytes) {
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            if (text.startsWith("diff --git ")) {
+                endSection(lineStart);
+                sectionStart = lineStart;
+                headerName = nameFromDiffLine(text.substring(DIFF_GIT.length));
+                oldName = newName = renamedTo = null;
+                inHeader = true;
+            } else if (!inHeader) {
+                return;
+            } else if (text.startsWith("@@") || text.startsWith("Binary files ") || text.startsWith("GIT binary patch")) {
+                inHeader = false;
+            } else if (text.startsWith("rename to ") || text.startsWith("copy to ")) {
+                renamedTo = unquote(text.substring(text.indexOf(" to ") + 4));
+            } else if (text.startsWith("+++ ")) {
+                newName = stripPrefix(unquote(stripTab(text.substring(4))));
+            } else if (text.startsWith("--- ")) {
+                oldName = stripPrefix(unquote(stripTab(text.substring(4))));
+            }
+        }
+
+        private void endSection(long end) {
+            if (sectionStart < 0) return;
+            String name = renamedTo;
+            if (name == null && newName != null && !newName.equals("/dev/null")) name = newName;
+            if (name == null && oldName != null && !oldName.equals("/dev/null")) name = oldName;
+            if (name == null) name = headerName;
+            addEntry(name, sectionStart, end);
+            pending.add(name);
+            files++;
+            sectionStart = -1;
+        }
+
+        private void publish(boolean force) {
+            long now = System.currentTimeMillis();
+            if (pending.isEmpty() || (!force && now - lastPublish < PUBLISH_INTERVAL_MS)) return;
+            listener.filesIndexed(new ArrayList<>(pending));
+            pending.clear();
+            lastPublish = now;
+        }
+    }
+
+    private static String stripTab(String name) {
+        return name.endsWith("\t") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static String stripPrefix(String name) {
+        return name.startsWith("a/") || name.startsWith("b/") ? name.substring(2) : name;
+    }
+
+    // "a/P b/P" is split in the middle; only renames can differ and those carry "rename to"
+    static String nameFromDiffLine(String rest) {
+        if (rest.startsWith("\"")) {
+            int end = closingQuote(rest);
+            String second = rest.substring(Math.min(rest.length(), end + 2));
+            return stripPrefix(unquote(second.isEmpty() ? rest.substring(0, end + 1) : second));
+        }
+        int half = (rest.length() - 1) / 2;
+        if (rest.length() % 2 == 1 && rest.charAt(half) == ' ' && rest.substring(2, half).equals(rest.substring(half + 3))) {
+            return rest.substring(half + 3);
+        }
+        int b = rest.indexOf(" b/");
+        if (b >= 0) return rest.substring(b + 3);
+        if (rest.indexOf(" \"b/") >= 0) return stripPrefix(unquote(rest.substring(rest.indexOf(" \"b/") + 1)));
+        return stripPrefix(rest);
+    }
+
+    private static int closingQuote(String s) {
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') return i;
+        }
+        return s.length() - 1;
+    }
+
+    // Undo git's C-style quoting of a path
+    static String unquote(String s) {
+        if (s.length() < 2 || s.charAt(0) != '"' || s.charAt(s.length() - 1) != '"') return s;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        for (int i = 1; i < s.length() - 1; i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                out.write(b, 0, b.length);
+                continue;
+            }
+            char e = s.charAt(++i);
+            switch (e) {
+                case 'a': out.write(7); break;
+                case 'b': out.write('\b'); break;
+                case 't': out.write('\t'); break;
+                case 'n': out.write('\n'); break;
+                case 'v': out.write(11); break;
+                case 'f': out.write('\f'); break;
+                case 'r': out.write('\r'); break;
+                default:
+                    if (e >= '0' && e <= '7' && i + 2 < s.length()) {
+                        out.write(Integer.parseInt(s.substring(i, i + 3), 8));
+                        i += 2;
+                    } else {
+                        out.write(e);
+                    }
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
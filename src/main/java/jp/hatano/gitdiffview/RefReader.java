@@ -0,0 +1,237 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads branches, tags, remote branches and HEAD straight from the repository's ref files:
+ * loose refs under refs/heads, refs/tags and refs/remotes and the packed-refs file, loose
+ * refs taking precedence.
+ *
+ * The result is cached until {@link #invalidate()} is called, normally by a
+ * {@link RefWatcher}. Linked worktrees are followed through their ".git" file and
+ * "commondir". Repositories using the reftable ref storage cannot be read this way;
+ * {@link #read()} returns null for them and callers fall back to git.
+ */
+public class RefReader {
+    private static final String HEADS = "refs/heads/";
+    private static final String TAGS = "refs/tags/";
+    private static final String REMOTES = "refs/remotes/";
+
+    /** Snapshot of the refs of a repository. */
+    public static class Refs {
+        private final Map<String, String> branches;
+        private final Map<String, String> tags;
+        private final Map<String, String> remotes;
+        private final String headBranch;
+        private final String headId;
+
+        Refs(Map<String, String> branches, Map<String, String> tags, Map<String, String> remotes, String headBranch, String headId) {
+            this.branches = Collections.unmodifiableMap(branches);
+            this.tags = Collections.unmodifiableMap(tags);
+            this.remotes = Collections.unmodifiableMap(remotes);
+            this.headBranch = headBranch;
+            this.headId = headId;
+        }
+
+        // Branch names in ref order
+        public List<String> getBranches() {
+            return new ArrayList<>(branches.keySet());
+        }
+
+        public List<String> getTags() {
+            return new ArrayList<>(tags.keySet());
+        }
+
+        // Commit id the branch points to, or null if there is no such branch
+        public String getBranchId(String branch) {
+            return branches.get(branch);
+        }
+
+        public String getTagId(String tag) {
+            return tags.get(tag);
+        }
+
+        // Remote branches as "origin/main"
+        public List<String> getRemotes() {
+            return new ArrayList<>(remotes.keySet());
+        }
+
+        public String getRemoteId(String remote) {
+            return remotes.get(remote);
+        }
+
+        /**
+         * Id a ref name stands for: HEAD, a full name like "refs/tags/v1", or a short name
+         * looked up as a tag, then a branch, then a remote branch, in git's order. Tags may
+         * point to tag objects rather than commits. Returns null for other names.
+         */
+        public String resolve(String name) {
+            if (name.equals("HEAD")) return headId;
+            if (name.startsWith(HEADS)) return branches.get(name.substring(HEADS.length()));
+            if (name.startsWith(TAGS)) return tags.get(name.substring(TAGS.length()));
+            if (name.startsWith(REMOTES)) return remotes.get(name.substring(REMOTES.length()));
+            String id = tags.get(name);
+            if (id == null) id = branches.get(name);
+            if (id == null) id = remotes.get(name);
+            return id;
+        }
+
+        // Branch checked out in HEAD, or null when HEAD is detached
+        public String getHeadBranch() {
+            return headBranch;
+        }
+
+        public String getHeadId() {
+            return headId;
+        }
+    }
+
+    private final String repoPath;
+    private final Path gitDir;
+    private final Path commonDir;
+    private Refs cached;
+
+    public RefReader(String repoPath) throws IOException {
+        this.repoPath = repoPath;
+        this.gitDir = findGitDir(Paths.get(repoPath));
+        if (gitDir == null) throw new IOException("Not a git repository: " + repoPath);
+        this.commonDir = findCommonDir(gitDir);
+    }
+
+    // The ".git" directory, the directory a ".git" file points to, or the bare repository itself
+    static Path findGitDir(Path repo) throws IOException {
+        Path dotGit = repo.resolve(".git");
+        if (Files.isDirectory(dotGit)) return dotGit;
+        if (Files.isRegularFile(dotGit)) {
+            String line = readFirstLine(dotGit);
+            if (line.startsWith("gitdir:")) return repo.resolve(line.substring(7).trim()).normalize();
+        }
+        if (Files.isRegularFile(repo.resolve("HEAD")) && Files.isDirectory(repo.resolve("refs"))) return repo;
+        return null;
+    }
+
+    // Directory shared by all worktrees, holding refs and objects
+    static Path findCommonDir(Path gitDir) throws IOException {
+        Path commonFile = gitDir.resolve("commondir");
+        if (!Files.isRegularFile(commonFile)) return gitDir;
+        return gitDir.resolve(readFirstLine(commonFile)).normalize();
+    }
+
+    public String getRepoPath() {
+        return repoPath;
+    }
+
+    public Path getGitDir() {
+        return gitDir;
+    }
+
+    public Path getCommonDir() {
+        return commonDir;
+    }
+
+    // False when refs are not stored as files
+    public boolean isSupported() {
+        return !Files.isDirectory(commonDir.resolve("reftable"));
+    }
+
+    // Current refs, read again only after invalidate(); null if the ref storage is not supported
+    public synchronized Refs read() throws IOException {
+        if (!isSupported()) return null;
+        if (cached == null) cached = readRefs();
+        return cached;
+    }
+
+    public synchronized void invalidate() {
+        cached = null;
+    }
+
+    private Refs readRefs() throws IOException {
+        Map<String, String> all = new TreeMap<>();
+        readPackedRefs(all);
+        readLooseRefs(commonDir.resolve("refs/heads"), HEADS, all);
+        readLooseRefs(commonDir.resolve("refs/tags"), TAGS, all);
+        readLooseRefs(commonDir.resolve("refs/remotes"), REMOTES, all);
+        Map<String, String> branches = new TreeMap<>();
+        Map<String, String> tags = new TreeMap<>();
+        Map<String, String> remotes = new TreeMap<>();
+        for (Map.Entry<String, String> e : all.entrySet()) {
+            if (e.getKey().startsWith(HEADS)) branches.put(e.getKey().substring(HEADS.length()), e.getValue());
+            else if (e.getKey().startsWith(TAGS)) tags.put(e.getKey().substring(TAGS.length()), e.getValue());
+            else if (e.getKey().startsWith(REMOTES)) remotes.put(e.getKey().substring(REMOTES.length()), e.getValue());
+        }
+        String head = readFirstLine(gitDir.resolve("HEAD"));
+        String headBranch = null;
+        String headId;
+        if (head.startsWith("ref:")) {
+            String target = head.substring(4).trim();
+            if (target.startsWith(HEADS)) headBranch = target.substring(HEADS.length());
+            headId = all.get(target);
+        } else {
+            headId = head;
+        }
+        return new Refs(branches, tags, remotes, headBranch, headId);
+    }
+
+    // "<id> <refname>" lines; "#" starts the header and "^" the peeled id of the tag above
+    private void readPackedRefs(Map<String, String> into) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(commonDir.resolve("packed-refs"));
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        int start = 0;
+        while (start < data.length) {
+            int end = start;
+            while (end < data.length && data[end] != '\n') end++;
+            int space = start;
+            while (space < end && data[space] != ' ') space++;
+            if (end > start && data[start] != '#' && data[start] != '^' && space < end) {
+                String id = new String(data, start, space - start, StandardCharsets.US_ASCII);
+                String name = new String(data, space + 1, end - space - 1, StandardCharsets.UTF_8).trim();
+                into.put(name, id);
+            }
+            start = end + 1;
+        }
+    }
+
+    private void readLooseRefs(Path dir, String prefix, Map<String, String> into) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = prefix + entry.getFileName().toString();
+                if (Files.isDirectory(entry)) {
+                    readLooseRefs(entry, name + "/", into);
+                } else if (!name.endsWith(".lock")) {
+                    String value;
+                    try {
+                        value = readFirstLine(entry);
+                    } catch (NoSuchFileException e) {
+                        // Deleted while listing
+                        continue;
+                    }
+                    // A symbolic branch takes the id of its target when that is known
+                    if (value.startsWith("ref:")) value = into.get(value.substring(4).trim());
+                    if (value != null && !value.isEmpty()) into.put(name, value);
+                }
+            }
+        }
+    }
+
+    static String readFirstLine(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int nl = text.indexOf('\n');
+        return (nl < 0 ? text : text.substring(0, nl)).trim();
+    }
+}
@@ -0,0 +1,87 @@
+package jp.hatano.gitdiffview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns the names a user picks or types (branches, tags, remote branches, ids) into commit
+ * ids, and finds the merge base of two commits for a three-dot comparison.
+ *
+ * Refs come from a {@link RefReader} snapshot and objects from the {@link ObjectDatabase},
+ * so the usual case starts no process. Names neither can answer ("HEAD~2", abbreviated
+ * ids) and repositories they cannot read go to "git rev-parse" and "git merge-base".
+ */
+public class RefResolver {
+    private static final Logger LOGGER = Logger.getLogger(RefResolver.class.getName());
+
+    private final GitTaskScheduler.TaskContext ctx;
+    private final String repoPath;
+    private final RefReader.Refs refs;
+    private final ObjectDatabase odb;
+
+    // refs and odb may be null
+    public RefResolver(GitTaskScheduler.TaskContext ctx, String repoPath, RefReader.Refs refs, ObjectDatabase odb) {
+        this.ctx = ctx;
+        this.repoPath = repoPath;
+        this.refs = refs;
+        this.odb = odb;
+    }
+
+    // Commit the name stands for, tags peeled
+    public String resolveCommit(String name) throws IOException, InterruptedException {
+        if (odb != null) {
+            String id = refs == null ? null : refs.resolve(name);
+            if (id == null && ObjectDatabase.parseId(name, odb.getHashLength()) != null) id = name;
+            String commit = null;
+            try {
+                commit = id == null ? null : odb.peelToCommit(id);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read " + id + " from the object database", e);
+            }
+            if (commit != null) return commit;
+        }
+        Process proc = ctx.startGit(repoPath, "rev-parse", "--verify", "-q", name + "^{commit}");
+        String commit = firstLine(proc);
+        if (proc.waitFor() != 0 || commit == null) throw new IOException("Unknown revision: " + name);
+        return commit;
+    }
+
+    // Newest merge base of the two commits; fails when they have no common history
+    public String mergeBase(String commit1, String commit2) throws IOException, InterruptedException {
+        if (odb != null) {
+            List<String> bases = null;
+            try {
+                bases = new MergeBase(odb).find(commit1, commit2);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "In-process merge base failed, running git merge-base", e);
+            }
+            if (bases != null) {
+                if (bases.isEmpty()) throw new IOException(noCommonHistory(commit1, commit2));
+                return bases.get(0);
+            }
+        }
+        ctx.checkCancelled();
+        Process proc = ctx.startGit(repoPath, "merge-base", commit1, commit2);
+        String base = firstLine(proc);
+        int exit = proc.waitFor();
+        // Exit code 1 without output: no common ancestor
+        if (exit == 1 && base == null) throw new IOException(noCommonHistory(commit1, commit2));
+        if (exit != 0 || base == null) throw new IOException("git merge-base failed for " + commit1 + " and " + commit2);
+        return base;
+    }
+
+    private static String noCommonHistory(String commit1, String commit2) {
+        return commit1 + " and " + commit2 + " have no common history";
+    }
+
+    private static String firstLine(Process proc) throws IOException {
+        try (GitOutputParser parser = new GitOutputParser(proc.getInputStream(), (byte) '\n')) {
+            if (!parser.next()) return null;
+            String line = parser.string(StandardCharsets.US_ASCII).trim();
+            return line.isEmpty() ? null : line;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package jp.hatano.gitdiffview;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the ref files of a repository and invalidates its {@link RefReader} when a
+ * branch, tag, remote branch, HEAD or packed-refs changes.
+ *
+ * The listener is called on the watcher's daemon thread, once per burst of changes: git
+ * writes a ref through a lock file and a rename, and a fetch or rebase moves many refs in
+ * a row. Lock files and the other files of the git directory (index, logs) are ignored.
+ */
+public class RefWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(RefWatcher.class.getName());
+    // Quiet time after the last change before the listener is told
+    private static final long SETTLE_MS = 200;
+
+    private final RefReader reader;
+    private final Runnable listener;
+    private final WatchService watcher;
+    // Watched directories; the git directories themselves only report HEAD and packed-refs
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Thread thread;
+
+    public RefWatcher(RefReader reader, Runnable listener) throws IOException {
+        this.reader = reader;
+        this.listener = listener;
+        Path commonDir = reader.getCommonDir();
+        this.watcher = commonDir.getFileSystem().newWatchService();
+        register(reader.getGitDir());
+        if (!commonDir.equals(reader.getGitDir())) register(commonDir);
+        register(commonDir.resolve("refs"));
+        registerTree(commonDir.resolve("refs/heads"));
+        registerTree(commonDir.resolve("refs/tags"));
+        registerTree(commonDir.resolve("refs/remotes"));
+        thread = new Thread(this::run, "ref-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void register(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        synchronized (keys) {
+            keys.put(key, dir);
+        }
+    }
+
+    // Branches like "feature/x" live in subdirectories, which need watches of their own
+    private void registerTree(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        register(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) registerTree(entry);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = handle(key);
+                // Collect the rest of the burst before reporting
+                while ((key = watcher.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= handle(key);
+                }
+                if (changed) {
+                    reader.invalidate();
+                    listener.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private boolean handle(WatchKey key) {
+        Path dir;
+        synchronized (keys) {
+            dir = keys.get(key);
+        }
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            if (dir == null) continue;
+            String name = event.context().toString();
+            if (name.endsWith(".lock")) continue;
+            boolean gitDir = dir.equals(reader.getGitDir()) || dir.equals(reader.getCommonDir());
+            if (gitDir && !name.equals("HEAD") && !name.equals("packed-refs")) continue;
+            Path path = dir.resolve(name);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path) && !gitDir) {
+                try {
+                    registerTree(path);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to watch " + path, e);
+                }
+            }
+            changed = true;
+        }
+        if (!key.reset()) {
+            synchronized (keys) {
+                keys.remove(key);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the ref watcher", e);
+        }
+        thread.interrupt();
+    }
+}
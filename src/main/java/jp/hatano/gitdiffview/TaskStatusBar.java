@@ -0,0 +1,65 @@
+package jp.hatano.gitdiffview;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Status bar showing the background git tasks that are running, with a progress
+ * indicator and a button to cancel them, and the timing of the last operation recorded
+ * in {@link Metrics}; its tool tip has the totals of every operation.
+ */
+public class TaskStatusBar extends JPanel {
+    private final JLabel messageLabel = new JLabel(" ");
+    private final JProgressBar progressBar = new JProgressBar();
+    private final JButton cancelButton = new JButton("Cancel");
+    private final JLabel lastOperationLabel = new JLabel(" ") {
+        @Override
+        public String getToolTipText() {
+            return "<html><pre>" + Metrics.snapshot().toString().replace("&", "&amp;").replace("<", "&lt;") + "</pre></html>";
+        }
+    };
+    // Operations can be recorded many times a second; the label is updated once per event
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+
+    public TaskStatusBar(GitTaskScheduler scheduler) {
+        setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
+        setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        progressBar.setIndeterminate(true);
+        progressBar.setMaximumSize(new Dimension(120, 16));
+        progressBar.setPreferredSize(new Dimension(120, 16));
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> scheduler.cancelAll());
+
+        lastOperationLabel.setForeground(Color.GRAY);
+        ToolTipManager.sharedInstance().registerComponent(lastOperationLabel);
+
+        add(messageLabel);
+        add(Box.createHorizontalGlue());
+        add(lastOperationLabel);
+        add(Box.createHorizontalStrut(8));
+        add(progressBar);
+        add(Box.createHorizontalStrut(8));
+        add(cancelButton);
+
+        scheduler.addActivityListener(this::showRunningTasks);
+        Metrics.addListener(op -> {
+            if (updatePending.compareAndSet(false, true)) SwingUtilities.invokeLater(this::showLastOperation);
+        });
+    }
+
+    private void showLastOperation() {
+        updatePending.set(false);
+        Metrics.Operation last = Metrics.getLast();
+        if (last != null) lastOperationLabel.setText(last.summary());
+    }
+
+    private void showRunningTasks(List<String> running) {
+        boolean busy = !running.isEmpty();
+        progressBar.setVisible(busy);
+        cancelButton.setVisible(busy);
+        messageLabel.setText(busy ? String.join(", ", running) + "..." : " ");
+    }
+}
@@ -0,0 +1,162 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommitLoaderTest {
+    @TempDir
+    Path tmp;
+
+    // Records what a loader published, in the order the UI would see it
+    private static class RecordingSink implements CommitLoader.Sink {
+        final List<String> ids = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+
+        public void reset() {
+            ids.clear();
+            events.add("reset");
+        }
+
+        public void append(CommitStore.Batch batch) {
+            for (int i = 0; i < batch.size(); i++) ids.add(batch.getId(i));
+            events.add("append");
+        }
+
+        public void prepend(CommitStore.Batch batch) {
+            List<String> added = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) added.add(batch.getId(i));
+            ids.addAll(0, added);
+            events.add("prepend");
+        }
+    }
+
+    private RecordingSink load(TestRepository repo) throws Exception {
+        RecordingSink sink = new RecordingSink();
+        TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").load(sink));
+        return sink;
+    }
+
+    @Test
+    void updateFollowsTheBranch() throws Exception {
+        CommitIndexCache.setCacheDirectory(tmp.resolve("index"));
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        String c1 = repo.commit("first");
+        RecordingSink sink = load(repo);
+        repo.write("a.txt", "2");
+        String c2 = repo.commit("second");
+
+        TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").update(c1, sink));
+        assertEquals(java.util.Arrays.asList(c2, c1), sink.ids);
+        assertEquals("prepend", sink.events.get(sink.events.size() - 1));
+
+        // Rewritten history is loaded again from scratch
+        repo.git("reset", "-q", "--hard", c1);
+        repo.write("a.txt", "3");
+        String c3 = repo.commit("third");
+        TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").update(c2, sink));
+        assertEquals(java.util.Arrays.asList(c3, c1), sink.ids);
+        assertTrue(sink.events.contains("reset"));
+    }
+
+    @Test
+    void subjectsWithSpecialCharacters() throws Exception {
+        CommitIndexCache.setCacheDirectory(tmp.resolve("index"));
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        repo.commit("tab\there  \"quoted\" back\\slash");
+        CommitStore.Columns commits = new CommitStore.Columns();
+        TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").load(new CommitLoader.Sink() {
+            public void reset() {
+                commits.clear();
+            }
+
+            public void append(CommitStore.Batch batch) {
+                commits.addAll(batch);
+            }
+
+            public void prepend(CommitStore.Batch batch) {
+                throw new AssertionError();
+            }
+        }));
+        assertEquals(1, commits.size());
+        assertEquals("tab\there  \"quoted\" back\\slash", commits.getSubject(0));
+        assertEquals("Test", commits.getAuthor(0));
+        assertEquals(1700000060L, commits.getTime(0));
+    }
+
+    @Test
+    void reusesAndExtendsIndex() throws Exception {
+        CommitIndexCache.setCacheDirectory(tmp.resolve("index"));
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        String c1 = repo.commit("first");
+        repo.write("a.txt", "2");
+        String c2 = repo.commit("second");
+
+        RecordingSink full = load(repo);
+        assertEquals(java.util.Arrays.asList(c2, c1), full.ids);
+        assertTrue(CommitIndexCache.exists(repo.path(), "master"));
+
+        // Unchanged tip: served from the index only
+        RecordingSink cached = load(repo);
+        assertEquals(full.ids, cached.ids);
+        assertEquals(java.util.Collections.singletonList("append"), cached.events);
+
+        // Moved tip: only the new commit is fetched
+        repo.write("a.txt", "3");
+        String c3 = repo.commit("third");
+        RecordingSink incremental = load(repo);
+        assertEquals(java.util.Arrays.asList(c3, c2, c1), incremental.ids);
+        assertTrue(incremental.events.contains("prepend"));
+
+        // Rewritten history: full rebuild
+        repo.git("reset", "-q", "--hard", c1);
+        repo.write("b.txt", "x");
+        String c4 = repo.commit("rewritten");
+        RecordingSink rebuilt = load(repo);
+        assertEquals(java.util.Arrays.asList(c4, c1), rebuilt.ids);
+        assertTrue(rebuilt.events.contains("reset"));
+        assertEquals(java.util.Arrays.asList(c4, c1), load(repo).ids);
+    }
+
+    @Test
+    void failedLogIsReportedAndNotIndexed() throws Exception {
+        CommitIndexCache.setCacheDirectory(tmp.resolve("index"));
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        String c1 = repo.commit("first");
+        repo.write("a.txt", "2");
+        repo.commit("second");
+        // The tip resolves, but git log stops at the missing parent
+        Files.delete(repo.dir.resolve(".git/objects/" + c1.substring(0, 2) + "/" + c1.substring(2)));
+
+        RecordingSink sink = new RecordingSink();
+        IOException e = assertThrows(IOException.class,
+            () -> TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").load(sink)));
+        assertTrue(e.getMessage().startsWith("git log "), e.getMessage());
+        assertTrue(sink.ids.isEmpty());
+        assertFalse(CommitIndexCache.exists(repo.path(), "master"));
+    }
+
+    @Test
+    void unknownBranchIsReported() throws Exception {
+        CommitIndexCache.setCacheDirectory(tmp.resolve("index"));
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        repo.commit("first");
+
+        IOException e = assertThrows(IOException.class,
+            () -> TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "no-such-branch").load(new RecordingSink())));
+        assertTrue(e.getMessage().contains("no-such-branch"), e.getMessage());
+        assertFalse(CommitIndexCache.exists(repo.path(), "no-such-branch"));
+    }
+}
@@ -0,0 +1,132 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommitStoreTest {
+    private static final String SHA1 = "0123456789abcdef0123456789abcdef01234567";
+    private static final String SHA2 = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Test
+    void batchFiresOneEventPerModel() {
+        CommitStore store = new CommitStore();
+        CommitComboBoxModel model1 = store.createComboBoxModel();
+        CommitComboBoxModel model2 = store.createComboBoxModel();
+        List<ListDataEvent> events = new ArrayList<>();
+        ListDataListener listener = new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { events.add(e); }
+            public void intervalRemoved(ListDataEvent e) { events.add(e); }
+            public void contentsChanged(ListDataEvent e) { events.add(e); }
+        };
+        model1.addListDataListener(listener);
+        model2.addListDataListener(listener);
+
+        CommitStore.Batch batch = new CommitStore.Batch();
+        batch.add(SHA1, "First commit");
+        batch.add(SHA2, null);
+        store.append(batch);
+
+        assertEquals(2, events.size());
+        assertEquals(ListDataEvent.INTERVAL_ADDED, events.get(0).getType());
+        assertEquals(0, events.get(0).getIndex0());
+        assertEquals(1, events.get(0).getIndex1());
+        assertEquals(SHA1 + " First commit", model1.getElementAt(0));
+        assertEquals(SHA2, model2.getElementAt(1).toString());
+        assertEquals(SHA2, store.getId(1));
+    }
+
+    @Test
+    void selectionIsPerModel() {
+        CommitStore store = new CommitStore();
+        CommitComboBoxModel model1 = store.createComboBoxModel();
+        CommitComboBoxModel model2 = store.createComboBoxModel();
+        CommitStore.Batch batch = new CommitStore.Batch();
+        batch.add(SHA1, "a");
+        batch.add(SHA2, "b");
+        store.append(batch);
+        model1.setSelectedIndex(0);
+        model2.setSelectedItem(model2.getElementAt(1));
+        assertEquals(0, model1.getSelectedIndex());
+        assertEquals(1, model2.getSelectedIndex());
+        store.clear();
+        assertEquals(-1, model1.getSelectedIndex());
+        assertNull(model2.getSelectedItem());
+    }
+
+    @Test
+    void packsIdsAndSubjectsAcrossGrowth() {
+        CommitStore store = new CommitStore();
+        CommitStore.Batch batch = new CommitStore.Batch();
+        for (int i = 0; i < 1000; i++) {
+            String id = String.format("%040x", i * 7919L);
+            batch.add(id, "Subject \u00e9\u65e5 " + i);
+        }
+        store.append(batch);
+        store.append(batch);
+        assertEquals(2000, store.size());
+        assertEquals(String.format("%040x", 999 * 7919L), store.getId(999));
+        assertEquals(String.format("%040x", 5 * 7919L), store.getId(1005));
+        assertEquals("Subject \u00e9\u65e5 5", store.getSubject(1005));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.getLabel(2000));
+    }
+
+    @Test
+    void searchIntersectsWordsAuthorsDatesAndIds() {
+        CommitStore store = new CommitStore();
+        CommitStore.Batch batch = new CommitStore.Batch();
+        // 2024-05-01 and 2023-01-15 around noon UTC, so the date is the same in most time zones
+        batch.add(SHA1, 1714564800L, "Alice Smith", "Fix crash in diff loader");
+        batch.add(SHA2, 1673784000L, "Bob Jones", "Add loader cache");
+        store.append(batch);
+        assertArrayEquals(new int[] { 0, 1 }, store.search("load"));
+        assertArrayEquals(new int[] { 0 }, store.search("LOADER fix"));
+        assertArrayEquals(new int[] { 1 }, store.search("bob cache"));
+        assertArrayEquals(new int[] { 1 }, store.search("2023-01"));
+        assertArrayEquals(new int[] { 0 }, store.search("0123 diff"));
+        assertArrayEquals(new int[0], store.search("alice cache"));
+        assertArrayEquals(new int[] { 0, 1 }, store.search("  "));
+
+        // Newer commits are searched at their new rows
+        CommitStore.Batch newer = new CommitStore.Batch();
+        newer.add(String.format("%040x", 42), 1714564800L, "Alice Smith", "Loader rewrite");
+        store.prepend(newer);
+        assertArrayEquals(new int[] { 0, 1 }, store.search("alice"));
+        assertArrayEquals(new int[] { 0, 1, 2 }, store.search("loader"));
+        store.clear();
+        assertArrayEquals(new int[0], store.search("loader"));
+    }
+
+    @Test
+    void searchFindsJapaneseWithinRuns() {
+        CommitStore store = new CommitStore();
+        CommitStore.Batch batch = new CommitStore.Batch();
+        // "Speed up the diff display", "Add a diff view", "Fix the search screen"
+        batch.add(SHA1, 1714564800L, "\u7530\u4e2d", "\u5dee\u5206\u8868\u793a\u3092\u9ad8\u901f\u5316");
+        batch.add(SHA2, 1714564800L, "Bob", "diff\u30d3\u30e5\u30fc\u3092\u8ffd\u52a0");
+        batch.add(String.format("%040x", 42), 1714564800L, "\u7530\u4e2d", "\u691c\u7d22\u753b\u9762\u306e\u4fee\u6b63");
+        store.append(batch);
+        assertArrayEquals(new int[] { 0 }, store.search("\u8868\u793a"));
+        assertArrayEquals(new int[] { 0 }, store.search("\u9ad8\u901f\u5316"));
+        assertArrayEquals(new int[] { 1 }, store.search("\u30d3\u30e5\u30fc"));
+        assertArrayEquals(new int[0], store.search("diff \u8868\u793a"));
+        assertArrayEquals(new int[] { 1 }, store.search("DIFF \u8ffd\u52a0"));
+        // One character, also the last of a run
+        assertArrayEquals(new int[] { 0 }, store.search("\u5316 \u7530"));
+        assertArrayEquals(new int[] { 2 }, store.search("\u6b63"));
+        assertArrayEquals(new int[] { 0, 2 }, store.search("\u7530\u4e2d"));
+        assertArrayEquals(new int[0], store.search("\u8868\u9ad8"));
+    }
+
+    @Test
+    void intersectSkipsThroughLongLists() {
+        int[] big = new int[10000];
+        for (int i = 0; i < big.length; i++) big[i] = i * 2 - 5000;
+        assertArrayEquals(new int[] { -5000, 0, 19998 - 5000 }, CommitSearchIndex.intersect(new int[] { -5000, -1, 0, 14998, 99999 }, big));
+    }
+}
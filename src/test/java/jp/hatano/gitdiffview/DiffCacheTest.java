@@ -0,0 +1,61 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private static DiffCache.Key key(String file) {
+        return new DiffCache.Key("/repo", "a", "b", file);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverBudget() {
+        int entryCost = key("f1").cost() + 1000;
+        DiffCache cache = new DiffCache(2L * entryCost);
+        cache.put(key("f1"), new byte[1000]);
+        cache.put(key("f2"), new byte[1000]);
+        assertNotNull(cache.get(key("f1")));
+        cache.put(key("f3"), new byte[1000]);
+
+        assertNotNull(cache.get(key("f1")));
+        assertNull(cache.get(key("f2")));
+        assertNotNull(cache.get(key("f3")));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2L * entryCost, cache.getUsedBytes());
+    }
+
+    @Test
+    void entriesLargerThanBudgetAreNotCached() {
+        DiffCache cache = new DiffCache(1024);
+        cache.put(key("big"), new byte[4096]);
+        assertFalse(cache.contains(key("big")));
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    void loaderServesRepeatedReadsFromCache() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        repo.write("a.txt", "1\n");
+        String c1 = repo.commit("one");
+        repo.write("a.txt", "2\n");
+        String c2 = repo.commit("two");
+        DiffCache cache = new DiffCache(1 << 20);
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            DiffLoader loader = new DiffLoader(repo.path(), pool, cache);
+            byte[] first = TestRepository.runTask(ctx -> loader.load(ctx, c1, c2, "a.txt"));
+            byte[] second = TestRepository.runTask(ctx -> loader.load(ctx, c1, c2, "a.txt"));
+            assertSame(first, second);
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+        }
+    }
+}
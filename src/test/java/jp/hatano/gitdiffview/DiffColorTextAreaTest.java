@@ -0,0 +1,38 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.datatransfer.DataFlavor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffColorTextAreaTest {
+    private static final String DIFF = "@@ -1,3 +1,3 @@\n"
+        + " same <x> & y\n"
+        + "-old\n"
+        + "-older\n"
+        + "+new\n";
+
+    @Test
+    void selectionMergesRunsIntoClassedSpans() throws Exception {
+        DiffColorTextArea area = new DiffColorTextArea();
+        area.setDiffText(DIFF);
+        int start = DIFF.indexOf("<x>");
+        int end = DIFF.indexOf("ew");
+        DiffColorTextArea.HtmlSelection selection = area.createSelection(start, end);
+        assertEquals("<x> & y\n-old\n-older\n+n", selection.getTransferData(DataFlavor.stringFlavor));
+        DataFlavor htmlFlavor = selection.getTransferDataFlavors()[1];
+        String html = (String) selection.getTransferData(htmlFlavor);
+        assertTrue(html.contains("<pre>&lt;x&gt; &amp; y\n<span class=\"d\">-old\n-older\n</span><span class=\"a\">+n</span></pre>"), html);
+        assertTrue(html.contains(".d{color:rgb(255,0,0);font-weight:bold}"), html);
+        assertSame(html, selection.getTransferData(htmlFlavor));
+    }
+
+    @Test
+    void largeSelectionsAreOfferedAsPlainTextOnly() throws Exception {
+        DiffColorTextArea.HtmlSelection selection = new DiffColorTextArea.HtmlSelection(
+            new char[DiffColorTextArea.HtmlSelection.MAX_HTML_LENGTH + 1], "");
+        selection.addRun(0, DiffLines.ADD);
+        assertArrayEquals(new DataFlavor[] { DataFlavor.stringFlavor }, selection.getTransferDataFlavors());
+    }
+}
@@ -0,0 +1,101 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.*;
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffDocumentTest {
+    private static final String DIFF = "diff --git a/f b/f\n"
+        + "index 1111111..2222222 100644\n"
+        + "--- a/f\n"
+        + "+++ b/f\n"
+        + "@@ -1,3 +1,3 @@\n"
+        + " same\n"
+        + "-old\n"
+        + "-older\n"
+        + "+new\n"
+        + " tail";
+
+    private static Style[] styles(Color add) {
+        StyleContext sc = new StyleContext();
+        Style[] styles = { sc.addStyle("context", null), sc.addStyle("add", null), sc.addStyle("del", null), sc.addStyle("head", null) };
+        StyleConstants.setForeground(styles[DiffLines.ADD], add);
+        StyleConstants.setForeground(styles[DiffLines.DELETE], Color.RED);
+        StyleConstants.setForeground(styles[DiffLines.HEADER], Color.BLUE);
+        return styles;
+    }
+
+    private static Color colorAt(DiffDocument doc, String text) throws BadLocationException {
+        int offset = doc.getText(0, doc.getLength()).indexOf(text);
+        return StyleConstants.getForeground(doc.getCharacterElement(offset).getAttributes());
+    }
+
+    @Test
+    void buildsOneParagraphPerLine() throws Exception {
+        DiffDocument doc = new DiffDocument(DiffLines.of(DIFF), styles(Color.GREEN), 0);
+        // Every line ends with a newline, like the text pane always showed it
+        assertEquals(DIFF + "\n", doc.getText(0, doc.getLength()));
+        assertEquals(10, doc.getDefaultRootElement().getElementCount() - 1);
+        assertEquals(Color.BLUE, colorAt(doc, "@@"));
+        assertEquals(Color.RED, colorAt(doc, "-older"));
+        assertEquals(Color.GREEN, colorAt(doc, "+new"));
+        assertEquals(Color.BLACK, colorAt(doc, " same"));
+        // header, delete, add, header, context, delete, add, context
+        assertEquals(8, doc.getRunCount());
+    }
+
+    @Test
+    void restyleAppliesNewColors() throws Exception {
+        DiffDocument doc = new DiffDocument(DiffLines.of(DIFF), styles(Color.GREEN), 0);
+        doc.restyle(styles(Color.CYAN));
+        assertEquals(Color.CYAN, colorAt(doc, "+new"));
+        assertEquals(Color.CYAN, colorAt(doc, "+++"));
+        assertEquals(Color.RED, colorAt(doc, "-old"));
+    }
+
+    @Test
+    void appendedLinesMatchBulkBuild() throws Exception {
+        int cut = DIFF.indexOf(" same");
+        DiffDocument doc = new DiffDocument(DiffLines.of(DIFF.substring(0, cut)), styles(Color.GREEN), 0);
+        doc.appendLines(DiffLines.of(DIFF.substring(cut)), styles(Color.GREEN));
+        DiffDocument bulk = new DiffDocument(DiffLines.of(DIFF), styles(Color.GREEN), 0);
+        assertEquals(bulk.getText(0, bulk.getLength()), doc.getText(0, doc.getLength()));
+        assertEquals(bulk.getRunCount(), doc.getRunCount());
+        assertEquals(Color.GREEN, colorAt(doc, "+new"));
+        doc.restyle(styles(Color.CYAN));
+        assertEquals(Color.CYAN, colorAt(doc, "+new"));
+        assertEquals(Color.CYAN, colorAt(doc, "+++"));
+    }
+
+    @Test
+    void editsDropTheRuns() throws Exception {
+        DiffDocument doc = new DiffDocument(DiffLines.of(DIFF), styles(Color.GREEN), 0);
+        doc.remove(0, doc.getLength());
+        assertEquals(0, doc.getRunCount());
+    }
+
+    @Test
+    void emptyDiff() {
+        DiffDocument doc = new DiffDocument(new DiffLines(), styles(Color.GREEN), 0);
+        assertEquals(0, doc.getLength());
+    }
+
+    @Test
+    void buildsLargeDiffInLinearMemory() throws Exception {
+        StringBuilder diff = new StringBuilder("@@ -1,4000 +1,4000 @@\n");
+        for (int i = 0; i < 4000; i++) diff.append(i % 3 == 0 ? '+' : ' ').append("line ").append(i).append(" of a diff with a few words\n");
+        DiffLines lines = DiffLines.of(diff.toString());
+        Style[] styles = styles(Color.GREEN);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        DiffDocument doc = new DiffDocument(lines, styles, 0);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertEquals(diff.length(), doc.getLength());
+        // Copying the whole 150k character diff per line would allocate over a gigabyte
+        assertTrue(allocated < (32 << 20), "allocated " + allocated + " bytes");
+    }
+}
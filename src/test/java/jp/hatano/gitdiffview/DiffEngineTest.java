@@ -0,0 +1,228 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffEngineTest {
+    @TempDir
+    Path tempDir;
+
+    private static final String[] CODE_LINES = {
+        "}", "", "{", "    return x;", "\tint i = 0;", "public void run() {", "    if (x) {", "        y();",
+        "    }", "// comment", "foo", "bar", "baz", "        break;", "", "  ", "static int count;",
+    };
+
+    // Random edits of random texts built from a small line vocabulary, so that the
+    // cleanup, sliding and indent heuristics all get exercised
+    private static List<String[]> corpus(int files, long seed) {
+        Random rnd = new Random(seed);
+        List<String[]> pairs = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            int lines = rnd.nextInt(f % 10 == 0 ? 600 : 60);
+            List<String> a = new ArrayList<>();
+            for (int i = 0; i < lines; i++) a.add(randomLine(rnd, f));
+            List<String> b = new ArrayList<>(a);
+            int edits = 1 + rnd.nextInt(8);
+            for (int e = 0; e < edits; e++) {
+                int pos = b.isEmpty() ? 0 : rnd.nextInt(b.size() + 1);
+                int len = 1 + rnd.nextInt(5);
+                switch (rnd.nextInt(3)) {
+                    case 0:
+                        for (int i = 0; i < len; i++) b.add(Math.min(pos, b.size()), randomLine(rnd, f));
+                        break;
+                    case 1:
+                        for (int i = 0; i < len && pos < b.size(); i++) b.remove(pos);
+                        break;
+                    default:
+                        for (int i = 0; i < len && pos < b.size(); i++) b.set(pos + i < b.size() ? pos + i : pos, randomLine(rnd, f));
+                }
+            }
+            pairs.add(new String[] { join(a, rnd.nextInt(7) != 0), join(b, rnd.nextInt(7) != 0) });
+        }
+        return pairs;
+    }
+
+    private static String randomLine(Random rnd, int file) {
+        if (file % 3 == 0) return CODE_LINES[rnd.nextInt(CODE_LINES.length)];
+        if (file % 3 == 1) return "line " + rnd.nextInt(12);
+        return "unique " + rnd.nextInt(100000);
+    }
+
+    private static String join(List<String> lines, boolean trailingNewline) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            sb.append(lines.get(i));
+            if (i < lines.size() - 1 || trailingNewline) sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void assertMatchesGit(DiffEngine.Algorithm algorithm, String gitAlgorithm, long seed) throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve(gitAlgorithm + seed));
+        List<String[]> pairs = corpus(120, seed);
+        for (int i = 0; i < pairs.size(); i++) repo.write(String.format("f%03d.txt", i), pairs.get(i)[0]);
+        String c1 = repo.commit("old");
+        for (int i = 0; i < pairs.size(); i++) repo.write(String.format("f%03d.txt", i), pairs.get(i)[1]);
+        String c2 = repo.commit("new");
+
+        DiffEngine engine = new DiffEngine(algorithm);
+        for (int i = 0; i < pairs.size(); i++) {
+            String file = String.format("f%03d.txt", i);
+            String expected = repo.git("-c", "core.abbrev=7", "diff", "--no-color", "--diff-algorithm=" + gitAlgorithm, c1, c2, "--", file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.writeFileDiff(side(repo, c1, file, pairs.get(i)[0]), side(repo, c2, file, pairs.get(i)[1]), 7, out);
+            assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8), file + " (" + gitAlgorithm + ")");
+        }
+    }
+
+    private static DiffEngine.FileSide side(TestRepository repo, String commit, String file, String content) throws Exception {
+        String id = repo.git("rev-parse", commit + ":" + file).trim();
+        return new DiffEngine.FileSide(file, id, "100644", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void myersMatchesGitDiff() throws Exception {
+        assertMatchesGit(DiffEngine.Algorithm.MYERS, "myers", 1);
+        assertMatchesGit(DiffEngine.Algorithm.MYERS, "myers", 2);
+    }
+
+    @Test
+    void histogramMatchesGitDiff() throws Exception {
+        assertMatchesGit(DiffEngine.Algorithm.HISTOGRAM, "histogram", 3);
+        assertMatchesGit(DiffEngine.Algorithm.HISTOGRAM, "histogram", 4);
+    }
+
+    @Test
+    void loaderMatchesGitForAddedDeletedBinaryAndModeChanges() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        repo.write("keep.txt", "a\nb\nc\n");
+        repo.write("gone.txt", "bye\n");
+        repo.write("dir/sub/nested.txt", "x\ny\n");
+        repo.write("image.bin", new byte[] { 1, 0, 2, 3 });
+        repo.write("sp ace\"q.txt", "1\n");
+        repo.write("script.sh", "echo hi\n");
+        String c1 = repo.commit("old");
+        repo.write("keep.txt", "a\nB\nc");
+        java.nio.file.Files.delete(repo.dir.resolve("gone.txt"));
+        repo.write("dir/sub/nested.txt", "x\ny\nz\n");
+        repo.write("dir/new.txt", "fresh\n");
+        repo.write("image.bin", new byte[] { 1, 0, 2, 4 });
+        repo.write("sp ace\"q.txt", "2\n");
+        repo.git("update-index", "--chmod=+x", "script.sh");
+        String c2 = repo.commit("new");
+
+        String[] files = { "keep.txt", "gone.txt", "dir/sub/nested.txt", "dir/new.txt", "image.bin", "sp ace\"q.txt", "script.sh" };
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            DiffLoader loader = new DiffLoader(repo.path(), pool, new DiffCache(1 << 20));
+            for (String file : files) {
+                String expected = repo.git("-c", "core.abbrev=7", "diff", "--no-color", c1, c2, "--", file);
+                byte[] actual = TestRepository.runTask(ctx -> loader.load(ctx, c1, c2, file));
+                assertEquals(expected, new String(actual, StandardCharsets.UTF_8), file);
+            }
+        }
+    }
+
+    @Test
+    void identicalInputsProduceNoHunks() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] text = "same\ntext\n".getBytes(StandardCharsets.UTF_8);
+        new DiffEngine(DiffEngine.Algorithm.HISTOGRAM).writeHunks(text, text, out);
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void engineFollowsDiffConfig() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("config"));
+        StringBuilder numbers = new StringBuilder();
+        for (int i = 1; i <= 30; i++) numbers.append(i).append('\n');
+        String code = "void a() {\n    x();\n}\n\nvoid c() {\n    z();\n}\n";
+        String[][] files = {
+            { "numbers.txt", numbers.toString(), numbers.toString().replace("\n5\n", "\nfive\n").replace("\n12\n", "\ntwelve\n") },
+            { "code.c", code, code.replace("\nvoid c", "\nvoid b() {\n    y();\n}\n\nvoid c") },
+        };
+        for (String[] file : files) repo.write(file[0], file[1]);
+        String c1 = repo.commit("old");
+        for (String[] file : files) repo.write(file[0], file[2]);
+        String c2 = repo.commit("new");
+
+        String[][] configs = {
+            {},
+            { "diff.context", "1" },
+            { "diff.context", "1", "diff.interHunkContext", "4" },
+            { "diff.noprefix", "true" },
+            { "diff.mnemonicPrefix", "true" },
+            { "diff.indentHeuristic", "false" },
+            { "core.quotePath", "false" },
+        };
+        for (String[] config : configs) {
+            Map<String, String> values = new HashMap<>();
+            List<String> args = new ArrayList<>();
+            for (int i = 0; i < config.length; i += 2) {
+                values.put(config[i].toLowerCase(), config[i + 1]);
+                args.add("-c");
+                args.add(config[i] + "=" + config[i + 1]);
+            }
+            DiffEngine engine = DiffLoader.createEngine(values);
+            assertNotNull(engine, values.toString());
+            for (String[] file : files) {
+                List<String> cmd = new ArrayList<>(args);
+                cmd.addAll(java.util.Arrays.asList("-c", "core.abbrev=7", "diff", "--no-color", c1, c2, "--", file[0]));
+                String expected = repo.git(cmd.toArray(new String[0]));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                engine.writeFileDiff(side(repo, c1, file[0], file[1]), side(repo, c2, file[0], file[2]), 7, out);
+                assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8), file[0] + " " + values);
+            }
+        }
+
+        // core.quotePath=false leaves bytes above 0x7f as they are
+        assertEquals("\"a/\\303\\251\\\"\"", DiffEngine.quotePath("a/", "\u00e9\"", true));
+        assertEquals("\"a/\u00e9\\\"\"", DiffEngine.quotePath("a/", "\u00e9\"", false));
+        assertEquals("a/\u00e9", DiffEngine.quotePath("a/", "\u00e9", false));
+
+        // Left to git
+        assertNull(DiffLoader.createEngine(java.util.Collections.singletonMap("diff.algorithm", "patience")));
+        assertNull(DiffLoader.createEngine(java.util.Collections.singletonMap("diff.external", "meld")));
+        assertNull(DiffLoader.createEngine(java.util.Collections.singletonMap("diff.suppressblankempty", "true")));
+        assertNull(DiffLoader.createEngine(java.util.Collections.singletonMap("diff.context", "-1")));
+    }
+
+    @Test
+    void loaderFollowsAttributesAndAbbrev() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("attributes"));
+        repo.write(".gitattributes", "*.dat diff\nopaque.txt -diff\nlocked.txt binary\n*.java diff=java\n");
+        repo.write("text.dat", new byte[] { 'a', 0, 'b', '\n' });
+        repo.write("opaque.txt", "one\n");
+        repo.write("locked.txt", "one\n");
+        repo.write("Main.java", "class Main {\n    void run() {\n        a();\n        b();\n        c();\n        d();\n    }\n}\n");
+        repo.write("plain.txt", "one\n");
+        String c1 = repo.commit("old");
+        repo.write("text.dat", new byte[] { 'a', 0, 'c', '\n' });
+        repo.write("opaque.txt", "two\n");
+        repo.write("locked.txt", "two\n");
+        repo.write("Main.java", "class Main {\n    void run() {\n        a();\n        b();\n        c();\n        e();\n    }\n}\n");
+        repo.write("plain.txt", "two\n");
+        String c2 = repo.commit("new");
+        repo.git("config", "core.abbrev", "12");
+
+        String[] files = { "text.dat", "opaque.txt", "locked.txt", "Main.java", "plain.txt" };
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            DiffLoader loader = new DiffLoader(repo.path(), pool, new DiffCache(1 << 20));
+            for (String file : files) {
+                String expected = repo.git("diff", "--no-color", c1, c2, "--", file);
+                byte[] actual = TestRepository.runTask(ctx -> loader.load(ctx, c1, c2, file));
+                assertEquals(expected, new String(actual, StandardCharsets.UTF_8), file);
+            }
+        }
+    }
+}
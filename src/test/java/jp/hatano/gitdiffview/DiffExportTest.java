@@ -0,0 +1,61 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffExportTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesEveryFileInOrderAsHtmlAndAnsi() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        for (int i = 0; i < 12; i++) repo.write("f" + (char) ('a' + i) + ".txt", "old " + i + "\n");
+        repo.commit("one");
+        for (int i = 0; i < 12; i++) repo.write("f" + (char) ('a' + i) + ".txt", "new <" + i + ">\n");
+        repo.commit("two");
+
+        Path html = tempDir.resolve("out.html");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int code = DiffExport.main(new String[] { "-j", "3", "-o", html.toString(), repo.path(), "HEAD~1", "HEAD" },
+            new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+        assertEquals(0, code, err.toString());
+        String page = new String(Files.readAllBytes(html), StandardCharsets.UTF_8);
+        assertTrue(page.startsWith("<!DOCTYPE html>"));
+        assertTrue(page.contains("<span class=\"a\">+new &lt;3&gt;\n</span>"));
+        assertTrue(page.contains("<span class=\"d\">-old 3\n</span>"));
+        int last = -1;
+        for (int i = 0; i < 12; i++) {
+            int at = page.indexOf("<h2 id=\"f" + i + "\">M f" + (char) ('a' + i) + ".txt</h2>");
+            assertTrue(at > last, "file " + i);
+            last = at;
+        }
+        assertTrue(page.endsWith("</body></html>\n"));
+
+        ByteArrayOutputStream ansi = new ByteArrayOutputStream();
+        code = DiffExport.main(new String[] { "--format", "ansi", repo.path(), "HEAD~1", "HEAD" },
+            new PrintStream(ansi), new PrintStream(err));
+        assertEquals(0, code, err.toString());
+        String text = new String(ansi.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.contains("+new <11>\u001b[0m\n"));
+        assertTrue(text.contains("\u001b[1;7m M fl.txt  +1 -1 \u001b[0m\n"));
+    }
+
+    @Test
+    void rejectsBadArguments() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        assertEquals(2, DiffExport.main(new String[] { "repo", "a" }, out, new PrintStream(err)));
+        assertEquals(2, DiffExport.main(new String[] { "--format", "pdf", "repo", "a", "b" }, out, new PrintStream(err)));
+        assertTrue(err.toString().contains("Usage: export"));
+        assertEquals(1, DiffExport.main(new String[] { tempDir.toString(), "a", "b" }, out, new PrintStream(err)));
+    }
+}
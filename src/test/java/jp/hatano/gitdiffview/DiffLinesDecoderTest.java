@@ -0,0 +1,68 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffLinesDecoderTest {
+    private static final String DIFF = "diff --git a/f b/f\r\n"
+        + "@@ -1 +1 @@\r\n"
+        + "-日本語\r\n"
+        + "+café\r"
+        + "\n"
+        + " bare\rcr\n"
+        + " tail";
+
+    // Feed the bytes in pieces of the given size and collect every chunk
+    private static DiffLines decodeInPieces(byte[] raw, Charset charset, int piece) {
+        DiffLinesDecoder decoder = new DiffLinesDecoder(charset);
+        DiffLines all = new DiffLines();
+        for (int i = 0; i < raw.length; i += piece) {
+            decoder.write(raw, i, Math.min(piece, raw.length - i));
+            DiffLines chunk = decoder.takeChunk();
+            if (chunk != null) {
+                assertEquals('\n', chunk.getChars()[chunk.getLength() - 1], "chunks hold whole lines only");
+                all.append(chunk);
+            }
+        }
+        decoder.finish();
+        DiffLines rest = decoder.takeChunk();
+        if (rest != null) all.append(rest);
+        return all;
+    }
+
+    @Test
+    void splitsAnywhereGiveTheSameLines() {
+        for (Charset charset : new Charset[] { StandardCharsets.UTF_8, Charset.forName("Shift_JIS") }) {
+            byte[] raw = DIFF.getBytes(charset);
+            String expected = new String(raw, charset).replace("\r\n", "\n");
+            for (int piece = 1; piece <= raw.length; piece++) {
+                DiffLines lines = decodeInPieces(raw, charset, piece);
+                assertEquals(expected, lines.toString(), charset + " piece " + piece);
+                assertEquals(6, lines.getLineCount());
+                assertEquals(DiffLines.ADD, lines.getKind(3));
+            }
+        }
+    }
+
+    @Test
+    void unfinishedLineWaitsForFinish() {
+        DiffLinesDecoder decoder = new DiffLinesDecoder(StandardCharsets.UTF_8);
+        byte[] raw = "+one\n+tw".getBytes(StandardCharsets.UTF_8);
+        decoder.write(raw, 0, raw.length);
+        assertEquals("+one\n", decoder.takeChunk().toString());
+        assertNull(decoder.takeChunk());
+        assertEquals(1, decoder.getLineCount());
+        decoder.finish();
+        assertEquals("+tw", decoder.takeChunk().toString());
+        assertEquals(2, decoder.getLineCount());
+    }
+
+    @Test
+    void trailingCarriageReturnIsKept() {
+        assertEquals(" c\r", DiffLines.decode(" c\r".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8).toString());
+    }
+}
@@ -0,0 +1,91 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffLinesTest {
+    private static final String DIFF = "diff --git a/f b/f\n"
+        + "index 1111111..2222222 100644\n"
+        + "--- a/f\n"
+        + "+++ b/f\n"
+        + "@@ -1,2 +1,2 @@\n"
+        + " same\n"
+        + "-old\n"
+        + "+new\n";
+
+    @Test
+    void classifiesLines() {
+        DiffLines lines = DiffLines.of(DIFF);
+        assertEquals(8, lines.getLineCount());
+        byte[] expected = { DiffLines.HEADER, DiffLines.HEADER, DiffLines.DELETE, DiffLines.ADD,
+            DiffLines.HEADER, DiffLines.CONTEXT, DiffLines.DELETE, DiffLines.ADD };
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], lines.getKind(i), "line " + i);
+        assertEquals("+new", lines.getText(lines.getLineStart(7), lines.getLineEnd(7)));
+        assertEquals(DIFF, lines.toString());
+    }
+
+    @Test
+    void appendingInPiecesMatchesOneShot() {
+        DiffLines whole = DiffLines.of(DIFF);
+        DiffLines pieces = new DiffLines();
+        // Split inside lines so the open last line is reclassified ("-" becomes "--- a/f")
+        for (int i = 0; i < DIFF.length(); i += 3) pieces.append(DIFF.substring(i, Math.min(DIFF.length(), i + 3)));
+        assertEquals(whole.getLineCount(), pieces.getLineCount());
+        for (int i = 0; i < whole.getLineCount(); i++) {
+            assertEquals(whole.getLineStart(i), pieces.getLineStart(i));
+            assertEquals(whole.getLineEnd(i), pieces.getLineEnd(i));
+            assertEquals(whole.getKind(i), pieces.getKind(i));
+        }
+        assertEquals(whole.getMaxColumns(), pieces.getMaxColumns());
+    }
+
+    @Test
+    void appendingChunksMatchesOneShot() {
+        DiffLines whole = DiffLines.of(DIFF);
+        DiffLines joined = DiffLines.of(DIFF.substring(0, 40));
+        joined.append(DiffLines.of(DIFF.substring(40, 70)));
+        joined.append(DiffLines.of(DIFF.substring(70)));
+        assertEquals(DIFF, joined.toString());
+        assertEquals(whole.getLineCount(), joined.getLineCount());
+        for (int i = 0; i < whole.getLineCount(); i++) {
+            assertEquals(whole.getLineStart(i), joined.getLineStart(i));
+            assertEquals(whole.getKind(i), joined.getKind(i));
+        }
+    }
+
+    @Test
+    void lastLineWithoutNewline() {
+        DiffLines lines = DiffLines.of("+a\n x");
+        assertEquals(2, lines.getLineCount());
+        assertEquals(" x", lines.getText(lines.getLineStart(1), lines.getLineEnd(1)));
+        lines.append("y\n");
+        assertEquals(2, lines.getLineCount());
+        assertEquals(" xy", lines.getText(lines.getLineStart(1), lines.getLineEnd(1)));
+    }
+
+    @Test
+    void lineOfOffset() {
+        DiffLines lines = DiffLines.of("ab\ncd\n\nef\n");
+        assertEquals(0, lines.getLineOfOffset(0));
+        assertEquals(0, lines.getLineOfOffset(2));
+        assertEquals(1, lines.getLineOfOffset(3));
+        assertEquals(2, lines.getLineOfOffset(6));
+        assertEquals(3, lines.getLineOfOffset(8));
+    }
+
+    @Test
+    void columnsExpandTabsAndWideCharacters() {
+        assertEquals(9, DiffLines.of("+\tx\n").getMaxColumns());
+        assertEquals(5, DiffLines.of("+日本\n").getMaxColumns());
+    }
+
+    @Test
+    void decodeTurnsCrLfIntoLf() throws Exception {
+        DiffLines lines = DiffLines.decode("+a\r\n-b\r\n c\r".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        assertEquals("+a\n-b\n c\r", lines.toString());
+        assertEquals(3, lines.getLineCount());
+    }
+}
@@ -0,0 +1,57 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.DefaultListModel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffPrefetcherTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void neighborsAreOrderedNearestFirst() {
+        DiffPrefetcher prefetcher = new DiffPrefetcher(new GitTaskScheduler(), 2, 1, 1024);
+        DefaultListModel<String> files = listModel("a", "b", "c", "d", "e");
+        assertEquals(Arrays.asList("d", "b", "e", "a"), prefetcher.neighbors(files, 2));
+        assertEquals(Arrays.asList("b", "c"), prefetcher.neighbors(files, 0));
+    }
+
+    @Test
+    void prefetchFillsTheCacheInTheBackground() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        for (int i = 0; i < 4; i++) repo.write("f" + i + ".txt", "old " + i + "\n");
+        String c1 = repo.commit("one");
+        for (int i = 0; i < 4; i++) repo.write("f" + i + ".txt", "new " + i + "\n");
+        String c2 = repo.commit("two");
+
+        GitTaskScheduler scheduler = new GitTaskScheduler();
+        DiffCache cache = new DiffCache(1 << 20);
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            DiffLoader loader = new DiffLoader(repo.path(), pool, cache);
+            DiffPrefetcher prefetcher = new DiffPrefetcher(scheduler, 2, 2, 1 << 20);
+            DefaultListModel<String> files = listModel("f0.txt", "f1.txt", "f2.txt", "f3.txt");
+            prefetcher.prefetch(loader, c1, c2, prefetcher.neighbors(files, 1));
+            // Background tasks are not listed as activity
+            assertTrue(scheduler.getRunningTasks().isEmpty());
+            long deadline = System.currentTimeMillis() + 30000;
+            while (cache.getEntryCount() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertTrue(loader.isCached(c1, c2, "f0.txt"));
+            assertTrue(loader.isCached(c1, c2, "f2.txt"));
+            assertTrue(loader.isCached(c1, c2, "f3.txt"));
+            assertFalse(loader.isCached(c1, c2, "f1.txt"));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static DefaultListModel<String> listModel(String... paths) {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        for (String path : paths) model.addElement(path);
+        return model;
+    }
+}
@@ -0,0 +1,94 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChangesTest {
+    @TempDir
+    Path tmp;
+
+    private static String lines(int count, String word) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(word).append(' ').append(i).append('\n');
+        return sb.toString();
+    }
+
+    @Test
+    void readsStatusesAndCountsInOnePass() throws Exception {
+        TestRepository repo = new TestRepository(tmp);
+        repo.write("modified.txt", lines(10, "old"));
+        repo.write("deleted.txt", lines(3, "gone"));
+        repo.write("before name.txt", lines(40, "moved"));
+        repo.write("image.bin", new byte[] { 0, 1, 2, 3 });
+        String c1 = repo.commit("first");
+        repo.write("modified.txt", lines(10, "old").replace("old 4\n", "new 4\nnew 4b\n"));
+        repo.git("rm", "-q", "deleted.txt");
+        repo.git("mv", "before name.txt", "after name.txt");
+        repo.write("image.bin", new byte[] { 0, 1, 2, 4 });
+        repo.write("added.txt", lines(5, "added"));
+        String c2 = repo.commit("second");
+
+        AtomicReference<FileChanges> listed = new AtomicReference<>();
+        FileChanges files = TestRepository.runTask(ctx -> FileChanges.load(ctx, repo.path(), c1, c2, listed::set));
+        assertEquals(5, files.size());
+        assertEquals(5, listed.get().size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(FileChanges.UNKNOWN, listed.get().getAdded(i));
+            assertEquals(files.getPath(i), listed.get().getPath(i));
+        }
+        // git's path order
+        assertEquals("added.txt", files.getPath(0));
+        assertEquals('A', files.getStatus(0));
+        assertEquals(5, files.getAdded(0));
+        assertEquals("after name.txt", files.getPath(1));
+        assertEquals('R', files.getStatus(1));
+        assertEquals("before name.txt", files.getOldPath(1));
+        assertEquals(0, files.getChurn(1));
+        assertEquals("deleted.txt", files.getPath(2));
+        assertEquals('D', files.getStatus(2));
+        assertEquals(3, files.getDeleted(2));
+        assertEquals("image.bin", files.getPath(3));
+        assertTrue(files.isBinary(3));
+        assertEquals("modified.txt", files.getPath(4));
+        assertEquals('M', files.getStatus(4));
+        assertEquals(2, files.getAdded(4));
+        assertEquals(1, files.getDeleted(4));
+        assertNull(files.getOldPath(4));
+    }
+
+    @Test
+    void modelSortsByChurnAndFiltersByStatus() {
+        FileChanges files = new FileChanges();
+        files.add('M', "a");
+        files.setCounts(0, 1, 1);
+        files.add('A', "b");
+        files.setCounts(1, 30, 0);
+        files.add('D', "c");
+        files.setCounts(2, 0, 7);
+        files.add('M', "d");
+        files.setCounts(3, FileChanges.BINARY, FileChanges.BINARY);
+        FileListModel model = new FileListModel();
+        model.setFiles(files);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), model.getPaths());
+        model.setOrder(FileListModel.Order.CHURN);
+        assertEquals(Arrays.asList("b", "c", "a", "d"), model.getPaths());
+        model.setStatusFilter("MT");
+        assertEquals(Arrays.asList("a", "d"), model.getPaths());
+        assertEquals(3, model.getFileIndex(1));
+        model.setStatusFilter(null);
+        model.setOrder(FileListModel.Order.PATH);
+        model.addPaths(Arrays.asList("e"));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), model.getPaths());
+        assertEquals(4, model.getRow(4));
+        model.setStatusFilter("MT");
+        assertEquals(-1, model.getRow(1));
+        assertEquals(1, model.getRow(3));
+        assertEquals(1, model.getRow(model.getFiles().copy(), 3));
+    }
+}
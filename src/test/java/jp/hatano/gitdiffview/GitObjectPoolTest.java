@@ -0,0 +1,57 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitObjectPoolTest {
+    @TempDir
+    Path tmp;
+
+    @Test
+    void pipelinesReadsOverLongLivedWorkers() throws Exception {
+        TestRepository repo = new TestRepository(tmp);
+        for (int i = 0; i < 20; i++) repo.write("dir/file" + i + ".txt", "content " + i + "\n");
+        String commit = repo.commit("files");
+
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 2)) {
+            List<CompletableFuture<GitObjectPool.GitObject>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) futures.add(pool.read(commit + ":dir/file" + i + ".txt"));
+            for (int i = 0; i < 20; i++) {
+                GitObjectPool.GitObject obj = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals("blob", obj.type);
+                assertEquals("content " + i + "\n", new String(obj.data, "UTF-8"));
+            }
+            GitObjectPool.GitObject missing = pool.read(commit + ":no such file").get(10, TimeUnit.SECONDS);
+            assertTrue(missing.isMissing());
+            GitObjectPool.GitObject tree = pool.check(commit + ":dir").get(10, TimeUnit.SECONDS);
+            assertEquals("tree", tree.type);
+            assertNull(tree.data);
+        }
+    }
+
+    @Test
+    void answersDiffAttributesOverOneProcess() throws Exception {
+        TestRepository repo = new TestRepository(tmp);
+        repo.write(".gitattributes", "*.dat diff\nopaque.txt -diff\n*.java diff=java\n");
+        repo.commit("attributes");
+
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            CompletableFuture<String> data = pool.diffAttribute("dir/a.dat");
+            CompletableFuture<String> opaque = pool.diffAttribute("opaque.txt");
+            CompletableFuture<String> java = pool.diffAttribute("Main.java");
+            CompletableFuture<String> plain = pool.diffAttribute("plain.txt");
+            assertEquals("set", data.get(10, TimeUnit.SECONDS));
+            assertEquals("unset", opaque.get(10, TimeUnit.SECONDS));
+            assertEquals("java", java.get(10, TimeUnit.SECONDS));
+            assertEquals("unspecified", plain.get(10, TimeUnit.SECONDS));
+        }
+    }
+}
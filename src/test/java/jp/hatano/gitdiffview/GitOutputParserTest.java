@@ -0,0 +1,68 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitOutputParserTest {
+    // Returns at most one byte per read, like a slow pipe
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static List<String> records(InputStream in, byte separator) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (GitOutputParser parser = new GitOutputParser(in, separator)) {
+            while (parser.next()) records.add(parser.string(StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+
+    @Test
+    void splitsAtSeparatorWithOrWithoutTrailingOne() throws IOException {
+        byte[] terminated = "a\0b c\0\0d\n\0".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("a", "b c", "", "d\n"), records(new ByteArrayInputStream(terminated), GitOutputParser.NUL));
+        byte[] separated = "a\0b".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("a", "b"), records(trickle(separated), GitOutputParser.NUL));
+        assertEquals(Arrays.asList(), records(new ByteArrayInputStream(new byte[0]), GitOutputParser.NUL));
+    }
+
+    @Test
+    void recordsLargerThanTheBuffer() throws IOException {
+        char[] big = new char[700000];
+        Arrays.fill(big, 'x');
+        String large = new String(big);
+        byte[] data = ("s\n" + large + "\nt").getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("s", large, "t"), records(new ByteArrayInputStream(data), (byte) '\n'));
+    }
+
+    @Test
+    void fieldsWithinARecord() throws IOException {
+        byte[] data = "id1\u001fsubject one\0id2\u001f\0id3".getBytes(StandardCharsets.UTF_8);
+        List<String> fields = new ArrayList<>();
+        try (GitOutputParser parser = new GitOutputParser(trickle(data), GitOutputParser.NUL)) {
+            while (parser.next()) {
+                int us = parser.indexOf(GitOutputParser.US, parser.start());
+                if (us < 0) {
+                    fields.add(parser.string(StandardCharsets.UTF_8) + "|-");
+                } else {
+                    fields.add(parser.string(parser.start(), us, StandardCharsets.UTF_8) + "|" + parser.string(us + 1, parser.end(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        assertEquals(Arrays.asList("id1|subject one", "id2|", "id3|-"), fields);
+    }
+}
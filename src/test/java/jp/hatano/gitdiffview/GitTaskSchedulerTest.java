@@ -0,0 +1,54 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitTaskSchedulerTest {
+    @Test
+    void latestTaskOfSlotWins() throws Exception {
+        GitTaskScheduler scheduler = new GitTaskScheduler();
+        List<String> results = new CopyOnWriteArrayList<>();
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        GitTaskScheduler.TaskContext first = scheduler.submit("diff", "first", ctx -> {
+            firstStarted.countDown();
+            while (!ctx.isCancelled()) Thread.sleep(5);
+            return "first";
+        }, results::add, null);
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        scheduler.submit("diff", "second", ctx -> "second", r -> {
+            results.add(r);
+            done.countDown();
+        }, null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(first.isCancelled());
+        // Let a late completion of the first task reach the EDT, it must be dropped
+        Thread.sleep(100);
+        javax.swing.SwingUtilities.invokeAndWait(() -> { });
+        assertEquals(java.util.Collections.singletonList("second"), results);
+        scheduler.shutdown();
+    }
+
+    @Test
+    void cancelDestroysStartedProcess() throws Exception {
+        GitTaskScheduler scheduler = new GitTaskScheduler();
+        CountDownLatch started = new CountDownLatch(1);
+        Process[] holder = new Process[1];
+        scheduler.submit("files", "sleep", ctx -> {
+            holder[0] = ctx.start(new ProcessBuilder("git", "cat-file", "--batch"));
+            started.countDown();
+            return holder[0].waitFor();
+        }, null, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.cancel("files");
+        assertTrue(holder[0].waitFor(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isRunning("files"));
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,140 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeBaseTest {
+    @TempDir
+    Path tmp;
+
+    // master and topic fork twice and merge into each other crosswise, so there are two merge bases
+    private static TestRepository crissCross(Path dir) throws Exception {
+        TestRepository repo = new TestRepository(dir);
+        repo.write("a.txt", "a\n");
+        repo.commit("root");
+        repo.write("a.txt", "a\nb\n");
+        repo.commit("m1");
+        repo.git("checkout", "-q", "-b", "topic");
+        repo.write("t.txt", "t\n");
+        repo.commit("t1");
+        repo.git("checkout", "-q", "master");
+        repo.write("m.txt", "m\n");
+        repo.commit("m2");
+        String m2 = repo.git("rev-parse", "HEAD").trim();
+        String t1 = repo.git("rev-parse", "topic").trim();
+        repo.git("merge", "-q", "--no-edit", t1);
+        repo.git("checkout", "-q", "topic");
+        repo.git("merge", "-q", "--no-edit", m2);
+        repo.write("t.txt", "t\nt2\n");
+        repo.commit("t2");
+        repo.git("checkout", "-q", "master");
+        repo.write("m.txt", "m\nm3\n");
+        repo.commit("m3");
+        return repo;
+    }
+
+    private static List<String> gitMergeBases(TestRepository repo, String a, String b) throws Exception {
+        List<String> bases = new ArrayList<>(Arrays.asList(repo.git("merge-base", "--all", a, b).trim().split("\n")));
+        Collections.sort(bases);
+        return bases;
+    }
+
+    private static void assertSameAsGit(TestRepository repo, ObjectDatabase odb) throws Exception {
+        String[] revs = { "master", "topic", "master~1", "topic~1", "master~3" };
+        for (String a : revs) {
+            for (String b : revs) {
+                String idA = repo.git("rev-parse", a).trim();
+                String idB = repo.git("rev-parse", b).trim();
+                List<String> bases = new ArrayList<>(new MergeBase(odb).find(idA, idB));
+                Collections.sort(bases);
+                assertEquals(gitMergeBases(repo, idA, idB), bases, a + " " + b);
+                boolean expected = repo.git("rev-list", idB).contains(idA);
+                assertEquals(expected, new MergeBase(odb).isAncestor(idA, idB), a + " in " + b);
+            }
+        }
+    }
+
+    @Test
+    void walksObjectsWithoutCommitGraph() throws Exception {
+        TestRepository repo = crissCross(tmp);
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        assertNull(odb.getCommitGraph());
+        assertEquals(2, new MergeBase(odb).find(repo.git("rev-parse", "master").trim(), repo.git("rev-parse", "topic").trim()).size());
+        assertSameAsGit(repo, odb);
+    }
+
+    @Test
+    void usesCommitGraphAndNewerCommits() throws Exception {
+        TestRepository repo = crissCross(tmp);
+        repo.git("commit-graph", "write", "--reachable");
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        CommitGraph graph = odb.getCommitGraph();
+        assertNotNull(graph);
+        String head = repo.git("rev-parse", "HEAD").trim();
+        int pos = graph.find(ObjectDatabase.parseId(head, 20));
+        assertEquals(head, graph.getId(pos));
+        String root = repo.git("rev-list", "--max-parents=0", "HEAD").trim();
+        assertEquals(1, graph.getGeneration(graph.find(ObjectDatabase.parseId(root, 20))));
+        for (int parent : graph.getParents(pos)) assertTrue(graph.getGeneration(parent) < graph.getGeneration(pos));
+        assertSameAsGit(repo, odb);
+        // Commits made after the graph was written are read as objects
+        repo.write("late.txt", "late\n");
+        repo.commit("late");
+        assertSameAsGit(repo, odb);
+    }
+
+    @Test
+    void readsSplitCommitGraphChains() throws Exception {
+        TestRepository repo = crissCross(tmp);
+        repo.git("commit-graph", "write", "--reachable", "--split");
+        repo.write("late.txt", "late\n");
+        repo.commit("late");
+        repo.git("commit-graph", "write", "--reachable", "--split=no-merge");
+        assertTrue(Files.isRegularFile(tmp.resolve(".git/objects/info/commit-graphs/commit-graph-chain")));
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        CommitGraph graph = odb.getCommitGraph();
+        assertEquals(Integer.parseInt(repo.git("rev-list", "--count", "--all").trim()), graph.size());
+        assertSameAsGit(repo, odb);
+    }
+
+    @Test
+    void unrelatedHistoriesHaveNoMergeBase() throws Exception {
+        TestRepository repo = crissCross(tmp);
+        repo.git("checkout", "-q", "--orphan", "other");
+        repo.write("o.txt", "o\n");
+        String other = repo.commit("other");
+        String master = repo.git("rev-parse", "master").trim();
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        assertTrue(new MergeBase(odb).find(master, other).isEmpty());
+        assertFalse(new MergeBase(odb).isAncestor(master, other));
+    }
+
+    @Test
+    void resolvesTagsAndRemoteBranches() throws Exception {
+        TestRepository repo = crissCross(tmp);
+        String topic = repo.git("rev-parse", "topic").trim();
+        repo.git("tag", "-a", "-m", "annotated", "v1", "topic");
+        repo.git("update-ref", "refs/remotes/origin/topic", "topic~1");
+        RefReader.Refs refs = new RefReader(repo.path()).read();
+        assertEquals(Arrays.asList("origin/topic"), refs.getRemotes());
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        String[] ids = TestRepository.runTask(ctx -> {
+            RefResolver resolver = new RefResolver(ctx, repo.path(), refs, odb);
+            return new String[] { resolver.resolveCommit("v1"), resolver.resolveCommit("origin/topic"),
+                resolver.resolveCommit("topic~2"), resolver.mergeBase(resolver.resolveCommit("master"), topic) };
+        });
+        assertEquals(topic, ids[0]);
+        assertEquals(repo.git("rev-parse", "topic~1").trim(), ids[1]);
+        assertEquals(repo.git("rev-parse", "topic~2").trim(), ids[2]);
+        assertTrue(gitMergeBases(repo, "master", "topic").contains(ids[3]));
+    }
+}
@@ -0,0 +1,77 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.SwingUtilities;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+    @TempDir
+    Path tmp;
+
+    @Test
+    void recordsGitInvocationsOnce() throws Exception {
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "a\n");
+        repo.commit("one");
+        Metrics.reset();
+        List<Metrics.Operation> recorded = new CopyOnWriteArrayList<>();
+        Metrics.Listener listener = recorded::add;
+        Metrics.addListener(listener);
+        try {
+            int length = TestRepository.runTask(ctx -> {
+                Process proc = ctx.startGit(repo.path(), "log", "--format=%H");
+                int n = 0;
+                try (InputStream in = proc.getInputStream()) {
+                    while (in.read() >= 0) n++;
+                }
+                proc.waitFor();
+                return n;
+            });
+            assertEquals(1, recorded.size());
+            Metrics.Operation op = recorded.get(0);
+            assertEquals("git log", op.getName());
+            assertEquals("--format=%H", op.getDetail());
+            assertEquals(length, op.getBytes());
+            assertTrue(op.getFirstByteNanos() > 0 && op.getFirstByteNanos() <= op.getTotalNanos());
+
+            Metrics.Snapshot snapshot = Metrics.snapshot();
+            assertEquals(1, snapshot.get("git log").getCount());
+            assertEquals(41, snapshot.get("git log").getBytes());
+            assertSame(op, snapshot.getLast());
+            assertTrue(snapshot.toString().startsWith("git log: 1 call, avg "));
+        } finally {
+            Metrics.removeListener(listener);
+        }
+    }
+
+    @Test
+    void watchdogRecordsEdtStalls() throws Exception {
+        Metrics.reset();
+        EdtWatchdog watchdog = new EdtWatchdog(50);
+        watchdog.start();
+        try {
+            // Let the first probe see the EDT, then block it
+            Thread.sleep(100);
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    Thread.sleep(400);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < 50 && Metrics.snapshot().get("EDT stall") == null; i++) Thread.sleep(20);
+        } finally {
+            watchdog.stop();
+        }
+        Metrics.Stats stalls = Metrics.snapshot().get("EDT stall");
+        assertNotNull(stalls);
+        assertTrue(stalls.getMaxNanos() >= 200000000L, stalls.toString());
+    }
+}
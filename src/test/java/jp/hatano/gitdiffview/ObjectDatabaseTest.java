@@ -0,0 +1,121 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectDatabaseTest {
+    @TempDir
+    Path tmp;
+
+    // A file growing over several commits, so that packing stores most versions as deltas
+    private static TestRepository history(Path dir) throws Exception {
+        TestRepository repo = new TestRepository(dir);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) text.append("line ").append(i).append(" of the original file\n");
+        for (int c = 0; c < 6; c++) {
+            text.insert(text.length() / 2, "inserted in commit " + c + "\n");
+            repo.write("src/deep/file.txt", text.toString());
+            repo.write("other" + c + ".txt", "other " + c + "\n");
+            repo.commit("commit " + c);
+        }
+        return repo;
+    }
+
+    // Every object of the repository reads the same as through cat-file
+    private static void assertSameAsGit(TestRepository repo) throws Exception {
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        assertNotNull(odb);
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            int count = 0;
+            for (String line : repo.git("rev-list", "--objects", "--all").split("\n")) {
+                String id = line.split(" ")[0];
+                GitObjectPool.GitObject expected = pool.read(id).get(10, TimeUnit.SECONDS);
+                GitObjectPool.GitObject actual = odb.read(id);
+                assertNotNull(actual, id);
+                assertEquals(expected.type, actual.type, id);
+                assertArrayEquals(expected.data, actual.data, id);
+                count++;
+            }
+            assertTrue(count > 20);
+        }
+    }
+
+    @Test
+    void readsLooseObjects() throws Exception {
+        assertSameAsGit(history(tmp));
+    }
+
+    @Test
+    void readsPackedObjectsWithOffsetDeltas() throws Exception {
+        TestRepository repo = history(tmp);
+        repo.git("gc", "-q", "--aggressive", "--prune=now");
+        assertTrue(repo.git("count-objects", "-v").contains("count: 0"));
+        assertSameAsGit(repo);
+    }
+
+    @Test
+    void readsPackedObjectsWithRefDeltas() throws Exception {
+        TestRepository repo = history(tmp);
+        repo.git("-c", "repack.useDeltaBaseOffset=false", "repack", "-q", "-a", "-d", "-f");
+        repo.git("prune-packed");
+        assertSameAsGit(repo);
+    }
+
+    @Test
+    void findsPacksAndObjectsWrittenLater() throws Exception {
+        TestRepository repo = history(tmp);
+        ObjectDatabase odb = ObjectDatabase.open(repo.path());
+        String head = repo.git("rev-parse", "HEAD").trim();
+        assertEquals("commit", odb.read(head).type);
+        repo.git("gc", "-q", "--prune=now");
+        repo.write("late.txt", "late\n");
+        String late = repo.commit("late");
+        assertEquals("commit", odb.read(head).type);
+        assertEquals("commit", odb.read(late).type);
+        assertNull(odb.read("0123456789012345678901234567890123456789"));
+        assertNull(odb.read("HEAD"));
+    }
+
+    @Test
+    void followsAlternates() throws Exception {
+        TestRepository origin = history(tmp.resolve("origin"));
+        origin.git("gc", "-q");
+        TestRepository clone = new TestRepository(tmp.resolve("clone"));
+        clone.write(".git/objects/info/alternates", origin.dir.resolve(".git/objects").toString() + "\n");
+        String head = origin.git("rev-parse", "HEAD").trim();
+        GitObjectPool.GitObject commit = ObjectDatabase.open(clone.path()).read(head);
+        assertNotNull(commit);
+        assertNotNull(ObjectDatabase.treeOf(commit.data));
+    }
+
+    @Test
+    void diffLoaderReadsThroughTheDatabase() throws Exception {
+        TestRepository repo = history(tmp);
+        repo.git("gc", "-q", "--prune=now");
+        String c1 = repo.git("rev-parse", "HEAD~3").trim();
+        String c2 = repo.git("rev-parse", "HEAD").trim();
+        try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+            DiffLoader loader = new DiffLoader(repo.path(), pool, ObjectDatabase.open(repo.path()), new DiffCache(1 << 20));
+            for (String file : new String[] { "src/deep/file.txt", "other4.txt", "other0.txt" }) {
+                byte[] expected = repo.gitBytes("diff", c1, c2, "--", file);
+                byte[] actual = TestRepository.runTask(ctx -> loader.load(ctx, c1, c2, file));
+                assertEquals(new String(expected, "UTF-8"), new String(actual, "UTF-8"), file);
+            }
+        }
+    }
+
+    @Test
+    void appliesDeltas() throws Exception {
+        byte[] base = "0123456789".getBytes("US-ASCII");
+        // sizes 10 and 7, copy 4 bytes from offset 2, insert "xyz"
+        byte[] delta = { 10, 7, (byte) 0x91, 2, 4, 3, 'x', 'y', 'z' };
+        assertEquals("2345xyz", new String(ObjectDatabase.applyDelta(base, delta), "US-ASCII"));
+        byte[] wrongBase = { 11, 7, (byte) 0x91, 2, 4, 3, 'x', 'y', 'z' };
+        assertThrows(java.io.IOException.class, () -> ObjectDatabase.applyDelta(base, wrongBase));
+    }
+}
@@ -0,0 +1,63 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathFilterIndexTest {
+    private static FileListModel model(String... paths) {
+        FileChanges files = new FileChanges();
+        for (String path : paths) files.add('M', path);
+        FileListModel model = new FileListModel();
+        model.setFiles(files, new PathFilterIndex(files));
+        return model;
+    }
+
+    @Test
+    void matchesCharactersInOrderIgnoringCase() {
+        FileListModel model = model("src/main/GitDiffViewApp.java", "src/main/DiffLoader.java", "README.md", "pom.xml");
+        model.setFilterText("gdva");
+        assertEquals(Arrays.asList("src/main/GitDiffViewApp.java"), model.getPaths());
+        model.setFilterText("readme");
+        assertEquals(Arrays.asList("README.md"), model.getPaths());
+        model.setFilterText("xml.pom");
+        assertTrue(model.getPaths().isEmpty());
+        model.setFilterText("");
+        assertEquals(4, model.getSize());
+    }
+
+    @Test
+    void ranksFileNameAndConsecutiveMatchesFirst() {
+        FileListModel model = model("loader/docs/a.txt", "src/util/Strings.java", "src/Loader.java", "lib/old/x.c");
+        model.setFilterText("loader");
+        assertEquals(Arrays.asList("src/Loader.java", "loader/docs/a.txt"), model.getPaths());
+        model.setFilterText("ld");
+        assertEquals("src/Loader.java", model.getPaths().get(0));
+        assertEquals(3, model.getSize());
+    }
+
+    @Test
+    void narrowsAndWidensWithStatusFilterAndAppendedFiles() {
+        FileChanges files = new FileChanges();
+        files.add('A', "app/one.txt");
+        files.add('D', "app/two.txt");
+        files.add('M', "lib/three.txt");
+        FileListModel model = new FileListModel();
+        model.setFiles(files);
+        model.setFilterText("a");
+        assertEquals(2, model.getSize());
+        model.setFilterText("ap");
+        model.setFilterText("apt");
+        assertEquals(2, model.getSize());
+        model.setStatusFilter("A");
+        assertEquals(Arrays.asList("app/one.txt"), model.getPaths());
+        model.setStatusFilter(null);
+        model.addPaths(Arrays.asList("zapped.txt"));
+        assertEquals(3, model.getSize());
+        // Shorter text again searches every file
+        model.setFilterText("t");
+        assertEquals(4, model.getSize());
+    }
+}
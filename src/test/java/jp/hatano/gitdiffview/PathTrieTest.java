@@ -0,0 +1,71 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.tree.TreePath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathTrieTest {
+    private static FileChanges files(String... paths) {
+        FileChanges files = new FileChanges();
+        for (int i = 0; i < paths.length; i++) {
+            files.add('M', paths[i]);
+            files.setCounts(i, i + 1, 1);
+        }
+        return files;
+    }
+
+    private static int[] all(FileChanges files) {
+        int[] indexes = new int[files.size()];
+        for (int i = 0; i < indexes.length; i++) indexes[i] = i;
+        return indexes;
+    }
+
+    @Test
+    void sharesDirectoriesAndAggregatesCounts() {
+        FileChanges files = files("src/main/B.java", "README", "src/main/A.java", "src/test/ATest.java", "doc/x.md");
+        PathTrie trie = new PathTrie(files, all(files));
+        // root, src, main, test, doc and five files
+        assertEquals(10, trie.size());
+        assertEquals(5, trie.getFileCount(PathTrie.ROOT));
+        assertEquals(15, trie.getAdded(PathTrie.ROOT));
+        assertEquals(5, trie.getDeleted(PathTrie.ROOT));
+
+        // Directories first, then files, each by name
+        assertEquals(3, trie.getChildCount(PathTrie.ROOT));
+        assertEquals("doc", trie.getName(trie.getChild(PathTrie.ROOT, 0)));
+        assertEquals("src", trie.getName(trie.getChild(PathTrie.ROOT, 1)));
+        assertEquals("README", trie.getName(trie.getChild(PathTrie.ROOT, 2)));
+
+        int main = trie.find("src/main");
+        assertEquals(2, trie.getFileCount(main));
+        assertEquals(1 + 3, trie.getAdded(main));
+        assertEquals("A.java", trie.getName(trie.getChild(main, 0)));
+        int b = trie.find("src/main/B.java");
+        assertTrue(trie.isFile(b));
+        assertEquals(0, trie.getFileIndex(b));
+        assertEquals(1, trie.getIndexOfChild(main, b));
+        assertEquals("src/main/B.java", trie.getPath(b));
+        assertEquals(-1, trie.find("src/other"));
+        assertEquals(3, trie.getFileCount(trie.find("src")));
+    }
+
+    @Test
+    void modelMakesEqualNodesOnDemand() {
+        FileChanges files = files("a/b/c.txt", "a/d.txt");
+        PathTreeModel model = new PathTreeModel();
+        model.setTrie(new PathTrie(files, new int[] { 1 }));
+        Object root = model.getRoot();
+        assertEquals(1, model.getChildCount(root));
+        Object a = model.getChild(root, 0);
+        assertEquals(a, model.getChild(root, 0));
+        assertFalse(model.isLeaf(a));
+        Object d = model.getChild(a, 0);
+        assertTrue(model.isLeaf(d));
+        assertEquals("a/d.txt", model.getPath(d));
+        TreePath path = model.pathTo("a/d.txt");
+        assertEquals(new TreePath(new Object[] { root, a, d }), path);
+        assertNull(model.pathTo("a/b/c.txt"));
+    }
+}
@@ -0,0 +1,85 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeDiffTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void indexesEverySectionOfTheRange() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        StringBuilder moved = new StringBuilder();
+        for (int i = 0; i < 20; i++) moved.append("line ").append(i).append('\n');
+        repo.write("changed.txt", "a\nb\n");
+        repo.write("deleted.txt", "gone\n");
+        repo.write("old name.txt", moved.toString());
+        repo.write("bin.dat", new byte[] { 0, 1, 2 });
+        repo.write("dir/tricky.txt", "diff --git a/x b/x\n");
+        String c1 = repo.commit("one");
+        repo.write("changed.txt", "a\nc\n");
+        Files.delete(repo.dir.resolve("deleted.txt"));
+        Files.move(repo.dir.resolve("old name.txt"), repo.dir.resolve("new name.txt"));
+        repo.write("bin.dat", new byte[] { 0, 1, 3 });
+        repo.write("dir/tricky.txt", "diff --git a/y b/y\n+++ b/z\n");
+        repo.write("added.txt", "new\n");
+        String c2 = repo.commit("two");
+
+        List<String> published = Collections.synchronizedList(new ArrayList<>());
+        try (RangeDiff range = new RangeDiff(repo.path(), c1, c2)) {
+            int count = TestRepository.runTask(ctx -> range.stream(ctx, published::addAll));
+            List<String> expected = Arrays.asList("added.txt", "bin.dat", "changed.txt", "deleted.txt", "dir/tricky.txt", "new name.txt");
+            assertEquals(expected.size(), count);
+            assertEquals(expected, published);
+            assertEquals(expected, range.getFiles());
+
+            for (String file : Arrays.asList("added.txt", "bin.dat", "changed.txt", "deleted.txt", "dir/tricky.txt")) {
+                String single = repo.git("diff", c1, c2, "--", file);
+                assertEquals(single, new String(range.read(file), StandardCharsets.UTF_8), file);
+            }
+            String renamed = new String(range.read("new name.txt"), StandardCharsets.UTF_8);
+            assertTrue(renamed.startsWith("diff --git a/old name.txt b/new name.txt\n"), renamed);
+            assertNull(range.read("missing.txt"));
+        }
+    }
+
+    @Test
+    void readOnInterruptedThreadKeepsSpillFileOpen() throws Exception {
+        TestRepository repo = new TestRepository(tempDir.resolve("repo"));
+        repo.write("a.txt", "a\n");
+        String c1 = repo.commit("one");
+        repo.write("a.txt", "b\n");
+        String c2 = repo.commit("two");
+
+        try (RangeDiff range = new RangeDiff(repo.path(), c1, c2)) {
+            TestRepository.runTask(ctx -> range.stream(ctx, files -> { }));
+            String expected = repo.git("diff", c1, c2, "--", "a.txt");
+            // A cancelled diff task reads with its interrupt flag set
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals(expected, new String(range.read("a.txt"), StandardCharsets.UTF_8));
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(expected, new String(range.read("a.txt"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void parsesQuotedAndPlainHeaderNames() {
+        assertEquals("a b.txt", RangeDiff.nameFromDiffLine("a/a b.txt b/a b.txt"));
+        assertEquals("t\"q", RangeDiff.nameFromDiffLine("\"a/t\\\"q\" \"b/t\\\"q\""));
+        assertEquals("é", RangeDiff.unquote("\"\\303\\251\""));
+    }
+}
@@ -0,0 +1,71 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RefReaderTest {
+    @TempDir
+    Path tmp;
+
+    @Test
+    void readsLooseAndPackedRefs() throws Exception {
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        String c1 = repo.commit("first");
+        repo.git("branch", "feature/x");
+        repo.git("tag", "v1");
+        repo.git("pack-refs", "--all");
+        repo.write("a.txt", "2");
+        // master is loose now and newer than its packed entry
+        String c2 = repo.commit("second");
+        repo.git("branch", "later");
+
+        RefReader.Refs refs = new RefReader(repo.path()).read();
+        assertEquals(Arrays.asList("feature/x", "later", "master"), refs.getBranches());
+        assertEquals(c2, refs.getBranchId("master"));
+        assertEquals(c1, refs.getBranchId("feature/x"));
+        assertEquals(Arrays.asList("v1"), refs.getTags());
+        assertEquals("master", refs.getHeadBranch());
+        assertEquals(c2, refs.getHeadId());
+
+        repo.git("checkout", "-q", "--detach", c1);
+        RefReader reader = new RefReader(repo.path());
+        assertNull(reader.read().getHeadBranch());
+        assertEquals(c1, reader.read().getHeadId());
+    }
+
+    @Test
+    void followsLinkedWorktrees() throws Exception {
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        String c1 = repo.commit("first");
+        Path wt = tmp.resolve("wt");
+        repo.git("worktree", "add", "-q", "-b", "side", wt.toString());
+        RefReader.Refs refs = new RefReader(wt.toString()).read();
+        assertEquals("side", refs.getHeadBranch());
+        assertEquals(c1, refs.getBranchId("master"));
+        assertEquals(Arrays.asList("master", "side"), refs.getBranches());
+    }
+
+    @Test
+    void watcherInvalidatesOnRefChanges() throws Exception {
+        TestRepository repo = new TestRepository(tmp.resolve("repo"));
+        repo.write("a.txt", "1");
+        repo.commit("first");
+        RefReader reader = new RefReader(repo.path());
+        assertEquals(Arrays.asList("master"), reader.read().getBranches());
+        CountDownLatch changed = new CountDownLatch(1);
+        try (RefWatcher watcher = new RefWatcher(reader, changed::countDown)) {
+            repo.git("branch", "topic/new");
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList("master", "topic/new"), reader.read().getBranches());
+    }
+}
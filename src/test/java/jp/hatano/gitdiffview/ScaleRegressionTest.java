@@ -0,0 +1,175 @@
+package jp.hatano.gitdiffview;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Latency and heap budgets of the commit loading, file listing and diff loading paths
+ * on a generated repository (see {@link SyntheticRepository}).
+ *
+ * The default scale keeps "mvn test" quick; "mvn test -Pscale" runs the full scale of
+ * 100k commits, 50k files and a 200k line diff. The scale can also be set with the
+ * gitdiffview.scale.commits, .files and .hugeLines system properties. Budgets are given
+ * for the full scale and shrink with the scale, down to a floor for fixed costs.
+ */
+class ScaleRegressionTest {
+    private static final Logger LOGGER = Logger.getLogger(ScaleRegressionTest.class.getName());
+    private static final int FULL_COMMITS = 100000;
+    private static final int FULL_FILES = 50000;
+    private static final int FULL_HUGE_LINES = 200000;
+
+    @TempDir
+    static Path tempDir;
+
+    private static SyntheticRepository repo;
+
+    @BeforeAll
+    static void createRepository() throws Exception {
+        int commits = Integer.getInteger("gitdiffview.scale.commits", 10000);
+        int files = Integer.getInteger("gitdiffview.scale.files", 5000);
+        int hugeLines = Integer.getInteger("gitdiffview.scale.hugeLines", 50000);
+        long start = System.nanoTime();
+        repo = SyntheticRepository.create(tempDir.resolve("repo"), commits, files, hugeLines);
+        log("generated " + commits + " commits, " + files + " files", start);
+        CommitIndexCache.setCacheDirectory(tempDir.resolve("index"));
+    }
+
+    @Test
+    void loadsCommitsWithinBudget() throws Exception {
+        CommitStore store = new CommitStore();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        int count = TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").load(sinkOf(store)));
+        long cold = log("loaded " + count + " commits", start);
+        assertEquals(repo.commits, count);
+        assertEquals(repo.commits, store.size());
+        assertBudget("commit loading", cold, budget(6000, repo.commits, FULL_COMMITS));
+        long heap = usedHeap() - heapBefore;
+        info("commit store holds " + heap / 1024 + " KB");
+        assertBudget("commit store heap", heap, budget(48L << 20, repo.commits, FULL_COMMITS));
+        assertTrue(store.search("change 0001").length > 0);
+
+        // The second load comes from the index cache
+        CommitStore again = new CommitStore();
+        start = System.nanoTime();
+        TestRepository.runTask(ctx -> new CommitLoader(ctx, repo.path(), "master").load(sinkOf(again)));
+        long warm = log("reloaded from the index cache", start);
+        assertEquals(repo.commits, again.size());
+        assertBudget("cached commit loading", warm, budget(1500, repo.commits, FULL_COMMITS));
+    }
+
+    @Test
+    void listsChangedFilesWithinBudget() throws Exception {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        FileChanges files = TestRepository.runTask(ctx -> FileChanges.load(ctx, repo.path(), "base", "master", null));
+        long elapsed = log("listed " + files.size() + " files", start);
+        assertEquals(repo.changedFiles(), files.size());
+        assertBudget("file listing", elapsed, budget(5000, repo.changedFiles(), FULL_FILES));
+        start = System.nanoTime();
+        PathFilterIndex index = new PathFilterIndex(files);
+        FileListModel model = new FileListModel();
+        model.setFiles(files, index);
+        model.setFilterText("d0042f");
+        log("indexed and filtered the files", start);
+        assertTrue(model.getSize() > 0);
+        long heap = usedHeap() - heapBefore;
+        assertBudget("file list heap", heap, budget(32L << 20, repo.changedFiles(), FULL_FILES));
+    }
+
+    @Test
+    void loadsHugeDiffWithinBudget() throws Exception {
+        LineSink sink = new LineSink(StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        TestRepository.runTask(ctx -> {
+            try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+                return new DiffLoader(repo.path(), pool, new DiffCache(0)).load(ctx, "base", "master", SyntheticRepository.BIG_FILE, sink);
+            }
+        });
+        sink.decoder.finish();
+        long elapsed = log("loaded a diff of " + sink.decoder.getLineCount() + " lines", start);
+        long firstScreen = (sink.firstLines - start) / 1000000;
+        info("first screen of the diff after " + firstScreen + " ms");
+        // Every line is either removed and added again or kept
+        assertTrue(sink.decoder.getLineCount() > repo.hugeLines * 3 / 2);
+        assertBudget("huge diff loading", elapsed, budget(4000, repo.hugeLines, FULL_HUGE_LINES));
+        assertBudget("first screen of a huge diff", firstScreen, 1500);
+    }
+
+    @Test
+    void decodesNonUtf8Diffs() throws Exception {
+        for (String[] file : new String[][] { { SyntheticRepository.SJIS_FILE, "Shift_JIS", "+日本語のテキスト 1" },
+                                              { SyntheticRepository.LATIN1_FILE, "ISO-8859-1", "+Café crème 1" } }) {
+            byte[] raw = TestRepository.runTask(ctx -> {
+                try (GitObjectPool pool = new GitObjectPool(repo.path(), 1)) {
+                    return new DiffLoader(repo.path(), pool, new DiffCache(0)).load(ctx, "base", "master", file[0]);
+                }
+            });
+            DiffLines lines = DiffLines.decode(raw, Charset.forName(file[1]));
+            assertTrue(new String(lines.getChars(), 0, lines.getLength()).contains(file[2]), file[0]);
+            // The wrong encoding still gives lines, with replacement characters
+            assertTrue(DiffLines.decode(raw, StandardCharsets.UTF_8).getLineCount() > 4);
+        }
+    }
+
+    private static CommitLoader.Sink sinkOf(CommitStore store) {
+        return new CommitLoader.Sink() {
+            public void reset() { store.clear(); }
+            public void append(CommitStore.Batch batch) { store.append(batch); }
+            public void prepend(CommitStore.Batch batch) { store.prepend(batch); }
+        };
+    }
+
+    // Decodes the diff as it streams in, noting when a screen of lines was there
+    private static final class LineSink implements DiffLoader.Sink {
+        final DiffLinesDecoder decoder;
+        long firstLines;
+
+        LineSink(Charset charset) {
+            decoder = new DiffLinesDecoder(charset);
+        }
+
+        @Override
+        public void write(byte[] buf, int offset, int length) {
+            decoder.write(buf, offset, length);
+            if (firstLines == 0 && decoder.getLineCount() >= 100) firstLines = System.nanoTime();
+        }
+    }
+
+    // The full scale budget for a smaller run, never below a fifth of it
+    private static long budget(long full, int size, int fullSize) {
+        return Math.max(full / 5, full * Math.min(size, fullSize) / fullSize);
+    }
+
+    private static void assertBudget(String what, long value, long budget) {
+        assertTrue(value <= budget, what + ": " + value + " exceeds the budget of " + budget);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // Milliseconds since start, also logged at FINE for comparing runs
+    private static long log(String what, long start) {
+        long ms = (System.nanoTime() - start) / 1000000;
+        info(what + " (" + ms + " ms)");
+        return ms;
+    }
+
+    // Shown with -Djava.util.logging.config.file pointing to a FINE configuration
+    private static void info(String message) {
+        LOGGER.fine(message);
+    }
+}
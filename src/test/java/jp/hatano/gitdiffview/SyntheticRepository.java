@@ -0,0 +1,150 @@
+package jp.hatano.gitdiffview;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Large git repository generated in one "git fast-import" run, without a work tree.
+ *
+ * The first commit (tagged "base") adds the tree: "files" small files spread over
+ * directories of 100, a text file of hugeLines lines and two files that are not UTF-8
+ * (Shift_JIS and ISO-8859-1). Each further commit changes one of the small files in turn,
+ * so "commits" commits are made in all; the last one also rewrites every other line of
+ * the big file and changes the non-UTF-8 files. Contents are generated, so the same
+ * scale always gives the same repository.
+ */
+class SyntheticRepository {
+    static final String BIG_FILE = "big/huge.txt";
+    static final String SJIS_FILE = "legacy/sjis.txt";
+    static final String LATIN1_FILE = "legacy/latin1.txt";
+    private static final String[] AUTHORS = { "Alice Smith <alice@example.com>", "Bob Jones <bob@example.com>",
+        "波多野 太郎 <hatano@example.com>", "José Müller <jose@example.com>" };
+
+    final Path dir;
+    final int commits;
+    final int files;
+    final int hugeLines;
+
+    private SyntheticRepository(Path dir, int commits, int files, int hugeLines) {
+        this.dir = dir;
+        this.commits = commits;
+        this.files = files;
+        this.hugeLines = hugeLines;
+    }
+
+    static SyntheticRepository create(Path dir, int commits, int files, int hugeLines) throws IOException, InterruptedException {
+        if (commits < 2 || files < 1) throw new IllegalArgumentException("Needs two commits and one file");
+        SyntheticRepository repo = new SyntheticRepository(dir, commits, files, hugeLines);
+        Files.createDirectories(dir);
+        repo.git("init", "-q", "-b", "master");
+        ProcessBuilder pb = new ProcessBuilder("git", "-C", dir.toString(), "fast-import", "--quiet", "--done");
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process proc = pb.start();
+        try (OutputStream out = new BufferedOutputStream(proc.getOutputStream(), 1 << 16)) {
+            repo.writeStream(out);
+        }
+        if (proc.waitFor() != 0) throw new IOException("git fast-import failed");
+        return repo;
+    }
+
+    String path() {
+        return dir.toString();
+    }
+
+    static String smallFile(int i) {
+        return String.format("src/d%04d/f%06d.txt", i / 100, i);
+    }
+
+    // Number of files the last commit changed relative to "base"
+    int changedFiles() {
+        return Math.min(commits - 1, files) + 3;
+    }
+
+    private void writeStream(OutputStream out) throws IOException {
+        // The base tree
+        startCommit(out, 1, "Add the base tree");
+        for (int i = 0; i < files; i++) file(out, smallFile(i), ("file " + i + "\nversion 0\n").getBytes(StandardCharsets.US_ASCII));
+        file(out, BIG_FILE, bigFile(false));
+        file(out, SJIS_FILE, legacyText(0).getBytes(Charset.forName("Shift_JIS")));
+        file(out, LATIN1_FILE, ("Café crème 0\n").getBytes(StandardCharsets.ISO_8859_1));
+        ascii(out, "\n");
+        ascii(out, "reset refs/tags/base\nfrom :1\n\n");
+        for (int n = 2; n <= commits; n++) {
+            int i = (n - 2) % files;
+            startCommit(out, n, "Change " + smallFile(i) + " in commit " + n);
+            ascii(out, "from :" + (n - 1) + "\n");
+            file(out, smallFile(i), ("file " + i + "\nversion " + n + "\n").getBytes(StandardCharsets.US_ASCII));
+            if (n == commits) {
+                file(out, BIG_FILE, bigFile(true));
+                file(out, SJIS_FILE, legacyText(1).getBytes(Charset.forName("Shift_JIS")));
+                file(out, LATIN1_FILE, ("Café crème 1\n").getBytes(StandardCharsets.ISO_8859_1));
+            }
+            ascii(out, "\n");
+        }
+        ascii(out, "done\n");
+    }
+
+    private static void startCommit(OutputStream out, int mark, String message) throws IOException {
+        long time = 1700000000L + mark * 60L;
+        String author = AUTHORS[mark % AUTHORS.length];
+        byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+        ascii(out, "commit refs/heads/master\nmark :" + mark + "\n");
+        out.write(("author " + author + " " + time + " +0000\n").getBytes(StandardCharsets.UTF_8));
+        out.write(("committer " + author + " " + time + " +0000\n").getBytes(StandardCharsets.UTF_8));
+        ascii(out, "data " + msg.length + "\n");
+        out.write(msg);
+        ascii(out, "\n");
+    }
+
+    private static void file(OutputStream out, String path, byte[] content) throws IOException {
+        ascii(out, "M 100644 inline " + path + "\ndata " + content.length + "\n");
+        out.write(content);
+        ascii(out, "\n");
+    }
+
+    private byte[] bigFile(boolean changed) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(hugeLines * 48);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < hugeLines; i++) {
+            line.setLength(0);
+            line.append("line ").append(i).append(": the quick brown fox <jumps> & runs");
+            if (changed && i % 2 == 0) line.append(" again");
+            line.append('\n');
+            for (int k = 0; k < line.length(); k++) bytes.write(line.charAt(k));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String legacyText(int version) {
+        return "日本語のテキスト " + version + "\n波多野\n";
+    }
+
+    private static void ascii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void git(String... args) throws IOException, InterruptedException {
+        String[] cmd = new String[args.length + 3];
+        cmd[0] = "git";
+        cmd[1] = "-C";
+        cmd[2] = dir.toString();
+        System.arraycopy(args, 0, cmd, 3, args.length);
+        Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        try (InputStream in = proc.getInputStream()) {
+            byte[] buf = new byte[8192];
+            while (in.read(buf) > 0) {
+                // discard
+            }
+        }
+        if (!proc.waitFor(60, TimeUnit.SECONDS) || proc.exitValue() != 0) throw new IOException("git " + args[0] + " failed");
+    }
+}
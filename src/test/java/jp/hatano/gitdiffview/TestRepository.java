@@ -0,0 +1,111 @@
+package jp.hatano.gitdiffview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Small git repository in a temporary directory, driven through the git executable.
+ */
+class TestRepository {
+    final Path dir;
+    private int tick;
+
+    TestRepository(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        git("init", "-q", "-b", "master");
+        git("config", "user.name", "Test");
+        git("config", "user.email", "test@example.com");
+        git("config", "commit.gpgsign", "false");
+    }
+
+    String path() {
+        return dir.toString();
+    }
+
+    void write(String file, String content) throws IOException {
+        write(file, content.getBytes("UTF-8"));
+    }
+
+    void write(String file, byte[] content) throws IOException {
+        Path p = dir.resolve(file);
+        if (p.getParent() != null) Files.createDirectories(p.getParent());
+        Files.write(p, content);
+    }
+
+    // Commit all changes with a fixed, increasing date so that log order is stable
+    String commit(String message) throws IOException {
+        git("add", "-A");
+        tick++;
+        String date = (1700000000 + tick * 60) + " +0000";
+        run(Arrays.asList("git", "-C", path(), "-c", "core.autocrlf=false", "commit", "-q", "--allow-empty", "-m", message),
+            "GIT_AUTHOR_DATE=" + date, "GIT_COMMITTER_DATE=" + date);
+        return git("rev-parse", "HEAD").trim();
+    }
+
+    String git(String... args) throws IOException {
+        List<String> cmd = new ArrayList<>(Arrays.asList("git", "-C", path()));
+        cmd.addAll(Arrays.asList(args));
+        return new String(run(cmd), "UTF-8");
+    }
+
+    byte[] gitBytes(String... args) throws IOException {
+        List<String> cmd = new ArrayList<>(Arrays.asList("git", "-C", path()));
+        cmd.addAll(Arrays.asList(args));
+        return run(cmd);
+    }
+
+    private static byte[] run(List<String> cmd, String... env) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        for (String e : env) {
+            int eq = e.indexOf('=');
+            pb.environment().put(e.substring(0, eq), e.substring(eq + 1));
+        }
+        pb.redirectErrorStream(false);
+        Process proc = pb.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = proc.getInputStream()) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        }
+        try {
+            int exit = proc.waitFor();
+            if (exit != 0) throw new IOException("Command failed (" + exit + "): " + cmd);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Run a task of the scheduler and wait for its result
+    static <T> T runTask(GitTaskScheduler.Task<T> task) throws Exception {
+        GitTaskScheduler scheduler = new GitTaskScheduler();
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<T> result = new AtomicReference<>();
+            AtomicReference<Exception> error = new AtomicReference<>();
+            scheduler.submit("test", "test", task, r -> {
+                result.set(r);
+                done.countDown();
+            }, e -> {
+                error.set(e);
+                done.countDown();
+            });
+            if (!done.await(60, TimeUnit.SECONDS)) throw new IllegalStateException("Task timed out");
+            if (error.get() != null) throw error.get();
+            return result.get();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}